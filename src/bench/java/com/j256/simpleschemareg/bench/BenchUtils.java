@@ -0,0 +1,73 @@
+package com.j256.simpleschemareg.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import com.j256.simpleschemareg.SchemaPersister;
+
+/**
+ * Utility methods shared by the benchmarks.
+ */
+public class BenchUtils {
+
+	/**
+	 * Number of versions that are registered for each subject when populating a registry.
+	 */
+	public static final int VERSIONS_PER_SUBJECT = 10;
+
+	private BenchUtils() {
+		// only for static methods
+	}
+
+	/**
+	 * Create a temporary directory to be used as the root of a registry.
+	 */
+	public static File createTempDir(String prefix) throws IOException {
+		return Files.createTempDirectory(prefix).toFile();
+	}
+
+	/**
+	 * Recursively delete a directory. Symlinks are removed but not followed.
+	 */
+	public static void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory() && !Files.isSymbolicLink(file.toPath())) {
+					deleteDir(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Populate a persister with a number of schemas spread across subjects with {@link #VERSIONS_PER_SUBJECT}
+	 * versions each.
+	 */
+	public static void populate(SchemaPersister persister, int numSchemas) throws IOException {
+		for (int i = 0; i < numSchemas; i++) {
+			persister.saveSchema(subjectName(i / VERSIONS_PER_SUBJECT), schemaString(i));
+		}
+	}
+
+	/**
+	 * Name of the subject with a particular index.
+	 */
+	public static String subjectName(int subjectIndex) {
+		return "subject-" + subjectIndex;
+	}
+
+	/**
+	 * Generate a schema string that is unique for the index and roughly the size of a small avro record.
+	 */
+	public static String schemaString(long index) {
+		return "{\"type\":\"record\",\"name\":\"Record" + index
+				+ "\",\"namespace\":\"com.j256.bench\",\"fields\":[{\"name\":\"id\",\"type\":\"long\"},"
+				+ "{\"name\":\"name\",\"type\":\"string\"},{\"name\":\"created\",\"type\":\"long\"},"
+				+ "{\"name\":\"tags\",\"type\":{\"type\":\"array\",\"items\":\"string\"}}]}";
+	}
+}
@@ -0,0 +1,103 @@
+package com.j256.simpleschemareg.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.j256.simpleschemareg.FileSchemaPersister;
+import com.j256.simpleschemareg.entities.SchemaDetails;
+
+/**
+ * Benchmarks for the hot paths of the {@link FileSchemaPersister} at various registry sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FileSchemaPersisterBenchmark {
+
+	@Param({ "100", "10000", "100000" })
+	public int registrySize;
+
+	private File rootDir;
+	private FileSchemaPersister persister;
+	private final AtomicLong newSchemaCounter = new AtomicLong();
+	private int lookupCounter;
+
+	@Setup
+	public void setup() throws IOException {
+		rootDir = BenchUtils.createTempDir(getClass().getSimpleName());
+		persister = new FileSchemaPersister(rootDir);
+		persister.initialize();
+		BenchUtils.populate(persister, registrySize);
+		newSchemaCounter.set(registrySize);
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchUtils.deleteDir(rootDir);
+	}
+
+	@Benchmark
+	public SchemaDetails saveSchemaNew() throws IOException {
+		long index = newSchemaCounter.getAndIncrement();
+		// new schemas are all stored in their own subject so the subject directories don't grow too large
+		return persister.saveSchema("new-" + index, BenchUtils.schemaString(index));
+	}
+
+	@Benchmark
+	public SchemaDetails saveSchemaDuplicate() throws IOException {
+		int index = nextIndex();
+		return persister.saveSchema(BenchUtils.subjectName(index / BenchUtils.VERSIONS_PER_SUBJECT),
+				BenchUtils.schemaString(index));
+	}
+
+	@Benchmark
+	public SchemaDetails lookupSchemaId() {
+		// ids start at 1
+		return persister.lookupSchemaId(nextIndex() + 1);
+	}
+
+	@Benchmark
+	public SchemaDetails lookupSubjectVersion() throws IOException {
+		int index = nextIndex();
+		// versions start at 1
+		return persister.lookupSubjectVersion(BenchUtils.subjectName(index / BenchUtils.VERSIONS_PER_SUBJECT),
+				index % BenchUtils.VERSIONS_PER_SUBJECT + 1);
+	}
+
+	@Benchmark
+	public SchemaDetails lookupSchemaSubject() throws IOException {
+		int index = nextIndex();
+		return persister.lookupSchema(BenchUtils.subjectName(index / BenchUtils.VERSIONS_PER_SUBJECT),
+				BenchUtils.schemaString(index));
+	}
+
+	/**
+	 * Cycle through the populated schemas. This is racy with multiple threads but we only need a spread of indexes.
+	 */
+	private int nextIndex() {
+		int index = lookupCounter++;
+		if (index >= registrySize) {
+			index = 0;
+			lookupCounter = 1;
+		}
+		return index;
+	}
+}
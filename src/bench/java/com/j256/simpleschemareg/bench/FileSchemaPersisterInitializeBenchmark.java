@@ -0,0 +1,57 @@
+package com.j256.simpleschemareg.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.j256.simpleschemareg.FileSchemaPersister;
+
+/**
+ * Benchmark of the time it takes to {@link FileSchemaPersister#initialize()} from an existing registry directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class FileSchemaPersisterInitializeBenchmark {
+
+	@Param({ "100", "10000", "100000" })
+	public int registrySize;
+
+	private File rootDir;
+
+	@Setup
+	public void setup() throws IOException {
+		rootDir = BenchUtils.createTempDir(getClass().getSimpleName());
+		FileSchemaPersister persister = new FileSchemaPersister(rootDir);
+		persister.initialize();
+		BenchUtils.populate(persister, registrySize);
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchUtils.deleteDir(rootDir);
+	}
+
+	@Benchmark
+	public FileSchemaPersister initialize() throws IOException {
+		FileSchemaPersister persister = new FileSchemaPersister(rootDir);
+		persister.initialize();
+		return persister;
+	}
+}
@@ -0,0 +1,65 @@
+package com.j256.simpleschemareg.bench;
+
+import java.util.Arrays;
+
+/**
+ * Records latency samples so we can report exact percentiles. Not thread-safe so each thread should have its own and
+ * then {@link #merge(LatencyRecorder)} them together at the end.
+ */
+public class LatencyRecorder {
+
+	private long[] samples = new long[1024];
+	private int sampleCount;
+	private boolean sorted;
+
+	/**
+	 * Record a latency in nanoseconds.
+	 */
+	public void record(long latencyNanos) {
+		if (sampleCount == samples.length) {
+			samples = Arrays.copyOf(samples, samples.length * 2);
+		}
+		samples[sampleCount++] = latencyNanos;
+		sorted = false;
+	}
+
+	/**
+	 * Add all of the samples from another recorder into this one.
+	 */
+	public void merge(LatencyRecorder other) {
+		if (sampleCount + other.sampleCount > samples.length) {
+			samples = Arrays.copyOf(samples, sampleCount + other.sampleCount);
+		}
+		System.arraycopy(other.samples, 0, samples, sampleCount, other.sampleCount);
+		sampleCount += other.sampleCount;
+		sorted = false;
+	}
+
+	public int getSampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 * Return the latency in nanoseconds at a percentile between 0 and 100 or 0 if there are no samples.
+	 */
+	public long getPercentile(double percentile) {
+		if (sampleCount == 0) {
+			return 0;
+		}
+		if (!sorted) {
+			Arrays.sort(samples, 0, sampleCount);
+			sorted = true;
+		}
+		int index = (int) Math.ceil(percentile / 100.0 * sampleCount) - 1;
+		if (index < 0) {
+			index = 0;
+		} else if (index >= sampleCount) {
+			index = sampleCount - 1;
+		}
+		return samples[index];
+	}
+
+	public long getMax() {
+		return getPercentile(100);
+	}
+}
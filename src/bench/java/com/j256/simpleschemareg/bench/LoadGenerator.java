@@ -0,0 +1,416 @@
+package com.j256.simpleschemareg.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.Gson;
+import com.j256.simpleschemareg.Main;
+import com.j256.simpleschemareg.entities.SchemaInfo;
+
+/**
+ * Load generator which starts the real {@link Main} server on a temporary directory and drives a configurable mix of
+ * requests at it from a number of concurrent connections. Throughput and latency percentiles are reported for each
+ * operation.
+ * 
+ * <p>
+ * When a target rate is specified, each connection sends requests on a fixed schedule and latency is measured from the
+ * time the request <i>should</i> have been sent. This corrects for coordinated-omission where a stalled server would
+ * otherwise hold back the requests that would have seen the stall.
+ * </p>
+ */
+public class LoadGenerator {
+
+	private static final int SERVER_START_TIMEOUT_MILLIS = 10000;
+	private static final int SUBJECT_COUNT = 100;
+
+	private final Gson gson = new Gson();
+	private final AtomicLong registerCounter = new AtomicLong();
+
+	private int connectionCount = 16;
+	private int durationSeconds = 30;
+	private int warmupSeconds = 5;
+	private int targetRate;
+	private int preloadCount = 10000;
+	private String rootDir;
+	private int[] opWeights = new int[] { 60, 25, 10, 5 };
+	private int totalWeight;
+	private String baseUrl;
+
+	public static void main(String[] args) throws Exception {
+		new LoadGenerator().doMain(args);
+	}
+
+	private void doMain(String[] args) throws Exception {
+		processArgs(args);
+
+		File dir;
+		boolean deleteDir;
+		if (rootDir == null) {
+			dir = BenchUtils.createTempDir(getClass().getSimpleName());
+			deleteDir = true;
+		} else {
+			dir = new File(rootDir);
+			deleteDir = false;
+		}
+		int port = findFreePort();
+		baseUrl = "http://localhost:" + port;
+
+		Thread serverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Main.main(new String[] { "-p", Integer.toString(port), "-r", dir.getPath(), "-s" });
+			}
+		}, "server");
+		serverThread.start();
+
+		try {
+			waitForServer(port);
+			System.out.println("Server started on port " + port + " with root " + dir);
+
+			preload();
+			if (warmupSeconds > 0) {
+				System.out.println("Warming up for " + warmupSeconds + " seconds");
+				runLoad(warmupSeconds);
+			}
+			System.out.println("Running " + connectionCount + " connections for " + durationSeconds + " seconds"
+					+ (targetRate > 0 ? " at " + targetRate + " req/sec" : " unthrottled"));
+			Worker[] workers = runLoad(durationSeconds);
+			report(workers, System.out);
+		} finally {
+			request("GET", "/shutdown", null);
+			serverThread.join();
+			if (deleteDir) {
+				BenchUtils.deleteDir(dir);
+			}
+		}
+	}
+
+	private void preload() throws IOException {
+		System.out.println("Preloading " + preloadCount + " schemas");
+		for (int i = 0; i < preloadCount; i++) {
+			int status = request("POST", "/subjects/" + subjectName(i) + "/versions", schemaBody(i));
+			if (status != HttpURLConnection.HTTP_OK) {
+				throw new IOException("preload registration " + i + " failed with status " + status);
+			}
+		}
+		registerCounter.set(preloadCount);
+	}
+
+	private Worker[] runLoad(int seconds) throws InterruptedException {
+		long startNanos = System.nanoTime();
+		long endNanos = startNanos + TimeUnit.SECONDS.toNanos(seconds);
+		// each connection gets an equal share of the target rate
+		long intervalNanos = (targetRate > 0 ? TimeUnit.SECONDS.toNanos(1) * connectionCount / targetRate : 0);
+		Worker[] workers = new Worker[connectionCount];
+		Thread[] threads = new Thread[connectionCount];
+		for (int i = 0; i < connectionCount; i++) {
+			// stagger the start of the schedules so the connections don't fire in lock-step
+			long offset = (intervalNanos == 0 ? 0 : intervalNanos * i / connectionCount);
+			workers[i] = new Worker(startNanos + offset, endNanos, intervalNanos, i);
+			threads[i] = new Thread(workers[i], "load-" + i);
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return workers;
+	}
+
+	private void report(Worker[] workers, PrintStream out) {
+		LatencyRecorder all = new LatencyRecorder();
+		LatencyRecorder[] ops = new LatencyRecorder[Op.values().length];
+		long errors = 0;
+		long firstSendNanos = Long.MAX_VALUE;
+		long lastResponseNanos = Long.MIN_VALUE;
+		for (int i = 0; i < ops.length; i++) {
+			ops[i] = new LatencyRecorder();
+		}
+		for (Worker worker : workers) {
+			for (int i = 0; i < ops.length; i++) {
+				ops[i].merge(worker.recorders[i]);
+				all.merge(worker.recorders[i]);
+			}
+			errors += worker.errorCount;
+			if (worker.firstSendNanos != 0) {
+				firstSendNanos = Math.min(firstSendNanos, worker.firstSendNanos);
+				lastResponseNanos = Math.max(lastResponseNanos, worker.lastResponseNanos);
+			}
+		}
+		// measured from the first send to the last response since workers can start late or drain past the deadline
+		double elapsedSeconds = (firstSendNanos == Long.MAX_VALUE ? durationSeconds
+				: (double) (lastResponseNanos - firstSendNanos) / TimeUnit.SECONDS.toNanos(1));
+		out.printf("Throughput: %.1f req/sec over %.2f seconds, %d errors%n",
+				(double) all.getSampleCount() / elapsedSeconds, elapsedSeconds, errors);
+		out.printf("%-10s %10s %10s %10s %10s %10s %10s%n", "op", "count", "p50-us", "p99-us", "p999-us",
+				"max-us", "req/sec");
+		for (Op op : Op.values()) {
+			reportLine(out, op.name().toLowerCase(), ops[op.ordinal()], elapsedSeconds);
+		}
+		reportLine(out, "all", all, elapsedSeconds);
+	}
+
+	private void reportLine(PrintStream out, String label, LatencyRecorder recorder, double elapsedSeconds) {
+		out.printf("%-10s %10d %10d %10d %10d %10d %10.1f%n", label, recorder.getSampleCount(),
+				TimeUnit.NANOSECONDS.toMicros(recorder.getPercentile(50)),
+				TimeUnit.NANOSECONDS.toMicros(recorder.getPercentile(99)),
+				TimeUnit.NANOSECONDS.toMicros(recorder.getPercentile(99.9)),
+				TimeUnit.NANOSECONDS.toMicros(recorder.getMax()), (double) recorder.getSampleCount() / elapsedSeconds);
+	}
+
+	private int request(String method, String path, String body) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		conn.setRequestMethod(method);
+		if (body != null) {
+			conn.setDoOutput(true);
+			conn.setRequestProperty("Content-Type", "application/json");
+			try (OutputStream output = conn.getOutputStream();) {
+				output.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		int status = conn.getResponseCode();
+		// the body needs to be fully read and closed for the connection to be reused
+		InputStream input = (status < HttpURLConnection.HTTP_BAD_REQUEST ? conn.getInputStream() : conn.getErrorStream());
+		if (input != null) {
+			try {
+				byte[] buf = new byte[4096];
+				while (input.read(buf) >= 0) {
+					// drain
+				}
+			} finally {
+				input.close();
+			}
+		}
+		return status;
+	}
+
+	private String subjectName(long index) {
+		return BenchUtils.subjectName((int) (index % SUBJECT_COUNT));
+	}
+
+	private String schemaBody(long index) {
+		return gson.toJson(new SchemaInfo(BenchUtils.schemaString(index)));
+	}
+
+	private static int findFreePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0);) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static void waitForServer(int port) throws IOException, InterruptedException {
+		long endMillis = System.currentTimeMillis() + SERVER_START_TIMEOUT_MILLIS;
+		while (true) {
+			try (Socket socket = new Socket("localhost", port);) {
+				return;
+			} catch (IOException ioe) {
+				if (System.currentTimeMillis() > endMillis) {
+					throw new IOException("server did not start on port " + port, ioe);
+				}
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	private void processArgs(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (i + 1 >= args.length) {
+				usageMessageThenExit("Missing argument to " + arg);
+			}
+			String value = args[++i];
+			try {
+				if ("-c".equals(arg)) {
+					connectionCount = Integer.parseInt(value);
+				} else if ("-d".equals(arg)) {
+					durationSeconds = Integer.parseInt(value);
+				} else if ("-m".equals(arg)) {
+					opWeights = parseMix(value);
+				} else if ("-n".equals(arg)) {
+					preloadCount = Integer.parseInt(value);
+				} else if ("-r".equals(arg)) {
+					targetRate = Integer.parseInt(value);
+				} else if ("-R".equals(arg)) {
+					rootDir = value;
+				} else if ("-w".equals(arg)) {
+					warmupSeconds = Integer.parseInt(value);
+				} else {
+					usageMessageThenExit("Unknown argument: " + arg);
+				}
+			} catch (NumberFormatException nfe) {
+				usageMessageThenExit("Invalid number argument to " + arg + ": " + value);
+			}
+		}
+		if (connectionCount <= 0 || durationSeconds <= 0 || preloadCount <= 0) {
+			usageMessageThenExit("Connections, duration, and preload count must be positive");
+		}
+		totalWeight = 0;
+		for (int weight : opWeights) {
+			totalWeight += weight;
+		}
+		if (totalWeight <= 0) {
+			usageMessageThenExit("Operation mix must have at least one positive weight");
+		}
+	}
+
+	private int[] parseMix(String value) {
+		int[] weights = new int[Op.values().length];
+		for (String part : value.split(",")) {
+			String[] nameWeight = part.split(":", 2);
+			if (nameWeight.length != 2) {
+				usageMessageThenExit("Invalid mix entry: " + part);
+			}
+			Op op = null;
+			for (Op o : Op.values()) {
+				if (o.name().equalsIgnoreCase(nameWeight[0].trim())) {
+					op = o;
+				}
+			}
+			if (op == null) {
+				usageMessageThenExit("Unknown operation in mix: " + nameWeight[0]);
+			}
+			weights[op.ordinal()] = Integer.parseInt(nameWeight[1].trim());
+		}
+		return weights;
+	}
+
+	private void usageMessageThenExit(String message) {
+		System.err.println(message);
+		System.err.println("Usage: java " + getClass().getName()
+				+ " [-c connections] [-d seconds] [-w seconds] [-r rate] [-n count] [-m mix] [-R dir]");
+		System.err.println("       -c connections  number of concurrent connections, default 16");
+		System.err.println("       -d seconds      duration of the measured run, default 30");
+		System.err.println("       -w seconds      duration of the warmup run, default 5");
+		System.err.println("       -r rate         total target requests/sec, default 0 which is unthrottled");
+		System.err.println("       -n count        number of schemas to register before the run, default 10000");
+		System.err.println("       -m mix          operation weights, default id:60,version:25,check:10,register:5");
+		System.err.println("       -R dir          registry root directory, default is a temporary directory");
+		System.exit(1);
+	}
+
+	/**
+	 * Operations that we can send to the server.
+	 */
+	private enum Op {
+		ID,
+		VERSION,
+		CHECK,
+		REGISTER,
+		// end
+		;
+	}
+
+	/**
+	 * Sends requests on one connection and records the latencies.
+	 */
+	private class Worker implements Runnable {
+
+		private final long startNanos;
+		private final long endNanos;
+		private final long intervalNanos;
+		private final Random random;
+		private final LatencyRecorder[] recorders = new LatencyRecorder[Op.values().length];
+		private long errorCount;
+		// wall-clock span of this worker's requests, 0 if it sent none
+		private long firstSendNanos;
+		private long lastResponseNanos;
+
+		public Worker(long startNanos, long endNanos, long intervalNanos, int seed) {
+			this.startNanos = startNanos;
+			this.endNanos = endNanos;
+			this.intervalNanos = intervalNanos;
+			this.random = new Random(seed);
+			for (int i = 0; i < recorders.length; i++) {
+				recorders[i] = new LatencyRecorder();
+			}
+		}
+
+		@Override
+		public void run() {
+			long intendedNanos = startNanos;
+			while (true) {
+				long now = System.nanoTime();
+				if (intervalNanos > 0) {
+					if (intendedNanos >= endNanos) {
+						break;
+					}
+					if (now < intendedNanos) {
+						sleepNanos(intendedNanos - now);
+					}
+				} else {
+					if (now >= endNanos) {
+						break;
+					}
+					// unthrottled so latency is measured from when we actually send
+					intendedNanos = now;
+				}
+
+				Op op = pickOp();
+				if (firstSendNanos == 0) {
+					firstSendNanos = System.nanoTime();
+				}
+				try {
+					int status = sendRequest(op);
+					if (status != HttpURLConnection.HTTP_OK) {
+						errorCount++;
+					}
+				} catch (IOException ioe) {
+					errorCount++;
+				}
+				lastResponseNanos = System.nanoTime();
+				recorders[op.ordinal()].record(lastResponseNanos - intendedNanos);
+				intendedNanos += intervalNanos;
+			}
+		}
+
+		private Op pickOp() {
+			int value = random.nextInt(totalWeight);
+			for (Op op : Op.values()) {
+				value -= opWeights[op.ordinal()];
+				if (value < 0) {
+					return op;
+				}
+			}
+			return Op.ID;
+		}
+
+		private int sendRequest(Op op) throws IOException {
+			long index = random.nextInt(preloadCount);
+			switch (op) {
+				case ID:
+					// ids start at 1
+					return request("GET", "/schemas/ids/" + (index + 1), null);
+				case VERSION:
+					// preloaded schemas are spread across the subjects with versions starting at 1
+					return request("GET", "/subjects/" + subjectName(index) + "/versions/" + (index / SUBJECT_COUNT + 1),
+							null);
+				case CHECK:
+					return request("POST", "/subjects/" + subjectName(index), schemaBody(index));
+				case REGISTER:
+				default:
+					index = registerCounter.getAndIncrement();
+					return request("POST", "/subjects/" + subjectName(index) + "/versions", schemaBody(index));
+			}
+		}
+
+		private void sleepNanos(long nanos) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(nanos);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
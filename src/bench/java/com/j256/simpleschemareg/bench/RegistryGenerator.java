@@ -0,0 +1,120 @@
+package com.j256.simpleschemareg.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import com.j256.simpleschemareg.FileSchemaPersister;
+import com.j256.simpleschemareg.IdRecordFormat;
+import com.j256.simpleschemareg.entities.SchemaDetails;
+
+/**
+ * Generates a synthetic registry directly in the on-disk layout of the {@link FileSchemaPersister} without going through
+ * {@link FileSchemaPersister#saveSchema(String, String)}, which would take a very long time for large registries.
+ * 
+ * <p>
+ * Each subject gets a number of versions. Schema sizes are drawn from a log-normal distribution around a median size
+ * and a fraction of the versions reuse a schema that was already registered in another subject.
+ * </p>
+ */
+public class RegistryGenerator {
+
+	private final Random random;
+	private int versionsPerSubject = 10;
+	private int medianSchemaSize = 1024;
+	private double schemaSizeSigma = 1.0;
+	private double sharedFraction = 0.05;
+
+	private long schemaCount;
+
+	public RegistryGenerator(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Number of versions to generate for each subject. Default is 10.
+	 */
+	public void setVersionsPerSubject(int versionsPerSubject) {
+		this.versionsPerSubject = versionsPerSubject;
+	}
+
+	/**
+	 * Median size in characters of the generated schemas. Default is 1024.
+	 */
+	public void setMedianSchemaSize(int medianSchemaSize) {
+		this.medianSchemaSize = medianSchemaSize;
+	}
+
+	/**
+	 * Sigma of the log-normal distribution of schema sizes. 0 means all schemas are the median size. Default is 1.0.
+	 */
+	public void setSchemaSizeSigma(double schemaSizeSigma) {
+		this.schemaSizeSigma = schemaSizeSigma;
+	}
+
+	/**
+	 * Fraction of versions between 0.0 and 1.0 that reuse a schema from another subject. Default is 0.05.
+	 */
+	public void setSharedFraction(double sharedFraction) {
+		this.sharedFraction = sharedFraction;
+	}
+
+	/**
+	 * Generate a registry with a number of subjects in the root directory which should be empty.
+	 * 
+	 * @return The number of distinct schemas that were written.
+	 */
+	public long generate(File rootDir, int subjectCount) throws IOException {
+		schemaCount = 0;
+		long[] versions = new long[versionsPerSubject];
+		long[] ids = new long[versionsPerSubject];
+		for (int subjectIndex = 0; subjectIndex < subjectCount; subjectIndex++) {
+			String subject = BenchUtils.subjectName(subjectIndex);
+			for (int i = 0; i < versionsPerSubject; i++) {
+				long id;
+				if (schemaCount > 0 && random.nextDouble() < sharedFraction) {
+					// reuse a random schema that we have already written, ids start at 1
+					id = 1 + (long) (random.nextDouble() * schemaCount);
+				} else {
+					id = ++schemaCount;
+					writeIdFile(rootDir, id, generateSchema(id));
+				}
+				versions[i] = i + 1;
+				ids[i] = id;
+			}
+			File subjectDir = FileSchemaPersister.shardedSubjectDir(rootDir, subject);
+			subjectDir.mkdirs();
+			FileSchemaPersister.writeManifest(subjectDir, versions, ids);
+		}
+		return schemaCount;
+	}
+
+	/**
+	 * Generate a schema for a particular id with a size drawn from our distribution.
+	 */
+	public String generateSchema(long id) {
+		int targetSize = (int) (medianSchemaSize * Math.exp(random.nextGaussian() * schemaSizeSigma));
+		StringBuilder sb = new StringBuilder(targetSize + 64);
+		sb.append("{\"type\":\"record\",\"name\":\"Record").append(id);
+		sb.append("\",\"namespace\":\"com.j256.bench\",\"fields\":[");
+		int fieldCount = 0;
+		do {
+			if (fieldCount > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"name\":\"field").append(fieldCount).append("\",\"type\":\"");
+			sb.append((fieldCount % 3 == 0) ? "long" : "string").append("\"}");
+			fieldCount++;
+		} while (sb.length() < targetSize);
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	private void writeIdFile(File rootDir, long id, String schema) throws IOException {
+		SchemaDetails details = new SchemaDetails(schema, FileSchemaPersister.digestFromSchema(schema), id);
+		File idFile = FileSchemaPersister.shardedIdFile(rootDir, id);
+		idFile.getParentFile().mkdirs();
+		Files.write(idFile.toPath(), IdRecordFormat.encode(details));
+	}
+}
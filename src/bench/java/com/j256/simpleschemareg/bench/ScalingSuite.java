@@ -0,0 +1,109 @@
+package com.j256.simpleschemareg.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.j256.simpleschemareg.FileSchemaPersister;
+
+/**
+ * Generates registries of increasing size with the {@link RegistryGenerator} and measures the time to
+ * {@link FileSchemaPersister#initialize()}, the heap retained by the persister, and the latency of the lookups. This
+ * shows where the current design falls over as the number of subjects grows.
+ * 
+ * <p>
+ * Run with a large heap and a list of subject counts: {@code ScalingSuite 1000 10000 100000 1000000}. Each registry
+ * has 10 versions per subject by default.
+ * </p>
+ */
+public class ScalingSuite {
+
+	private static final int[] DEFAULT_SUBJECT_COUNTS = new int[] { 1000, 10000, 100000 };
+	private static final int LOOKUP_COUNT = 100000;
+
+	private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+
+	public static void main(String[] args) throws Exception {
+		int[] subjectCounts = DEFAULT_SUBJECT_COUNTS;
+		if (args.length > 0) {
+			subjectCounts = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				subjectCounts[i] = Integer.parseInt(args[i]);
+			}
+		}
+		new ScalingSuite().run(subjectCounts);
+	}
+
+	private void run(int[] subjectCounts) throws IOException {
+		System.out.printf("%10s %10s %10s %10s %12s %12s %12s %12s %12s %12s%n", "subjects", "schemas", "gen-ms",
+				"init-ms", "heap-mb", "id-p50-ns", "id-p99-ns", "ver-p50-ns", "ver-p99-ns", "chk-p50-ns");
+		for (int subjectCount : subjectCounts) {
+			runOne(subjectCount);
+		}
+	}
+
+	private void runOne(int subjectCount) throws IOException {
+		File rootDir = BenchUtils.createTempDir(getClass().getSimpleName());
+		try {
+			RegistryGenerator generator = new RegistryGenerator(subjectCount);
+			long startMillis = System.currentTimeMillis();
+			long schemaCount = generator.generate(rootDir, subjectCount);
+			long genMillis = System.currentTimeMillis() - startMillis;
+
+			long heapBefore = usedHeap();
+			startMillis = System.currentTimeMillis();
+			FileSchemaPersister persister = new FileSchemaPersister(rootDir);
+			persister.initialize();
+			long initMillis = System.currentTimeMillis() - startMillis;
+			long heapRetained = usedHeap() - heapBefore;
+
+			Random random = new Random(subjectCount);
+			LatencyRecorder idRecorder = new LatencyRecorder();
+			LatencyRecorder versionRecorder = new LatencyRecorder();
+			LatencyRecorder checkRecorder = new LatencyRecorder();
+			for (int i = 0; i < LOOKUP_COUNT; i++) {
+				long id = 1 + (long) (random.nextDouble() * schemaCount);
+				long start = System.nanoTime();
+				persister.lookupSchemaId(id);
+				idRecorder.record(System.nanoTime() - start);
+
+				String subject = BenchUtils.subjectName(random.nextInt(subjectCount));
+				long version = 1 + random.nextInt(BenchUtils.VERSIONS_PER_SUBJECT);
+				start = System.nanoTime();
+				persister.lookupSubjectVersion(subject, version);
+				versionRecorder.record(System.nanoTime() - start);
+
+				String schema = persister.lookupSchemaId(id).getSchema();
+				start = System.nanoTime();
+				persister.lookupSchema(subject, schema);
+				checkRecorder.record(System.nanoTime() - start);
+			}
+
+			System.out.printf("%10d %10d %10d %10d %12.1f %12d %12d %12d %12d %12d%n", subjectCount, schemaCount,
+					genMillis, initMillis, heapRetained / (1024.0 * 1024.0), idRecorder.getPercentile(50),
+					idRecorder.getPercentile(99), versionRecorder.getPercentile(50), versionRecorder.getPercentile(99),
+					checkRecorder.getPercentile(50));
+			// keep the persister reachable until we are done measuring
+			if (persister.lookupSchemaId(0) != null) {
+				System.out.println("unexpected schema-id 0");
+			}
+		} finally {
+			BenchUtils.deleteDir(rootDir);
+		}
+	}
+
+	private long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			try {
+				TimeUnit.MILLISECONDS.sleep(100);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return memoryBean.getHeapMemoryUsage().getUsed();
+	}
+}
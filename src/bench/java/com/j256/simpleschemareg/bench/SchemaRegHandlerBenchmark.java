@@ -0,0 +1,128 @@
+package com.j256.simpleschemareg.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+import com.j256.simpleschemareg.FileSchemaPersister;
+import com.j256.simpleschemareg.SchemaRegHandler;
+import com.j256.simpleschemareg.StubRequest;
+import com.j256.simpleschemareg.StubResponse;
+import com.j256.simpleschemareg.entities.SchemaInfo;
+
+/**
+ * Benchmarks of the {@link SchemaRegHandler} request dispatch and JSON serialization using stub requests and responses
+ * so no network is involved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SchemaRegHandlerBenchmark {
+
+	private static final int REGISTRY_SIZE = 1000;
+
+	private File rootDir;
+	private SchemaRegHandler handler;
+	private final StubResponse response = new StubResponse();
+	private StubRequest getSubjectsRequest;
+	private StubRequest getSchemaIdRequest;
+	private StubRequest getSchemaIdSchemaRequest;
+	private StubRequest getSubjectVersionRequest;
+	private StubRequest getSubjectVersionsRequest;
+	private StubRequest postCheckRequest;
+	private StubRequest postRegisterRequest;
+	private StubRequest unknownRequest;
+
+	@Setup
+	public void setup() throws IOException {
+		rootDir = BenchUtils.createTempDir(getClass().getSimpleName());
+		FileSchemaPersister persister = new FileSchemaPersister(rootDir);
+		persister.initialize();
+		BenchUtils.populate(persister, REGISTRY_SIZE);
+		handler = new SchemaRegHandler(persister, null, false, false);
+
+		int index = REGISTRY_SIZE / 2;
+		String subject = BenchUtils.subjectName(index / BenchUtils.VERSIONS_PER_SUBJECT);
+		long version = index % BenchUtils.VERSIONS_PER_SUBJECT + 1;
+		String schemaJson = new Gson().toJson(new SchemaInfo(BenchUtils.schemaString(index)));
+
+		getSubjectsRequest = new StubRequest("GET", "/subjects");
+		getSchemaIdRequest = new StubRequest("GET", "/schemas/ids/" + (index + 1));
+		getSchemaIdSchemaRequest = new StubRequest("GET", "/schemas/ids/" + (index + 1) + "/schema");
+		getSubjectVersionRequest = new StubRequest("GET", "/subjects/" + subject + "/versions/" + version);
+		getSubjectVersionsRequest = new StubRequest("GET", "/subjects/" + subject + "/versions");
+		postCheckRequest = new StubRequest("POST", "/subjects/" + subject);
+		postCheckRequest.setBody(schemaJson);
+		// already registered so this measures the duplicate registration path
+		postRegisterRequest = new StubRequest("POST", "/subjects/" + subject + "/versions");
+		postRegisterRequest.setBody(schemaJson);
+		unknownRequest = new StubRequest("GET", "/unknown");
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchUtils.deleteDir(rootDir);
+	}
+
+	@Benchmark
+	public int getSubjects() throws IOException {
+		return handle(getSubjectsRequest);
+	}
+
+	@Benchmark
+	public int getSchemaId() throws IOException {
+		return handle(getSchemaIdRequest);
+	}
+
+	@Benchmark
+	public int getSchemaIdSchema() throws IOException {
+		return handle(getSchemaIdSchemaRequest);
+	}
+
+	@Benchmark
+	public int getSubjectVersion() throws IOException {
+		return handle(getSubjectVersionRequest);
+	}
+
+	@Benchmark
+	public int getSubjectVersions() throws IOException {
+		return handle(getSubjectVersionsRequest);
+	}
+
+	@Benchmark
+	public int postCheck() throws IOException {
+		return handle(postCheckRequest);
+	}
+
+	@Benchmark
+	public int postRegisterDuplicate() throws IOException {
+		return handle(postRegisterRequest);
+	}
+
+	@Benchmark
+	public int unknownPath() throws IOException {
+		return handle(unknownRequest);
+	}
+
+	private int handle(StubRequest request) throws IOException {
+		response.reset();
+		handler.handle("target", request, request, response);
+		return response.getStatus();
+	}
+}
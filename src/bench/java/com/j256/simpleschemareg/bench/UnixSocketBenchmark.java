@@ -0,0 +1,155 @@
+package com.j256.simpleschemareg.bench;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.unixsocket.UnixSocketConnector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.j256.simpleschemareg.FileSchemaPersister;
+import com.j256.simpleschemareg.SchemaRegHandler;
+
+import jnr.unixsocket.UnixSocketAddress;
+import jnr.unixsocket.UnixSocketChannel;
+
+/**
+ * Compares the latency of a schema-id lookup over a keep-alive HTTP connection on the TCP loopback interface with the
+ * same request over the unix domain socket connector. Both connectors serve the same handler and persister.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UnixSocketBenchmark {
+
+	private static final int REGISTRY_SIZE = 1000;
+
+	private File rootDir;
+	private Server server;
+	private Socket tcpSocket;
+	private UnixSocketChannel unixChannel;
+	private HttpConnection tcpConnection;
+	private HttpConnection unixConnection;
+	private byte[] requestBytes;
+
+	@Setup
+	public void setup() throws Exception {
+		rootDir = BenchUtils.createTempDir(getClass().getSimpleName());
+		FileSchemaPersister persister = new FileSchemaPersister(rootDir);
+		persister.initialize();
+		BenchUtils.populate(persister, REGISTRY_SIZE);
+
+		server = new Server();
+		server.setHandler(new SchemaRegHandler(persister, null, false, false));
+		ServerConnector tcpConnector = new ServerConnector(server);
+		tcpConnector.setHost("localhost");
+		server.addConnector(tcpConnector);
+		File socketFile = new File(rootDir, "registry.sock");
+		UnixSocketConnector unixConnector = new UnixSocketConnector(server);
+		unixConnector.setUnixSocket(socketFile.getPath());
+		server.addConnector(unixConnector);
+		server.start();
+
+		requestBytes = ("GET /schemas/ids/" + (REGISTRY_SIZE / 2) + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+				.getBytes(StandardCharsets.US_ASCII);
+		tcpSocket = new Socket("localhost", tcpConnector.getLocalPort());
+		tcpSocket.setTcpNoDelay(true);
+		tcpConnection = new HttpConnection(tcpSocket.getInputStream(), tcpSocket.getOutputStream());
+		unixChannel = UnixSocketChannel.open(new UnixSocketAddress(socketFile));
+		unixConnection =
+				new HttpConnection(Channels.newInputStream(unixChannel), Channels.newOutputStream(unixChannel));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		tcpSocket.close();
+		unixChannel.close();
+		server.stop();
+		BenchUtils.deleteDir(rootDir);
+	}
+
+	@Benchmark
+	public int loopbackGetSchemaId() throws IOException {
+		return tcpConnection.request(requestBytes);
+	}
+
+	@Benchmark
+	public int unixSocketGetSchemaId() throws IOException {
+		return unixConnection.request(requestBytes);
+	}
+
+	/**
+	 * Minimal keep-alive HTTP/1.1 client so the comparison measures the transport and not a client library.
+	 */
+	private static class HttpConnection {
+
+		private final InputStream input;
+		private final OutputStream output;
+		private final StringBuilder lineBuilder = new StringBuilder();
+
+		public HttpConnection(InputStream input, OutputStream output) {
+			this.input = new BufferedInputStream(input);
+			this.output = output;
+		}
+
+		/**
+		 * Send the request and read the response.
+		 * 
+		 * @return The number of bytes in the response body.
+		 */
+		public int request(byte[] requestBytes) throws IOException {
+			output.write(requestBytes);
+			output.flush();
+			int contentLength = -1;
+			String line;
+			while (!(line = readLine()).isEmpty()) {
+				if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+					contentLength = Integer.parseInt(line.substring(15).trim());
+				}
+			}
+			if (contentLength < 0) {
+				throw new IOException("response has no Content-Length");
+			}
+			for (int i = 0; i < contentLength; i++) {
+				if (input.read() < 0) {
+					throw new IOException("connection closed in the response body");
+				}
+			}
+			return contentLength;
+		}
+
+		private String readLine() throws IOException {
+			lineBuilder.setLength(0);
+			int ch;
+			while ((ch = input.read()) != '\n') {
+				if (ch < 0) {
+					throw new IOException("connection closed in the response headers");
+				} else if (ch != '\r') {
+					lineBuilder.append((char) ch);
+				}
+			}
+			return lineBuilder.toString();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.j256.simpleschemareg;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.j256.simpleschemareg.entities.SchemaDetails;
+import com.j256.simpleschemareg.entities.SubjectSchema;
+
+/**
+ * Asynchronous version of the {@link SchemaPersister} operations that are used to serve requests. Each method returns
+ * a future that is completed with the same result as the blocking method or exceptionally with its exception.
+ */
+public interface AsyncSchemaPersister {
+
+	/**
+	 * See {@link SchemaPersister#lookupSubjects()}.
+	 */
+	public CompletableFuture<String[]> lookupSubjects();
+
+	/**
+	 * See {@link SchemaPersister#lookupSchema(String)}.
+	 */
+	public CompletableFuture<SchemaDetails> lookupSchema(String schema);
+
+	/**
+	 * See {@link SchemaPersister#lookupSchema(String, String)}.
+	 */
+	public CompletableFuture<SchemaDetails> lookupSchema(String subject, String schema);
+
+	/**
+	 * See {@link SchemaPersister#lookupSchemaId(long)}.
+	 */
+	public CompletableFuture<SchemaDetails> lookupSchemaId(long id);
+
+	/**
+	 * See {@link SchemaPersister#lookupSubjectVersion(String, long)}.
+	 */
+	public CompletableFuture<SchemaDetails> lookupSubjectVersion(String subject, long version);
+
+	/**
+	 * See {@link SchemaPersister#lookupLatestSubjectVersion(String)}.
+	 */
+	public CompletableFuture<SchemaDetails> lookupLatestSubjectVersion(String subject);
+
+	/**
+	 * See {@link SchemaPersister#lookupSubjectVersions(String)}.
+	 */
+	public CompletableFuture<long[]> lookupSubjectVersions(String subject);
+
+	/**
+	 * See {@link SchemaPersister#deleteSchemaId(long)}.
+	 */
+	public CompletableFuture<Void> deleteSchemaId(long id);
+
+	/**
+	 * See {@link SchemaPersister#deleteSubject(String)}.
+	 */
+	public CompletableFuture<long[]> deleteSubject(String subject);
+
+	/**
+	 * See {@link SchemaPersister#deleteSubjectVersion(String, long, boolean)}.
+	 */
+	public CompletableFuture<SchemaDetails> deleteSubjectVersion(String subject, long version, boolean permanent);
+
+	/**
+	 * See {@link SchemaPersister#saveSchema(String, String)}.
+	 */
+	public CompletableFuture<SchemaDetails> saveSchema(String subject, String schema);
+
+	/**
+	 * See {@link SchemaPersister#saveSchemas(SubjectSchema[])}.
+	 */
+	public CompletableFuture<SchemaDetails[]> saveSchemas(SubjectSchema[] subjectSchemas);
+}
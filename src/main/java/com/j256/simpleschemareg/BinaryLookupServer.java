@@ -0,0 +1,309 @@
+package com.j256.simpleschemareg;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.j256.simpleschemareg.entities.SchemaDetails;
+
+/**
+ * Serves schema-id lookups with a compact binary protocol on its own port for clients that need more lookups than the
+ * HTTP handler can serve. A request is a 4 byte count followed by that many 8 byte schema-ids. For each id, in order,
+ * the response is a 4 byte length followed by the UTF-8 bytes of the schema or a length of -1 if the id is not found.
+ * All numbers are big-endian. Clients can send requests without waiting for the responses.
+ * 
+ * <p>
+ * A single thread runs a selector loop over all of the connections and each connection has a direct read and write
+ * buffer. The UTF-8 bytes of the schemas are cached for as long as the persister keeps their details.
+ * </p>
+ */
+public class BinaryLookupServer implements Runnable {
+
+	public static final int NOT_FOUND_LENGTH = -1;
+	// maximum number of ids in one request to catch clients that are not speaking the protocol
+	public static final int MAX_REQUEST_IDS = 1000000;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// how long to stop accepting after accept fails, such as when we are out of file descriptors
+	private static final long ACCEPT_RETRY_MILLIS = 100;
+
+	private final SchemaPersister persister;
+	private final String bindHost;
+	private final int port;
+	private final boolean verbose;
+	// only used by the selector thread
+	private final Map<SchemaDetails, byte[]> schemaBytesMap = new WeakHashMap<>();
+
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private SelectionKey serverKey;
+	private volatile boolean running = true;
+	// when to start accepting again or 0 if we are accepting, only used by the selector thread
+	private long acceptResumeMillis;
+
+	/**
+	 * @param bindHost
+	 *            Host or address to bind to or null for all interfaces.
+	 * @param port
+	 *            Port to listen on or 0 to pick a free port.
+	 */
+	public BinaryLookupServer(SchemaPersister persister, String bindHost, int port, boolean verbose) {
+		this.persister = persister;
+		this.bindHost = bindHost;
+		this.port = port;
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Bind to the port. This needs to be called before the server is run.
+	 */
+	public void open() throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		if (bindHost == null) {
+			serverChannel.bind(new InetSocketAddress(port));
+		} else {
+			serverChannel.bind(new InetSocketAddress(bindHost, port));
+		}
+		serverChannel.configureBlocking(false);
+		serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Return the port that the server is listening on.
+	 */
+	public int getLocalPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				if (acceptResumeMillis == 0) {
+					selector.select();
+				} else {
+					long waitMillis = acceptResumeMillis - System.currentTimeMillis();
+					if (waitMillis <= 0) {
+						serverKey.interestOps(SelectionKey.OP_ACCEPT);
+						acceptResumeMillis = 0;
+						continue;
+					}
+					selector.select(waitMillis);
+				}
+				Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						handleConnection(key);
+					}
+				}
+			}
+		} catch (IOException ioe) {
+			if (running) {
+				System.err.println("WARNING: binary lookup server on port " + getLocalPort() + " failed: " + ioe);
+			}
+		} finally {
+			closeAll();
+		}
+	}
+
+	/**
+	 * Stop the server and close all of the connections.
+	 */
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Accept a connection. Failures only cost the one connection and not the selector thread.
+	 */
+	private void accept() {
+		SocketChannel channel;
+		try {
+			channel = serverChannel.accept();
+		} catch (IOException ioe) {
+			// the selector would keep reporting the pending connection so we stop accepting for a bit
+			System.err.println("WARNING: binary lookup server could not accept a connection, retrying in "
+					+ ACCEPT_RETRY_MILLIS + "ms: " + ioe);
+			serverKey.interestOps(0);
+			acceptResumeMillis = System.currentTimeMillis() + ACCEPT_RETRY_MILLIS;
+			return;
+		}
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+			if (verbose) {
+				System.out.println("Accepted binary lookup connection from " + channel.getRemoteAddress());
+				System.out.flush();
+			}
+		} catch (IOException | RuntimeException e) {
+			System.err.println("WARNING: closing binary lookup connection that could not be set up: " + e);
+			try {
+				channel.close();
+			} catch (IOException ioe) {
+				// ignored
+			}
+		}
+	}
+
+	private void handleConnection(SelectionKey key) {
+		Connection conn = (Connection) key.attachment();
+		try {
+			if (key.isReadable() && conn.channel.read(conn.readBuffer) < 0) {
+				closeConnection(key, null);
+				return;
+			}
+			do {
+				processRequests(conn);
+				conn.writeBuffer.flip();
+				conn.channel.write(conn.writeBuffer);
+				conn.writeBuffer.compact();
+				// keep going while the socket takes everything and there is more to write
+			} while (conn.writeBuffer.position() == 0 && conn.hasMoreToWrite());
+		} catch (IOException | RuntimeException e) {
+			// includes persister failures which should only cost the one connection and not the selector thread
+			closeConnection(key, e);
+			return;
+		}
+		// stop reading when we are backed up on writes
+		int ops = 0;
+		if (conn.readBuffer.hasRemaining()) {
+			ops |= SelectionKey.OP_READ;
+		}
+		if (conn.writeBuffer.position() > 0) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		key.interestOps(ops);
+	}
+
+	/**
+	 * Turn as many of the buffered ids into responses as fit in the write buffer.
+	 */
+	private void processRequests(Connection conn) {
+		ByteBuffer readBuffer = conn.readBuffer;
+		ByteBuffer writeBuffer = conn.writeBuffer;
+		readBuffer.flip();
+		while (true) {
+			if (conn.pendingBytes != null) {
+				int length = Math.min(conn.pendingBytes.length - conn.pendingOffset, writeBuffer.remaining());
+				writeBuffer.put(conn.pendingBytes, conn.pendingOffset, length);
+				conn.pendingOffset += length;
+				if (conn.pendingOffset < conn.pendingBytes.length) {
+					break;
+				}
+				conn.pendingBytes = null;
+			}
+			if (conn.remainingIds == 0) {
+				if (readBuffer.remaining() < 4) {
+					break;
+				}
+				int count = readBuffer.getInt();
+				if (count < 0 || count > MAX_REQUEST_IDS) {
+					throw new IllegalArgumentException("invalid id count: " + count);
+				}
+				conn.remainingIds = count;
+				continue;
+			}
+			if (readBuffer.remaining() < 8 || writeBuffer.remaining() < 4) {
+				break;
+			}
+			byte[] schemaBytes = lookupSchemaBytes(readBuffer.getLong());
+			conn.remainingIds--;
+			if (schemaBytes == null) {
+				writeBuffer.putInt(NOT_FOUND_LENGTH);
+			} else {
+				writeBuffer.putInt(schemaBytes.length);
+				conn.pendingBytes = schemaBytes;
+				conn.pendingOffset = 0;
+			}
+		}
+		readBuffer.compact();
+	}
+
+	private byte[] lookupSchemaBytes(long id) {
+		SchemaDetails details = persister.lookupSchemaId(id);
+		if (details == null) {
+			return null;
+		}
+		byte[] bytes = schemaBytesMap.get(details);
+		if (bytes == null) {
+			bytes = details.getSchema().getBytes(StandardCharsets.UTF_8);
+			schemaBytesMap.put(details, bytes);
+		}
+		return bytes;
+	}
+
+	private void closeConnection(SelectionKey key, Exception e) {
+		Connection conn = (Connection) key.attachment();
+		if (e != null) {
+			System.err.println("WARNING: closing binary lookup connection: " + e);
+		} else if (verbose) {
+			System.out.println("Closed binary lookup connection");
+			System.out.flush();
+		}
+		key.cancel();
+		try {
+			conn.channel.close();
+		} catch (IOException ioe) {
+			// ignored
+		}
+	}
+
+	private void closeAll() {
+		for (SelectionKey key : selector.keys()) {
+			try {
+				key.channel().close();
+			} catch (IOException ioe) {
+				// ignored
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException ioe) {
+			// ignored
+		}
+	}
+
+	/**
+	 * State of a client connection.
+	 */
+	private static class Connection {
+
+		final SocketChannel channel;
+		final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		// number of ids in the current request that have not been read yet
+		int remainingIds;
+		// schema bytes that did not fit in the write buffer
+		byte[] pendingBytes;
+		int pendingOffset;
+
+		public Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		boolean hasMoreToWrite() {
+			return pendingBytes != null || readBuffer.position() >= (remainingIds == 0 ? 4 : 8);
+		}
+	}
+}
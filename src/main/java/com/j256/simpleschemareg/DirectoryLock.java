@@ -0,0 +1,184 @@
+package com.j256.simpleschemareg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks held by the writers that share a root directory while they change it. These are byte-range locks on a single
+ * lock file. The first byte is locked shared by each change and exclusively by the changes that delete schema-ids so
+ * they can see all of the versions that use them. The changes to a subject also lock one of the following bytes which
+ * is picked by the hash of the subject so changes to different subjects usually run at the same time.
+ * 
+ * <p>
+ * File locks are held by the process and closing any channel to the file may release all of them so there is one
+ * instance with one open channel for each lock file. It also locks out the other threads of this process which the
+ * file locks do not.
+ * </p>
+ */
+class DirectoryLock {
+
+	private static final int SUBJECT_STRIPES = 64;
+	// locked by itself
+	private static final Map<String, DirectoryLock> LOCKS = new HashMap<>();
+
+	private final File lockFile;
+	private final ReentrantReadWriteLock directoryLock = new ReentrantReadWriteLock();
+	private final ReentrantLock[] subjectLocks = new ReentrantLock[SUBJECT_STRIPES];
+	// each is only changed by the holder of the subject lock
+	private final FileLock[] subjectFileLocks = new FileLock[SUBJECT_STRIPES];
+	private final Object channelLock = new Object();
+	private volatile FileChannel channel;
+
+	// locked by this
+	private int sharedCount;
+	private FileLock directoryFileLock;
+
+	private DirectoryLock(File lockFile) {
+		this.lockFile = lockFile;
+		for (int i = 0; i < SUBJECT_STRIPES; i++) {
+			subjectLocks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Return the lock for a lock file which is shared by everything in this process that uses the same file.
+	 */
+	public static DirectoryLock forFile(File lockFile) {
+		String key = lockFile.getAbsoluteFile().toPath().normalize().toString();
+		synchronized (LOCKS) {
+			DirectoryLock lock = LOCKS.get(key);
+			if (lock == null) {
+				lock = new DirectoryLock(lockFile);
+				LOCKS.put(key, lock);
+			}
+			return lock;
+		}
+	}
+
+	public File getLockFile() {
+		return lockFile;
+	}
+
+	/**
+	 * Lock the directory for a change that does not delete any schema-ids. Other writers can make the same sort of
+	 * changes at the same time.
+	 */
+	public void lockShared() throws IOException {
+		directoryLock.readLock().lock();
+		try {
+			synchronized (this) {
+				if (sharedCount == 0) {
+					directoryFileLock = channel().lock(0, 1, true);
+				}
+				sharedCount++;
+			}
+		} catch (IOException | RuntimeException e) {
+			directoryLock.readLock().unlock();
+			throw e;
+		}
+	}
+
+	public void unlockShared() {
+		synchronized (this) {
+			if (--sharedCount == 0) {
+				releaseQuietly(directoryFileLock);
+				directoryFileLock = null;
+			}
+		}
+		directoryLock.readLock().unlock();
+	}
+
+	/**
+	 * Lock the directory so no other writer can change it.
+	 */
+	public void lockExclusive() throws IOException {
+		directoryLock.writeLock().lock();
+		try {
+			synchronized (this) {
+				directoryFileLock = channel().lock(0, 1, false);
+			}
+		} catch (IOException | RuntimeException e) {
+			directoryLock.writeLock().unlock();
+			throw e;
+		}
+	}
+
+	public void unlockExclusive() {
+		synchronized (this) {
+			releaseQuietly(directoryFileLock);
+			directoryFileLock = null;
+		}
+		directoryLock.writeLock().unlock();
+	}
+
+	/**
+	 * Return the stripe of a subject. Subjects need to be locked in increasing stripe order so writers that change more
+	 * than one subject don't deadlock.
+	 */
+	public int subjectStripe(String subject) {
+		int hash = subject.hashCode();
+		return (hash ^ (hash >>> 16)) & (SUBJECT_STRIPES - 1);
+	}
+
+	/**
+	 * Lock the subjects in a stripe which can be done more than once by the same thread.
+	 */
+	public void lockSubjects(int stripe) throws IOException {
+		ReentrantLock lock = subjectLocks[stripe];
+		lock.lock();
+		if (lock.getHoldCount() > 1) {
+			return;
+		}
+		try {
+			subjectFileLocks[stripe] = channel().lock(1 + stripe, 1, false);
+		} catch (IOException | RuntimeException e) {
+			lock.unlock();
+			throw e;
+		}
+	}
+
+	public void unlockSubjects(int stripe) {
+		ReentrantLock lock = subjectLocks[stripe];
+		if (lock.getHoldCount() == 1) {
+			releaseQuietly(subjectFileLocks[stripe]);
+			subjectFileLocks[stripe] = null;
+		}
+		lock.unlock();
+	}
+
+	/**
+	 * Return our channel to the lock file which is kept open so our locks are not released by closing it. It is only
+	 * re-opened if it was closed out from under us, such as by an interrupt while waiting for a lock.
+	 */
+	private FileChannel channel() throws IOException {
+		FileChannel result = channel;
+		if (result != null && result.isOpen()) {
+			return result;
+		}
+		synchronized (channelLock) {
+			if (channel == null || !channel.isOpen()) {
+				channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+						StandardOpenOption.WRITE);
+			}
+			return channel;
+		}
+	}
+
+	private void releaseQuietly(FileLock lock) {
+		if (lock == null) {
+			return;
+		}
+		try {
+			lock.release();
+		} catch (IOException ioe) {
+			// ignored, the lock is gone if the channel was closed
+		}
+	}
+}
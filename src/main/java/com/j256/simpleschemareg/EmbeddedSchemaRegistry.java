@@ -0,0 +1,179 @@
+package com.j256.simpleschemareg;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+import com.j256.simpleschemareg.entities.SchemaDetails;
+import com.j256.simpleschemareg.entities.SubjectVersion;
+
+/**
+ * Registry that runs in the same JVM as the application. The methods have the same semantics as the REST endpoints
+ * but call the persister directly and return its shared objects so there is no HTTP, JSON, or socket overhead. With
+ * the file persister, a lookup by schema-id is a single map get. The returned objects, including the digest arrays,
+ * are shared and should not be modified. The REST API can optionally be served on the same store for other processes.
+ */
+public class EmbeddedSchemaRegistry implements Closeable {
+
+	private final SchemaPersister persister;
+	private Server server;
+	private ServerConnector connector;
+
+	/**
+	 * Create a registry which stores its schemas under the root directory.
+	 */
+	public EmbeddedSchemaRegistry(File rootDir) {
+		this(new FileSchemaPersister(rootDir));
+	}
+
+	public EmbeddedSchemaRegistry(SchemaPersister persister) {
+		this.persister = persister;
+	}
+
+	/**
+	 * Load the existing schemas. This needs to be called before the registry is used.
+	 */
+	public void start() throws IOException {
+		persister.initialize();
+	}
+
+	/**
+	 * Serve the REST API on the same store.
+	 * 
+	 * @param bindHost
+	 *            Host or address to bind to or null for all interfaces.
+	 * @param port
+	 *            Port to listen on or 0 to pick a free port.
+	 * @return The port that the server is listening on.
+	 */
+	public synchronized int startHttp(String bindHost, int port) throws Exception {
+		if (server != null) {
+			throw new IllegalStateException("http server has already been started");
+		}
+		server = new Server();
+		server.setHandler(new SchemaRegHandler(persister, null, false, false));
+		connector = new ServerConnector(server);
+		if (bindHost != null) {
+			connector.setHost(bindHost);
+		}
+		connector.setPort(port);
+		server.addConnector(connector);
+		server.start();
+		return connector.getLocalPort();
+	}
+
+	/**
+	 * See GET /schemas/ids/(id: schema-id).
+	 * 
+	 * @return Details about the schema or null if not found.
+	 */
+	public SchemaDetails lookupSchemaId(long id) {
+		return persister.lookupSchemaId(id);
+	}
+
+	/**
+	 * See GET /schemas/ids/(id: schema-id)/versions.
+	 * 
+	 * @return The subject versions that use the schema-id or null if not found.
+	 */
+	public SubjectVersion[] lookupSchemaIdVersions(long id) {
+		return persister.lookupSchemaIdVersions(id);
+	}
+
+	/**
+	 * See GET /schemas/digest/(hex: digest).
+	 * 
+	 * @return Details about the schema or null if not found.
+	 */
+	public SchemaDetails lookupSchemaDigest(byte[] digest) {
+		return persister.lookupSchemaDigest(digest);
+	}
+
+	/**
+	 * See GET /subjects.
+	 */
+	public String[] lookupSubjects() {
+		return persister.lookupSubjects();
+	}
+
+	/**
+	 * See GET /subjects with the prefix, after, offset, and limit parameters.
+	 */
+	public String[] lookupSubjects(String prefix, String after, int offset, int limit) {
+		return persister.lookupSubjects(prefix, after, offset, limit);
+	}
+
+	/**
+	 * See GET /subjects/(string: subject)/versions.
+	 * 
+	 * @return The live versions of the subject or null if the subject is not found.
+	 */
+	public long[] lookupSubjectVersions(String subject) {
+		return persister.lookupSubjectVersions(subject);
+	}
+
+	/**
+	 * See GET /subjects/(string: subject)/versions/(int: version).
+	 * 
+	 * @return Details about the schema with its version or null if not found.
+	 */
+	public SchemaDetails lookupSubjectVersion(String subject, long version) throws IOException {
+		return persister.lookupSubjectVersion(subject, version);
+	}
+
+	/**
+	 * See GET /subjects/(string: subject)/versions/latest.
+	 * 
+	 * @return Details about the latest schema with its version or null if the subject has no versions.
+	 */
+	public SchemaDetails lookupLatestSubjectVersion(String subject) throws IOException {
+		return persister.lookupLatestSubjectVersion(subject);
+	}
+
+	/**
+	 * See POST /subjects/(string: subject).
+	 * 
+	 * @return Details about the schema with its version, a version of 0 if the schema is registered but not in the
+	 *         subject, or null if the schema is not registered.
+	 */
+	public SchemaDetails lookupSchema(String subject, String schema) throws IOException {
+		return persister.lookupSchema(subject, schema);
+	}
+
+	/**
+	 * See POST /subjects/(string: subject)/versions. Registering a schema that is already in the subject returns its
+	 * existing version.
+	 * 
+	 * @return Details about the schema with its schema-id and version.
+	 */
+	public SchemaDetails register(String subject, String schema) throws IOException {
+		return persister.saveSchema(subject, schema);
+	}
+
+	public SchemaPersister getPersister() {
+		return persister;
+	}
+
+	/**
+	 * Stop the http server if it was started and close the persister if needed.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (server != null) {
+			try {
+				server.stop();
+			} catch (Exception e) {
+				throw new IOException("stopping http server failed", e);
+			} finally {
+				connector.close();
+				server = null;
+			}
+		}
+		if (persister instanceof JdbcSchemaPersister) {
+			((JdbcSchemaPersister) persister).close();
+		}
+	}
+}
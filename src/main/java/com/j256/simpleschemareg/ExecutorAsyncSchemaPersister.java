@@ -0,0 +1,195 @@
+package com.j256.simpleschemareg;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.j256.simpleschemareg.entities.SchemaDetails;
+import com.j256.simpleschemareg.entities.SubjectSchema;
+
+/**
+ * Adapts a blocking {@link SchemaPersister} to the {@link AsyncSchemaPersister} by running each call on a fixed number
+ * of threads with a bounded queue. If the queue is full then the future is completed exceptionally with a
+ * {@link RejectedExecutionException} right away so callers can shed the load instead of piling up requests.
+ */
+public class ExecutorAsyncSchemaPersister implements AsyncSchemaPersister {
+
+	/**
+	 * Default number of calls that can be waiting for a thread.
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+	private final SchemaPersister delegate;
+	private final ThreadPoolExecutor executor;
+
+	public ExecutorAsyncSchemaPersister(SchemaPersister delegate, int threadCount) {
+		this(delegate, threadCount, DEFAULT_QUEUE_SIZE);
+	}
+
+	public ExecutorAsyncSchemaPersister(SchemaPersister delegate, int threadCount, int queueSize) {
+		this.delegate = delegate;
+		final AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "schema-persister-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	@Override
+	public CompletableFuture<String[]> lookupSubjects() {
+		return submit(new Callable<String[]>() {
+			@Override
+			public String[] call() {
+				return delegate.lookupSubjects();
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<SchemaDetails> lookupSchema(final String schema) {
+		return submit(new Callable<SchemaDetails>() {
+			@Override
+			public SchemaDetails call() {
+				return delegate.lookupSchema(schema);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<SchemaDetails> lookupSchema(final String subject, final String schema) {
+		return submit(new Callable<SchemaDetails>() {
+			@Override
+			public SchemaDetails call() throws Exception {
+				return delegate.lookupSchema(subject, schema);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<SchemaDetails> lookupSchemaId(final long id) {
+		return submit(new Callable<SchemaDetails>() {
+			@Override
+			public SchemaDetails call() {
+				return delegate.lookupSchemaId(id);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<SchemaDetails> lookupSubjectVersion(final String subject, final long version) {
+		return submit(new Callable<SchemaDetails>() {
+			@Override
+			public SchemaDetails call() throws Exception {
+				return delegate.lookupSubjectVersion(subject, version);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<SchemaDetails> lookupLatestSubjectVersion(final String subject) {
+		return submit(new Callable<SchemaDetails>() {
+			@Override
+			public SchemaDetails call() throws Exception {
+				return delegate.lookupLatestSubjectVersion(subject);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<long[]> lookupSubjectVersions(final String subject) {
+		return submit(new Callable<long[]>() {
+			@Override
+			public long[] call() {
+				return delegate.lookupSubjectVersions(subject);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteSchemaId(final long id) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				delegate.deleteSchemaId(id);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<long[]> deleteSubject(final String subject) {
+		return submit(new Callable<long[]>() {
+			@Override
+			public long[] call() {
+				return delegate.deleteSubject(subject);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<SchemaDetails> deleteSubjectVersion(final String subject, final long version,
+			final boolean permanent) {
+		return submit(new Callable<SchemaDetails>() {
+			@Override
+			public SchemaDetails call() throws Exception {
+				return delegate.deleteSubjectVersion(subject, version, permanent);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<SchemaDetails> saveSchema(final String subject, final String schema) {
+		return submit(new Callable<SchemaDetails>() {
+			@Override
+			public SchemaDetails call() throws Exception {
+				return delegate.saveSchema(subject, schema);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<SchemaDetails[]> saveSchemas(final SubjectSchema[] subjectSchemas) {
+		return submit(new Callable<SchemaDetails[]>() {
+			@Override
+			public SchemaDetails[] call() throws Exception {
+				return delegate.saveSchemas(subjectSchemas);
+			}
+		});
+	}
+
+	/**
+	 * Stop the threads after the calls that are already queued have run.
+	 */
+	public void close() {
+		executor.shutdown();
+	}
+
+	private <T> CompletableFuture<T> submit(final Callable<T> callable) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.complete(callable.call());
+					} catch (Throwable th) {
+						future.completeExceptionally(th);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			future.completeExceptionally(ree);
+		}
+		return future;
+	}
+}
@@ -1,61 +1,209 @@
 package com.j256.simpleschemareg;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentSkipListSet;
 
-import com.google.gson.Gson;
+import com.j256.simpleschemareg.entities.EntityTypeAdapters;
+import com.j256.simpleschemareg.entities.ExportEntry;
+import com.j256.simpleschemareg.entities.ImportResponse;
 import com.j256.simpleschemareg.entities.SchemaDetails;
+import com.j256.simpleschemareg.entities.SubjectSchema;
 import com.j256.simpleschemareg.entities.SubjectVersion;
 
 /**
  * Persists the schema to the file-system.
+ * 
+ * <p>
+ * To keep the directories small as the registry grows, the id files are stored in sub-directories by id range as
+ * {@code ids/<id / 1000>/<id>} and the subjects are stored in sub-directories by a hash of their name as
+ * {@code subjects/<hash-hex>/<subject>}. Id files and subjects in the older flat {@code id/<id>} and
+ * {@code subject/<subject>} directories are still read and new versions of a flat subject are added to its existing
+ * directory. The highest schema-id that has been deleted is kept in the {@code max-id} file so it is not handed out
+ * again after a restart.
+ * </p>
+ * 
+ * <p>
+ * Each subject directory has a single manifest file with the versions of the subject, their schema-ids, and whether
+ * they have been deleted. It is replaced atomically when it changes and is cached in memory so lookups don't touch the
+ * disk. Deleting a subject marks its live versions as removed so their numbers are not reused but the subject is not
+ * listed or found until a new version is added. Older subject directories that have a symlink per version are
+ * converted to a manifest when they are loaded.
+ * </p>
+ * 
+ * <p>
+ * A persister can also be created as a read-only replica of a directory that is written by another process. It never
+ * changes the files and its change methods throw {@link IllegalStateException}. It is kept up to date by calling
+ * {@link #refreshFile(File)} when a file changes and {@link #rescan()} periodically which is what the
+ * {@link FileSchemaWatcher} does.
+ * </p>
+ * 
+ * <p>
+ * If the id allocator is shared, such as a {@link LeasedSchemaIdAllocator}, then other processes also write to the
+ * directory. Each change then locks the subjects that it changes with the other writers, see {@link DirectoryLock},
+ * and re-reads their manifests so it does not overwrite the other writers' versions. The writers also keep an index of
+ * the schema digests in {@code digests/<hex-prefix>/<hex>} files which hold the schema-id so a schema that another
+ * writer registered gets the same schema-id without reading all of the id files. The changes that delete schema-ids
+ * lock out the other writers and re-read the subject directories that have changed since they were last read.
+ * </p>
  */
 public class FileSchemaPersister implements SchemaPersister {
 
 	private static final String IDS_SUBDIR_NAME = "id";
 	private static final String SUBJECTS_SUBDIR_NAME = "subject";
+	private static final String SHARDED_IDS_SUBDIR_NAME = "ids";
+	private static final String SHARDED_SUBJECTS_SUBDIR_NAME = "subjects";
+	private static final String MANIFEST_FILE_NAME = "manifest";
+	private static final long IDS_PER_SHARD = 1000;
+	private static final int SUBJECT_SHARD_MASK = 0xFF;
 	private static final String ID_LINK_PREFIX = "id_";
 	private static final String ID_LINK_DELETE_SUFFIX = ".del";
 	private static final int ID_LINK_PREFIX_LENGTH = ID_LINK_PREFIX.length();
+	private static final String TEMP_FILE_PREFIX = ".";
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+	private static final String WRITE_LOCK_FILE_NAME = "write-lock";
+	private static final String MAX_ID_FILE_NAME = "max-id";
+	private static final String DIGESTS_SUBDIR_NAME = "digests";
+	// a directory changed this soon after we read it might change again without its modified time changing
+	private static final long RACY_MODIFIED_MILLIS = 2000;
+
+	private static final Comparator<SubjectVersion> SUBJECT_VERSION_COMPARATOR = new Comparator<SubjectVersion>() {
+		@Override
+		public int compare(SubjectVersion sv1, SubjectVersion sv2) {
+			int result = sv1.getSubject().compareTo(sv2.getSubject());
+			if (result == 0) {
+				result = Long.compare(sv1.getVersion(), sv2.getVersion());
+			}
+			return result;
+		}
+	};
 
 	private final Map<DigestInfo, SchemaDetails> digestSchemaMap = new ConcurrentHashMap<>();
 	private final Map<Long, SchemaDetails> schemaIdMap = new ConcurrentHashMap<>();
-	private final Map<SubjectVersion, SchemaDetails> deletedMap = new ConcurrentHashMap<>();
-	private final AtomicLong maxSchemaId = new AtomicLong();
-
-	private final Gson gson = new Gson();
+	private final Map<String, SubjectManifest> manifestMap = new ConcurrentHashMap<>();
+	// sorted index of the manifest subjects for the listings which skip the ones that have been deleted
+	private final NavigableSet<String> subjectIndex = new ConcurrentSkipListSet<>();
+	// reverse index of the live and deleted versions that use each schema-id, the arrays are replaced not changed
+	private final Map<Long, SubjectVersion[]> idVersionsMap = new ConcurrentHashMap<>();
+	private final SchemaIdAllocator idAllocator;
+	// when the reclaimer first saw that a schema-id was not referenced by any subject
+	private final Map<Long, Long> orphanSinceMap = new HashMap<>();
+	// directories with imported files whose entries have not been forced to disk
+	private final Set<File> unsyncedDirs = new HashSet<>();
 
 	private final File rootDir;
+	private final boolean readOnly;
+	// older flat directories which are only read
 	private final File subjectsDir;
 	private final File idsDir;
+	private final File shardedSubjectsDir;
+	private final File shardedIdsDir;
+	private final File digestsDir;
+	private final File maxIdFile;
+	// highest schema-id that has been deleted, locked by this
+	private long maxDeletedId;
+	// null if we are the only writer
+	private final DirectoryLock writerLock;
+	// locked by this
+	private int writerLockCount;
+	private boolean writerLockExclusive;
+	// modified time of each subject shard directory when a shared writer last read it, locked by this
+	private final Map<File, Long> shardModifiedMap = new HashMap<>();
+
+	private final SubjectManifest.DetailsResolver detailsResolver = new SubjectManifest.DetailsResolver() {
+		@Override
+		public SchemaDetails resolve(long id, long version) {
+			SchemaDetails details = schemaIdMap.get(id);
+			if (details == null && (readOnly || writerLock != null)) {
+				// a replica or a shared writer may see the manifest before the id file that it refers to
+				details = refreshId(id);
+			}
+			if (details == null) {
+				return null;
+			} else {
+				return new SchemaDetails(details, version);
+			}
+		}
+	};
 
 	public FileSchemaPersister(File dirRoot) {
+		this(dirRoot, false, new LocalSchemaIdAllocator());
+	}
+
+	/**
+	 * @param readOnly
+	 *            Set to true if this is a replica of a directory that is written by another persister.
+	 */
+	public FileSchemaPersister(File dirRoot, boolean readOnly) {
+		this(dirRoot, readOnly, new LocalSchemaIdAllocator());
+	}
+
+	/**
+	 * @param idAllocator
+	 *            Allocator of the ids of new schemas. Use a {@link LeasedSchemaIdAllocator} if other processes also
+	 *            write to the directory.
+	 */
+	public FileSchemaPersister(File dirRoot, SchemaIdAllocator idAllocator) {
+		this(dirRoot, false, idAllocator);
+	}
+
+	private FileSchemaPersister(File dirRoot, boolean readOnly, SchemaIdAllocator idAllocator) {
 		this.rootDir = dirRoot;
+		this.readOnly = readOnly;
+		this.idAllocator = idAllocator;
 		this.subjectsDir = new File(rootDir, SUBJECTS_SUBDIR_NAME);
-		subjectsDir.mkdirs();
 		this.idsDir = new File(rootDir, IDS_SUBDIR_NAME);
-		idsDir.mkdirs();
+		this.shardedSubjectsDir = new File(rootDir, SHARDED_SUBJECTS_SUBDIR_NAME);
+		this.shardedIdsDir = new File(rootDir, SHARDED_IDS_SUBDIR_NAME);
+		this.digestsDir = new File(rootDir, DIGESTS_SUBDIR_NAME);
+		this.maxIdFile = new File(rootDir, MAX_ID_FILE_NAME);
+		if (!readOnly && idAllocator.isShared()) {
+			this.writerLock = DirectoryLock.forFile(new File(rootDir, WRITE_LOCK_FILE_NAME));
+		} else {
+			this.writerLock = null;
+		}
+		if (!readOnly) {
+			shardedSubjectsDir.mkdirs();
+			shardedIdsDir.mkdirs();
+		}
 	}
 
 	@Override
 	public void initialize() throws IOException {
-		for (File file : idsDir.listFiles()) {
+		if (maxIdFile.exists()) {
+			String value = new String(Files.readAllBytes(maxIdFile.toPath()), StandardCharsets.UTF_8).trim();
+			try {
+				maxDeletedId = Long.parseLong(value);
+			} catch (NumberFormatException nfe) {
+				throw new IOException("max-id file " + maxIdFile + " is invalid: " + value);
+			}
+			// deleted schema-ids are never handed out again
+			idAllocator.observeId(maxDeletedId);
+		}
+		for (File file : listIdFiles()) {
 			if (file.isDirectory() || file.getName().startsWith(".")) {
 				// skip any files or dot directories
 				continue;
@@ -67,101 +215,347 @@ public class FileSchemaPersister implements SchemaPersister {
 				// skip non numbers
 				continue;
 			}
-			try (FileReader reader = new FileReader(file);) {
-				SchemaDetails details = gson.fromJson(reader, SchemaDetails.class);
-				if (details.getId() != id) {
-					System.err.println("WARNING: id file " + file + " contains wrong id " + details.getId());
-					continue;
-				}
-				digestSchemaMap.put(new DigestInfo(details.getDigest()), details);
-				schemaIdMap.put(details.getId(), details);
-				if (id > maxSchemaId.get()) {
-					maxSchemaId.set(id);
-				}
+			SchemaDetails details;
+			try {
+				details = readIdFile(file);
+			} catch (IOException ioe) {
+				System.err.println("WARNING: id file " + file + " could not be read: " + ioe.getMessage());
+				continue;
+			}
+			if (details == null) {
+				// removed out from under us
+				continue;
+			}
+			if (details.getId() != id) {
+				System.err.println("WARNING: id file " + file + " contains wrong id " + details.getId());
+				continue;
+			}
+			digestSchemaMap.put(new DigestInfo(details.getDigest()), details);
+			schemaIdMap.put(details.getId(), details);
+			idAllocator.observeId(id);
+		}
+
+		if (writerLock != null) {
+			indexDigests();
+		}
+
+		// the ids need to be loaded first so the manifest entries can be resolved
+		long nowMillis = System.currentTimeMillis();
+		for (File shardDir : listFiles(shardedSubjectsDir)) {
+			recordShardModified(shardDir, shardDir.lastModified(), nowMillis);
+			for (File subjectDir : listFiles(shardDir)) {
+				loadSubject(subjectDir);
 			}
 		}
+		// flat subjects take precedence
+		recordShardModified(subjectsDir, subjectsDir.lastModified(), nowMillis);
+		for (File subjectDir : listFiles(subjectsDir)) {
+			loadSubject(subjectDir);
+		}
 	}
 
 	@Override
 	public String[] lookupSubjects() {
+		List<String> subjects = new ArrayList<>(subjectIndex.size());
+		for (String subject : subjectIndex) {
+			if (isListed(subject)) {
+				subjects.add(subject);
+			}
+		}
+		return subjects.toArray(new String[subjects.size()]);
+	}
 
+	@Override
+	public String[] lookupSubjects(String prefix, String after, int offset, int limit) {
+		// seek to the later of the prefix or the cursor and then walk until we leave the prefix
+		Iterator<String> iterator;
+		if (after != null && (prefix == null || after.compareTo(prefix) >= 0)) {
+			iterator = subjectIndex.tailSet(after, false).iterator();
+		} else if (prefix != null) {
+			iterator = subjectIndex.tailSet(prefix, true).iterator();
+		} else {
+			iterator = subjectIndex.iterator();
+		}
 		List<String> subjects = new ArrayList<>();
-		for (File subjectDir : subjectsDir.listFiles()) {
-			subjects.add(subjectDir.getName());
+		int skipped = 0;
+		while (iterator.hasNext() && (limit <= 0 || subjects.size() < limit)) {
+			String subject = iterator.next();
+			if (prefix != null && !subject.startsWith(prefix)) {
+				break;
+			}
+			if (!isListed(subject)) {
+				continue;
+			}
+			if (skipped < offset) {
+				skipped++;
+			} else {
+				subjects.add(subject);
+			}
 		}
-
-		Collections.sort(subjects);
 		return subjects.toArray(new String[subjects.size()]);
 	}
 
 	@Override
 	public SchemaDetails lookupSchema(String schema) {
-		byte[] digest = digestFromSchema(schema);
-		return digestSchemaMap.get(new DigestInfo(digest));
+		return lookupSchemaDigest(digestFromSchema(schema));
 	}
 
 	@Override
-	public synchronized SchemaDetails saveSchema(String subject, String schema) throws IOException {
+	public SchemaDetails lookupSchemaDigest(byte[] digest) {
+		return digestSchemaMap.get(new DigestInfo(digest));
+	}
 
+	@Override
+	public SchemaDetails saveSchema(String subject, String schema) throws IOException {
 		byte[] digest = digestFromSchema(schema);
-		File subjectDir = new File(subjectsDir, subject);
-
-		SchemaDetails details = lookupSchema(subjectDir, digest);
-		if (details != null && details.getVersion() != 0) {
-			// return the details if we have a version otherwise we will need to make the symlink
-			return details;
+		synchronized (this) {
+			checkWritable();
+			int[] stripes = lockWriters(false, subject);
+			try {
+				Map<String, SubjectManifest> changedManifests = new HashMap<>();
+				SchemaDetails details = addSchema(subject, schema, digest, changedManifests);
+				saveManifests(changedManifests);
+				return details;
+			} finally {
+				unlockWriters(stripes);
+			}
 		}
+	}
 
-		subjectDir.mkdirs();
-		File idFile;
-
-		if (details == null) {
+	/**
+	 * The schemas are digested before taking the lock and each subject's manifest is written once for the batch.
+	 */
+	@Override
+	public SchemaDetails[] saveSchemas(SubjectSchema[] subjectSchemas) throws IOException {
+		byte[][] digests = new byte[subjectSchemas.length][];
+		for (int i = 0; i < subjectSchemas.length; i++) {
+			digests[i] = digestFromSchema(subjectSchemas[i].getSchema());
+		}
+		SchemaDetails[] results = new SchemaDetails[subjectSchemas.length];
+		String[] subjects = new String[subjectSchemas.length];
+		for (int i = 0; i < subjectSchemas.length; i++) {
+			subjects[i] = subjectSchemas[i].getSubject();
+		}
+		synchronized (this) {
+			checkWritable();
+			int[] stripes = lockWriters(false, subjects);
+			try {
+				Map<String, SubjectManifest> changedManifests = new HashMap<>();
+				for (int i = 0; i < subjectSchemas.length; i++) {
+					results[i] = addSchema(subjectSchemas[i].getSubject(), subjectSchemas[i].getSchema(), digests[i],
+							changedManifests);
+				}
+				saveManifests(changedManifests);
+			} finally {
+				unlockWriters(stripes);
+			}
+		}
+		return results;
+	}
 
-			long id = maxSchemaId.incrementAndGet();
-			details = new SchemaDetails(schema, digest, id);
+	@Override
+	public synchronized SchemaDetails saveSchema(String subject, long version, long id, String schema)
+			throws IOException {
+		checkWritable();
+		int[] stripes = lockWriters(false, subject);
+		try {
+			return saveSchemaId(subject, version, id, schema);
+		} finally {
+			unlockWriters(stripes);
+		}
+	}
 
-			idFile = new File(idsDir, Long.toString(id));
-			try (Writer writer = new FileWriter(idFile);) {
-				gson.toJson(details, writer);
+	private SchemaDetails saveSchemaId(String subject, long version, long id, String schema) throws IOException {
+		SubjectManifest manifest = null;
+		if (subject != null) {
+			// checked first so a conflicting version does not leave a new id file behind
+			manifest = findManifest(subject);
+			SubjectManifest.Entry entry = (manifest == null ? null : manifest.findEntry(version));
+			if (entry != null && entry.getId() != id) {
+				throw new SubjectVersionConflictException(subject, version, entry.getId(), id);
 			}
+		}
+		SchemaDetails details = findSchemaId(id);
+		if (details != null) {
+			if (schema != null && !Arrays.equals(details.getDigest(), digestFromSchema(schema))) {
+				throw new SchemaIdConflictException(id);
+			}
+		} else {
+			if (schema == null) {
+				return null;
+			}
+			byte[] digest = digestFromSchema(schema);
+			details = writeNewIdFile(new SchemaDetails(schema, digest, id));
+			if (!Arrays.equals(details.getDigest(), digest)) {
+				// another writer just saved the id with a different schema
+				throw new SchemaIdConflictException(id);
+			}
+		}
+		if (subject == null) {
+			return details;
+		}
 
-			digestSchemaMap.put(new DigestInfo(digest), details);
-			schemaIdMap.put(id, details);
+		if (manifest == null) {
+			File subjectDir = shardedSubjectDir(subject);
+			subjectDir.mkdirs();
+			manifest = new SubjectManifest(subject, subjectDir, new SubjectManifest.Entry[0]);
 		} else {
-			idFile = new File(idsDir, Long.toString(details.getId()));
+			SubjectManifest.Entry entry = manifest.findEntry(version);
+			if (entry != null) {
+				// already have this version
+				return entry.getDetails();
+			}
 		}
 
-		long maxVersion = 0;
-		for (File file : subjectDir.listFiles()) {
-			Path path = file.toPath();
-			if (!Files.isSymbolicLink(path)) {
+		SubjectManifest.Entry entry =
+				new SubjectManifest.Entry(version, id, false, new SchemaDetails(details, version));
+		saveManifest(manifest.withEntry(entry));
+		return entry.getDetails();
+	}
+
+	/**
+	 * Each subject's manifest is written once per batch instead of once per version and the files of the batch are
+	 * forced to disk together at the end of the batch. The directory entries are forced by {@link #sync()}.
+	 */
+	@Override
+	public synchronized ImportResponse importSchemas(List<ExportEntry> entries) throws IOException {
+		checkWritable();
+		String[] subjects = new String[entries.size()];
+		for (int i = 0; i < subjects.length; i++) {
+			subjects[i] = entries.get(i).getSubject();
+		}
+		int[] stripes = lockWriters(false, subjects);
+		try {
+			return importEntries(entries);
+		} finally {
+			unlockWriters(stripes);
+		}
+	}
+
+	private ImportResponse importEntries(List<ExportEntry> entries) throws IOException {
+		// check the whole batch before anything is written so a conflict rejects all of it
+		Map<Long, byte[]> newDigests = new HashMap<>();
+		Map<SubjectVersion, Long> batchVersions = new HashMap<>();
+		for (ExportEntry importEntry : entries) {
+			long id = importEntry.getId();
+			String subject = importEntry.getSubject();
+			if (subject != null) {
+				SubjectVersion subjectVersion = new SubjectVersion(subject, importEntry.getVersion());
+				Long existingId = batchVersions.get(subjectVersion);
+				if (existingId == null) {
+					SubjectManifest manifest = findManifest(subject);
+					SubjectManifest.Entry entry =
+							(manifest == null ? null : manifest.findEntry(importEntry.getVersion()));
+					existingId = (entry == null ? id : entry.getId());
+					batchVersions.put(subjectVersion, existingId);
+				}
+				if (existingId != id) {
+					throw new SubjectVersionConflictException(subject, importEntry.getVersion(), existingId, id);
+				}
+			}
+			if (importEntry.getSchema() == null) {
 				continue;
 			}
-			try {
-				long version = Long.parseLong(file.getName());
-				if (version > maxVersion) {
-					maxVersion = version;
+			byte[] digest = digestFromSchema(importEntry.getSchema());
+			SchemaDetails existing = findSchemaId(id);
+			byte[] existingDigest = (existing == null ? newDigests.get(id) : existing.getDigest());
+			if (existingDigest == null) {
+				newDigests.put(id, digest);
+			} else if (!Arrays.equals(existingDigest, digest)) {
+				throw new SchemaIdConflictException(id);
+			}
+		}
+
+		long schemaCount = 0;
+		long versionCount = 0;
+		List<File> writtenFiles = new ArrayList<>();
+		Map<String, SubjectManifest> changedManifests = new HashMap<>();
+		for (ExportEntry importEntry : entries) {
+			long id = importEntry.getId();
+			SchemaDetails details = schemaIdMap.get(id);
+			if (details == null && importEntry.getSchema() != null) {
+				SchemaDetails newDetails = new SchemaDetails(importEntry.getSchema(), newDigests.get(id), id);
+				details = writeNewIdFile(newDetails);
+				if (details == newDetails) {
+					writtenFiles.add(shardedIdFile(id));
+					schemaCount++;
+				} else if (!Arrays.equals(details.getDigest(), newDetails.getDigest())) {
+					// another writer just saved the id with a different schema
+					throw new SchemaIdConflictException(id);
 				}
-			} catch (NumberFormatException nfe) {
+			}
+			String subject = importEntry.getSubject();
+			if (details == null || subject == null) {
+				continue;
+			}
+			long version = importEntry.getVersion();
+			SubjectManifest manifest = changedManifests.get(subject);
+			if (manifest == null) {
+				manifest = findManifest(subject);
+			}
+			if (manifest == null) {
+				File subjectDir = shardedSubjectDir(subject);
+				subjectDir.mkdirs();
+				manifest = new SubjectManifest(subject, subjectDir, new SubjectManifest.Entry[0]);
+			} else if (manifest.findEntry(version) != null) {
+				// already have this version
 				continue;
 			}
+			changedManifests.put(subject, manifest
+					.withEntry(new SubjectManifest.Entry(version, id, false, new SchemaDetails(details, version))));
+			versionCount++;
 		}
+		for (SubjectManifest manifest : changedManifests.values()) {
+			saveManifest(manifest);
+			writtenFiles.add(new File(manifest.getDir(), MANIFEST_FILE_NAME));
+		}
+		for (File file : writtenFiles) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);) {
+				channel.force(true);
+			}
+			unsyncedDirs.add(file.getParentFile());
+		}
+		return new ImportResponse(schemaCount, versionCount);
+	}
 
-		// now link to the new subject
-		maxVersion++;
-		Path link = Paths.get(subjectDir.getPath(), Long.toString(maxVersion));
-		if (Files.exists(link)) {
-			Files.delete(link);
+	@Override
+	public synchronized void sync() throws IOException {
+		for (File dir : unsyncedDirs) {
+			try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);) {
+				channel.force(true);
+			} catch (IOException ioe) {
+				// some platforms can't open or force a directory
+			}
 		}
-		Files.createSymbolicLink(link, new File(generateSchemaIdFileName(details.getId())).toPath());
-		return new SchemaDetails(details, maxVersion);
+		unsyncedDirs.clear();
 	}
 
 	@Override
-	public SchemaDetails lookupSchema(String subject, String schema) throws IOException {
-		byte[] digest = digestFromSchema(schema);
-		File subjectDir = new File(subjectsDir, subject);
-		return lookupSchema(subjectDir, digest);
+	public Iterator<SchemaDetails> schemaIterator() {
+		return Collections.unmodifiableCollection(schemaIdMap.values()).iterator();
+	}
+
+	@Override
+	public SchemaDetails lookupSchema(String subject, String schema) {
+		return lookupSchemaDigest(subject, digestFromSchema(schema));
+	}
+
+	@Override
+	public SchemaDetails lookupSchemaDigest(String subject, byte[] digest) {
+		SchemaDetails details = digestSchemaMap.get(new DigestInfo(digest));
+		if (details == null) {
+			return null;
+		}
+		SubjectManifest manifest = manifestMap.get(subject);
+		if (manifest == null) {
+			return details;
+		}
+		SubjectManifest.Entry entry = manifest.findLiveId(details.getId());
+		if (entry == null) {
+			return details;
+		} else {
+			return entry.getDetails();
+		}
 	}
 
 	@Override
@@ -171,174 +565,1154 @@ public class FileSchemaPersister implements SchemaPersister {
 	}
 
 	@Override
-	public SchemaDetails lookupSubjectVersion(String subject, long version) throws IOException {
-		File subjectDir = new File(subjectsDir, subject);
-		File subjectVersionFile = new File(subjectDir, Long.toString(version));
-		if (Files.isSymbolicLink(subjectVersionFile.toPath())) {
-			return readIdLink(subjectVersionFile);
-		} else {
+	public SubjectVersion[] lookupSchemaIdVersions(long id) {
+		if (!schemaIdMap.containsKey(id)) {
 			return null;
 		}
+		SubjectVersion[] subjectVersions = idVersionsMap.get(id);
+		if (subjectVersions == null) {
+			return new SubjectVersion[0];
+		}
+		List<SubjectVersion> results = new ArrayList<>(subjectVersions.length);
+		for (SubjectVersion subjectVersion : subjectVersions) {
+			SubjectManifest manifest = manifestMap.get(subjectVersion.getSubject());
+			SubjectManifest.Entry entry = (manifest == null ? null : manifest.findEntry(subjectVersion.getVersion()));
+			if (entry != null && !entry.isDeleted()) {
+				results.add(subjectVersion);
+			}
+		}
+		Collections.sort(results, SUBJECT_VERSION_COMPARATOR);
+		return results.toArray(new SubjectVersion[results.size()]);
 	}
 
 	@Override
-	public long[] lookupSubjectVersions(String subject) {
-		return listVersions(subject, false);
+	public SchemaDetails lookupSubjectVersion(String subject, long version) throws IOException {
+		SubjectManifest manifest = manifestMap.get(subject);
+		if (manifest == null) {
+			return null;
+		}
+		SubjectManifest.Entry entry = manifest.findEntry(version);
+		if (entry == null || entry.isDeleted()) {
+			return null;
+		}
+		if (!schemaIdMap.containsKey(entry.getId())) {
+			// might as well remove it if the schema-id doesn't exist
+			removeDanglingVersion(subject, version);
+			return null;
+		}
+		return entry.getDetails();
 	}
 
 	@Override
-	public void deleteSchemaId(long id) {
-		SchemaDetails details = lookupSchemaId(id);
-		if (details != null) {
-			File idFile = new File(idsDir, Long.toString(id));
-			idFile.delete();
-			schemaIdMap.remove(id);
-			digestSchemaMap.remove(new DigestInfo(details.getDigest()));
+	public SchemaDetails lookupLatestSubjectVersion(String subject) throws IOException {
+		SubjectManifest manifest = manifestMap.get(subject);
+		if (manifest == null) {
+			return null;
+		}
+		SubjectManifest.Entry entry = manifest.getLatestLiveEntry();
+		if (entry == null) {
+			return null;
+		}
+		if (schemaIdMap.containsKey(entry.getId())) {
+			return entry.getDetails();
 		}
+
+		// the latest version is dangling so fall back to the ones before it
+		removeDanglingVersion(subject, entry.getVersion());
+		SubjectManifest.Entry[] entries = manifest.getEntries();
+		for (int i = entries.length - 1; i >= 0; i--) {
+			if (!entries[i].isDeleted() && schemaIdMap.containsKey(entries[i].getId())) {
+				return entries[i].getDetails();
+			}
+		}
+		return null;
 	}
 
 	@Override
-	public long[] deleteSubject(String subject) {
-		return listVersions(subject, true);
+	public long[] lookupSubjectVersions(String subject) {
+		SubjectManifest manifest = manifestMap.get(subject);
+		if (manifest == null || !manifest.isListed()) {
+			return null;
+		} else {
+			return manifest.getLiveVersions();
+		}
 	}
 
 	@Override
-	public SchemaDetails deleteSubjectVersion(String subject, long version, boolean permanent) throws IOException {
-
-		File subjectDir = new File(subjectsDir, subject);
-		String versionStr = Long.toString(version);
-		File versionDeleteFile = new File(subjectDir, versionStr + ID_LINK_DELETE_SUFFIX);
-
-		SchemaDetails details = lookupSubjectVersion(subject, version);
-		if (details == null) {
-			// if it has already been deleted then see if it is in our delete-map
-			if (permanent) {
-				details = deletedMap.remove(new SubjectVersion(subject, version));
-				if (details == null) {
-					if (Files.isSymbolicLink(versionDeleteFile.toPath())) {
-						details = readIdLink(versionDeleteFile);
-						if (details != null) {
-							deleteSchemaId(details.getId());
-						}
-					}
-				} else {
-					deleteSchemaId(details.getId());
+	public synchronized void deleteSchemaId(long id) {
+		checkWritable();
+		int[] stripes;
+		try {
+			stripes = lockWriters(true);
+		} catch (IOException ioe) {
+			System.err.println("WARNING: could not lock " + writerLock.getLockFile() + " to delete schema-id " + id
+					+ ": " + ioe.getMessage());
+			return;
+		}
+		try {
+			SchemaDetails details = findSchemaId(id);
+			if (details != null) {
+				if (id > maxDeletedId) {
+					// recorded first so the schema-id is not reused even if it was the highest one
+					writeFileAtomically(maxIdFile, Long.toString(id).getBytes(StandardCharsets.UTF_8));
+					maxDeletedId = id;
 				}
-				versionDeleteFile.delete();
-				subjectDir.delete();
-			}
-			if (details == null) {
-				return null;
-			} else {
-				return new SchemaDetails(details, version);
+				// the digest index is removed first so it never refers to a missing id file
+				unindexDigest(details);
+				idFile(id).delete();
+				schemaIdMap.remove(id);
+				digestSchemaMap.remove(new DigestInfo(details.getDigest()));
 			}
+		} catch (IOException ioe) {
+			System.err.println("WARNING: could not record max-id before deleting schema-id " + id + ": "
+					+ ioe.getMessage());
+		} finally {
+			unlockWriters(stripes);
 		}
-
-		File versionFile = new File(subjectDir, versionStr);
-		versionFile.renameTo(versionDeleteFile);
-		deletedMap.put(new SubjectVersion(subject, version), details);
-		return new SchemaDetails(details, version);
 	}
 
-	private byte[] digestFromSchema(String schema) {
-		byte[] digest;
+	@Override
+	public synchronized long[] deleteSubject(String subject) {
+		checkWritable();
+		int[] stripes;
 		try {
-			MessageDigest digestInstance = MessageDigest.getInstance("md5");
-			digest = digestInstance.digest(schema.getBytes());
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
+			stripes = lockWriters(false, subject);
+		} catch (IOException ioe) {
+			System.err.println("WARNING: could not lock " + writerLock.getLockFile() + " to delete subject '"
+					+ subject + "': " + ioe.getMessage());
 			return null;
 		}
-		return digest;
+		try {
+			SubjectManifest manifest = findManifest(subject);
+			if (manifest == null || !manifest.isListed()) {
+				return null;
+			}
+			long[] versions = manifest.getLiveVersions();
+			saveManifest(manifest.withLiveRemoved(System.currentTimeMillis()));
+			return versions;
+		} catch (IOException ioe) {
+			System.err.println("WARNING: could not save manifest for subject '" + subject + "': " + ioe.getMessage());
+			return null;
+		} finally {
+			unlockWriters(stripes);
+		}
 	}
 
-	private long[] listVersions(String subject, boolean delete) {
-		File subjectDir = new File(subjectsDir, subject);
-		if (!subjectDir.exists()) {
-			return null;
+	@Override
+	public synchronized SchemaDetails deleteSubjectVersion(String subject, long version, boolean permanent)
+			throws IOException {
+		checkWritable();
+		// a permanent delete might delete the schema-id so the other writers are locked out
+		int[] stripes = lockWriters(permanent, subject);
+		try {
+			return deleteVersion(subject, version, permanent);
+		} finally {
+			unlockWriters(stripes);
 		}
+	}
 
-		List<Long> results = new ArrayList<>();
-		for (File file : subjectDir.listFiles()) {
-			try {
-				long version = Long.parseLong(file.getName());
-				results.add(version);
-				if (delete) {
-					file.delete();
-				}
-			} catch (NumberFormatException nfe) {
-				// ignore it
-			}
+	private SchemaDetails deleteVersion(String subject, long version, boolean permanent) throws IOException {
+		SubjectManifest manifest = findManifest(subject);
+		if (manifest == null) {
+			return null;
 		}
-		if (delete) {
-			subjectDir.delete();
+		SubjectManifest.Entry entry = manifest.findEntry(version);
+		if (entry == null || entry.isRemoved()) {
+			// removed versions can't be found, the reclaimer cleans them up
+			return null;
 		}
 
-		Collections.sort(results);
-		long[] versions = new long[results.size()];
-		int i = 0;
-		for (Long version : results) {
-			versions[i++] = version;
+		if (!entry.isDeleted()) {
+			if (findSchemaId(entry.getId()) == null) {
+				removeDanglingVersion(subject, version);
+				return null;
+			}
+			// first time around we just mark it as deleted
+			saveManifest(manifest.withEntry(entry.asDeleted(System.currentTimeMillis())));
+			return entry.getDetails();
 		}
-		return versions;
-	}
-
-	private SchemaDetails lookupSchema(File subjectDir, byte[] digest) throws IOException {
 
-		SchemaDetails details = digestSchemaMap.get(new DigestInfo(digest));
-		if (details == null) {
+		if (!permanent) {
+			// already deleted
 			return null;
 		}
 
-		if (!subjectDir.isDirectory()) {
-			return details;
+		// now really blow it away
+		saveManifest(manifest.withoutVersion(version));
+		if (writerLock != null) {
+			// other writers' subjects might use the schema-id
+			rescanChangedSubjects();
 		}
+		if (!idVersionsMap.containsKey(entry.getId())) {
+			// only if no other version still uses it
+			deleteSchemaId(entry.getId());
+		}
+		return entry.getDetails();
+	}
 
-		Path idFilePath = new File(generateSchemaIdFileName(details.getId())).toPath();
+	/**
+	 * Convert any id files that are in the legacy JSON format to the binary record format. This can be called while
+	 * this persister is in use, which the server does at startup with -m, because it holds the same locks as the
+	 * deletes. If other writers share the directory then they are locked out until it finishes. Only the id files are
+	 * read so it can also be called without {@link #initialize()}.
+	 * 
+	 * @return The number of files converted.
+	 */
+	public synchronized int migrateIdFiles() throws IOException {
+		checkWritable();
+		int[] stripes = lockWriters(true);
+		try {
+			return migrateLegacyIdFiles();
+		} finally {
+			unlockWriters(stripes);
+		}
+	}
 
-		// find the version number in this subject
-		for (File file : subjectDir.listFiles()) {
-			Path path = file.toPath();
-			if (!Files.isSymbolicLink(path)) {
+	private int migrateLegacyIdFiles() throws IOException {
+		int count = 0;
+		for (File file : listIdFiles()) {
+			if (file.isDirectory() || file.getName().startsWith(".")) {
 				continue;
 			}
-			long version;
 			try {
-				version = Long.parseLong(file.getName());
+				Long.parseLong(file.getName());
 			} catch (NumberFormatException nfe) {
-				// ignore this
 				continue;
 			}
-			Path idPath = Files.readSymbolicLink(path);
-			if (idPath.equals(idFilePath)) {
-				return new SchemaDetails(details, version);
+			byte[] bytes;
+			try {
+				bytes = Files.readAllBytes(file.toPath());
+			} catch (NoSuchFileException nsfe) {
+				// deleted out from under us
+				continue;
+			}
+			if (IdRecordFormat.isBinary(bytes)) {
+				continue;
+			}
+			SchemaDetails details;
+			try {
+				details = IdRecordFormat.decode(bytes);
+			} catch (IOException ioe) {
+				System.err.println("WARNING: id file " + file + " could not be migrated: " + ioe.getMessage());
+				continue;
 			}
+			writeIdFile(file, details);
+			count++;
 		}
-		return details;
+		return count;
 	}
 
-	private String generateSchemaIdFileName(long schemaId) {
-		return ID_LINK_PREFIX + Long.toString(schemaId);
+	/**
+	 * Reclaim the space used by deleted versions and schemas. Versions that were deleted at least graceMillis ago are
+	 * removed from the manifests and then the id files that have not been referenced by any version for graceMillis
+	 * are removed. The grace period gives clients time to stop using the ids. This only looks at our cached manifests
+	 * so it must not be run while other writers share the root directory.
+	 */
+	public ReclaimStats reclaim(long graceMillis) throws IOException {
+		return reclaim(graceMillis, this);
 	}
 
-	private SchemaDetails readIdLink(File subjectVersionFile) throws IOException {
-		Path idPath = Files.readSymbolicLink(subjectVersionFile.toPath());
-		String idName = idPath.toString();
-		if (!idName.startsWith(ID_LINK_PREFIX)) {
-			return null;
+	/**
+	 * Same as {@link #reclaim(long)} but the unreferenced schema-ids are deleted through the id persister, such as a
+	 * {@link ReplicatingSchemaPersister} that wraps us, so the deletes can be seen by others.
+	 */
+	public synchronized ReclaimStats reclaim(long graceMillis, SchemaPersister idPersister) throws IOException {
+		checkWritable();
+		if (writerLock != null) {
+			throw new IllegalStateException("schema persister for " + rootDir + " is shared with other writers");
 		}
-		// get our id-name by removing the prefix from the link
-		idName = idName.substring(ID_LINK_PREFIX_LENGTH);
+		long nowMillis = System.currentTimeMillis();
 
-		// try reading in the id file
-		try (FileReader reader = new FileReader(new File(idsDir, idName));) {
-			SchemaDetails details = gson.fromJson(reader, SchemaDetails.class);
-			return details;
-		} catch (FileNotFoundException fnfe) {
-			// might as well remove it if the id file doesn't exist
-			subjectVersionFile.delete();
-			return null;
+		int versionCount = 0;
+		Map<Long, Integer> refCountMap = new HashMap<>();
+		for (SubjectManifest manifest : new ArrayList<>(manifestMap.values())) {
+			SubjectManifest pruned = manifest.withoutStaleDeleted(nowMillis, graceMillis);
+			if (pruned != manifest) {
+				versionCount += manifest.getEntries().length - pruned.getEntries().length;
+				// the highest version is kept so this is never empty
+				saveManifest(pruned, false);
+			}
+			for (SubjectManifest.Entry entry : pruned.getEntries()) {
+				if (!entry.isStale(nowMillis, graceMillis)) {
+					Integer count = refCountMap.get(entry.getId());
+					refCountMap.put(entry.getId(), (count == null ? 1 : count + 1));
+				}
+			}
+		}
+
+		int idCount = 0;
+		long byteCount = 0;
+		for (Long id : new ArrayList<>(schemaIdMap.keySet())) {
+			if (refCountMap.containsKey(id)) {
+				orphanSinceMap.remove(id);
+				continue;
+			}
+			Long sinceMillis = orphanSinceMap.get(id);
+			if (sinceMillis == null) {
+				sinceMillis = nowMillis;
+				orphanSinceMap.put(id, sinceMillis);
+			}
+			if (nowMillis - sinceMillis >= graceMillis) {
+				byteCount += idFile(id).length();
+				idPersister.deleteSchemaId(id);
+				orphanSinceMap.remove(id);
+				idCount++;
+			}
+		}
+		// ids might have been deleted some other way
+		orphanSinceMap.keySet().retainAll(schemaIdMap.keySet());
+		return new ReclaimStats(versionCount, idCount, byteCount);
+	}
+
+	/**
+	 * Refresh our cache from a file or directory in the root directory that has been created, changed, or removed.
+	 * Files that are not id files, subject directories, or manifests are ignored.
+	 */
+	public synchronized void refreshFile(File file) {
+		String name = file.getName();
+		File parent = file.getParentFile();
+		if (name.startsWith(TEMP_FILE_PREFIX) || parent == null) {
+			return;
 		}
+		File grandParent = parent.getParentFile();
+		if (parent.equals(idsDir) || shardedIdsDir.equals(grandParent)) {
+			long id;
+			try {
+				id = Long.parseLong(name);
+			} catch (NumberFormatException nfe) {
+				return;
+			}
+			refreshId(id);
+		} else if (parent.equals(subjectsDir) || shardedSubjectsDir.equals(grandParent)) {
+			refreshSubject(name);
+		} else if (MANIFEST_FILE_NAME.equals(name) && grandParent != null
+				&& (grandParent.equals(subjectsDir) || shardedSubjectsDir.equals(grandParent.getParentFile()))) {
+			refreshSubject(parent.getName());
+		}
+	}
+
+	/**
+	 * Compare our cache with all of the files in the root directory and pick up any changes. This is slower than
+	 * {@link #refreshFile(File)} but will find changes that were not reported.
+	 */
+	public synchronized void rescan() {
+		rescanIds();
+		rescanSubjects();
+	}
+
+	private synchronized void rescanIds() {
+		Set<Long> ids = new HashSet<>();
+		for (File file : listIdFiles()) {
+			if (file.isDirectory() || file.getName().startsWith(TEMP_FILE_PREFIX)) {
+				continue;
+			}
+			long id;
+			try {
+				id = Long.parseLong(file.getName());
+			} catch (NumberFormatException nfe) {
+				continue;
+			}
+			ids.add(id);
+			// id files are not changed once written
+			if (!schemaIdMap.containsKey(id)) {
+				refreshId(id);
+			}
+		}
+		for (Long id : new ArrayList<>(schemaIdMap.keySet())) {
+			if (!ids.contains(id)) {
+				refreshId(id);
+			}
+		}
+	}
+
+	private synchronized void rescanSubjects() {
+		Set<String> subjects = new HashSet<>();
+		for (File shardDir : listFiles(shardedSubjectsDir)) {
+			for (File subjectDir : listFiles(shardDir)) {
+				subjects.add(subjectDir.getName());
+			}
+		}
+		for (File subjectDir : listFiles(subjectsDir)) {
+			subjects.add(subjectDir.getName());
+		}
+		for (String subject : subjects) {
+			refreshSubject(subject);
+		}
+		for (String subject : new ArrayList<>(manifestMap.keySet())) {
+			if (!subjects.contains(subject)) {
+				removeManifest(subject);
+			}
+		}
+	}
+
+	/**
+	 * Re-read the subjects in the shard directories that have changed since we last read them. The other writers touch
+	 * a shard directory whenever they change a manifest in it.
+	 */
+	private synchronized void rescanChangedSubjects() {
+		List<File> shardDirs = new ArrayList<>(Arrays.asList(listFiles(shardedSubjectsDir)));
+		shardDirs.add(subjectsDir);
+		long nowMillis = System.currentTimeMillis();
+		for (File shardDir : shardDirs) {
+			// read before listing so a change made while we list is seen next time
+			long modifiedMillis = shardDir.lastModified();
+			Long lastModifiedMillis = shardModifiedMap.get(shardDir);
+			if (lastModifiedMillis != null && lastModifiedMillis == modifiedMillis) {
+				continue;
+			}
+			recordShardModified(shardDir, modifiedMillis, nowMillis);
+			Set<String> subjects = new HashSet<>();
+			for (File subjectDir : listFiles(shardDir)) {
+				if (subjectDir.isDirectory()) {
+					subjects.add(subjectDir.getName());
+				}
+			}
+			// along with the subjects that were removed from it
+			for (SubjectManifest manifest : manifestMap.values()) {
+				if (shardDir.equals(manifest.getDir().getParentFile())) {
+					subjects.add(manifest.getSubject());
+				}
+			}
+			for (String subject : subjects) {
+				refreshSubject(subject);
+			}
+		}
+	}
+
+	private void recordShardModified(File shardDir, long modifiedMillis, long nowMillis) {
+		if (writerLock == null) {
+			return;
+		}
+		if (nowMillis - modifiedMillis < RACY_MODIFIED_MILLIS) {
+			// it could change again without its modified time changing so it is read again next time
+			shardModifiedMap.put(shardDir, -1L);
+		} else {
+			shardModifiedMap.put(shardDir, modifiedMillis);
+		}
+	}
+
+	/**
+	 * Root directory of the persister.
+	 */
+	public File getRootDir() {
+		return rootDir;
+	}
+
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Return the digest of a schema which is the MD5 of its UTF-8 bytes. The schema is the string exactly as it was
+	 * registered, after the JSON escapes in the request have been decoded, without any normalization. Clients can use
+	 * the same rule to look up a schema by the hex of its digest.
+	 */
+	public static byte[] digestFromSchema(String schema) {
+		byte[] digest;
+		try {
+			MessageDigest digestInstance = MessageDigest.getInstance("md5");
+			digest = digestInstance.digest(schema.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+			return null;
+		}
+		return digest;
+	}
+
+	/**
+	 * Return the id file for a schema-id in the sharded layout of a schemas root directory.
+	 */
+	public static File shardedIdFile(File rootDir, long id) {
+		File shardDir = new File(new File(rootDir, SHARDED_IDS_SUBDIR_NAME), Long.toString(id / IDS_PER_SHARD));
+		return new File(shardDir, Long.toString(id));
+	}
+
+	/**
+	 * Return the directory for a new subject in the sharded layout of a schemas root directory.
+	 */
+	public static File shardedSubjectDir(File rootDir, String subject) {
+		int hash = subject.hashCode();
+		// mix in the high bits since we only use the low ones
+		String shard = String.format("%02x", (hash ^ (hash >>> 16)) & SUBJECT_SHARD_MASK);
+		return new File(new File(new File(rootDir, SHARDED_SUBJECTS_SUBDIR_NAME), shard), subject);
+	}
+
+	/**
+	 * Write the manifest file into a subject directory with live versions of the subject and their schema-ids. This
+	 * is for tools that generate a schemas directory while no persister is using it.
+	 */
+	public static void writeManifest(File subjectDir, long[] versions, long[] ids) throws IOException {
+		List<SubjectManifest.Entry> entries = new ArrayList<>(versions.length);
+		for (int i = 0; i < versions.length; i++) {
+			entries.add(new SubjectManifest.Entry(versions[i], ids[i], false, null));
+		}
+		byte[] bytes = SubjectManifest.fromEntries(subjectDir.getName(), subjectDir, entries).toBytes();
+		Files.write(new File(subjectDir, MANIFEST_FILE_NAME).toPath(), bytes);
+	}
+
+	private boolean isListed(String subject) {
+		SubjectManifest manifest = manifestMap.get(subject);
+		return (manifest != null && manifest.isListed());
+	}
+
+	private synchronized void removeDanglingVersion(String subject, long version) {
+		if (readOnly) {
+			// the writer should clean it up
+			return;
+		}
+		int[] stripes;
+		try {
+			stripes = lockWriters(false, subject);
+		} catch (IOException ioe) {
+			System.err.println("WARNING: could not lock " + writerLock.getLockFile() + " to remove version "
+					+ version + " of subject '" + subject + "': " + ioe.getMessage());
+			return;
+		}
+		try {
+			SubjectManifest manifest = findManifest(subject);
+			if (manifest == null) {
+				return;
+			}
+			SubjectManifest.Entry entry = manifest.findEntry(version);
+			if (entry == null || findSchemaId(entry.getId()) != null) {
+				// changed out from under us
+				return;
+			}
+			// the subject sticks around even if this was its last version
+			saveManifest(manifest.withoutVersion(version), false);
+		} catch (IOException ioe) {
+			System.err.println("WARNING: could not save manifest for subject '" + subject + "': " + ioe.getMessage());
+		} finally {
+			unlockWriters(stripes);
+		}
+	}
+
+	private void saveManifest(SubjectManifest manifest) throws IOException {
+		saveManifest(manifest, true);
+	}
+
+	/**
+	 * Write the manifest to disk and update our cache. If it has no versions left and removeIfEmpty is true then the
+	 * subject is removed.
+	 */
+	private void saveManifest(SubjectManifest manifest, boolean removeIfEmpty) throws IOException {
+		File manifestFile = new File(manifest.getDir(), MANIFEST_FILE_NAME);
+		if (removeIfEmpty && manifest.isEmpty()) {
+			manifestFile.delete();
+			manifest.getDir().delete();
+			removeManifest(manifest.getSubject());
+		} else {
+			writeFileAtomically(manifestFile, manifest.toBytes());
+			putManifest(manifest);
+		}
+		if (writerLock != null) {
+			// changing the manifest does not change the shard directory so the other writers are told explicitly
+			manifest.getDir().getParentFile().setLastModified(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Add a schema to a subject, writing a new id file if needed. The changed manifest is put in the map and is not
+	 * written until {@link #saveManifests(Map)} is called.
+	 */
+	private SchemaDetails addSchema(String subject, String schema, byte[] digest,
+			Map<String, SubjectManifest> changedManifests) throws IOException {
+		SchemaDetails details = findSchemaDigest(digest);
+		SubjectManifest manifest = changedManifests.get(subject);
+		if (manifest == null) {
+			manifest = findManifest(subject);
+		}
+		if (details != null && manifest != null) {
+			SubjectManifest.Entry entry = manifest.findLiveId(details.getId());
+			if (entry != null) {
+				// already registered in this subject
+				return entry.getDetails();
+			}
+		}
+
+		if (details == null) {
+
+			long id = idAllocator.nextId();
+			while (schemaIdMap.containsKey(id)) {
+				// someone saved a schema with an explicit id
+				id = idAllocator.nextId();
+			}
+			details = new SchemaDetails(schema, digest, id);
+
+			File idFile = shardedIdFile(id);
+			idFile.getParentFile().mkdirs();
+			writeIdFile(idFile, details);
+
+			if (writerLock != null) {
+				SchemaDetails indexed = indexDigest(details);
+				if (indexed != details) {
+					// another writer registered the same schema at the same time so we use its schema-id
+					idFile.delete();
+					details = indexed;
+				}
+			}
+			digestSchemaMap.put(new DigestInfo(digest), details);
+			schemaIdMap.put(details.getId(), details);
+		}
+
+		if (manifest == null) {
+			File subjectDir = shardedSubjectDir(subject);
+			subjectDir.mkdirs();
+			manifest = new SubjectManifest(subject, subjectDir, new SubjectManifest.Entry[0]);
+		}
+
+		// deleted versions are not reused
+		long version = manifest.getMaxVersion() + 1;
+		SubjectManifest.Entry entry =
+				new SubjectManifest.Entry(version, details.getId(), false, new SchemaDetails(details, version));
+		changedManifests.put(subject, manifest.withEntry(entry));
+		return entry.getDetails();
+	}
+
+	private void saveManifests(Map<String, SubjectManifest> manifests) throws IOException {
+		for (SubjectManifest manifest : manifests.values()) {
+			saveManifest(manifest);
+		}
+	}
+
+	/**
+	 * Put a manifest in our cache and update the reverse index with its changed versions.
+	 */
+	private synchronized void putManifest(SubjectManifest manifest) {
+		SubjectManifest oldManifest = manifestMap.put(manifest.getSubject(), manifest);
+		subjectIndex.add(manifest.getSubject());
+		updateIdVersions(oldManifest, manifest);
+	}
+
+	private synchronized void removeManifest(String subject) {
+		SubjectManifest oldManifest = manifestMap.remove(subject);
+		subjectIndex.remove(subject);
+		if (oldManifest != null) {
+			updateIdVersions(oldManifest, null);
+		}
+	}
+
+	/**
+	 * Remove the versions of the old manifest that are not in the new one from the reverse index and add the versions
+	 * that are new. Either manifest may be null.
+	 */
+	private void updateIdVersions(SubjectManifest oldManifest, SubjectManifest newManifest) {
+		if (oldManifest != null) {
+			for (SubjectManifest.Entry entry : oldManifest.getEntries()) {
+				SubjectManifest.Entry newEntry =
+						(newManifest == null ? null : newManifest.findEntry(entry.getVersion()));
+				if (newEntry == null || newEntry.getId() != entry.getId()) {
+					removeIdVersion(entry.getId(), new SubjectVersion(oldManifest.getSubject(), entry.getVersion()));
+				}
+			}
+		}
+		if (newManifest != null) {
+			for (SubjectManifest.Entry entry : newManifest.getEntries()) {
+				SubjectManifest.Entry oldEntry =
+						(oldManifest == null ? null : oldManifest.findEntry(entry.getVersion()));
+				if (oldEntry == null || oldEntry.getId() != entry.getId()) {
+					addIdVersion(entry.getId(), new SubjectVersion(newManifest.getSubject(), entry.getVersion()));
+				}
+			}
+		}
+	}
+
+	private void addIdVersion(long id, SubjectVersion subjectVersion) {
+		SubjectVersion[] subjectVersions = idVersionsMap.get(id);
+		if (subjectVersions == null) {
+			idVersionsMap.put(id, new SubjectVersion[] { subjectVersion });
+		} else {
+			SubjectVersion[] newVersions = Arrays.copyOf(subjectVersions, subjectVersions.length + 1);
+			newVersions[subjectVersions.length] = subjectVersion;
+			idVersionsMap.put(id, newVersions);
+		}
+	}
+
+	private void removeIdVersion(long id, SubjectVersion subjectVersion) {
+		SubjectVersion[] subjectVersions = idVersionsMap.get(id);
+		if (subjectVersions == null) {
+			return;
+		}
+		List<SubjectVersion> remaining = new ArrayList<>(subjectVersions.length);
+		for (SubjectVersion existing : subjectVersions) {
+			if (!existing.equals(subjectVersion)) {
+				remaining.add(existing);
+			}
+		}
+		if (remaining.isEmpty()) {
+			idVersionsMap.remove(id);
+		} else {
+			idVersionsMap.put(id, remaining.toArray(new SubjectVersion[remaining.size()]));
+		}
+	}
+
+	/**
+	 * Load the manifest of a subject into our cache. If the subject has the older version symlinks then they are
+	 * converted into a manifest.
+	 */
+	private void loadSubject(File subjectDir) throws IOException {
+		if (!subjectDir.isDirectory()) {
+			return;
+		}
+		String subject = subjectDir.getName();
+		File manifestFile = new File(subjectDir, MANIFEST_FILE_NAME);
+		if (manifestFile.exists()) {
+			SubjectManifest manifest;
+			try {
+				manifest = SubjectManifest.fromBytes(subject, subjectDir, Files.readAllBytes(manifestFile.toPath()),
+						detailsResolver);
+			} catch (IOException ioe) {
+				System.err.println("WARNING: manifest " + manifestFile + " could not be read: " + ioe.getMessage());
+				return;
+			}
+			putManifest(manifest);
+			return;
+		}
+
+		List<SubjectManifest.Entry> entries = new ArrayList<>();
+		List<File> linkFiles = new ArrayList<>();
+		for (File file : listFiles(subjectDir)) {
+			Path path = file.toPath();
+			if (!Files.isSymbolicLink(path)) {
+				continue;
+			}
+			String name = file.getName();
+			boolean deleted = name.endsWith(ID_LINK_DELETE_SUFFIX);
+			if (deleted) {
+				name = name.substring(0, name.length() - ID_LINK_DELETE_SUFFIX.length());
+			}
+			long version;
+			long id;
+			try {
+				version = Long.parseLong(name);
+				String idName = Files.readSymbolicLink(path).toString();
+				if (!idName.startsWith(ID_LINK_PREFIX)) {
+					continue;
+				}
+				id = Long.parseLong(idName.substring(ID_LINK_PREFIX_LENGTH));
+			} catch (NumberFormatException nfe) {
+				// ignore this
+				continue;
+			}
+			entries.add(new SubjectManifest.Entry(version, id, deleted, detailsResolver.resolve(id, version)));
+			linkFiles.add(file);
+		}
+		if (entries.isEmpty()) {
+			return;
+		}
+		if (readOnly) {
+			// leave the conversion to the writer
+			putManifest(SubjectManifest.fromEntries(subject, subjectDir, entries));
+			return;
+		}
+		saveManifest(SubjectManifest.fromEntries(subject, subjectDir, entries));
+		// the manifest is now the source of truth
+		for (File file : linkFiles) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Re-read an id file into our cache or remove it from the cache if the file no longer exists.
+	 * 
+	 * @return The details or null if the file does not exist or could not be read.
+	 */
+	private synchronized SchemaDetails refreshId(long id) {
+		File idFile = idFile(id);
+		SchemaDetails details;
+		try {
+			details = readIdFile(idFile);
+		} catch (IOException ioe) {
+			System.err.println("WARNING: id file " + idFile + " could not be read: " + ioe.getMessage());
+			return null;
+		}
+		if (details == null) {
+			SchemaDetails existing = schemaIdMap.remove(id);
+			if (existing != null) {
+				digestSchemaMap.remove(new DigestInfo(existing.getDigest()));
+			}
+			return null;
+		}
+		if (details.getId() != id) {
+			System.err.println("WARNING: id file " + idFile + " contains wrong id " + details.getId());
+			return null;
+		}
+		digestSchemaMap.put(new DigestInfo(details.getDigest()), details);
+		schemaIdMap.put(id, details);
+		idAllocator.observeId(id);
+		return details;
+	}
+
+	/**
+	 * Re-read the manifest of a subject into our cache or remove it if the subject no longer exists.
+	 */
+	private synchronized void refreshSubject(String subject) {
+		File flatDir = new File(subjectsDir, subject);
+		File subjectDir;
+		if (new File(flatDir, MANIFEST_FILE_NAME).exists()) {
+			// flat subjects take precedence
+			subjectDir = flatDir;
+		} else {
+			subjectDir = shardedSubjectDir(subject);
+		}
+		File manifestFile = new File(subjectDir, MANIFEST_FILE_NAME);
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(manifestFile.toPath());
+		} catch (NoSuchFileException nsfe) {
+			removeManifest(subject);
+			try {
+				// might be an older subject with version symlinks
+				loadSubject(flatDir);
+			} catch (IOException ioe) {
+				System.err.println("WARNING: subject directory " + flatDir + " could not be read: " + ioe.getMessage());
+			}
+			return;
+		} catch (IOException ioe) {
+			System.err.println("WARNING: manifest " + manifestFile + " could not be read: " + ioe.getMessage());
+			return;
+		}
+		try {
+			putManifest(SubjectManifest.fromBytes(subject, subjectDir, bytes, detailsResolver));
+		} catch (IOException ioe) {
+			System.err.println("WARNING: manifest " + manifestFile + " could not be read: " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Return the details of a schema-id, reading its id file if another writer might have written or deleted it.
+	 */
+	private SchemaDetails findSchemaId(long id) {
+		SchemaDetails details = schemaIdMap.get(id);
+		if (writerLock != null && (details == null || !idFile(id).exists())) {
+			details = refreshId(id);
+		}
+		return details;
+	}
+
+	/**
+	 * Return the details of a schema by its digest. If another writer might have registered the schema then its
+	 * schema-id is read from the digest index.
+	 */
+	private SchemaDetails findSchemaDigest(byte[] digest) {
+		SchemaDetails details = digestSchemaMap.get(new DigestInfo(digest));
+		if (writerLock == null) {
+			return details;
+		}
+		if (details != null) {
+			details = findSchemaId(details.getId());
+			if (details != null) {
+				return details;
+			}
+		}
+		Long id = readDigestIndex(digest);
+		if (id == null) {
+			return null;
+		}
+		details = findSchemaId(id);
+		if (details == null || !Arrays.equals(details.getDigest(), digest)) {
+			return null;
+		}
+		return details;
+	}
+
+	/**
+	 * Return the manifest of a subject, re-reading it first if another writer might have changed it.
+	 */
+	private SubjectManifest findManifest(String subject) {
+		if (writerLock != null) {
+			refreshSubject(subject);
+		}
+		return manifestMap.get(subject);
+	}
+
+	/**
+	 * If other writers share the directory then lock it along with the subjects that we are changing. The lock is
+	 * exclusive if the change might delete schema-ids. This needs to be called while synchronized on us and be
+	 * followed by {@link #unlockWriters(int[])} with the returned stripes.
+	 */
+	private int[] lockWriters(boolean exclusive, String... subjects) throws IOException {
+		if (writerLock == null) {
+			return null;
+		}
+		if (writerLockCount == 0) {
+			if (exclusive) {
+				writerLock.lockExclusive();
+			} else {
+				writerLock.lockShared();
+			}
+			writerLockExclusive = exclusive;
+		} else if (exclusive && !writerLockExclusive) {
+			throw new IllegalStateException(
+					"cannot lock " + writerLock.getLockFile() + " exclusively while it is locked shared");
+		}
+		writerLockCount++;
+
+		// the stripes are locked in order so writers that change more than one subject don't deadlock
+		Set<Integer> stripeSet = new TreeSet<>();
+		for (String subject : subjects) {
+			if (subject != null) {
+				stripeSet.add(writerLock.subjectStripe(subject));
+			}
+		}
+		int[] stripes = new int[stripeSet.size()];
+		int locked = 0;
+		try {
+			for (int stripe : stripeSet) {
+				writerLock.lockSubjects(stripe);
+				stripes[locked++] = stripe;
+			}
+		} catch (IOException | RuntimeException e) {
+			unlockWriters(Arrays.copyOf(stripes, locked));
+			throw e;
+		}
+		return stripes;
+	}
+
+	private void unlockWriters(int[] stripes) {
+		if (writerLock == null) {
+			return;
+		}
+		for (int i = stripes.length - 1; i >= 0; i--) {
+			writerLock.unlockSubjects(stripes[i]);
+		}
+		if (--writerLockCount > 0) {
+			return;
+		}
+		if (writerLockExclusive) {
+			writerLock.unlockExclusive();
+		} else {
+			writerLock.unlockShared();
+		}
+	}
+
+	/**
+	 * Add the schemas that we loaded to the digest index if they are missing, such as when the directory was written
+	 * before the writers shared it.
+	 */
+	private synchronized void indexDigests() throws IOException {
+		int[] stripes = lockWriters(false);
+		try {
+			for (SchemaDetails details : new ArrayList<>(schemaIdMap.values())) {
+				if (!digestIndexFile(details.getDigest()).exists()) {
+					indexDigest(details);
+				}
+			}
+		} finally {
+			unlockWriters(stripes);
+		}
+	}
+
+	/**
+	 * Add a schema to the digest index unless another schema-id is already indexed for it.
+	 * 
+	 * @return Our details or the details of the schema-id that another writer indexed first.
+	 */
+	private SchemaDetails indexDigest(SchemaDetails details) throws IOException {
+		File indexFile = digestIndexFile(details.getDigest());
+		indexFile.getParentFile().mkdirs();
+		byte[] bytes = Long.toString(details.getId()).getBytes(StandardCharsets.UTF_8);
+		if (createFileIfAbsent(indexFile, bytes)) {
+			return details;
+		}
+		Long id = readDigestIndex(details.getDigest());
+		if (id != null) {
+			if (id == details.getId()) {
+				return details;
+			}
+			SchemaDetails indexed = findSchemaId(id);
+			if (indexed != null) {
+				return indexed;
+			}
+		}
+		// the indexed schema-id no longer exists, such as if a writer died while deleting it
+		createFileIfAbsent(indexFile, bytes, true);
+		return details;
+	}
+
+	/**
+	 * Remove a schema from the digest index if the index refers to its schema-id.
+	 */
+	private void unindexDigest(SchemaDetails details) {
+		Long id = readDigestIndex(details.getDigest());
+		if (id != null && id == details.getId()) {
+			digestIndexFile(details.getDigest()).delete();
+		}
+	}
+
+	/**
+	 * Read the schema-id of a digest from the index.
+	 * 
+	 * @return The schema-id or null if the digest is not in the index.
+	 */
+	private Long readDigestIndex(byte[] digest) {
+		File indexFile = digestIndexFile(digest);
+		try {
+			return Long.parseLong(new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8).trim());
+		} catch (NoSuchFileException nsfe) {
+			return null;
+		} catch (IOException | NumberFormatException e) {
+			System.err.println("WARNING: digest index file " + indexFile + " could not be read: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private File digestIndexFile(byte[] digest) {
+		String hex = EntityTypeAdapters.digestToHex(digest);
+		return new File(new File(digestsDir, hex.substring(0, 2)), hex);
+	}
+
+	private void checkWritable() {
+		if (readOnly) {
+			throw new IllegalStateException("schema persister for " + rootDir + " is read-only");
+		}
+	}
+
+	/**
+	 * Return the sharded directory for a new subject.
+	 */
+	private File shardedSubjectDir(String subject) {
+		return shardedSubjectDir(rootDir, subject);
+	}
+
+	/**
+	 * Return the id file which is in the sharded directory unless it exists in the flat directory.
+	 */
+	private File idFile(long id) {
+		File idFile = shardedIdFile(id);
+		if (idFile.exists()) {
+			return idFile;
+		}
+		File flatIdFile = new File(idsDir, Long.toString(id));
+		if (flatIdFile.exists()) {
+			return flatIdFile;
+		} else {
+			return idFile;
+		}
+	}
+
+	private File shardedIdFile(long id) {
+		return shardedIdFile(rootDir, id);
+	}
+
+	/**
+	 * Return the files in both the flat and the sharded id directories.
+	 */
+	private List<File> listIdFiles() {
+		List<File> files = new ArrayList<>();
+		for (File file : listFiles(idsDir)) {
+			files.add(file);
+		}
+		for (File shardDir : listFiles(shardedIdsDir)) {
+			if (shardDir.isDirectory()) {
+				for (File file : listFiles(shardDir)) {
+					files.add(file);
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * List the files in a directory or return an empty array if it does not exist.
+	 */
+	private File[] listFiles(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return new File[0];
+		} else {
+			return files;
+		}
+	}
+
+	/**
+	 * Read in the schema details from an id file in either the binary or legacy JSON format.
+	 * 
+	 * @return The details or null if the file does not exist.
+	 */
+	private SchemaDetails readIdFile(File idFile) throws IOException {
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(idFile.toPath());
+		} catch (NoSuchFileException nsfe) {
+			return null;
+		}
+		try {
+			return IdRecordFormat.decode(bytes);
+		} catch (IOException ioe) {
+			throw new IOException("id file " + idFile + " is corrupt", ioe);
+		}
+	}
+
+	private void writeIdFile(File idFile, SchemaDetails details) throws IOException {
+		writeFileAtomically(idFile, IdRecordFormat.encode(details));
+	}
+
+	/**
+	 * Write the id file of a schema-id that we did not allocate. If another writer might have just written the same
+	 * schema-id then it is not overwritten.
+	 * 
+	 * @return Our details or the details that the other writer wrote.
+	 */
+	private SchemaDetails writeNewIdFile(SchemaDetails details) throws IOException {
+		File idFile = shardedIdFile(details.getId());
+		idFile.getParentFile().mkdirs();
+		if (writerLock == null) {
+			writeIdFile(idFile, details);
+		} else if (!createFileIfAbsent(idFile, IdRecordFormat.encode(details))) {
+			SchemaDetails existing = refreshId(details.getId());
+			if (existing != null) {
+				return existing;
+			}
+			writeIdFile(idFile, details);
+		}
+		if (writerLock != null) {
+			indexDigest(details);
+		}
+		digestSchemaMap.put(new DigestInfo(details.getDigest()), details);
+		schemaIdMap.put(details.getId(), details);
+		// make sure that new schemas don't reuse the id
+		idAllocator.observeId(details.getId());
+		return details;
+	}
+
+	private boolean createFileIfAbsent(File file, byte[] bytes) throws IOException {
+		return createFileIfAbsent(file, bytes, false);
+	}
+
+	/**
+	 * Write to a uniquely named temporary file and then link it into place so readers never see a partial file and
+	 * only one of the writers that share the directory creates it.
+	 * 
+	 * @return True if we wrote the file or false if it already existed and replace is false.
+	 */
+	private boolean createFileIfAbsent(File file, byte[] bytes, boolean replace) throws IOException {
+		Path tempPath = Files.createTempFile(file.getParentFile().toPath(), TEMP_FILE_PREFIX + file.getName() + ".",
+				TEMP_FILE_SUFFIX);
+		try {
+			Files.write(tempPath, bytes);
+			if (replace) {
+				Files.move(tempPath, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} else {
+				Files.createLink(file.toPath(), tempPath);
+			}
+			return true;
+		} catch (FileAlreadyExistsException faee) {
+			return false;
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+	}
+
+	/**
+	 * Write to a temporary file and then rename it into place so readers never see a partial file.
+	 */
+	private void writeFileAtomically(File file, byte[] bytes) throws IOException {
+		File tempFile = new File(file.getParentFile(), TEMP_FILE_PREFIX + file.getName() + TEMP_FILE_SUFFIX);
+		Files.write(tempFile.toPath(), bytes);
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
 	}
 
 	/**
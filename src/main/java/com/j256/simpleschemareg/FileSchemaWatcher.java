@@ -0,0 +1,162 @@
+package com.j256.simpleschemareg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a read-only or shared writer {@link FileSchemaPersister} up to date with the changes made to its root directory
+ * by other processes. It watches the id, subject, and shard directories and refreshes the changed files as soon as
+ * they are reported. Some file-systems, such as network mounts, don't report changes and watch events can be lost so
+ * the directory is also rescanned periodically.
+ */
+public class FileSchemaWatcher implements Runnable {
+
+	/**
+	 * Default time between rescans of the whole directory.
+	 */
+	public static final long DEFAULT_RESCAN_MILLIS = 60000;
+	// root/subjects/shard/subject is the deepest directory we need to watch
+	private static final int MAX_WATCH_DEPTH = 3;
+
+	private final FileSchemaPersister persister;
+	private final long rescanMillis;
+	private final Map<WatchKey, Path> keyDirMap = new ConcurrentHashMap<>();
+
+	private volatile WatchService watchService;
+	private volatile boolean running = true;
+	private boolean warnedRegister;
+
+	public FileSchemaWatcher(FileSchemaPersister persister, long rescanMillis) {
+		this.persister = persister;
+		this.rescanMillis = rescanMillis;
+	}
+
+	@Override
+	public void run() {
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+		} catch (IOException ioe) {
+			System.err.println("WARNING: could not create watch service, only rescanning: " + ioe.getMessage());
+		}
+		Path rootPath = persister.getRootDir().toPath();
+		if (watchService != null) {
+			registerTree(rootPath, 0, false);
+		}
+		// pick up anything that changed before we were watching
+		persister.rescan();
+
+		long nextRescanMillis = System.currentTimeMillis() + rescanMillis;
+		try {
+			while (running) {
+				long waitMillis = nextRescanMillis - System.currentTimeMillis();
+				if (waitMillis <= 0) {
+					persister.rescan();
+					nextRescanMillis = System.currentTimeMillis() + rescanMillis;
+					continue;
+				}
+				if (watchService == null) {
+					Thread.sleep(waitMillis);
+					continue;
+				}
+				WatchKey key = watchService.poll(waitMillis, TimeUnit.MILLISECONDS);
+				if (key != null) {
+					processEvents(key, rootPath);
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException cwse) {
+			// we are stopping
+		} finally {
+			stop();
+		}
+	}
+
+	/**
+	 * Stop watching the directory.
+	 */
+	public void stop() {
+		running = false;
+		WatchService service = watchService;
+		if (service != null) {
+			try {
+				service.close();
+			} catch (IOException ioe) {
+				// ignored
+			}
+		}
+	}
+
+	private void processEvents(WatchKey key, Path rootPath) {
+		Path dir = keyDirMap.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+				// we lost some events so we need to look at everything
+				persister.rescan();
+				continue;
+			}
+			Path path = dir.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				// files may have been added to the directory before we started watching it
+				registerTree(path, rootPath.relativize(path).getNameCount(), true);
+			}
+			persister.refreshFile(path.toFile());
+		}
+		if (!key.reset()) {
+			// directory was removed
+			keyDirMap.remove(key);
+		}
+	}
+
+	/**
+	 * Watch a directory and its sub-directories up to our maximum depth.
+	 * 
+	 * @param refresh
+	 *            Whether to refresh the files in the directories as they are registered.
+	 */
+	private void registerTree(Path dir, int depth, boolean refresh) {
+		if (dir.getFileName() != null && dir.getFileName().toString().startsWith(".")) {
+			return;
+		}
+		try {
+			WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			keyDirMap.put(key, dir);
+		} catch (IOException ioe) {
+			// probably hit the limit on the number of watches, the rescan will catch these changes
+			if (!warnedRegister) {
+				System.err.println("WARNING: could not watch directory " + dir + ", relying on rescan: " + ioe);
+				warnedRegister = true;
+			}
+		}
+		for (File file : listFiles(dir.toFile())) {
+			Path path = file.toPath();
+			if (depth < MAX_WATCH_DEPTH && file.isDirectory()) {
+				registerTree(path, depth + 1, refresh);
+			}
+			if (refresh) {
+				persister.refreshFile(file);
+			}
+		}
+	}
+
+	private File[] listFiles(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return new File[0];
+		} else {
+			return files;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package com.j256.simpleschemareg;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Command-line tool which converts the id files in a registry root directory from the legacy JSON format to the binary
+ * record format in place. Only the id files are touched, the subjects are not loaded so older symlink subjects are not
+ * converted. Any server using the directory needs to be stopped first. Each file is replaced atomically but if the
+ * server deleted an id between the read and the replace then the schema would come back. A running server can instead
+ * do this itself at startup with its -m option which holds the persister's locks.
+ */
+public class IdFileMigration {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: java " + IdFileMigration.class.getName() + " root-dir");
+			System.exit(1);
+		}
+		File rootDir = new File(args[0]);
+		if (!rootDir.isDirectory()) {
+			System.err.println("Root directory does not exist: " + rootDir);
+			System.exit(1);
+		}
+		// not initialized since that would also convert the subjects
+		FileSchemaPersister persister = new FileSchemaPersister(rootDir);
+		int count = persister.migrateIdFiles();
+		System.out.println("Migrated " + count + " id files in " + rootDir);
+	}
+}
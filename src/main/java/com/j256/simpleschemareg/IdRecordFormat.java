@@ -0,0 +1,131 @@
+package com.j256.simpleschemareg;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.j256.simpleschemareg.entities.EntityTypeAdapters;
+import com.j256.simpleschemareg.entities.SchemaDetails;
+
+/**
+ * Encodes and decodes the contents of the id files. The binary record format is:
+ * 
+ * <pre>
+ * magic        4 bytes  "SSRB"
+ * format       1 byte   currently 1
+ * id           8 bytes  big-endian
+ * digest-len   1 byte   unsigned
+ * digest       digest-len bytes
+ * schema-len   4 bytes  big-endian
+ * schema       schema-len bytes of UTF-8
+ * checksum     4 bytes  CRC32 of all of the preceding bytes
+ * </pre>
+ * 
+ * Older id files were written as JSON which is detected because it does not start with the magic bytes.
+ */
+public class IdRecordFormat {
+
+	private static final byte[] MAGIC = new byte[] { 'S', 'S', 'R', 'B' };
+	private static final byte FORMAT_VERSION = 1;
+	// magic + format + id + digest-len + schema-len + checksum
+	private static final int FIXED_LENGTH = MAGIC.length + 1 + 8 + 1 + 4 + 4;
+
+	private static final EntityTypeAdapters.SchemaDetailsAdapter detailsAdapter =
+			new EntityTypeAdapters.SchemaDetailsAdapter();
+
+	private IdRecordFormat() {
+		// only for static methods
+	}
+
+	/**
+	 * Encode the schema details into a binary record.
+	 */
+	public static byte[] encode(SchemaDetails details) {
+		byte[] digest = details.getDigest();
+		byte[] schemaBytes = details.getSchema().getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(FIXED_LENGTH + digest.length + schemaBytes.length);
+		buffer.put(MAGIC);
+		buffer.put(FORMAT_VERSION);
+		buffer.putLong(details.getId());
+		buffer.put((byte) digest.length);
+		buffer.put(digest);
+		buffer.putInt(schemaBytes.length);
+		buffer.put(schemaBytes);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int) crc.getValue());
+		return buffer.array();
+	}
+
+	/**
+	 * Decode the contents of an id file in either the binary or the legacy JSON format.
+	 * 
+	 * @throws IOException
+	 *             If the record is corrupt.
+	 */
+	public static SchemaDetails decode(byte[] bytes) throws IOException {
+		if (isBinary(bytes)) {
+			return decodeBinary(bytes);
+		}
+		try (Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);) {
+			SchemaDetails details = detailsAdapter.read(new JsonReader(reader));
+			if (details.getSchema() == null || details.getDigest() == null) {
+				throw new IOException("json id record is missing the schema or digest");
+			}
+			return details;
+		} catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+			throw new IOException("invalid json id record", e);
+		}
+	}
+
+	/**
+	 * Return true if the bytes are in the binary record format.
+	 */
+	public static boolean isBinary(byte[] bytes) {
+		if (bytes.length < MAGIC.length) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static SchemaDetails decodeBinary(byte[] bytes) throws IOException {
+		if (bytes.length < FIXED_LENGTH) {
+			throw new IOException("binary id record is truncated, length " + bytes.length);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 4);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if (buffer.getInt(bytes.length - 4) != (int) crc.getValue()) {
+			throw new IOException("binary id record checksum mismatch");
+		}
+		buffer.position(MAGIC.length);
+		byte format = buffer.get();
+		if (format != FORMAT_VERSION) {
+			throw new IOException("unknown binary id record format " + format);
+		}
+		long id = buffer.getLong();
+		int digestLength = (buffer.get() & 0xFF);
+		if (buffer.remaining() < digestLength + 4 + 4) {
+			throw new IOException("binary id record digest is truncated");
+		}
+		byte[] digest = new byte[digestLength];
+		buffer.get(digest);
+		int schemaLength = buffer.getInt();
+		if (schemaLength < 0 || buffer.remaining() != schemaLength + 4) {
+			throw new IOException("binary id record has invalid schema length " + schemaLength);
+		}
+		String schema = new String(bytes, buffer.position(), schemaLength, StandardCharsets.UTF_8);
+		return new SchemaDetails(schema, digest, id);
+	}
+}
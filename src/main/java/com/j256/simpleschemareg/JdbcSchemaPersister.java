@@ -0,0 +1,918 @@
+package com.j256.simpleschemareg;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.j256.simpleschemareg.entities.EntityTypeAdapters;
+import com.j256.simpleschemareg.entities.ExportEntry;
+import com.j256.simpleschemareg.entities.ImportResponse;
+import com.j256.simpleschemareg.entities.SchemaDetails;
+import com.j256.simpleschemareg.entities.SubjectSchema;
+import com.j256.simpleschemareg.entities.SubjectVersion;
+
+/**
+ * Persists the schemas to an embedded SQL database, such as H2 or SQLite in file mode, through JDBC. The driver for the
+ * database needs to be on the classpath. Unlike the {@link FileSchemaPersister}, nothing is cached in memory and each
+ * change is made in a transaction. The highest schema-id that has been deleted is kept in the {@code ssr_id_state}
+ * table so it is not handed out again.
+ * 
+ * <p>
+ * A small pool of connections is kept, each with its own cache of prepared statements. Changes are synchronized since
+ * there is expected to be one writer per database but lookups can run concurrently on different connections.
+ * </p>
+ */
+public class JdbcSchemaPersister implements SchemaPersister {
+
+	/**
+	 * Default maximum number of connections in the pool.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 8;
+	private static final int BATCH_SIZE = 1000;
+
+	private static final String[] CREATE_TABLES = new String[] {
+			"CREATE TABLE IF NOT EXISTS ssr_schemas (id BIGINT PRIMARY KEY, digest VARCHAR(64) NOT NULL, "
+					+ "schema_text CLOB NOT NULL)",
+			"CREATE INDEX IF NOT EXISTS ssr_schemas_digest ON ssr_schemas (digest)",
+			"CREATE TABLE IF NOT EXISTS ssr_subjects (subject VARCHAR(255) PRIMARY KEY)",
+			"CREATE TABLE IF NOT EXISTS ssr_versions (subject VARCHAR(255) NOT NULL, version BIGINT NOT NULL, "
+					+ "schema_id BIGINT NOT NULL, deleted BOOLEAN NOT NULL, removed BOOLEAN DEFAULT FALSE NOT NULL, "
+					+ "PRIMARY KEY (subject, version))",
+			"CREATE INDEX IF NOT EXISTS ssr_versions_schema_id ON ssr_versions (schema_id)",
+			// single row with the highest schema-id that has been deleted so it is not handed out again
+			"CREATE TABLE IF NOT EXISTS ssr_id_state (max_deleted_id BIGINT NOT NULL)", };
+	// subjects whose versions were all removed by deleting the subject are not listed
+	private static final String LISTED_SUBJECT_CONDITION = "(EXISTS (SELECT 1 FROM ssr_versions v "
+			+ "WHERE v.subject = s.subject AND v.removed = FALSE) "
+			+ "OR NOT EXISTS (SELECT 1 FROM ssr_versions v WHERE v.subject = s.subject))";
+	private static final String SELECT_SUBJECTS =
+			"SELECT s.subject FROM ssr_subjects s WHERE " + LISTED_SUBJECT_CONDITION;
+	private static final String SELECT_SUBJECT = "SELECT subject FROM ssr_subjects WHERE subject = ?";
+	private static final String SELECT_LISTED_SUBJECT =
+			"SELECT s.subject FROM ssr_subjects s WHERE s.subject = ? AND " + LISTED_SUBJECT_CONDITION;
+	private static final String INSERT_SUBJECT = "INSERT INTO ssr_subjects (subject) VALUES (?)";
+	private static final String DELETE_SUBJECT = "DELETE FROM ssr_subjects WHERE subject = ?";
+	private static final String SELECT_SCHEMA_BY_DIGEST =
+			"SELECT id, schema_text FROM ssr_schemas WHERE digest = ? ORDER BY id";
+	private static final String SELECT_SCHEMA_BY_ID = "SELECT digest, schema_text FROM ssr_schemas WHERE id = ?";
+	private static final String SELECT_SCHEMAS = "SELECT id, digest, schema_text FROM ssr_schemas ORDER BY id";
+	private static final String SELECT_MAX_ID = "SELECT MAX(id) FROM ssr_schemas";
+	private static final String COUNT_SCHEMAS = "SELECT COUNT(*) FROM ssr_schemas";
+	private static final String INSERT_SCHEMA = "INSERT INTO ssr_schemas (id, digest, schema_text) VALUES (?, ?, ?)";
+	private static final String DELETE_SCHEMA = "DELETE FROM ssr_schemas WHERE id = ?";
+	private static final String COUNT_ID_STATE = "SELECT COUNT(*) FROM ssr_id_state";
+	private static final String INSERT_ID_STATE = "INSERT INTO ssr_id_state (max_deleted_id) VALUES (0)";
+	private static final String SELECT_MAX_DELETED_ID = "SELECT max_deleted_id FROM ssr_id_state";
+	private static final String UPDATE_MAX_DELETED_ID =
+			"UPDATE ssr_id_state SET max_deleted_id = ? WHERE max_deleted_id < ?";
+	private static final String SELECT_VERSION = "SELECT v.schema_id, v.deleted, v.removed, s.digest, s.schema_text "
+			+ "FROM ssr_versions v LEFT JOIN ssr_schemas s ON s.id = v.schema_id WHERE v.subject = ? AND v.version = ?";
+	private static final String SELECT_LIVE_VERSIONS =
+			"SELECT version FROM ssr_versions WHERE subject = ? AND deleted = FALSE ORDER BY version";
+	private static final String SELECT_LIVE_VERSION_BY_ID = "SELECT version FROM ssr_versions "
+			+ "WHERE subject = ? AND schema_id = ? AND deleted = FALSE ORDER BY version";
+	private static final String SELECT_LIVE_VERSIONS_BY_ID = "SELECT subject, version FROM ssr_versions "
+			+ "WHERE schema_id = ? AND deleted = FALSE ORDER BY subject, version";
+	private static final String COUNT_VERSIONS_BY_ID = "SELECT COUNT(*) FROM ssr_versions WHERE schema_id = ?";
+	private static final String SELECT_MAX_LIVE_VERSION =
+			"SELECT MAX(version) FROM ssr_versions WHERE subject = ? AND deleted = FALSE";
+	private static final String SELECT_MAX_VERSION = "SELECT MAX(version) FROM ssr_versions WHERE subject = ?";
+	private static final String COUNT_VERSIONS = "SELECT COUNT(*) FROM ssr_versions WHERE subject = ?";
+	private static final String INSERT_VERSION =
+			"INSERT INTO ssr_versions (subject, version, schema_id, deleted) VALUES (?, ?, ?, FALSE)";
+	private static final String MARK_VERSION_DELETED =
+			"UPDATE ssr_versions SET deleted = TRUE WHERE subject = ? AND version = ?";
+	private static final String DELETE_VERSION = "DELETE FROM ssr_versions WHERE subject = ? AND version = ?";
+	private static final String MARK_LIVE_VERSIONS_REMOVED =
+			"UPDATE ssr_versions SET deleted = TRUE, removed = TRUE WHERE subject = ? AND deleted = FALSE";
+
+	private final String jdbcUrl;
+	private final int maxConnections;
+	private final BlockingQueue<PooledConnection> idleConnections;
+	private int connectionCount;
+
+	public JdbcSchemaPersister(String jdbcUrl) {
+		this(jdbcUrl, DEFAULT_MAX_CONNECTIONS);
+	}
+
+	public JdbcSchemaPersister(String jdbcUrl, int maxConnections) {
+		this.jdbcUrl = jdbcUrl;
+		this.maxConnections = maxConnections;
+		this.idleConnections = new ArrayBlockingQueue<>(maxConnections);
+	}
+
+	@Override
+	public void initialize() throws IOException {
+		PooledConnection conn = borrowConnection();
+		try (Statement statement = conn.connection.createStatement();) {
+			for (String sql : CREATE_TABLES) {
+				statement.execute(sql);
+			}
+			if (queryLong(conn.prepare(COUNT_ID_STATE)) == 0) {
+				conn.prepare(INSERT_ID_STATE).executeUpdate();
+			}
+			conn.connection.commit();
+		} catch (SQLException se) {
+			throw new IOException("creating tables in " + jdbcUrl + " failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	@Override
+	public String[] lookupSubjects() {
+		PooledConnection conn = borrowConnectionUnchecked();
+		try {
+			List<String> subjects = new ArrayList<>();
+			try (ResultSet results = conn.prepare(SELECT_SUBJECTS).executeQuery();) {
+				while (results.next()) {
+					subjects.add(results.getString(1));
+				}
+			}
+			// sorted here so the order does not depend on the collation of the database
+			Collections.sort(subjects);
+			return subjects.toArray(new String[subjects.size()]);
+		} catch (SQLException se) {
+			throw new IllegalStateException("looking up subjects failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	@Override
+	public SchemaDetails lookupSchema(String schema) {
+		return lookupSchemaDigest(FileSchemaPersister.digestFromSchema(schema));
+	}
+
+	@Override
+	public SchemaDetails lookupSchemaDigest(byte[] digest) {
+		PooledConnection conn = borrowConnectionUnchecked();
+		try {
+			return findSchema(conn, digest);
+		} catch (SQLException se) {
+			throw new IllegalStateException("looking up schema failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	@Override
+	public SchemaDetails lookupSchema(String subject, String schema) throws IOException {
+		return lookupSchemaDigest(subject, FileSchemaPersister.digestFromSchema(schema));
+	}
+
+	@Override
+	public SchemaDetails lookupSchemaDigest(String subject, byte[] digest) throws IOException {
+		PooledConnection conn = borrowConnection();
+		try {
+			SchemaDetails details = findSchema(conn, digest);
+			if (details == null) {
+				return null;
+			}
+			long version = findLiveVersion(conn, subject, details.getId());
+			if (version == 0) {
+				return details;
+			} else {
+				return new SchemaDetails(details, version);
+			}
+		} catch (SQLException se) {
+			throw new IOException("looking up schema in subject '" + subject + "' failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	@Override
+	public SchemaDetails lookupSchemaId(long id) {
+		PooledConnection conn = borrowConnectionUnchecked();
+		try {
+			return findSchemaId(conn, id);
+		} catch (SQLException se) {
+			throw new IllegalStateException("looking up schema-id " + id + " failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	@Override
+	public SubjectVersion[] lookupSchemaIdVersions(long id) {
+		PooledConnection conn = borrowConnectionUnchecked();
+		try {
+			if (findSchemaId(conn, id) == null) {
+				return null;
+			}
+			PreparedStatement statement = conn.prepare(SELECT_LIVE_VERSIONS_BY_ID);
+			statement.setLong(1, id);
+			List<SubjectVersion> subjectVersions = new ArrayList<>();
+			try (ResultSet results = statement.executeQuery();) {
+				while (results.next()) {
+					subjectVersions.add(new SubjectVersion(results.getString(1), results.getLong(2)));
+				}
+			}
+			return subjectVersions.toArray(new SubjectVersion[subjectVersions.size()]);
+		} catch (SQLException se) {
+			throw new IllegalStateException("looking up versions of schema-id " + id + " failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	@Override
+	public SchemaDetails lookupLatestSubjectVersion(String subject) throws IOException {
+		long version;
+		PooledConnection conn = borrowConnection();
+		try {
+			PreparedStatement statement = conn.prepare(SELECT_MAX_LIVE_VERSION);
+			statement.setString(1, subject);
+			version = queryLong(statement);
+		} catch (SQLException se) {
+			throw new IOException("looking up latest version of subject '" + subject + "' failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+		if (version == 0) {
+			return null;
+		} else {
+			return lookupSubjectVersion(subject, version);
+		}
+	}
+
+	@Override
+	public SchemaDetails lookupSubjectVersion(String subject, long version) throws IOException {
+		VersionRow row;
+		PooledConnection conn = borrowConnection();
+		try {
+			row = findVersion(conn, subject, version);
+			if (row == null || row.deleted) {
+				return null;
+			}
+			if (row.details != null) {
+				return row.details;
+			}
+		} catch (SQLException se) {
+			throw new IOException("looking up subject '" + subject + "' version " + version + " failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+		// might as well remove it if the schema-id doesn't exist
+		removeDanglingVersion(subject, version);
+		return null;
+	}
+
+	@Override
+	public long[] lookupSubjectVersions(String subject) {
+		PooledConnection conn = borrowConnectionUnchecked();
+		try {
+			if (!subjectListed(conn, subject)) {
+				return null;
+			}
+			return findLiveVersions(conn, subject);
+		} catch (SQLException se) {
+			throw new IllegalStateException("looking up versions of subject '" + subject + "' failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	@Override
+	public synchronized void deleteSchemaId(long id) {
+		PooledConnection conn = borrowConnectionUnchecked();
+		try {
+			deleteSchema(conn, id);
+			conn.connection.commit();
+		} catch (SQLException se) {
+			System.err.println("WARNING: could not delete schema-id " + id + ": " + se.getMessage());
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	@Override
+	public synchronized long[] deleteSubject(String subject) {
+		PooledConnection conn = borrowConnectionUnchecked();
+		try {
+			if (!subjectListed(conn, subject)) {
+				return null;
+			}
+			long[] versions = findLiveVersions(conn, subject);
+			// the versions are kept as removed so their numbers are not reused
+			PreparedStatement statement = conn.prepare(MARK_LIVE_VERSIONS_REMOVED);
+			statement.setString(1, subject);
+			statement.executeUpdate();
+			conn.connection.commit();
+			return versions;
+		} catch (SQLException se) {
+			System.err.println("WARNING: could not delete subject '" + subject + "': " + se.getMessage());
+			return null;
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	@Override
+	public synchronized SchemaDetails deleteSubjectVersion(String subject, long version, boolean permanent)
+			throws IOException {
+		PooledConnection conn = borrowConnection();
+		try {
+			VersionRow row = findVersion(conn, subject, version);
+			if (row == null || row.removed) {
+				// removed versions can't be found
+				return null;
+			}
+
+			if (!row.deleted) {
+				if (row.details == null) {
+					deleteVersion(conn, subject, version);
+					conn.connection.commit();
+					return null;
+				}
+				// first time around we just mark it as deleted
+				PreparedStatement statement = conn.prepare(MARK_VERSION_DELETED);
+				statement.setString(1, subject);
+				statement.setLong(2, version);
+				statement.executeUpdate();
+				conn.connection.commit();
+				return row.details;
+			}
+
+			if (!permanent) {
+				// already deleted
+				return null;
+			}
+
+			// now really blow it away
+			deleteVersion(conn, subject, version);
+			removeSubjectIfEmpty(conn, subject);
+			PreparedStatement statement = conn.prepare(COUNT_VERSIONS_BY_ID);
+			statement.setLong(1, row.schemaId);
+			if (queryLong(statement) == 0) {
+				// only if no other version still uses it
+				deleteSchema(conn, row.schemaId);
+			}
+			conn.connection.commit();
+			return row.details;
+		} catch (SQLException se) {
+			throw new IOException("deleting subject '" + subject + "' version " + version + " failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	@Override
+	public synchronized SchemaDetails saveSchema(String subject, String schema) throws IOException {
+		byte[] digest = FileSchemaPersister.digestFromSchema(schema);
+		PooledConnection conn = borrowConnection();
+		try {
+			SchemaDetails details = saveSchema(conn, subject, schema, digest);
+			conn.connection.commit();
+			return details;
+		} catch (SQLException se) {
+			throw new IOException("saving schema to subject '" + subject + "' failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	/**
+	 * The whole batch is saved in one transaction.
+	 */
+	@Override
+	public synchronized SchemaDetails[] saveSchemas(SubjectSchema[] subjectSchemas) throws IOException {
+		SchemaDetails[] results = new SchemaDetails[subjectSchemas.length];
+		PooledConnection conn = borrowConnection();
+		try {
+			for (int i = 0; i < subjectSchemas.length; i++) {
+				String schema = subjectSchemas[i].getSchema();
+				results[i] = saveSchema(conn, subjectSchemas[i].getSubject(), schema,
+						FileSchemaPersister.digestFromSchema(schema));
+			}
+			conn.connection.commit();
+			return results;
+		} catch (SQLException se) {
+			throw new IOException("saving batch of " + subjectSchemas.length + " schemas failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	@Override
+	public synchronized SchemaDetails saveSchema(String subject, long version, long id, String schema)
+			throws IOException {
+		PooledConnection conn = borrowConnection();
+		try {
+			SchemaDetails details = saveSchema(conn, subject, version, id, schema);
+			conn.connection.commit();
+			return details;
+		} catch (SQLException se) {
+			throw new IOException("saving schema-id " + id + " failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	/**
+	 * The whole batch is saved in one transaction which is rolled back on a schema-id conflict.
+	 */
+	@Override
+	public synchronized ImportResponse importSchemas(List<ExportEntry> entries) throws IOException {
+		PooledConnection conn = borrowConnection();
+		try {
+			long schemaCount = 0;
+			long versionCount = 0;
+			for (ExportEntry entry : entries) {
+				SchemaDetails details = findSchemaId(conn, entry.getId());
+				if (details != null) {
+					checkSameSchema(details, entry.getSchema());
+				} else if (entry.getSchema() == null) {
+					continue;
+				} else {
+					insertSchemaId(conn, entry.getId(), entry.getSchema());
+					schemaCount++;
+				}
+				if (entry.getSubject() == null) {
+					continue;
+				}
+				VersionRow row = findVersion(conn, entry.getSubject(), entry.getVersion());
+				if (row == null) {
+					addVersion(conn, entry.getSubject(), entry.getVersion(), entry.getId());
+					versionCount++;
+				} else {
+					checkSameId(entry.getSubject(), entry.getVersion(), row, entry.getId());
+				}
+			}
+			conn.connection.commit();
+			return new ImportResponse(schemaCount, versionCount);
+		} catch (SQLException se) {
+			throw new IOException("importing " + entries.size() + " entries failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	@Override
+	public Iterator<SchemaDetails> schemaIterator() {
+		PooledConnection conn = borrowConnectionUnchecked();
+		try {
+			List<SchemaDetails> schemas = new ArrayList<>();
+			try (ResultSet results = conn.prepare(SELECT_SCHEMAS).executeQuery();) {
+				while (results.next()) {
+					schemas.add(new SchemaDetails(results.getString(3),
+							EntityTypeAdapters.hexToDigest(results.getString(2)), results.getLong(1)));
+				}
+			}
+			return Collections.unmodifiableList(schemas).iterator();
+		} catch (SQLException se) {
+			throw new IllegalStateException("listing schemas failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	/**
+	 * Copy all of the schemas and the live subject versions from another persister into the database using batched
+	 * inserts. This is used to move an existing registry, such as a {@link FileSchemaPersister} directory, into a new
+	 * database so the database must be empty.
+	 * 
+	 * @return The number of schemas copied.
+	 */
+	public synchronized int copyFrom(SchemaPersister source) throws IOException {
+		PooledConnection conn = borrowConnection();
+		try {
+			if (queryLong(conn.prepare(COUNT_SCHEMAS)) != 0) {
+				throw new IOException("database " + jdbcUrl + " already has schemas, not copying into it");
+			}
+
+			int schemaCount = 0;
+			PreparedStatement statement = conn.prepare(INSERT_SCHEMA);
+			Iterator<SchemaDetails> iterator = source.schemaIterator();
+			while (iterator.hasNext()) {
+				insertSchema(statement, iterator.next());
+				statement.addBatch();
+				schemaCount++;
+				if (schemaCount % BATCH_SIZE == 0) {
+					statement.executeBatch();
+				}
+			}
+			statement.executeBatch();
+
+			PreparedStatement subjectStatement = conn.prepare(INSERT_SUBJECT);
+			PreparedStatement versionStatement = conn.prepare(INSERT_VERSION);
+			int versionCount = 0;
+			for (String subject : source.lookupSubjects()) {
+				subjectStatement.setString(1, subject);
+				subjectStatement.addBatch();
+				long[] versions = source.lookupSubjectVersions(subject);
+				if (versions == null) {
+					continue;
+				}
+				for (long version : versions) {
+					SchemaDetails details = source.lookupSubjectVersion(subject, version);
+					if (details == null) {
+						continue;
+					}
+					versionStatement.setString(1, subject);
+					versionStatement.setLong(2, version);
+					versionStatement.setLong(3, details.getId());
+					versionStatement.addBatch();
+					versionCount++;
+					if (versionCount % BATCH_SIZE == 0) {
+						// the subject rows need to be inserted first
+						subjectStatement.executeBatch();
+						versionStatement.executeBatch();
+					}
+				}
+			}
+			subjectStatement.executeBatch();
+			versionStatement.executeBatch();
+			conn.connection.commit();
+			return schemaCount;
+		} catch (SQLException se) {
+			throw new IOException("copying schemas into " + jdbcUrl + " failed", se);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	/**
+	 * Close all of the connections in the pool.
+	 */
+	public void close() {
+		PooledConnection conn;
+		while ((conn = idleConnections.poll()) != null) {
+			conn.close();
+			synchronized (idleConnections) {
+				connectionCount--;
+			}
+		}
+	}
+
+	private synchronized void removeDanglingVersion(String subject, long version) {
+		PooledConnection conn = borrowConnectionUnchecked();
+		try {
+			VersionRow row = findVersion(conn, subject, version);
+			if (row == null || row.details != null) {
+				// changed out from under us
+				return;
+			}
+			// the subject sticks around even if this was its last version
+			deleteVersion(conn, subject, version);
+			conn.connection.commit();
+		} catch (SQLException se) {
+			System.err.println("WARNING: could not remove subject '" + subject + "' version " + version + ": "
+					+ se.getMessage());
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	private SchemaDetails findSchema(PooledConnection conn, byte[] digest) throws SQLException {
+		PreparedStatement statement = conn.prepare(SELECT_SCHEMA_BY_DIGEST);
+		statement.setString(1, EntityTypeAdapters.digestToHex(digest));
+		try (ResultSet results = statement.executeQuery();) {
+			if (results.next()) {
+				return new SchemaDetails(results.getString(2), digest, results.getLong(1));
+			} else {
+				return null;
+			}
+		}
+	}
+
+	private SchemaDetails findSchemaId(PooledConnection conn, long id) throws SQLException {
+		PreparedStatement statement = conn.prepare(SELECT_SCHEMA_BY_ID);
+		statement.setLong(1, id);
+		try (ResultSet results = statement.executeQuery();) {
+			if (results.next()) {
+				return new SchemaDetails(results.getString(2), EntityTypeAdapters.hexToDigest(results.getString(1)),
+						id);
+			} else {
+				return null;
+			}
+		}
+	}
+
+	private VersionRow findVersion(PooledConnection conn, String subject, long version) throws SQLException {
+		PreparedStatement statement = conn.prepare(SELECT_VERSION);
+		statement.setString(1, subject);
+		statement.setLong(2, version);
+		try (ResultSet results = statement.executeQuery();) {
+			if (!results.next()) {
+				return null;
+			}
+			long schemaId = results.getLong(1);
+			boolean deleted = results.getBoolean(2);
+			boolean removed = results.getBoolean(3);
+			String digest = results.getString(4);
+			SchemaDetails details = null;
+			if (digest != null) {
+				details = new SchemaDetails(
+						new SchemaDetails(results.getString(5), EntityTypeAdapters.hexToDigest(digest), schemaId),
+						version);
+			}
+			return new VersionRow(schemaId, deleted, removed, details);
+		}
+	}
+
+	/**
+	 * Find the lowest live version of the subject with the schema-id or 0 if none.
+	 */
+	private long findLiveVersion(PooledConnection conn, String subject, long id) throws SQLException {
+		PreparedStatement statement = conn.prepare(SELECT_LIVE_VERSION_BY_ID);
+		statement.setString(1, subject);
+		statement.setLong(2, id);
+		return queryLong(statement);
+	}
+
+	private long[] findLiveVersions(PooledConnection conn, String subject) throws SQLException {
+		PreparedStatement statement = conn.prepare(SELECT_LIVE_VERSIONS);
+		statement.setString(1, subject);
+		List<Long> versions = new ArrayList<>();
+		try (ResultSet results = statement.executeQuery();) {
+			while (results.next()) {
+				versions.add(results.getLong(1));
+			}
+		}
+		long[] array = new long[versions.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = versions.get(i);
+		}
+		return array;
+	}
+
+	private boolean subjectExists(PooledConnection conn, String subject) throws SQLException {
+		PreparedStatement statement = conn.prepare(SELECT_SUBJECT);
+		statement.setString(1, subject);
+		try (ResultSet results = statement.executeQuery();) {
+			return results.next();
+		}
+	}
+
+	private boolean subjectListed(PooledConnection conn, String subject) throws SQLException {
+		PreparedStatement statement = conn.prepare(SELECT_LISTED_SUBJECT);
+		statement.setString(1, subject);
+		try (ResultSet results = statement.executeQuery();) {
+			return results.next();
+		}
+	}
+
+	private SchemaDetails saveSchema(PooledConnection conn, String subject, String schema, byte[] digest)
+			throws SQLException {
+		SchemaDetails details = findSchema(conn, digest);
+		if (details != null) {
+			long version = findLiveVersion(conn, subject, details.getId());
+			if (version != 0) {
+				// already registered in this subject
+				return new SchemaDetails(details, version);
+			}
+		} else {
+			// deleted schema-ids are not reused even if they were the highest
+			long maxId = queryLong(conn.prepare(SELECT_MAX_ID));
+			long id = Math.max(maxId, queryLong(conn.prepare(SELECT_MAX_DELETED_ID))) + 1;
+			details = new SchemaDetails(schema, digest, id);
+			PreparedStatement statement = conn.prepare(INSERT_SCHEMA);
+			insertSchema(statement, details);
+			statement.executeUpdate();
+		}
+
+		PreparedStatement statement = conn.prepare(SELECT_MAX_VERSION);
+		statement.setString(1, subject);
+		// deleted versions are not reused
+		long version = queryLong(statement) + 1;
+		addVersion(conn, subject, version, details.getId());
+		return new SchemaDetails(details, version);
+	}
+
+	private SchemaDetails saveSchema(PooledConnection conn, String subject, long version, long id, String schema)
+			throws SQLException, SchemaIdConflictException, SubjectVersionConflictException {
+		SchemaDetails details = findSchemaId(conn, id);
+		if (details != null) {
+			checkSameSchema(details, schema);
+		} else if (schema == null) {
+			return null;
+		} else {
+			details = insertSchemaId(conn, id, schema);
+		}
+		if (subject == null) {
+			return details;
+		}
+		VersionRow row = findVersion(conn, subject, version);
+		if (row != null) {
+			// already have this version
+			checkSameId(subject, version, row, id);
+			return row.details;
+		}
+		addVersion(conn, subject, version, id);
+		return new SchemaDetails(details, version);
+	}
+
+	private SchemaDetails insertSchemaId(PooledConnection conn, long id, String schema) throws SQLException {
+		SchemaDetails details = new SchemaDetails(schema, FileSchemaPersister.digestFromSchema(schema), id);
+		PreparedStatement statement = conn.prepare(INSERT_SCHEMA);
+		insertSchema(statement, details);
+		statement.executeUpdate();
+		return details;
+	}
+
+	/**
+	 * Make sure that a schema being saved with an existing schema-id is the same schema.
+	 */
+	private void checkSameSchema(SchemaDetails details, String schema) throws SchemaIdConflictException {
+		if (schema != null && !Arrays.equals(details.getDigest(), FileSchemaPersister.digestFromSchema(schema))) {
+			throw new SchemaIdConflictException(details.getId());
+		}
+	}
+
+	/**
+	 * Make sure that a version being saved that the subject already has uses the same schema-id. The transaction is
+	 * rolled back when the connection is released.
+	 */
+	private void checkSameId(String subject, long version, VersionRow row, long id)
+			throws SubjectVersionConflictException {
+		if (row.schemaId != id) {
+			throw new SubjectVersionConflictException(subject, version, row.schemaId, id);
+		}
+	}
+
+	private void addVersion(PooledConnection conn, String subject, long version, long id) throws SQLException {
+		if (!subjectExists(conn, subject)) {
+			PreparedStatement statement = conn.prepare(INSERT_SUBJECT);
+			statement.setString(1, subject);
+			statement.executeUpdate();
+		}
+		PreparedStatement statement = conn.prepare(INSERT_VERSION);
+		statement.setString(1, subject);
+		statement.setLong(2, version);
+		statement.setLong(3, id);
+		statement.executeUpdate();
+	}
+
+	private void deleteSchema(PooledConnection conn, long id) throws SQLException {
+		PreparedStatement statement = conn.prepare(UPDATE_MAX_DELETED_ID);
+		statement.setLong(1, id);
+		statement.setLong(2, id);
+		statement.executeUpdate();
+		statement = conn.prepare(DELETE_SCHEMA);
+		statement.setLong(1, id);
+		statement.executeUpdate();
+	}
+
+	private void deleteVersion(PooledConnection conn, String subject, long version) throws SQLException {
+		PreparedStatement statement = conn.prepare(DELETE_VERSION);
+		statement.setString(1, subject);
+		statement.setLong(2, version);
+		statement.executeUpdate();
+	}
+
+	private void removeSubjectIfEmpty(PooledConnection conn, String subject) throws SQLException {
+		PreparedStatement statement = conn.prepare(COUNT_VERSIONS);
+		statement.setString(1, subject);
+		if (queryLong(statement) == 0) {
+			statement = conn.prepare(DELETE_SUBJECT);
+			statement.setString(1, subject);
+			statement.executeUpdate();
+		}
+	}
+
+	private void insertSchema(PreparedStatement statement, SchemaDetails details) throws SQLException {
+		statement.setLong(1, details.getId());
+		statement.setString(2, EntityTypeAdapters.digestToHex(details.getDigest()));
+		statement.setString(3, details.getSchema());
+	}
+
+	/**
+	 * Run a query that returns a single number and return it or 0 if there were no results or it was null.
+	 */
+	private long queryLong(PreparedStatement statement) throws SQLException {
+		try (ResultSet results = statement.executeQuery();) {
+			if (results.next()) {
+				return results.getLong(1);
+			} else {
+				return 0;
+			}
+		}
+	}
+
+	private PooledConnection borrowConnection() throws IOException {
+		try {
+			return borrowConnectionUnchecked();
+		} catch (IllegalStateException ise) {
+			throw new IOException(ise.getMessage(), ise.getCause());
+		}
+	}
+
+	/**
+	 * Take an idle connection from the pool, create a new one if the pool is not full, or wait for one to be released.
+	 */
+	private PooledConnection borrowConnectionUnchecked() {
+		PooledConnection conn = idleConnections.poll();
+		if (conn != null) {
+			return conn;
+		}
+		boolean create;
+		synchronized (idleConnections) {
+			create = (connectionCount < maxConnections);
+			if (create) {
+				connectionCount++;
+			}
+		}
+		if (create) {
+			try {
+				Connection connection = DriverManager.getConnection(jdbcUrl);
+				connection.setAutoCommit(false);
+				return new PooledConnection(connection);
+			} catch (SQLException se) {
+				synchronized (idleConnections) {
+					connectionCount--;
+				}
+				throw new IllegalStateException("could not connect to " + jdbcUrl, se);
+			}
+		}
+		try {
+			return idleConnections.take();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted waiting for a connection to " + jdbcUrl, ie);
+		}
+	}
+
+	/**
+	 * Roll back anything that was not committed and return the connection to the pool. If the connection is broken
+	 * then it is closed instead so a new one will be created.
+	 */
+	private void releaseConnection(PooledConnection conn) {
+		try {
+			conn.connection.rollback();
+		} catch (SQLException se) {
+			conn.close();
+			synchronized (idleConnections) {
+				connectionCount--;
+			}
+			return;
+		}
+		idleConnections.offer(conn);
+	}
+
+	/**
+	 * Connection with its cache of prepared statements.
+	 */
+	private static class PooledConnection {
+
+		final Connection connection;
+		private final Map<String, PreparedStatement> statementMap = new HashMap<>();
+
+		public PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		public PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement statement = statementMap.get(sql);
+			if (statement == null) {
+				statement = connection.prepareStatement(sql);
+				statementMap.put(sql, statement);
+			} else {
+				statement.clearParameters();
+			}
+			return statement;
+		}
+
+		public void close() {
+			try {
+				connection.close();
+			} catch (SQLException se) {
+				// ignored
+			}
+		}
+	}
+
+	/**
+	 * Row from the versions table joined with its schema.
+	 */
+	private static class VersionRow {
+
+		final long schemaId;
+		final boolean deleted;
+		// removed when the subject was deleted
+		final boolean removed;
+		// null if the schema-id no longer exists
+		final SchemaDetails details;
+
+		public VersionRow(long schemaId, boolean deleted, boolean removed, SchemaDetails details) {
+			this.schemaId = schemaId;
+			this.deleted = deleted;
+			this.removed = removed;
+			this.details = details;
+		}
+	}
+}
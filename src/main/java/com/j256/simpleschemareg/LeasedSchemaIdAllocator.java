@@ -0,0 +1,103 @@
+package com.j256.simpleschemareg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Allocates ids in blocks which are leased from a lease file shared by all of the writer processes of a directory. The
+ * lease file holds the next id that has not been leased and is only locked while a new block is taken so the writers
+ * don't have to coordinate on each id. Ids left over in a block when a process exits are never used.
+ * 
+ * <p>
+ * This only makes the schema-ids unique. Because it is shared, the {@link FileSchemaPersister} also locks the subjects
+ * that it changes with the other writers, re-reads them from disk, and finds the schemas that the other writers
+ * registered in its digest index.
+ * </p>
+ */
+public class LeasedSchemaIdAllocator implements SchemaIdAllocator {
+
+	/**
+	 * Default number of ids leased at a time.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1000;
+	/**
+	 * Default name of the lease file in the root directory.
+	 */
+	public static final String DEFAULT_LEASE_FILE_NAME = "id-lease";
+	// file locks are held by the process so threads in the same process need to be locked out separately, one object
+	// per lease file which is locked by itself
+	private static final Map<String, Object> PROCESS_LOCKS = new HashMap<>();
+
+	private final File leaseFile;
+	private final int blockSize;
+	private final Object processLock;
+
+	private long nextId;
+	private long blockEnd;
+	private long maxObservedId;
+
+	public LeasedSchemaIdAllocator(File leaseFile, int blockSize) {
+		this.leaseFile = leaseFile;
+		this.blockSize = blockSize;
+		String key = leaseFile.getAbsoluteFile().toPath().normalize().toString();
+		synchronized (PROCESS_LOCKS) {
+			Object lock = PROCESS_LOCKS.get(key);
+			if (lock == null) {
+				lock = new Object();
+				PROCESS_LOCKS.put(key, lock);
+			}
+			this.processLock = lock;
+		}
+	}
+
+	@Override
+	public synchronized long nextId() throws IOException {
+		if (nextId >= blockEnd) {
+			leaseBlock();
+		}
+		return nextId++;
+	}
+
+	@Override
+	public synchronized void observeId(long id) {
+		if (id > maxObservedId) {
+			maxObservedId = id;
+		}
+	}
+
+	@Override
+	public boolean isShared() {
+		return true;
+	}
+
+	private void leaseBlock() throws IOException {
+		synchronized (processLock) {
+			try (FileChannel channel = FileChannel.open(leaseFile.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);) {
+				// released when the channel is closed
+				channel.lock();
+				ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+				long start = 1;
+				if (channel.read(buffer, 0) == Long.BYTES) {
+					buffer.flip();
+					start = buffer.getLong();
+				}
+				// ids may have been written before the lease file existed
+				start = Math.max(start, maxObservedId + 1);
+				buffer.clear();
+				buffer.putLong(start + blockSize);
+				buffer.flip();
+				channel.write(buffer, 0);
+				// the lease needs to hit the disk before we hand out any of its ids
+				channel.force(true);
+				nextId = start;
+				blockEnd = start + blockSize;
+			}
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.j256.simpleschemareg;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates ids by counting up from the maximum id that has been seen. This is only safe if there is a single writer
+ * process.
+ */
+public class LocalSchemaIdAllocator implements SchemaIdAllocator {
+
+	private final AtomicLong maxSchemaId = new AtomicLong();
+
+	@Override
+	public long nextId() {
+		return maxSchemaId.incrementAndGet();
+	}
+
+	@Override
+	public void observeId(long id) {
+		while (true) {
+			long max = maxSchemaId.get();
+			if (id <= max || maxSchemaId.compareAndSet(max, id)) {
+				return;
+			}
+		}
+	}
+}
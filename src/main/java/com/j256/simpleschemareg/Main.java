@@ -5,6 +5,7 @@ import java.io.PrintStream;
 
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.unixsocket.UnixSocketConnector;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 
 /**
@@ -21,8 +22,18 @@ public class Main {
 	private String rootDir = ".";
 	private int httpPort;
 	private int sslPort;
+	private String unixSocketPath;
+	private int binaryPort;
 	private boolean handleShutdown;
 	private boolean verbose;
+	private boolean leader;
+	private String leaderUrl;
+	private boolean readOnlyReplica;
+	private boolean sharedWriter;
+	private boolean migrateIdFiles;
+	private String jdbcUrl;
+	private long reclaimGraceMinutes;
+	private int asyncThreadCount;
 	private String keyStorePath;
 	private String keyStorePassword;
 	private String keyPassword;
@@ -38,13 +49,98 @@ public class Main {
 		Server server = null;
 		ServerConnector httpConnector = null;
 		ServerConnector sslConnector = null;
+		UnixSocketConnector unixConnector = null;
+		BinaryLookupServer binaryServer = null;
 
-		SchemaPersister persister = new FileSchemaPersister(new File(rootDir));
+		ReplicationFollower follower = null;
+
+		FileSchemaWatcher watcher = null;
+		SchemaReclaimer reclaimer = null;
+		ExecutorAsyncSchemaPersister asyncPersister = null;
+
+		FileSchemaPersister filePersister = null;
+		SchemaPersister persister;
+		if (jdbcUrl != null) {
+			persister = new JdbcSchemaPersister(jdbcUrl);
+		} else if (sharedWriter) {
+			File leaseFile = new File(rootDir, LeasedSchemaIdAllocator.DEFAULT_LEASE_FILE_NAME);
+			filePersister = new FileSchemaPersister(new File(rootDir),
+					new LeasedSchemaIdAllocator(leaseFile, LeasedSchemaIdAllocator.DEFAULT_BLOCK_SIZE));
+			persister = filePersister;
+		} else {
+			filePersister = new FileSchemaPersister(new File(rootDir), readOnlyReplica);
+			persister = filePersister;
+		}
+		try {
+			persister.initialize();
+		} catch (Exception e) {
+			System.err.println("Problem loading schemas from " + (jdbcUrl == null ? rootDir : jdbcUrl) + ": " + e);
+			e.printStackTrace();
+			return;
+		}
+		if (migrateIdFiles) {
+			try {
+				int count = filePersister.migrateIdFiles();
+				if (verbose) {
+					System.out.println("Migrated " + count + " legacy id files in " + rootDir);
+					System.out.flush();
+				}
+			} catch (Exception e) {
+				System.err.println("Problem migrating id files in " + rootDir + ": " + e);
+				e.printStackTrace();
+				return;
+			}
+		}
+		ReplicationLog replicationLog = null;
+		ReplicatingSchemaPersister replicatingPersister = null;
+		if (leader) {
+			replicationLog = new ReplicationLog();
+			replicatingPersister = new ReplicatingSchemaPersister(persister, replicationLog);
+			persister = replicatingPersister;
+		}
 
 		try {
 			// start a web-server for callback purposes
 			server = new Server();
 			SchemaRegHandler ourHandler = new SchemaRegHandler(persister, null, handleShutdown, verbose);
+			if (replicationLog != null) {
+				ourHandler.setReplicationLog(replicationLog);
+			}
+			if (asyncThreadCount > 0) {
+				asyncPersister = new ExecutorAsyncSchemaPersister(persister, asyncThreadCount);
+				ourHandler.setAsyncPersister(asyncPersister);
+			}
+			if (readOnlyReplica) {
+				ourHandler.setReadOnly(true);
+			}
+			if (readOnlyReplica || sharedWriter) {
+				// shared writers also need to pick up the other writers' changes for their lookups
+				watcher = new FileSchemaWatcher(filePersister, FileSchemaWatcher.DEFAULT_RESCAN_MILLIS);
+				Thread thread = new Thread(watcher, "schema-watcher");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			if (reclaimGraceMinutes > 0) {
+				long graceMillis = reclaimGraceMinutes * 60 * 1000;
+				if (replicatingPersister == null) {
+					reclaimer = new SchemaReclaimer(filePersister, graceMillis, SchemaReclaimer.DEFAULT_INTERVAL_MILLIS,
+							verbose);
+				} else {
+					// so the followers see the deleted schema-ids
+					reclaimer = new SchemaReclaimer(replicatingPersister, graceMillis,
+							SchemaReclaimer.DEFAULT_INTERVAL_MILLIS, verbose);
+				}
+				Thread thread = new Thread(reclaimer, "schema-reclaimer");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			if (leaderUrl != null) {
+				ourHandler.setLeaderUrl(leaderUrl);
+				follower = new ReplicationFollower(leaderUrl, persister, verbose);
+				Thread thread = new Thread(follower, "replication-follower");
+				thread.setDaemon(true);
+				thread.start();
+			}
 			server.setHandler(ourHandler);
 
 			if (httpPort != 0) {
@@ -72,6 +168,22 @@ public class Main {
 				server.addConnector(sslConnector);
 			}
 
+			if (unixSocketPath != null) {
+				// same-host clients can skip the TCP loopback stack
+				unixConnector = new UnixSocketConnector(server);
+				unixConnector.setUnixSocket(unixSocketPath);
+				unixConnector.setIdleTimeout(DEFAILT_IDLE_TIMEOUT_MILLIS);
+				server.addConnector(unixConnector);
+			}
+
+			if (binaryPort != 0) {
+				binaryServer = new BinaryLookupServer(persister, bindHost, binaryPort, verbose);
+				binaryServer.open();
+				Thread thread = new Thread(binaryServer, "binary-lookup-server");
+				thread.setDaemon(true);
+				thread.start();
+			}
+
 			server.start();
 			// this might wait until the process is killed
 			ourHandler.waitForShutdown();
@@ -80,12 +192,30 @@ public class Main {
 			System.err.println("Problem starting or stopping webserver: " + e);
 			e.printStackTrace();
 		} finally {
+			if (follower != null) {
+				follower.stop();
+			}
+			if (watcher != null) {
+				watcher.stop();
+			}
+			if (reclaimer != null) {
+				reclaimer.stop();
+			}
+			if (asyncPersister != null) {
+				asyncPersister.close();
+			}
 			if (httpConnector != null) {
 				httpConnector.close();
 			}
 			if (sslConnector != null) {
 				sslConnector.close();
 			}
+			if (unixConnector != null) {
+				unixConnector.close();
+			}
+			if (binaryServer != null) {
+				binaryServer.stop();
+			}
 		}
 	}
 
@@ -93,13 +223,59 @@ public class Main {
 		for (int i = 0; i < args.length;) {
 			String arg = args[i];
 			i++;
-			if ("-b".equals(arg)) {
+			if ("-a".equals(arg)) {
+				if (i >= args.length) {
+					usageMessageThenExit("Missing argument to " + arg, 1);
+				}
+				String threadsStr = args[i++];
+				try {
+					asyncThreadCount = Integer.parseInt(threadsStr);
+				} catch (NumberFormatException nfe) {
+					usageMessageThenExit("Invalid number argument to " + arg + ": " + threadsStr, 1);
+				}
+			} else if ("-b".equals(arg)) {
 				if (i >= args.length) {
 					usageMessageThenExit("Missing argument to " + arg, 1);
 				}
 				bindHost = args[i++];
+			} else if ("-f".equals(arg)) {
+				if (i >= args.length) {
+					usageMessageThenExit("Missing argument to " + arg, 1);
+				}
+				leaderUrl = args[i++];
+			} else if ("-g".equals(arg)) {
+				if (i >= args.length) {
+					usageMessageThenExit("Missing argument to " + arg, 1);
+				}
+				String minutesStr = args[i++];
+				try {
+					reclaimGraceMinutes = Long.parseLong(minutesStr);
+				} catch (NumberFormatException nfe) {
+					usageMessageThenExit("Invalid number argument to " + arg + ": " + minutesStr, 1);
+				}
 			} else if ("-h".equals(arg) || "--help".equals(arg) || "--usage".equals(arg)) {
 				usageMessageThenExit(null, 0);
+			} else if ("-j".equals(arg)) {
+				if (i >= args.length) {
+					usageMessageThenExit("Missing argument to " + arg, 1);
+				}
+				jdbcUrl = args[i++];
+			} else if ("-l".equals(arg)) {
+				leader = true;
+			} else if ("-m".equals(arg)) {
+				migrateIdFiles = true;
+			} else if ("-n".equals(arg)) {
+				if (i >= args.length) {
+					usageMessageThenExit("Missing argument to " + arg, 1);
+				}
+				String portStr = args[i++];
+				try {
+					binaryPort = Integer.parseInt(portStr);
+				} catch (NumberFormatException nfe) {
+					usageMessageThenExit("Invalid number argument to " + arg + ": " + portStr, 1);
+				}
+			} else if ("-o".equals(arg)) {
+				readOnlyReplica = true;
 			} else if ("-p".equals(arg)) {
 				if (i >= args.length) {
 					usageMessageThenExit("Missing argument to " + arg, 1);
@@ -127,13 +303,48 @@ public class Main {
 				rootDir = args[i++];
 			} else if ("-s".equals(arg)) {
 				handleShutdown = true;
+			} else if ("-u".equals(arg)) {
+				if (i >= args.length) {
+					usageMessageThenExit("Missing argument to " + arg, 1);
+				}
+				unixSocketPath = args[i++];
 			} else if ("-v".equals(arg)) {
 				verbose = true;
+			} else if ("-w".equals(arg)) {
+				sharedWriter = true;
 			}
 		}
 
-		if (httpPort == 0 && sslPort == 0) {
-			usageMessageThenExit("HTTP port (-p) or SSL port (-P) must be specified", 1);
+		if (httpPort == 0 && sslPort == 0 && unixSocketPath == null) {
+			usageMessageThenExit("HTTP port (-p), SSL port (-P), or unix socket (-u) must be specified", 1);
+		}
+		if (sharedWriter && readOnlyReplica) {
+			usageMessageThenExit("Shared writer (-w) and read-only replica (-o) cannot both be specified", 1);
+		}
+		if (jdbcUrl != null && (sharedWriter || readOnlyReplica || reclaimGraceMinutes > 0 || migrateIdFiles)) {
+			usageMessageThenExit("JDBC url (-j) cannot be used with the root-dir options -g, -m, -o, or -w", 1);
+		}
+		if (readOnlyReplica && migrateIdFiles) {
+			usageMessageThenExit("Read-only replica (-o) cannot migrate (-m) id files", 1);
+		}
+		if (readOnlyReplica && reclaimGraceMinutes > 0) {
+			usageMessageThenExit("Read-only replica (-o) cannot reclaim (-g) schemas", 1);
+		}
+		if (sharedWriter && leader) {
+			// the other writers' changes would not be in our replication log
+			usageMessageThenExit("Shared writer (-w) cannot be a leader (-l)", 1);
+		}
+		if (leaderUrl != null && reclaimGraceMinutes > 0) {
+			// the leader reclaims and its deletes are replicated to us
+			usageMessageThenExit("Follower (-f) cannot reclaim (-g) schemas", 1);
+		}
+		if (sharedWriter && reclaimGraceMinutes > 0) {
+			// the reclaimer only sees our manifests and would delete ids that other writers have just saved
+			usageMessageThenExit("Shared writer (-w) cannot reclaim (-g) schemas", 1);
+		}
+		if ((leader ? 1 : 0) + (leaderUrl == null ? 0 : 1) + (readOnlyReplica ? 1 : 0) > 1) {
+			usageMessageThenExit("Only one of leader (-l), follower (-f), or read-only replica (-o) can be specified",
+					1);
 		}
 		if (sslPort != 0) {
 			// verify ssl port options
@@ -166,14 +377,24 @@ public class Main {
 		if (message != null) {
 			outputStream.println(message);
 		}
-		outputStream.println(
-				"Usage: java -jar simple-schema-reg.jar [-p port | -P port] [-b bind-host] [-r dir] [-s] [-v] ");
+		outputStream.println("Usage: java -jar simple-schema-reg.jar [-p port | -P port] [-u path] [-n port] "
+				+ "[-b bind-host] [-r dir | -j url] [-l | -f url | -o] [-a threads] [-g minutes] [-m] [-s] [-v] [-w] ");
+		outputStream.println("       -a threads    serve lookups and registrations with async requests on threads");
 		outputStream.println("       -b bind-host  name of host to bind to, if not specified then all");
+		outputStream.println("       -f leader-url follow the leader registry at this URL and reject changes");
+		outputStream.println("       -g minutes    reclaim deleted versions and unused schema-ids after minutes");
+		outputStream.println("       -j jdbc-url   store the schemas in an embedded database using JDBC");
+		outputStream.println("       -l            act as a leader and serve the /replication endpoints to followers");
+		outputStream.println("       -m            convert legacy JSON id files to the binary format at startup");
+		outputStream.println("       -n bin-port   number of the port to serve binary schema-id lookups on");
+		outputStream.println("       -o            read-only replica of a root-dir written by another registry");
 		outputStream.println("       -p http-port  number of the http port to bind to");
 		outputStream.println("       -P ssl-port   number of the SSL port to bind to");
 		outputStream.println("       -r root-dir   root direcctory where the schema files are stored");
 		outputStream.println("       -s            enable the /shutdown GET command");
+		outputStream.println("       -u socket     path of a unix domain socket to also serve requests on");
 		outputStream.println("       -v            verbose messages to stdout");
+		outputStream.println("       -w            lease blocks of schema-ids so other writers can share the root-dir");
 		System.exit(errCode);
 	}
 }
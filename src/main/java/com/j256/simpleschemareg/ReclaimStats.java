@@ -0,0 +1,43 @@
+package com.j256.simpleschemareg;
+
+/**
+ * What was reclaimed by a pass of {@link FileSchemaPersister#reclaim(long)}.
+ */
+public class ReclaimStats {
+
+	private final int versionCount;
+	private final int idCount;
+	private final long byteCount;
+
+	public ReclaimStats(int versionCount, int idCount, long byteCount) {
+		this.versionCount = versionCount;
+		this.idCount = idCount;
+		this.byteCount = byteCount;
+	}
+
+	/**
+	 * Number of deleted subject versions that were removed from the manifests.
+	 */
+	public int getVersionCount() {
+		return versionCount;
+	}
+
+	/**
+	 * Number of unreferenced id files that were removed.
+	 */
+	public int getIdCount() {
+		return idCount;
+	}
+
+	/**
+	 * Size of the id files that were removed.
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	@Override
+	public String toString() {
+		return "reclaimed " + idCount + " id files (" + byteCount + " bytes) and " + versionCount + " deleted versions";
+	}
+}
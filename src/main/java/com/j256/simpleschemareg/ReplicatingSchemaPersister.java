@@ -0,0 +1,199 @@
+package com.j256.simpleschemareg;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.j256.simpleschemareg.entities.ExportEntry;
+import com.j256.simpleschemareg.entities.ImportResponse;
+import com.j256.simpleschemareg.entities.ReplicationEntry;
+import com.j256.simpleschemareg.entities.SchemaDetails;
+import com.j256.simpleschemareg.entities.SubjectSchema;
+import com.j256.simpleschemareg.entities.SubjectVersion;
+
+/**
+ * Persister used by a leader registry which wraps another persister and appends each change to a
+ * {@link ReplicationLog} so followers can apply the same changes.
+ */
+public class ReplicatingSchemaPersister implements SchemaPersister {
+
+	private final SchemaPersister delegate;
+	private final ReplicationLog log;
+
+	public ReplicatingSchemaPersister(SchemaPersister delegate, ReplicationLog log) {
+		this.delegate = delegate;
+		this.log = log;
+	}
+
+	@Override
+	public void initialize() throws IOException {
+		delegate.initialize();
+	}
+
+	@Override
+	public String[] lookupSubjects() {
+		return delegate.lookupSubjects();
+	}
+
+	@Override
+	public String[] lookupSubjects(String prefix, String after, int offset, int limit) {
+		return delegate.lookupSubjects(prefix, after, offset, limit);
+	}
+
+	@Override
+	public SchemaDetails lookupSchema(String schema) {
+		return delegate.lookupSchema(schema);
+	}
+
+	@Override
+	public SchemaDetails lookupSchema(String subject, String schema) throws IOException {
+		return delegate.lookupSchema(subject, schema);
+	}
+
+	@Override
+	public SchemaDetails lookupSchemaDigest(byte[] digest) {
+		return delegate.lookupSchemaDigest(digest);
+	}
+
+	@Override
+	public SchemaDetails lookupSchemaDigest(String subject, byte[] digest) throws IOException {
+		return delegate.lookupSchemaDigest(subject, digest);
+	}
+
+	@Override
+	public SchemaDetails lookupSchemaId(long id) {
+		return delegate.lookupSchemaId(id);
+	}
+
+	@Override
+	public SubjectVersion[] lookupSchemaIdVersions(long id) {
+		return delegate.lookupSchemaIdVersions(id);
+	}
+
+	@Override
+	public SchemaDetails lookupLatestSubjectVersion(String subject) throws IOException {
+		return delegate.lookupLatestSubjectVersion(subject);
+	}
+
+	@Override
+	public SchemaDetails lookupSubjectVersion(String subject, long version) throws IOException {
+		return delegate.lookupSubjectVersion(subject, version);
+	}
+
+	@Override
+	public long[] lookupSubjectVersions(String subject) {
+		return delegate.lookupSubjectVersions(subject);
+	}
+
+	@Override
+	public Iterator<SchemaDetails> schemaIterator() {
+		return delegate.schemaIterator();
+	}
+
+	@Override
+	public synchronized void deleteSchemaId(long id) {
+		if (delegate.lookupSchemaId(id) != null) {
+			delegate.deleteSchemaId(id);
+			log.append(ReplicationEntry.deleteId(id));
+		}
+	}
+
+	@Override
+	public synchronized long[] deleteSubject(String subject) {
+		long[] versions = delegate.deleteSubject(subject);
+		if (versions != null) {
+			log.append(ReplicationEntry.deleteSubject(subject));
+		}
+		return versions;
+	}
+
+	@Override
+	public synchronized SchemaDetails deleteSubjectVersion(String subject, long version, boolean permanent)
+			throws IOException {
+		SchemaDetails details = delegate.deleteSubjectVersion(subject, version, permanent);
+		if (details != null) {
+			log.append(ReplicationEntry.deleteVersion(subject, version, permanent));
+			if (permanent && delegate.lookupSchemaId(details.getId()) == null) {
+				// the follower may not know about the deleted version if it started from a snapshot
+				log.append(ReplicationEntry.deleteId(details.getId()));
+			}
+		}
+		return details;
+	}
+
+	@Override
+	public synchronized SchemaDetails saveSchema(String subject, String schema) throws IOException {
+		long[] versions = delegate.lookupSubjectVersions(subject);
+		SchemaDetails details = delegate.saveSchema(subject, schema);
+		// only log if a new version was added and not if the schema was already in the subject
+		if (details != null && (versions == null || Arrays.binarySearch(versions, details.getVersion()) < 0)) {
+			log.append(ReplicationEntry.save(subject, details.getVersion(), details.getId(), schema));
+		}
+		return details;
+	}
+
+	@Override
+	public synchronized SchemaDetails[] saveSchemas(SubjectSchema[] subjectSchemas) throws IOException {
+		Set<SubjectVersion> existing = new HashSet<>();
+		for (SubjectSchema subjectSchema : subjectSchemas) {
+			long[] versions = delegate.lookupSubjectVersions(subjectSchema.getSubject());
+			if (versions != null) {
+				for (long version : versions) {
+					existing.add(new SubjectVersion(subjectSchema.getSubject(), version));
+				}
+			}
+		}
+		SchemaDetails[] results = delegate.saveSchemas(subjectSchemas);
+		for (int i = 0; i < results.length; i++) {
+			SchemaDetails details = results[i];
+			String subject = subjectSchemas[i].getSubject();
+			// the add also skips schemas that appear more than once in the batch
+			if (details != null && existing.add(new SubjectVersion(subject, details.getVersion()))) {
+				log.append(ReplicationEntry.save(subject, details.getVersion(), details.getId(),
+						subjectSchemas[i].getSchema()));
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public synchronized SchemaDetails saveSchema(String subject, long version, long id, String schema)
+			throws IOException {
+		SchemaDetails details = delegate.saveSchema(subject, version, id, schema);
+		if (details != null) {
+			log.append(ReplicationEntry.save(subject, version, id, details.getSchema()));
+		}
+		return details;
+	}
+
+	@Override
+	public synchronized ImportResponse importSchemas(List<ExportEntry> entries) throws IOException {
+		// nothing is logged if the delegate rejects the batch
+		ImportResponse response = delegate.importSchemas(entries);
+		// the follower applies saves idempotently so entries that were already there are harmless
+		for (ExportEntry entry : entries) {
+			log.append(ReplicationEntry.save(entry.getSubject(), entry.getVersion(), entry.getId(), entry.getSchema()));
+		}
+		return response;
+	}
+
+	/**
+	 * Run a reclaim pass on the file persister that we wrap with the schema-id deletes going through us so they are
+	 * logged for the followers. The pruned deleted versions are not logged since readers cannot see them.
+	 */
+	public synchronized ReclaimStats reclaim(long graceMillis) throws IOException {
+		if (!(delegate instanceof FileSchemaPersister)) {
+			throw new IllegalStateException("only a file persister can be reclaimed");
+		}
+		// we are locked first so the lock order is the same as the other changes
+		return ((FileSchemaPersister) delegate).reclaim(graceMillis, this);
+	}
+
+	@Override
+	public void sync() throws IOException {
+		delegate.sync();
+	}
+}
@@ -0,0 +1,302 @@
+package com.j256.simpleschemareg;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jetty.http.HttpStatus;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.j256.simpleschemareg.entities.ReplicationEntry;
+import com.j256.simpleschemareg.entities.SchemaDetails;
+import com.j256.simpleschemareg.entities.SubjectVersion;
+
+/**
+ * Keeps a follower's persister in sync with a leader registry. It starts by loading a snapshot of the leader and then
+ * long-polls the leader's replication log for changes. If the leader restarts or the follower falls too far behind
+ * then it loads another snapshot. Applying entries is idempotent so the changes made while the snapshot was being
+ * written can be replayed safely. After a snapshot is loaded, the schema-ids and versions that the follower has but the
+ * snapshot does not are deleted since the leader deleted them while we were not following its log.
+ */
+public class ReplicationFollower implements Runnable {
+
+	private static final int DEFAULT_POLL_WAIT_MILLIS = 2000;
+	private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+	private static final int READ_TIMEOUT_MILLIS = 10000;
+	private static final long MIN_RETRY_MILLIS = 100;
+	private static final long MAX_RETRY_MILLIS = 10000;
+
+	private final Gson gson = new Gson();
+
+	private final String leaderUrl;
+	private final SchemaPersister persister;
+	private final boolean verbose;
+	private int pollWaitMillis = DEFAULT_POLL_WAIT_MILLIS;
+
+	private long epoch = -1;
+	private long offset;
+	private volatile boolean running = true;
+
+	public ReplicationFollower(String leaderUrl, SchemaPersister persister, boolean verbose) {
+		if (leaderUrl.endsWith("/")) {
+			leaderUrl = leaderUrl.substring(0, leaderUrl.length() - 1);
+		}
+		this.leaderUrl = leaderUrl;
+		this.persister = persister;
+		this.verbose = verbose;
+	}
+
+	@Override
+	public void run() {
+		long retryMillis = MIN_RETRY_MILLIS;
+		while (running) {
+			try {
+				if (getEpoch() < 0) {
+					loadSnapshot();
+				} else {
+					pollLog();
+				}
+				retryMillis = MIN_RETRY_MILLIS;
+			} catch (IOException | JsonParseException e) {
+				if (!running) {
+					break;
+				}
+				System.err.println("WARNING: replicating from leader " + leaderUrl + " failed, retrying in "
+						+ retryMillis + "ms: " + e);
+				try {
+					Thread.sleep(retryMillis);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+			}
+		}
+	}
+
+	/**
+	 * Stop the follower. It may take up to the poll wait time to notice.
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Wait until the follower has applied the leader's log up to the offset.
+	 * 
+	 * @return True if the offset was reached or false if the wait timed out.
+	 */
+	public synchronized boolean waitForOffset(long waitOffset, long timeoutMillis) throws InterruptedException {
+		long endMillis = System.currentTimeMillis() + timeoutMillis;
+		while (epoch < 0 || offset < waitOffset) {
+			long left = endMillis - System.currentTimeMillis();
+			if (left <= 0) {
+				return false;
+			}
+			this.wait(left);
+		}
+		return true;
+	}
+
+	/**
+	 * Apply a replication entry to a persister. This needs to be idempotent because entries may be applied on top of
+	 * a snapshot that already includes them.
+	 */
+	public static void apply(SchemaPersister persister, ReplicationEntry entry) throws IOException {
+		switch (entry.getOp()) {
+			case SAVE:
+				try {
+					persister.saveSchema(entry.getSubject(), entry.getVersion(), entry.getId(), entry.getSchema());
+				} catch (SubjectVersionConflictException svce) {
+					// the leader is the source of truth so our version is replaced
+					System.err.println("WARNING: replacing follower's " + svce.getMessage());
+					persister.deleteSubjectVersion(entry.getSubject(), entry.getVersion(), false);
+					persister.deleteSubjectVersion(entry.getSubject(), entry.getVersion(), true);
+					persister.saveSchema(entry.getSubject(), entry.getVersion(), entry.getId(), entry.getSchema());
+				}
+				break;
+			case DELETE_ID:
+				persister.deleteSchemaId(entry.getId());
+				break;
+			case DELETE_SUBJECT:
+				persister.deleteSubject(entry.getSubject());
+				break;
+			case DELETE_VERSION:
+				persister.deleteSubjectVersion(entry.getSubject(), entry.getVersion(), entry.isPermanent());
+				break;
+			default:
+				throw new IllegalArgumentException("unknown replication op: " + entry.getOp());
+		}
+	}
+
+	/**
+	 * Set the time that the leader waits for new log entries before returning an empty response.
+	 */
+	public void setPollWaitMillis(int pollWaitMillis) {
+		this.pollWaitMillis = pollWaitMillis;
+	}
+
+	public synchronized long getEpoch() {
+		return epoch;
+	}
+
+	public synchronized long getOffset() {
+		return offset;
+	}
+
+	private void loadSnapshot() throws IOException {
+		HttpURLConnection conn = openConnection(leaderUrl + "/replication/snapshot");
+		try {
+			if (conn.getResponseCode() != HttpStatus.OK_200) {
+				throw new IOException("snapshot request returned status " + conn.getResponseCode());
+			}
+			long snapshotEpoch = parseHeader(conn, SchemaRegHandler.REPLICATION_EPOCH_HEADER);
+			long snapshotOffset = parseHeader(conn, SchemaRegHandler.REPLICATION_OFFSET_HEADER);
+			Set<Long> snapshotIds = new HashSet<>();
+			Set<SubjectVersion> snapshotVersions = new HashSet<>();
+			int count = applyEntries(conn, snapshotIds, snapshotVersions);
+			int removedCount = removeMissing(snapshotIds, snapshotVersions);
+			if (verbose) {
+				System.out.println("Loaded replication snapshot of " + count + " entries at offset " + snapshotOffset
+						+ ", removed " + removedCount + " entries not in it");
+				System.out.flush();
+			}
+			setPosition(snapshotEpoch, snapshotOffset);
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	private void pollLog() throws IOException {
+		long currentEpoch = getEpoch();
+		long currentOffset = getOffset();
+		HttpURLConnection conn = openConnection(leaderUrl + "/replication/log?epoch=" + currentEpoch + "&from="
+				+ currentOffset + "&wait=" + pollWaitMillis);
+		try {
+			int status = conn.getResponseCode();
+			if (status == HttpStatus.GONE_410) {
+				System.err.println("WARNING: replication log position " + currentOffset
+						+ " no longer available from leader, reloading snapshot");
+				setPosition(-1, 0);
+				return;
+			}
+			if (status != HttpStatus.OK_200) {
+				throw new IOException("replication log request returned status " + status);
+			}
+			long nextOffset = parseHeader(conn, SchemaRegHandler.REPLICATION_OFFSET_HEADER);
+			applyEntries(conn, null, null);
+			setPosition(currentEpoch, nextOffset);
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * Apply the entries in the response. If the sets are not null then the schema-ids and subject versions that are
+	 * saved are added to them.
+	 */
+	private int applyEntries(HttpURLConnection conn, Set<Long> savedIds, Set<SubjectVersion> savedVersions)
+			throws IOException {
+		int count = 0;
+		try (BufferedReader reader =
+				new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8));) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				ReplicationEntry entry = gson.fromJson(line, ReplicationEntry.class);
+				apply(persister, entry);
+				if (savedIds != null && entry.getOp() == ReplicationEntry.Op.SAVE) {
+					if (entry.getSubject() == null) {
+						savedIds.add(entry.getId());
+					} else {
+						savedVersions.add(new SubjectVersion(entry.getSubject(), entry.getVersion()));
+					}
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Delete the subject versions and schema-ids that are not in the snapshot. A subject with none of its versions in
+	 * the snapshot is deleted as a whole like the leader does.
+	 * 
+	 * @return The number of subjects, versions, and schema-ids deleted.
+	 */
+	private int removeMissing(Set<Long> snapshotIds, Set<SubjectVersion> snapshotVersions) throws IOException {
+		Set<String> snapshotSubjects = new HashSet<>();
+		for (SubjectVersion subjectVersion : snapshotVersions) {
+			snapshotSubjects.add(subjectVersion.getSubject());
+		}
+		int count = 0;
+		for (String subject : persister.lookupSubjects()) {
+			if (!snapshotSubjects.contains(subject)) {
+				if (persister.deleteSubject(subject) != null) {
+					count++;
+				}
+				continue;
+			}
+			long[] versions = persister.lookupSubjectVersions(subject);
+			if (versions == null) {
+				continue;
+			}
+			for (long version : versions) {
+				if (!snapshotVersions.contains(new SubjectVersion(subject, version))
+						&& persister.deleteSubjectVersion(subject, version, false) != null) {
+					count++;
+				}
+			}
+		}
+		// collected first so we don't change the persister while iterating over it
+		List<Long> missingIds = new ArrayList<>();
+		Iterator<SchemaDetails> iterator = persister.schemaIterator();
+		while (iterator.hasNext()) {
+			long id = iterator.next().getId();
+			if (!snapshotIds.contains(id)) {
+				missingIds.add(id);
+			}
+		}
+		for (long id : missingIds) {
+			persister.deleteSchemaId(id);
+			count++;
+		}
+		return count;
+	}
+
+	private HttpURLConnection openConnection(String url) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+		conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+		return conn;
+	}
+
+	private long parseHeader(HttpURLConnection conn, String name) throws IOException {
+		String value = conn.getHeaderField(name);
+		if (value == null) {
+			throw new IOException("leader response missing header: " + name);
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException nfe) {
+			throw new IOException("leader response has invalid " + name + " header: " + value);
+		}
+	}
+
+	private synchronized void setPosition(long epoch, long offset) {
+		this.epoch = epoch;
+		this.offset = offset;
+		this.notifyAll();
+	}
+}
@@ -0,0 +1,96 @@
+package com.j256.simpleschemareg;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.j256.simpleschemareg.entities.ReplicationEntry;
+
+/**
+ * In-memory log of the mutations made on a leader registry which followers read to stay in sync. Only the most recent
+ * entries are retained. A follower that falls further behind than that, or that was following a previous incarnation
+ * of the leader as identified by the epoch, needs to start again from a snapshot.
+ */
+public class ReplicationLog {
+
+	/**
+	 * Default number of entries retained.
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	private final long epoch;
+	private final int maxEntries;
+	private final ArrayDeque<ReplicationEntry> entries = new ArrayDeque<>();
+	private long nextOffset;
+
+	public ReplicationLog() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	public ReplicationLog(int maxEntries) {
+		this.maxEntries = maxEntries;
+		// offsets from different runs of the leader are not comparable
+		this.epoch = new SecureRandom().nextLong() & Long.MAX_VALUE;
+	}
+
+	/**
+	 * Append an entry to the log and wake up any readers waiting for it.
+	 * 
+	 * @return The offset of the entry.
+	 */
+	public synchronized long append(ReplicationEntry entry) {
+		long offset = nextOffset++;
+		entries.addLast(entry.withOffset(offset));
+		if (entries.size() > maxEntries) {
+			entries.removeFirst();
+		}
+		this.notifyAll();
+		return offset;
+	}
+
+	/**
+	 * Read entries starting at an offset waiting for up to waitMillis if there aren't any yet.
+	 * 
+	 * @return The entries which may be empty or null if the offset is no longer retained in the log.
+	 */
+	public synchronized List<ReplicationEntry> read(long fromOffset, int maxCount, long waitMillis)
+			throws InterruptedException {
+		long endMillis = System.currentTimeMillis() + waitMillis;
+		while (fromOffset == nextOffset) {
+			long left = endMillis - System.currentTimeMillis();
+			if (left <= 0) {
+				break;
+			}
+			this.wait(left);
+		}
+		long firstOffset = nextOffset - entries.size();
+		if (fromOffset < firstOffset || fromOffset > nextOffset) {
+			return null;
+		}
+		List<ReplicationEntry> results = new ArrayList<>();
+		Iterator<ReplicationEntry> iterator = entries.iterator();
+		for (long offset = firstOffset; offset < nextOffset && results.size() < maxCount; offset++) {
+			ReplicationEntry entry = iterator.next();
+			if (offset >= fromOffset) {
+				results.add(entry);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Identifies this incarnation of the log.
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Offset that the next entry will be given.
+	 */
+	public synchronized long getNextOffset() {
+		return nextOffset;
+	}
+}
@@ -0,0 +1,28 @@
+package com.j256.simpleschemareg;
+
+import java.io.IOException;
+
+/**
+ * Hands out the ids of new schemas.
+ */
+public interface SchemaIdAllocator {
+
+	/**
+	 * Return a new schema-id which has not been returned before.
+	 */
+	public long nextId() throws IOException;
+
+	/**
+	 * Record that a schema-id is in use, such as when it is loaded from disk or saved with an explicit id, so it will
+	 * not be handed out again.
+	 */
+	public void observeId(long id);
+
+	/**
+	 * Return true if other processes allocate ids for the same directory. The persister then coordinates its changes
+	 * with the other writers.
+	 */
+	public default boolean isShared() {
+		return false;
+	}
+}
@@ -0,0 +1,22 @@
+package com.j256.simpleschemareg;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a schema is saved with a schema-id that is already registered with a different schema.
+ */
+public class SchemaIdConflictException extends IOException {
+
+	private static final long serialVersionUID = -3460593211583915562L;
+
+	private final long id;
+
+	public SchemaIdConflictException(long id) {
+		super("schema-id " + id + " is already registered with a different schema");
+		this.id = id;
+	}
+
+	public long getId() {
+		return id;
+	}
+}
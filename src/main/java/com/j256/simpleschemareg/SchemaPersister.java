@@ -1,8 +1,18 @@
 package com.j256.simpleschemareg;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+import com.j256.simpleschemareg.entities.ExportEntry;
+import com.j256.simpleschemareg.entities.ImportResponse;
 import com.j256.simpleschemareg.entities.SchemaDetails;
+import com.j256.simpleschemareg.entities.SubjectSchema;
+import com.j256.simpleschemareg.entities.SubjectVersion;
 
 /**
  * Schema persistence operations.
@@ -19,6 +29,38 @@ public interface SchemaPersister {
 	 */
 	public String[] lookupSubjects();
 
+	/**
+	 * Return a page of the subjects stored in sorted order.
+	 * 
+	 * @param prefix
+	 *            Only return subjects that start with this prefix or null for all subjects.
+	 * @param after
+	 *            Only return subjects that sort after this one, usually the last subject of the previous page, or null
+	 *            to start at the beginning.
+	 * @param offset
+	 *            Number of matching subjects to skip.
+	 * @param limit
+	 *            Maximum number of subjects to return or 0 for no limit.
+	 */
+	public default String[] lookupSubjects(String prefix, String after, int offset, int limit) {
+		List<String> subjects = new ArrayList<>();
+		int skipped = 0;
+		for (String subject : lookupSubjects()) {
+			if ((prefix != null && !subject.startsWith(prefix)) || (after != null && subject.compareTo(after) <= 0)) {
+				continue;
+			}
+			if (skipped < offset) {
+				skipped++;
+				continue;
+			}
+			subjects.add(subject);
+			if (limit > 0 && subjects.size() >= limit) {
+				break;
+			}
+		}
+		return subjects.toArray(new String[subjects.size()]);
+	}
+
 	/**
 	 * See if the schema already exists in the registry.
 	 * 
@@ -37,16 +79,96 @@ public interface SchemaPersister {
 	 */
 	public SchemaDetails lookupSchema(String subject, String schema) throws IOException;
 
+	/**
+	 * Lookup a schema by its digest, see {@link FileSchemaPersister#digestFromSchema(String)}, so the schema does not
+	 * have to be sent to check if it is registered.
+	 * 
+	 * @return Details about the schema or null if not found.
+	 */
+	public default SchemaDetails lookupSchemaDigest(byte[] digest) {
+		// persisters should override this with an index, this default walks all of the schemas
+		Iterator<SchemaDetails> iterator = schemaIterator();
+		while (iterator.hasNext()) {
+			SchemaDetails details = iterator.next();
+			if (Arrays.equals(details.getDigest(), digest)) {
+				return details;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Lookup a schema by its digest and return the details with the version of the schema in the subject if it has
+	 * been registered there.
+	 * 
+	 * @return Details about the schema or null if not found.
+	 */
+	public default SchemaDetails lookupSchemaDigest(String subject, byte[] digest) throws IOException {
+		SchemaDetails details = lookupSchemaDigest(digest);
+		if (details == null) {
+			return null;
+		} else {
+			return lookupSchema(subject, details.getSchema());
+		}
+	}
+
 	/**
 	 * Lookup and return the schema details associated with the schema-id.
 	 */
 	public SchemaDetails lookupSchemaId(long id);
 
+	/**
+	 * Lookup the live subject versions that use the schema-id.
+	 * 
+	 * @return An array of the subject versions, which might be empty, or null if the schema-id is not found.
+	 */
+	public default SubjectVersion[] lookupSchemaIdVersions(long id) {
+		if (lookupSchemaId(id) == null) {
+			return null;
+		}
+		// persisters should override this with an index, this default walks all of the subject versions
+		List<SubjectVersion> subjectVersions = new ArrayList<>();
+		for (String subject : lookupSubjects()) {
+			long[] versions = lookupSubjectVersions(subject);
+			if (versions == null) {
+				continue;
+			}
+			for (long version : versions) {
+				SchemaDetails details;
+				try {
+					details = lookupSubjectVersion(subject, version);
+				} catch (IOException ioe) {
+					throw new IllegalStateException("looking up version " + version + " of subject '" + subject
+							+ "' failed", ioe);
+				}
+				if (details != null && details.getId() == id) {
+					subjectVersions.add(new SubjectVersion(subject, version));
+				}
+			}
+		}
+		return subjectVersions.toArray(new SubjectVersion[subjectVersions.size()]);
+	}
+
 	/**
 	 * Lookup and return the schema details associated with a subject and version.
 	 */
 	public SchemaDetails lookupSubjectVersion(String subject, long version) throws IOException;
 
+	/**
+	 * Lookup and return the schema details of the highest live version of a subject.
+	 * 
+	 * @return Details about the schema with its version or null if the subject has no live versions.
+	 */
+	public default SchemaDetails lookupLatestSubjectVersion(String subject) throws IOException {
+		long[] versions = lookupSubjectVersions(subject);
+		if (versions == null || versions.length == 0) {
+			return null;
+		} else {
+			// the versions are sorted
+			return lookupSubjectVersion(subject, versions[versions.length - 1]);
+		}
+	}
+
 	/**
 	 * Lookup and return the versions for a subject.
 	 * 
@@ -82,4 +204,121 @@ public interface SchemaPersister {
 	 *            Schema that we may be persisting.
 	 */
 	public SchemaDetails saveSchema(String subject, String schema) throws IOException;
+
+	/**
+	 * Save a batch of schemas to their subjects. This does the same as calling {@link #saveSchema(String, String)} for
+	 * each schema in order but persisters may lock and write the batch once.
+	 * 
+	 * @return The details of each schema in the same order as the batch.
+	 */
+	public default SchemaDetails[] saveSchemas(SubjectSchema[] subjectSchemas) throws IOException {
+		SchemaDetails[] results = new SchemaDetails[subjectSchemas.length];
+		for (int i = 0; i < subjectSchemas.length; i++) {
+			results[i] = saveSchema(subjectSchemas[i].getSubject(), subjectSchemas[i].getSchema());
+		}
+		return results;
+	}
+
+	/**
+	 * Save a schema with a specific schema-id and optionally a subject and version. This is used when copying schemas
+	 * from another registry so the ids and versions match. If the subject already has the version with the same
+	 * schema-id then nothing is changed.
+	 * 
+	 * @param subject
+	 *            Subject name to associate with this schema or null to only save the schema-id.
+	 * @param version
+	 *            Version of the schema in the subject. Ignored if subject is null.
+	 * @param id
+	 *            Schema-id to save the schema as.
+	 * @param schema
+	 *            Schema that we are saving or null if the schema-id has already been saved.
+	 * @return Details about the schema or null if the schema was null and the schema-id was not found.
+	 * @throws SchemaIdConflictException
+	 *             If the schema-id is already registered with a different schema.
+	 * @throws SubjectVersionConflictException
+	 *             If the subject already has the version with a different schema-id.
+	 */
+	public default SchemaDetails saveSchema(String subject, long version, long id, String schema) throws IOException {
+		throw new UnsupportedOperationException(
+				getClass().getSimpleName() + " does not support saving schemas with a specific schema-id");
+	}
+
+	/**
+	 * Return an iterator over all of the schemas in the registry. The iterator may or may not reflect changes made
+	 * while iterating.
+	 */
+	public default Iterator<SchemaDetails> schemaIterator() {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support iterating its schemas");
+	}
+
+	/**
+	 * Save a batch of entries from a registry export keeping their schema-ids and versions. This does the same as
+	 * calling {@link #saveSchema(String, long, long, String)} for each entry but persisters may write the batch more
+	 * efficiently and may not make it durable until {@link #sync()} is called. Versions that the subject already has
+	 * with the same schema-id and versions of unknown schema-ids are skipped.
+	 * 
+	 * @return The number of schemas and subject versions that were added.
+	 * @throws SchemaIdConflictException
+	 *             If a schema-id in the batch is already registered with a different schema, in which case none of
+	 *             the batch is saved.
+	 * @throws SubjectVersionConflictException
+	 *             If a subject already has a version in the batch with a different schema-id, in which case none of
+	 *             the batch is saved.
+	 */
+	public default ImportResponse importSchemas(List<ExportEntry> entries) throws IOException {
+		// check the whole batch first so a conflict rejects all of it
+		Map<Long, String> batchSchemas = new HashMap<>();
+		Map<SubjectVersion, Long> batchVersions = new HashMap<>();
+		for (ExportEntry entry : entries) {
+			if (entry.getSubject() != null) {
+				SubjectVersion subjectVersion = new SubjectVersion(entry.getSubject(), entry.getVersion());
+				Long existingId = batchVersions.get(subjectVersion);
+				if (existingId == null) {
+					SchemaDetails existing = lookupSubjectVersion(entry.getSubject(), entry.getVersion());
+					existingId = (existing == null ? entry.getId() : existing.getId());
+					batchVersions.put(subjectVersion, existingId);
+				}
+				if (existingId != entry.getId()) {
+					throw new SubjectVersionConflictException(entry.getSubject(), entry.getVersion(), existingId,
+							entry.getId());
+				}
+			}
+			if (entry.getSchema() == null) {
+				continue;
+			}
+			SchemaDetails existing = lookupSchemaId(entry.getId());
+			String existingSchema = (existing == null ? batchSchemas.get(entry.getId()) : existing.getSchema());
+			if (existingSchema == null) {
+				batchSchemas.put(entry.getId(), entry.getSchema());
+			} else if (!existingSchema.equals(entry.getSchema())) {
+				throw new SchemaIdConflictException(entry.getId());
+			}
+		}
+		long schemaCount = 0;
+		long versionCount = 0;
+		for (ExportEntry entry : entries) {
+			boolean newSchema = (entry.getSchema() != null && lookupSchemaId(entry.getId()) == null);
+			boolean newVersion = (entry.getSubject() != null
+					&& lookupSubjectVersion(entry.getSubject(), entry.getVersion()) == null);
+			SchemaDetails details =
+					saveSchema(entry.getSubject(), entry.getVersion(), entry.getId(), entry.getSchema());
+			if (details == null) {
+				continue;
+			}
+			if (newSchema) {
+				schemaCount++;
+			}
+			if (newVersion && details.getId() == entry.getId()) {
+				versionCount++;
+			}
+		}
+		return new ImportResponse(schemaCount, versionCount);
+	}
+
+	/**
+	 * Make sure that the imported changes have been durably written. May be a no-op for some persisters.
+	 */
+	public default void sync() throws IOException {
+		// nothing to do by default
+	}
 }
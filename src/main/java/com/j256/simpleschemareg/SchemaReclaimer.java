@@ -0,0 +1,114 @@
+package com.j256.simpleschemareg;
+
+/**
+ * Background task which periodically calls {@link FileSchemaPersister#reclaim(long)} so the directory and the memory
+ * used by the persister stay proportional to the live schemas. On a leader it goes through
+ * {@link ReplicatingSchemaPersister#reclaim(long)} so the followers see the deleted schema-ids.
+ */
+public class SchemaReclaimer implements Runnable {
+
+	/**
+	 * Default time between reclaim passes.
+	 */
+	public static final long DEFAULT_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+	private final FileSchemaPersister persister;
+	private final ReplicatingSchemaPersister replicatingPersister;
+	private final long graceMillis;
+	private final long intervalMillis;
+	private final boolean verbose;
+
+	private volatile boolean running = true;
+	private long totalIdCount;
+	private long totalByteCount;
+	private long totalVersionCount;
+
+	/**
+	 * @param graceMillis
+	 *            How long a version has to have been deleted, or a schema-id unreferenced, before it is removed.
+	 */
+	public SchemaReclaimer(FileSchemaPersister persister, long graceMillis, long intervalMillis, boolean verbose) {
+		this(persister, null, graceMillis, intervalMillis, verbose);
+	}
+
+	/**
+	 * Reclaim a file persister which is wrapped by a replicating persister on a leader.
+	 */
+	public SchemaReclaimer(ReplicatingSchemaPersister replicatingPersister, long graceMillis, long intervalMillis,
+			boolean verbose) {
+		this(null, replicatingPersister, graceMillis, intervalMillis, verbose);
+	}
+
+	private SchemaReclaimer(FileSchemaPersister persister, ReplicatingSchemaPersister replicatingPersister,
+			long graceMillis, long intervalMillis, boolean verbose) {
+		this.persister = persister;
+		this.replicatingPersister = replicatingPersister;
+		this.graceMillis = graceMillis;
+		this.intervalMillis = intervalMillis;
+		this.verbose = verbose;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			synchronized (this) {
+				try {
+					this.wait(intervalMillis);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (running) {
+				reclaim();
+			}
+		}
+	}
+
+	/**
+	 * Run a reclaim pass now.
+	 */
+	public ReclaimStats reclaim() {
+		ReclaimStats stats;
+		try {
+			if (replicatingPersister == null) {
+				stats = persister.reclaim(graceMillis);
+			} else {
+				stats = replicatingPersister.reclaim(graceMillis);
+			}
+		} catch (Exception e) {
+			System.err.println("WARNING: reclaiming schemas failed: " + e);
+			return null;
+		}
+		synchronized (this) {
+			totalIdCount += stats.getIdCount();
+			totalByteCount += stats.getByteCount();
+			totalVersionCount += stats.getVersionCount();
+		}
+		if (verbose) {
+			System.out.println("Schema reclaimer " + stats);
+			System.out.flush();
+		}
+		return stats;
+	}
+
+	/**
+	 * Stop the reclaimer.
+	 */
+	public synchronized void stop() {
+		running = false;
+		this.notifyAll();
+	}
+
+	public synchronized long getTotalIdCount() {
+		return totalIdCount;
+	}
+
+	public synchronized long getTotalByteCount() {
+		return totalByteCount;
+	}
+
+	public synchronized long getTotalVersionCount() {
+		return totalVersionCount;
+	}
+}
@@ -1,14 +1,27 @@
 package com.j256.simpleschemareg;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
@@ -16,10 +29,18 @@ import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import com.j256.simpleschemareg.entities.EntityTypeAdapters;
 import com.j256.simpleschemareg.entities.ErrorResponse;
+import com.j256.simpleschemareg.entities.ExportEntry;
 import com.j256.simpleschemareg.entities.IdResponse;
+import com.j256.simpleschemareg.entities.ImportResponse;
+import com.j256.simpleschemareg.entities.ReplicationEntry;
 import com.j256.simpleschemareg.entities.SchemaDetails;
 import com.j256.simpleschemareg.entities.SchemaInfo;
+import com.j256.simpleschemareg.entities.SubjectSchema;
+import com.j256.simpleschemareg.entities.SubjectVersion;
 import com.j256.simpleschemareg.entities.SubjectVersionResponse;
 
 /**
@@ -32,7 +53,14 @@ public class SchemaRegHandler extends AbstractHandler {
 	private static final String GET_SUBJECTS = "/subjects";
 	private static final Pattern GET_SCHEMA_ID_PATTERN = Pattern.compile("/schemas/ids/(\\d+)");
 	private static final Pattern GET_SCHEMCA_ID_SCHEMA_PATTERN = Pattern.compile("/schemas/ids/(\\d+)/schema");
+	private static final Pattern GET_SCHEMA_ID_VERSIONS_PATTERN = Pattern.compile("/schemas/ids/(\\d+)/versions");
+	private static final Pattern GET_SCHEMA_DIGEST_PATTERN = Pattern.compile("/schemas/digest/([0-9a-fA-F]+)");
+	private static final Pattern GET_SUBJECT_DIGEST_PATTERN =
+			Pattern.compile("/subjects/([^/]+)/digest/([0-9a-fA-F]+)");
 	private static final Pattern GET_SUBJECT_VERSION_PATTERN = Pattern.compile("/subjects/([^/]+)/versions/(\\d+)");
+	private static final Pattern GET_SUBJECT_LATEST_PATTERN = Pattern.compile("/subjects/([^/]+)/versions/latest");
+	private static final Pattern GET_SUBJECT_LATEST_SCHEMA_PATTERN =
+			Pattern.compile("/subjects/([^/]+)/versions/latest/schema");
 	private static final Pattern GET_SUBJECT_VERSIONS_PATTERN = Pattern.compile("/subjects/([^/]+)/versions");
 	private static final Pattern GET_SUBJECT_VERSION_SCHEMA_PATTERN =
 			Pattern.compile("/subjects/([^/]+)/versions/(\\d+)/schema");
@@ -41,6 +69,31 @@ public class SchemaRegHandler extends AbstractHandler {
 	private static final Pattern DELETE_SUBJECT_PATTERN = Pattern.compile("/subjects/([^/]+)");
 	private static final Pattern DELETE_SUBJECT_VERSION_PATTERN = Pattern.compile("/subjects/([^/]+)/versions/(\\d+)");
 	private static final String PERMANENT_PARAMETER = "permanent";
+	private static final String PREFIX_PARAMETER = "prefix";
+	private static final String AFTER_PARAMETER = "after";
+	private static final String OFFSET_PARAMETER = "offset";
+	private static final String LIMIT_PARAMETER = "limit";
+	private static final String POST_SUBJECTS_BATCH = "/subjects/versions/batch";
+	private static final String POST_SCHEMA_IDS_BATCH = "/schemas/ids/batch";
+	private static final String GET_EXPORT = "/export";
+	private static final String POST_IMPORT = "/import";
+	private static final String GET_REPLICATION_SNAPSHOT = "/replication/snapshot";
+	private static final String GET_REPLICATION_LOG = "/replication/log";
+	private static final String EPOCH_PARAMETER = "epoch";
+	private static final String FROM_PARAMETER = "from";
+	private static final String MAX_PARAMETER = "max";
+	private static final String WAIT_PARAMETER = "wait";
+	/** header with the epoch of the leader's replication log */
+	public static final String REPLICATION_EPOCH_HEADER = "X-Replication-Epoch";
+	/** header with the log offset that the follower should read from next */
+	public static final String REPLICATION_OFFSET_HEADER = "X-Replication-Offset";
+	private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+	private static final int DEFAULT_REPLICATION_MAX = 1000;
+	private static final int IMPORT_BATCH_SIZE = 1000;
+	// async bodies are written in chunks of this size while the output is ready
+	private static final int ASYNC_WRITE_CHUNK_SIZE = 8192;
+	// needs to be less than the idle timeout of the connectors
+	private static final long MAX_REPLICATION_WAIT_MILLIS = 3000;
 
 	private final Gson gson = new Gson();
 
@@ -50,6 +103,11 @@ public class SchemaRegHandler extends AbstractHandler {
 	private final boolean handleShutdown;
 	private final boolean verbose;
 
+	private ReplicationLog replicationLog;
+	private AsyncSchemaPersister asyncPersister;
+	private String leaderUrl;
+	private boolean readOnly;
+
 	private volatile boolean shuttingDown;
 
 	public SchemaRegHandler(SchemaPersister persister, String pathPrefix, boolean handleShutdown, boolean verbose) {
@@ -89,6 +147,37 @@ public class SchemaRegHandler extends AbstractHandler {
 		}
 	}
 
+	/**
+	 * Set the replication log that is used to serve the /replication endpoints to followers. It should be the same log
+	 * that is passed to the {@link ReplicatingSchemaPersister}.
+	 */
+	public void setReplicationLog(ReplicationLog replicationLog) {
+		this.replicationLog = replicationLog;
+	}
+
+	/**
+	 * Set an async version of the persister to serve the schema and subject lookups and registrations with async
+	 * requests. The request threads are then not blocked while the persister is working.
+	 */
+	public void setAsyncPersister(AsyncSchemaPersister asyncPersister) {
+		this.asyncPersister = asyncPersister;
+	}
+
+	/**
+	 * Set the URL of the leader registry if this is a follower. Requests which change the registry will then be
+	 * rejected.
+	 */
+	public void setLeaderUrl(String leaderUrl) {
+		this.leaderUrl = leaderUrl;
+	}
+
+	/**
+	 * Set to true to reject requests which change the registry such as when it is a read-only replica.
+	 */
+	public void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+
 	/**
 	 * Wait until the handler says we should shutdown.
 	 */
@@ -129,117 +218,212 @@ public class SchemaRegHandler extends AbstractHandler {
 			return;
 		}
 
+		// GET /replication/snapshot
+		if (replicationLog != null && GET_REPLICATION_SNAPSHOT.equals(pathInfo)) {
+			handleReplicationSnapshot(response);
+			return;
+		}
+
+		// GET /replication/log
+		if (replicationLog != null && GET_REPLICATION_LOG.equals(pathInfo)) {
+			handleReplicationLog(request, response);
+			return;
+		}
+
+		// GET /export
+		if (GET_EXPORT.equals(pathInfo)) {
+			handleExport(response);
+			return;
+		}
+
 		// GET /subjects
 		if (GET_SUBJECTS.equals(pathInfo)) {
-			String[] subjects = persister.lookupSubjects();
-			if (verbose) {
-				printMessage("Listing subjects: " + Arrays.toString(subjects));
-			}
-			writeResponseObj(response, HttpStatus.OK_200, subjects);
+			handleSubjects(request, response);
 			return;
 		}
 
 		// GET /schemas/ids/(id: schema-id)
 		Matcher matcher = GET_SCHEMA_ID_PATTERN.matcher(pathInfo);
+		if (matcher.matches()) {
+			final long schemaId = convertLong(response, "schema-id", matcher.group(1));
+			if (asyncPersister == null) {
+				respondSchemaId(response, schemaId, persister.lookupSchemaId(schemaId), false);
+			} else {
+				respondAsync(baseRequest, response, asyncPersister.lookupSchemaId(schemaId),
+						new AsyncResponder<SchemaDetails>() {
+							@Override
+							public void respond(HttpServletResponse response, SchemaDetails details)
+									throws IOException {
+								respondSchemaId(response, schemaId, details, false);
+							}
+						});
+			}
+			return;
+		}
+
+		// GET /schemas/ids/(int: schema-id)/schema");
+		matcher = GET_SCHEMCA_ID_SCHEMA_PATTERN.matcher(pathInfo);
+		if (matcher.matches()) {
+			final long schemaId = convertLong(response, "schema-id", matcher.group(1));
+			if (asyncPersister == null) {
+				respondSchemaId(response, schemaId, persister.lookupSchemaId(schemaId), true);
+			} else {
+				respondAsync(baseRequest, response, asyncPersister.lookupSchemaId(schemaId),
+						new AsyncResponder<SchemaDetails>() {
+							@Override
+							public void respond(HttpServletResponse response, SchemaDetails details)
+									throws IOException {
+								respondSchemaId(response, schemaId, details, true);
+							}
+						});
+			}
+			return;
+		}
+
+		// GET /schemas/ids/(int: schema-id)/versions
+		matcher = GET_SCHEMA_ID_VERSIONS_PATTERN.matcher(pathInfo);
 		if (matcher.matches()) {
 			long schemaId = convertLong(response, "schema-id", matcher.group(1));
 
-			SchemaDetails details = persister.lookupSchemaId(schemaId);
-			if (details == null) {
+			SubjectVersion[] subjectVersions = persister.lookupSchemaIdVersions(schemaId);
+			if (subjectVersions == null) {
 				writeResponseObj(response, HttpStatus.NOT_FOUND_404,
 						new ErrorResponse(HttpStatus.NOT_FOUND_404, "schema-id " + schemaId + " not found"));
 				return;
 			}
 
 			if (verbose) {
-				printMessage("Looking up schmea-id '" + schemaId + " got id " + details.getId());
+				printMessage("Looking up schema-id " + schemaId + " versions got " + subjectVersions.length);
 			}
 
-			writeResponseObj(response, HttpStatus.OK_200, new SchemaInfo(details.getSchema()));
+			writeResponseObj(response, HttpStatus.OK_200, subjectVersions);
 			return;
 		}
 
-		// GET /schemas/ids/(int: schema-id)/schema");
-		matcher = GET_SCHEMCA_ID_SCHEMA_PATTERN.matcher(pathInfo);
+		// GET /schemas/digest/(hex: digest)
+		matcher = GET_SCHEMA_DIGEST_PATTERN.matcher(pathInfo);
 		if (matcher.matches()) {
-			long schemaId = convertLong(response, "schema-id", matcher.group(1));
-
-			SchemaDetails details = persister.lookupSchemaId(schemaId);
+			byte[] digest = convertDigest(response, matcher.group(1));
+			if (digest == null) {
+				return;
+			}
+			SchemaDetails details = persister.lookupSchemaDigest(digest);
 			if (details == null) {
 				writeResponseObj(response, HttpStatus.NOT_FOUND_404,
-						new ErrorResponse(HttpStatus.NOT_FOUND_404, "schema-id " + schemaId + " not found"));
+						new ErrorResponse(HttpStatus.NOT_FOUND_404, "digest " + matcher.group(1) + " not found"));
 				return;
 			}
-
 			if (verbose) {
-				printMessage("Looking up schmea-id '" + schemaId + " got id " + details.getId());
+				printMessage("Looking up digest " + matcher.group(1) + " got id " + details.getId());
 			}
-
-			writeResponseStr(response, details.getSchema());
+			writeResponseObj(response, HttpStatus.OK_200, new IdResponse(details.getId()));
 			return;
 		}
 
-		// GET /subjects/(string: subject)/versions/(int: version)
-		matcher = GET_SUBJECT_VERSION_PATTERN.matcher(pathInfo);
+		// GET /subjects/(string: subject)/digest/(hex: digest)
+		matcher = GET_SUBJECT_DIGEST_PATTERN.matcher(pathInfo);
 		if (matcher.matches()) {
 			String subject = matcher.group(1);
-			long version = convertLong(response, "version", matcher.group(2));
-
-			SchemaDetails details = persister.lookupSubjectVersion(subject, version);
-			if (details == null) {
+			byte[] digest = convertDigest(response, matcher.group(2));
+			if (digest == null) {
+				return;
+			}
+			SchemaDetails details = persister.lookupSchemaDigest(subject, digest);
+			// the version is not set if the schema is registered but not in this subject
+			if (details == null || details.getVersion() == 0) {
 				writeResponseObj(response, HttpStatus.NOT_FOUND_404, new ErrorResponse(HttpStatus.NOT_FOUND_404,
-						"subject '" + subject + "' and version " + version + " not found"));
+						"subject '" + subject + "' digest " + matcher.group(2) + " not found"));
 				return;
 			}
-
 			if (verbose) {
-				printMessage("Looking up subject '" + subject + "' version " + version + " got id " + details.getId());
+				printMessage("Looking up subject '" + subject + "' digest " + matcher.group(2) + " got version "
+						+ details.getVersion() + ", id " + details.getId());
 			}
-
+			// the client already has the schema
 			writeResponseObj(response, HttpStatus.OK_200,
-					new SubjectVersionResponse(subject, version, details.getId(), details.getSchema()));
+					new SubjectVersionResponse(subject, details.getVersion(), details.getId(), null));
+			return;
+		}
+
+		// GET /subjects/(string: subject)/versions/latest
+		matcher = GET_SUBJECT_LATEST_PATTERN.matcher(pathInfo);
+		if (matcher.matches()) {
+			handleLatest(baseRequest, response, matcher.group(1), false);
+			return;
+		}
+
+		// GET /subjects/(string: subject)/versions/latest/schema
+		matcher = GET_SUBJECT_LATEST_SCHEMA_PATTERN.matcher(pathInfo);
+		if (matcher.matches()) {
+			handleLatest(baseRequest, response, matcher.group(1), true);
+			return;
+		}
+
+		// GET /subjects/(string: subject)/versions/(int: version)
+		matcher = GET_SUBJECT_VERSION_PATTERN.matcher(pathInfo);
+		if (matcher.matches()) {
+			final String subject = matcher.group(1);
+			final long version = convertLong(response, "version", matcher.group(2));
+			if (asyncPersister == null) {
+				respondSubjectVersion(response, subject, version, persister.lookupSubjectVersion(subject, version),
+						false);
+			} else {
+				respondAsync(baseRequest, response, asyncPersister.lookupSubjectVersion(subject, version),
+						new AsyncResponder<SchemaDetails>() {
+							@Override
+							public void respond(HttpServletResponse response, SchemaDetails details)
+									throws IOException {
+								respondSubjectVersion(response, subject, version, details, false);
+							}
+						});
+			}
 			return;
 		}
 
 		// GET /subjects/(string: subject))/versions
 		matcher = GET_SUBJECT_VERSIONS_PATTERN.matcher(pathInfo);
 		if (matcher.matches()) {
-			String subject = matcher.group(1);
-
-			long[] versions = persister.lookupSubjectVersions(subject);
-			if (versions == null) {
-				writeResponseObj(response, HttpStatus.NOT_FOUND_404,
-						new ErrorResponse(HttpStatus.NOT_FOUND_404, "subject '" + subject + "' not found"));
+			final String subject = matcher.group(1);
+			final long after = parseLongParameter(request, AFTER_PARAMETER, 0);
+			final int offset = (int) parseLongParameter(request, OFFSET_PARAMETER, 0);
+			final int limit = (int) parseLongParameter(request, LIMIT_PARAMETER, 0);
+			if (after < 0 || offset < 0 || limit < 0) {
+				writeInvalidPageParameters(response, offset, limit);
 				return;
 			}
-
-			if (verbose) {
-				printMessage("Looking up subject '" + subject + "' versions: " + Arrays.toString(versions));
+			if (asyncPersister == null) {
+				respondSubjectVersions(response, subject,
+						pageVersions(persister.lookupSubjectVersions(subject), after, offset, limit));
+			} else {
+				respondAsync(baseRequest, response, asyncPersister.lookupSubjectVersions(subject),
+						new AsyncResponder<long[]>() {
+							@Override
+							public void respond(HttpServletResponse response, long[] versions) throws IOException {
+								respondSubjectVersions(response, subject, pageVersions(versions, after, offset, limit));
+							}
+						});
 			}
-
-			writeResponseObj(response, HttpStatus.OK_200, versions);
 			return;
 		}
 
 		// GET /subjects/(string: subject)/versions/(int: version)/schema
 		matcher = GET_SUBJECT_VERSION_SCHEMA_PATTERN.matcher(pathInfo);
 		if (matcher.matches()) {
-			String subject = matcher.group(1);
-			long version = convertLong(response, "version", matcher.group(2));
-
-			SchemaDetails details = persister.lookupSubjectVersion(subject, version);
-			if (details == null) {
-				writeResponseObj(response, HttpStatus.NOT_FOUND_404, new ErrorResponse(HttpStatus.NOT_FOUND_404,
-						"subject '" + subject + "' and version " + version + " not found"));
-				return;
-			}
-
-			if (verbose) {
-				printMessage("Looking up subject '" + subject + "' version " + version + " schema got id "
-						+ details.getId());
+			final String subject = matcher.group(1);
+			final long version = convertLong(response, "version", matcher.group(2));
+			if (asyncPersister == null) {
+				respondSubjectVersion(response, subject, version, persister.lookupSubjectVersion(subject, version),
+						true);
+			} else {
+				respondAsync(baseRequest, response, asyncPersister.lookupSubjectVersion(subject, version),
+						new AsyncResponder<SchemaDetails>() {
+							@Override
+							public void respond(HttpServletResponse response, SchemaDetails details)
+									throws IOException {
+								respondSubjectVersion(response, subject, version, details, true);
+							}
+						});
 			}
-
-			writeResponseStr(response, details.getSchema());
 			return;
 		}
 
@@ -258,56 +442,80 @@ public class SchemaRegHandler extends AbstractHandler {
 			return;
 		}
 
+		// POST /import
+		if (POST_IMPORT.equals(pathInfo)) {
+			if (rejectReadOnlyWrite(response)) {
+				return;
+			}
+			handleImport(request, response);
+			return;
+		}
+
+		// POST /schemas/ids/batch
+		if (POST_SCHEMA_IDS_BATCH.equals(pathInfo)) {
+			handleSchemaIdsBatch(request, response);
+			return;
+		}
+
+		// POST /subjects/versions/batch
+		if (POST_SUBJECTS_BATCH.equals(pathInfo)) {
+			if (rejectReadOnlyWrite(response)) {
+				return;
+			}
+			handleBatchRegister(request, response);
+			return;
+		}
+
 		// POST /subjects/(string: subject)/versions
 		Matcher matcher = POST_SUBJECT_PATTERN.matcher(pathInfo);
 		if (matcher.matches()) {
-			String subject = matcher.group(1);
+			if (rejectReadOnlyWrite(response)) {
+				return;
+			}
+			final String subject = matcher.group(1);
 
 			SchemaInfo saveSchema;
 			// read in the schema
 			try (BufferedReader reader = request.getReader();) {
 				saveSchema = gson.fromJson(reader, SchemaInfo.class);
 			}
-			SchemaDetails details = persister.saveSchema(subject, saveSchema.getSchema());
-			if (details == null) {
-				writeResponseObj(response, HttpStatus.INTERNAL_SERVER_ERROR_500, new ErrorResponse(
-						HttpStatus.INTERNAL_SERVER_ERROR_500, " saving subject '" + subject + "' failed"));
-				return;
-			}
-
-			if (verbose) {
-				printMessage("Saved schema for subject '" + subject + "' got version " + details.getVersion() + ", id "
-						+ details.getId());
+			if (asyncPersister == null) {
+				respondSaved(response, subject, persister.saveSchema(subject, saveSchema.getSchema()));
+			} else {
+				respondAsync(baseRequest, response, asyncPersister.saveSchema(subject, saveSchema.getSchema()),
+						new AsyncResponder<SchemaDetails>() {
+							@Override
+							public void respond(HttpServletResponse response, SchemaDetails details)
+									throws IOException {
+								respondSaved(response, subject, details);
+							}
+						});
 			}
-
-			writeResponseObj(response, HttpStatus.OK_200, new IdResponse(details.getId()));
 			return;
 		}
 
 		// POST /subjects/(string: subject)
 		matcher = POST_SUBJECT_CHECK_PATTERN.matcher(pathInfo);
 		if (matcher.matches()) {
-			String subject = matcher.group(1);
+			final String subject = matcher.group(1);
 
 			SchemaInfo saveSchema;
 			// read in the schema
 			try (BufferedReader reader = request.getReader();) {
 				saveSchema = gson.fromJson(reader, SchemaInfo.class);
 			}
-			SchemaDetails details = persister.lookupSchema(subject, saveSchema.getSchema());
-			if (details == null) {
-				writeResponseObj(response, HttpStatus.NOT_FOUND_404,
-						new ErrorResponse(HttpStatus.NOT_FOUND_404, "subject '" + subject + "' check not found"));
-				return;
-			}
-
-			if (verbose) {
-				printMessage("Checking schema for subject '" + subject + "' got version " + details.getVersion()
-						+ ", id " + details.getId());
+			if (asyncPersister == null) {
+				respondChecked(response, subject, persister.lookupSchema(subject, saveSchema.getSchema()));
+			} else {
+				respondAsync(baseRequest, response, asyncPersister.lookupSchema(subject, saveSchema.getSchema()),
+						new AsyncResponder<SchemaDetails>() {
+							@Override
+							public void respond(HttpServletResponse response, SchemaDetails details)
+									throws IOException {
+								respondChecked(response, subject, details);
+							}
+						});
 			}
-
-			writeResponseObj(response, HttpStatus.OK_200,
-					new SubjectVersionResponse(subject, details.getVersion(), details.getId(), details.getSchema()));
 			return;
 		}
 
@@ -324,6 +532,9 @@ public class SchemaRegHandler extends AbstractHandler {
 		if (pathInfo == null) {
 			return;
 		}
+		if (rejectReadOnlyWrite(response)) {
+			return;
+		}
 
 		// DELETE /subjects/(string: subject)
 		Matcher matcher = DELETE_SUBJECT_PATTERN.matcher(pathInfo);
@@ -333,7 +544,12 @@ public class SchemaRegHandler extends AbstractHandler {
 			if (verbose) {
 				printMessage("Deleting subject '" + subject + "' got versions: " + Arrays.toString(versions));
 			}
-			writeResponseObj(response, HttpStatus.OK_200, versions);
+			if (versions == null) {
+				writeResponseObj(response, HttpStatus.NOT_FOUND_404,
+						new ErrorResponse(HttpStatus.NOT_FOUND_404, "subject '" + subject + "' not found"));
+			} else {
+				writeResponseObj(response, HttpStatus.OK_200, versions);
+			}
 			return;
 		}
 
@@ -361,6 +577,571 @@ public class SchemaRegHandler extends AbstractHandler {
 				new ErrorResponse(HttpStatus.BAD_REQUEST_400, "unhandled DELETE request: " + pathInfo));
 	}
 
+	/**
+	 * List a page of the subjects, optionally with a prefix, and stream them back as a JSON array.
+	 */
+	private void handleSubjects(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String prefix = request.getParameter(PREFIX_PARAMETER);
+		String after = request.getParameter(AFTER_PARAMETER);
+		int offset = (int) parseLongParameter(request, OFFSET_PARAMETER, 0);
+		int limit = (int) parseLongParameter(request, LIMIT_PARAMETER, 0);
+		if (offset < 0 || limit < 0) {
+			writeInvalidPageParameters(response, offset, limit);
+			return;
+		}
+
+		String[] subjects = persister.lookupSubjects(prefix, after, offset, limit);
+		try (JsonWriter writer = gson.newJsonWriter(response.getWriter());) {
+			writer.beginArray();
+			for (String subject : subjects) {
+				writer.value(subject);
+			}
+			writer.endArray();
+		}
+		if (verbose) {
+			printMessage("Listing subjects: " + Arrays.toString(subjects));
+		}
+	}
+
+	private void writeInvalidPageParameters(HttpServletResponse response, int offset, int limit) throws IOException {
+		writeResponseObj(response, HttpStatus.BAD_REQUEST_400, new ErrorResponse(HttpStatus.BAD_REQUEST_400,
+				"invalid page parameters: " + OFFSET_PARAMETER + " " + offset + ", " + LIMIT_PARAMETER + " " + limit));
+	}
+
+	/**
+	 * Look up an array of schema-ids and stream back the schemas that were found followed by the ids that were not.
+	 * Only the missing ids are collected.
+	 */
+	private void handleSchemaIdsBatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		long[] ids;
+		try (BufferedReader reader = request.getReader();) {
+			ids = gson.fromJson(reader, long[].class);
+		} catch (JsonParseException jpe) {
+			writeResponseObj(response, HttpStatus.BAD_REQUEST_400,
+					new ErrorResponse(HttpStatus.BAD_REQUEST_400, "invalid schema-id batch: " + jpe.getMessage()));
+			return;
+		}
+		if (ids == null) {
+			writeResponseObj(response, HttpStatus.BAD_REQUEST_400,
+					new ErrorResponse(HttpStatus.BAD_REQUEST_400, "schema-id batch is empty"));
+			return;
+		}
+
+		List<Long> missingIds = new ArrayList<>();
+		try (JsonWriter writer = gson.newJsonWriter(response.getWriter());) {
+			writer.beginObject();
+			writer.name("schemas").beginArray();
+			for (long id : ids) {
+				SchemaDetails details = persister.lookupSchemaId(id);
+				if (details == null) {
+					missingIds.add(id);
+				} else {
+					EntityTypeAdapters.writeIdSchema(writer, id, details.getSchema());
+				}
+			}
+			writer.endArray();
+			writer.name("missing").beginArray();
+			for (Long id : missingIds) {
+				writer.value(id);
+			}
+			writer.endArray();
+			writer.endObject();
+		}
+		if (verbose) {
+			printMessage("Looked up batch of " + ids.length + " schema-ids, " + missingIds.size() + " missing");
+		}
+	}
+
+	/**
+	 * Register an array of subject and schema pairs with one persister call and respond with their ids in the same
+	 * order.
+	 */
+	private void handleBatchRegister(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		SubjectSchema[] subjectSchemas;
+		try (BufferedReader reader = request.getReader();) {
+			subjectSchemas = gson.fromJson(reader, SubjectSchema[].class);
+		} catch (JsonParseException jpe) {
+			writeResponseObj(response, HttpStatus.BAD_REQUEST_400,
+					new ErrorResponse(HttpStatus.BAD_REQUEST_400, "invalid batch: " + jpe.getMessage()));
+			return;
+		}
+		if (subjectSchemas == null) {
+			writeResponseObj(response, HttpStatus.BAD_REQUEST_400,
+					new ErrorResponse(HttpStatus.BAD_REQUEST_400, "batch is empty"));
+			return;
+		}
+		for (int i = 0; i < subjectSchemas.length; i++) {
+			if (subjectSchemas[i] == null || subjectSchemas[i].getSubject() == null
+					|| subjectSchemas[i].getSchema() == null) {
+				writeResponseObj(response, HttpStatus.BAD_REQUEST_400, new ErrorResponse(HttpStatus.BAD_REQUEST_400,
+						"batch item " + i + " needs a subject and a schema"));
+				return;
+			}
+		}
+
+		SchemaDetails[] results = persister.saveSchemas(subjectSchemas);
+		IdResponse[] idResponses = new IdResponse[results.length];
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] == null) {
+				writeResponseObj(response, HttpStatus.INTERNAL_SERVER_ERROR_500,
+						new ErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR_500,
+								"saving subject '" + subjectSchemas[i].getSubject() + "' failed"));
+				return;
+			}
+			idResponses[i] = new IdResponse(results[i].getId());
+		}
+		if (verbose) {
+			printMessage("Saved batch of " + results.length + " schemas");
+		}
+		writeResponseObj(response, HttpStatus.OK_200, idResponses);
+	}
+
+	/**
+	 * Write all of the schemas followed by all of the subject versions as export entries. They are streamed from the
+	 * persister as they are looked up instead of being collected first.
+	 */
+	private void handleExport(HttpServletResponse response) throws IOException {
+		response.setContentType(NDJSON_CONTENT_TYPE);
+		long schemaCount = 0;
+		long versionCount = 0;
+		try (Writer writer = response.getWriter();) {
+			Iterator<SchemaDetails> iterator = persister.schemaIterator();
+			while (iterator.hasNext()) {
+				SchemaDetails details = iterator.next();
+				writeLine(writer, ExportEntry.schema(details.getId(), details.getSchema()));
+				schemaCount++;
+			}
+			for (String subject : persister.lookupSubjects()) {
+				long[] versions = persister.lookupSubjectVersions(subject);
+				if (versions == null) {
+					continue;
+				}
+				for (long version : versions) {
+					SchemaDetails details = persister.lookupSubjectVersion(subject, version);
+					if (details != null) {
+						writeLine(writer, ExportEntry.version(subject, version, details.getId()));
+						versionCount++;
+					}
+				}
+			}
+		}
+		if (verbose) {
+			printMessage("Exported " + schemaCount + " schemas and " + versionCount + " subject versions");
+		}
+	}
+
+	/**
+	 * Read in the export entries and save them in batches. The persister is synced once at the end, even if a line
+	 * could not be parsed or a batch was rejected, so that the batches already saved are durable. The counts are of the
+	 * schemas and versions that were added, not including entries that were already there.
+	 */
+	private void handleImport(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		long schemaCount = 0;
+		long versionCount = 0;
+		long lineNumber = 0;
+		long batchStartLine = 1;
+		int errorStatus = HttpStatus.BAD_REQUEST_400;
+		String error = null;
+		List<ExportEntry> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+		try (BufferedReader reader = request.getReader();) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				ExportEntry entry;
+				try {
+					entry = gson.fromJson(line, ExportEntry.class);
+				} catch (JsonParseException jpe) {
+					error = "import line " + lineNumber + " is invalid: " + jpe.getMessage();
+					break;
+				}
+				batch.add(entry);
+				if (batch.size() >= IMPORT_BATCH_SIZE) {
+					try {
+						ImportResponse batchResponse = persister.importSchemas(batch);
+						schemaCount += batchResponse.getSchemaCount();
+						versionCount += batchResponse.getVersionCount();
+					} catch (SchemaIdConflictException | SubjectVersionConflictException e) {
+						error = importConflictMessage(batchStartLine, lineNumber, e);
+						errorStatus = HttpStatus.CONFLICT_409;
+						batch.clear();
+						break;
+					}
+					batch.clear();
+					batchStartLine = lineNumber + 1;
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			try {
+				ImportResponse batchResponse = persister.importSchemas(batch);
+				schemaCount += batchResponse.getSchemaCount();
+				versionCount += batchResponse.getVersionCount();
+			} catch (SchemaIdConflictException | SubjectVersionConflictException e) {
+				error = importConflictMessage(batchStartLine, lineNumber, e);
+				errorStatus = HttpStatus.CONFLICT_409;
+			}
+		}
+		persister.sync();
+
+		if (error != null) {
+			if (verbose) {
+				printMessage("Imported " + schemaCount + " schemas and " + versionCount + " subject versions before: "
+						+ error);
+			}
+			writeResponseObj(response, errorStatus, new ErrorResponse(errorStatus, error));
+			return;
+		}
+		if (verbose) {
+			printMessage("Imported " + schemaCount + " schemas and " + versionCount + " subject versions");
+		}
+		writeResponseObj(response, HttpStatus.OK_200, new ImportResponse(schemaCount, versionCount));
+	}
+
+	private String importConflictMessage(long startLine, long endLine, IOException conflict) {
+		return "import lines " + startLine + " to " + endLine + " were not saved: " + conflict.getMessage();
+	}
+
+	/**
+	 * Write all of the schemas and subject versions as replication entries. The offset header is taken before the
+	 * schemas are written so the follower can replay any changes that happened while the snapshot was being written.
+	 */
+	private void handleReplicationSnapshot(HttpServletResponse response) throws IOException {
+		long offset = replicationLog.getNextOffset();
+		response.setContentType(NDJSON_CONTENT_TYPE);
+		response.setHeader(REPLICATION_EPOCH_HEADER, Long.toString(replicationLog.getEpoch()));
+		response.setHeader(REPLICATION_OFFSET_HEADER, Long.toString(offset));
+		int count = 0;
+		try (Writer writer = response.getWriter();) {
+			Iterator<SchemaDetails> iterator = persister.schemaIterator();
+			while (iterator.hasNext()) {
+				SchemaDetails details = iterator.next();
+				writeLine(writer, ReplicationEntry.save(null, 0, details.getId(), details.getSchema()));
+				count++;
+			}
+			for (String subject : persister.lookupSubjects()) {
+				long[] versions = persister.lookupSubjectVersions(subject);
+				if (versions == null) {
+					continue;
+				}
+				for (long version : versions) {
+					SchemaDetails details = persister.lookupSubjectVersion(subject, version);
+					if (details != null) {
+						writeLine(writer, ReplicationEntry.save(subject, version, details.getId(), null));
+						count++;
+					}
+				}
+			}
+		}
+		if (verbose) {
+			printMessage("Wrote replication snapshot with " + count + " entries at offset " + offset);
+		}
+	}
+
+	private void handleReplicationLog(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		long epoch = parseLongParameter(request, EPOCH_PARAMETER, -1);
+		long from = parseLongParameter(request, FROM_PARAMETER, -1);
+		int max = (int) parseLongParameter(request, MAX_PARAMETER, DEFAULT_REPLICATION_MAX);
+		long wait = Math.min(parseLongParameter(request, WAIT_PARAMETER, 0), MAX_REPLICATION_WAIT_MILLIS);
+		if (from < 0 || max <= 0) {
+			writeResponseObj(response, HttpStatus.BAD_REQUEST_400, new ErrorResponse(HttpStatus.BAD_REQUEST_400,
+					"invalid replication log parameters: " + FROM_PARAMETER + " " + from + ", " + MAX_PARAMETER + " "
+							+ max));
+			return;
+		}
+		if (epoch != replicationLog.getEpoch()) {
+			writeResponseObj(response, HttpStatus.GONE_410,
+					new ErrorResponse(HttpStatus.GONE_410, "replication epoch " + epoch + " is not current"));
+			return;
+		}
+
+		List<ReplicationEntry> entries;
+		try {
+			entries = replicationLog.read(from, max, wait);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			writeResponseObj(response, HttpStatus.SERVICE_UNAVAILABLE_503,
+					new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE_503, "replication log read interrupted"));
+			return;
+		}
+		if (entries == null) {
+			writeResponseObj(response, HttpStatus.GONE_410,
+					new ErrorResponse(HttpStatus.GONE_410, "replication offset " + from + " is no longer available"));
+			return;
+		}
+
+		response.setContentType(NDJSON_CONTENT_TYPE);
+		response.setHeader(REPLICATION_EPOCH_HEADER, Long.toString(replicationLog.getEpoch()));
+		response.setHeader(REPLICATION_OFFSET_HEADER, Long.toString(from + entries.size()));
+		try (Writer writer = response.getWriter();) {
+			for (ReplicationEntry entry : entries) {
+				writeLine(writer, entry);
+			}
+		}
+		if (verbose && !entries.isEmpty()) {
+			printMessage("Wrote " + entries.size() + " replication entries from offset " + from);
+		}
+	}
+
+	private void respondSchemaId(HttpServletResponse response, long schemaId, SchemaDetails details,
+			boolean schemaOnly) throws IOException {
+		if (details == null) {
+			writeResponseObj(response, HttpStatus.NOT_FOUND_404,
+					new ErrorResponse(HttpStatus.NOT_FOUND_404, "schema-id " + schemaId + " not found"));
+			return;
+		}
+
+		if (verbose) {
+			printMessage("Looking up schmea-id '" + schemaId + " got id " + details.getId());
+		}
+
+		if (schemaOnly) {
+			writeResponseStr(response, details.getSchema());
+		} else {
+			writeResponseObj(response, HttpStatus.OK_200, new SchemaInfo(details.getSchema()));
+		}
+	}
+
+	private void respondSubjectVersion(HttpServletResponse response, String subject, long version,
+			SchemaDetails details, boolean schemaOnly) throws IOException {
+		if (details == null) {
+			writeResponseObj(response, HttpStatus.NOT_FOUND_404, new ErrorResponse(HttpStatus.NOT_FOUND_404,
+					"subject '" + subject + "' and version " + version + " not found"));
+			return;
+		}
+
+		if (schemaOnly) {
+			if (verbose) {
+				printMessage("Looking up subject '" + subject + "' version " + version + " schema got id "
+						+ details.getId());
+			}
+			writeResponseStr(response, details.getSchema());
+		} else {
+			if (verbose) {
+				printMessage("Looking up subject '" + subject + "' version " + version + " got id " + details.getId());
+			}
+			writeResponseObj(response, HttpStatus.OK_200,
+					new SubjectVersionResponse(subject, version, details.getId(), details.getSchema()));
+		}
+	}
+
+	private void handleLatest(Request baseRequest, HttpServletResponse response, final String subject,
+			final boolean schemaOnly) throws IOException {
+		if (asyncPersister == null) {
+			respondLatest(response, subject, persister.lookupLatestSubjectVersion(subject), schemaOnly);
+		} else {
+			respondAsync(baseRequest, response, asyncPersister.lookupLatestSubjectVersion(subject),
+					new AsyncResponder<SchemaDetails>() {
+						@Override
+						public void respond(HttpServletResponse response, SchemaDetails details) throws IOException {
+							respondLatest(response, subject, details, schemaOnly);
+						}
+					});
+		}
+	}
+
+	private void respondLatest(HttpServletResponse response, String subject, SchemaDetails details,
+			boolean schemaOnly) throws IOException {
+		if (details == null) {
+			writeResponseObj(response, HttpStatus.NOT_FOUND_404,
+					new ErrorResponse(HttpStatus.NOT_FOUND_404, "subject '" + subject + "' has no versions"));
+		} else {
+			respondSubjectVersion(response, subject, details.getVersion(), details, schemaOnly);
+		}
+	}
+
+	/**
+	 * Return the versions after a version number, skipping offset of them and returning at most limit, or all of them
+	 * if the limit is 0. Null is returned if the versions are null.
+	 */
+	private long[] pageVersions(long[] versions, long after, int offset, int limit) {
+		if (versions == null || (after == 0 && offset == 0 && limit == 0)) {
+			return versions;
+		}
+		// versions are in ascending order
+		int start = 0;
+		while (start < versions.length && versions[start] <= after) {
+			start++;
+		}
+		start = (int) Math.min((long) start + offset, versions.length);
+		int end = versions.length;
+		if (limit > 0) {
+			end = (int) Math.min((long) start + limit, end);
+		}
+		return Arrays.copyOfRange(versions, start, end);
+	}
+
+	private void respondSubjectVersions(HttpServletResponse response, String subject, long[] versions)
+			throws IOException {
+		if (versions == null) {
+			writeResponseObj(response, HttpStatus.NOT_FOUND_404,
+					new ErrorResponse(HttpStatus.NOT_FOUND_404, "subject '" + subject + "' not found"));
+			return;
+		}
+
+		if (verbose) {
+			printMessage("Looking up subject '" + subject + "' versions: " + Arrays.toString(versions));
+		}
+
+		writeResponseObj(response, HttpStatus.OK_200, versions);
+	}
+
+	private void respondSaved(HttpServletResponse response, String subject, SchemaDetails details)
+			throws IOException {
+		if (details == null) {
+			writeResponseObj(response, HttpStatus.INTERNAL_SERVER_ERROR_500, new ErrorResponse(
+					HttpStatus.INTERNAL_SERVER_ERROR_500, " saving subject '" + subject + "' failed"));
+			return;
+		}
+
+		if (verbose) {
+			printMessage("Saved schema for subject '" + subject + "' got version " + details.getVersion() + ", id "
+					+ details.getId());
+		}
+
+		writeResponseObj(response, HttpStatus.OK_200, new IdResponse(details.getId()));
+	}
+
+	private void respondChecked(HttpServletResponse response, String subject, SchemaDetails details)
+			throws IOException {
+		if (details == null) {
+			writeResponseObj(response, HttpStatus.NOT_FOUND_404,
+					new ErrorResponse(HttpStatus.NOT_FOUND_404, "subject '" + subject + "' check not found"));
+			return;
+		}
+
+		if (verbose) {
+			printMessage("Checking schema for subject '" + subject + "' got version " + details.getVersion()
+					+ ", id " + details.getId());
+		}
+
+		writeResponseObj(response, HttpStatus.OK_200,
+				new SubjectVersionResponse(subject, details.getVersion(), details.getId(), details.getSchema()));
+	}
+
+	/**
+	 * Suspend the request and write the response when the future completes so the request thread can go back to the
+	 * pool while the persister does its I/O. The response is written by the thread that completes the future.
+	 */
+	private <T> void respondAsync(Request baseRequest, final HttpServletResponse response, CompletableFuture<T> future,
+			final AsyncResponder<T> responder) {
+		final AsyncContext asyncContext = baseRequest.startAsync();
+		baseRequest.setHandled(true);
+		future.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T result, Throwable throwable) {
+				try {
+					byte[] body = renderAsyncResponse(response, result, throwable, responder);
+					writeAsyncResponse(asyncContext, response, body);
+				} catch (IOException | RuntimeException e) {
+					System.err.println("WARNING: could not write async response: " + e);
+					asyncContext.complete();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Render the async response into memory so a failure in the responder can still be turned into a 500 and the body
+	 * can be written without blocking the persister thread.
+	 */
+	private <T> byte[] renderAsyncResponse(HttpServletResponse response, T result, Throwable throwable,
+			AsyncResponder<T> responder) throws IOException {
+		BufferedResponse buffered = new BufferedResponse(response);
+		try {
+			if (throwable == null) {
+				responder.respond(buffered, result);
+			} else if (throwable instanceof RejectedExecutionException
+					|| throwable.getCause() instanceof RejectedExecutionException) {
+				writeResponseObj(buffered, HttpStatus.SERVICE_UNAVAILABLE_503, new ErrorResponse(
+						HttpStatus.SERVICE_UNAVAILABLE_503, "registry is too busy, try again later"));
+			} else {
+				writeResponseObj(buffered, HttpStatus.INTERNAL_SERVER_ERROR_500, new ErrorResponse(
+						HttpStatus.INTERNAL_SERVER_ERROR_500, "request failed: " + throwable.getMessage()));
+			}
+		} catch (RuntimeException re) {
+			System.err.println("WARNING: async response failed: " + re);
+			buffered = new BufferedResponse(response);
+			writeResponseObj(buffered, HttpStatus.INTERNAL_SERVER_ERROR_500,
+					new ErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR_500, "request failed: " + re.getMessage()));
+		}
+		return buffered.toByteArray();
+	}
+
+	/**
+	 * Write the body with a write listener so a slow client does not hold up a thread when the body is larger than the
+	 * output buffer. The async context is completed when the body has been written.
+	 */
+	private void writeAsyncResponse(final AsyncContext asyncContext, HttpServletResponse response, final byte[] body)
+			throws IOException {
+		response.setContentLength(body.length);
+		final ServletOutputStream output = response.getOutputStream();
+		output.setWriteListener(new WriteListener() {
+			private int offset;
+
+			@Override
+			public void onWritePossible() throws IOException {
+				while (output.isReady()) {
+					if (offset >= body.length) {
+						asyncContext.complete();
+						return;
+					}
+					int length = Math.min(ASYNC_WRITE_CHUNK_SIZE, body.length - offset);
+					output.write(body, offset, length);
+					offset += length;
+				}
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				System.err.println("WARNING: could not write async response: " + throwable);
+				asyncContext.complete();
+			}
+		});
+	}
+
+	/**
+	 * Followers and replicas only serve reads so reject any changes.
+	 * 
+	 * @return True if the request was rejected.
+	 */
+	private boolean rejectReadOnlyWrite(HttpServletResponse response) throws IOException {
+		if (leaderUrl != null) {
+			writeResponseObj(response, HttpStatus.METHOD_NOT_ALLOWED_405,
+					new ErrorResponse(HttpStatus.METHOD_NOT_ALLOWED_405,
+							"registry is a read-only follower, send changes to: " + leaderUrl));
+			return true;
+		} else if (readOnly) {
+			writeResponseObj(response, HttpStatus.METHOD_NOT_ALLOWED_405,
+					new ErrorResponse(HttpStatus.METHOD_NOT_ALLOWED_405, "registry is a read-only replica"));
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	private long parseLongParameter(HttpServletRequest request, String name, long defaultValue) {
+		String str = request.getParameter(name);
+		if (str == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(str);
+		} catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Write an entity as a line of new-line delimited JSON.
+	 */
+	private void writeLine(Writer writer, Object obj) throws IOException {
+		gson.toJson(obj, writer);
+		writer.write('\n');
+	}
+
 	private String getPathInfo(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		String pathInfo = request.getPathInfo();
 		if (pathPrefix == null || pathPrefixLength == 0) {
@@ -390,6 +1171,20 @@ public class SchemaRegHandler extends AbstractHandler {
 		}
 	}
 
+	/**
+	 * Convert a hex digest argument.
+	 * 
+	 * @return The digest or null if there was an error.
+	 */
+	private byte[] convertDigest(HttpServletResponse response, String hex) throws IOException {
+		byte[] digest = EntityTypeAdapters.hexToDigest(hex);
+		if (digest == null) {
+			writeResponseObj(response, HttpStatus.BAD_REQUEST_400,
+					new ErrorResponse(HttpStatus.BAD_REQUEST_400, "bad request digest: " + hex));
+		}
+		return digest;
+	}
+
 	private void writeResponseStr(HttpServletResponse response, String str) throws IOException {
 		try (Writer writer = response.getWriter();) {
 			writer.append(str);
@@ -412,4 +1207,44 @@ public class SchemaRegHandler extends AbstractHandler {
 		System.out.println(msg);
 		System.out.flush();
 	}
+
+	/**
+	 * Writes the response for the result of an async persister call.
+	 */
+	private interface AsyncResponder<T> {
+		void respond(HttpServletResponse response, T result) throws IOException;
+	}
+
+	/**
+	 * Response that passes the status and headers through but collects the body in memory.
+	 */
+	private static class BufferedResponse extends HttpServletResponseWrapper {
+
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private PrintWriter writer;
+
+		public BufferedResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(buffer, getCharacterEncoding()));
+			}
+			return writer;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			throw new UnsupportedOperationException("async responses are written with the writer");
+		}
+
+		public byte[] toByteArray() {
+			if (writer != null) {
+				writer.flush();
+			}
+			return buffer.toByteArray();
+		}
+	}
 }
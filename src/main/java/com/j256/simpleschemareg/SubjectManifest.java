@@ -0,0 +1,409 @@
+package com.j256.simpleschemareg;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.j256.simpleschemareg.entities.SchemaDetails;
+
+/**
+ * Immutable list of the versions of a subject with their schema-ids and state. This is stored as a single manifest file
+ * in the subject directory with one {@code version id state [deleted-millis]} line per version. Changes are made by
+ * creating a new manifest so it can be read without locking.
+ * 
+ * <p>
+ * The state is live, deleted, or removed. Removed versions were live when their subject was deleted. They are treated
+ * as deleted but cannot be looked up at all and are only kept so their numbers are not reused.
+ * </p>
+ */
+class SubjectManifest {
+
+	private static final String STATE_LIVE = "live";
+	private static final String STATE_DELETED = "deleted";
+	private static final String STATE_REMOVED = "removed";
+
+	private final String subject;
+	private final File dir;
+	// sorted by version
+	private final Entry[] entries;
+	// found when the manifest is created so looking up the latest version is a field read
+	private final Entry latestLiveEntry;
+	private final boolean listed;
+
+	public SubjectManifest(String subject, File dir, Entry[] entries) {
+		this.subject = subject;
+		this.dir = dir;
+		this.entries = entries;
+		Entry latest = null;
+		for (int i = entries.length - 1; i >= 0; i--) {
+			if (!entries[i].deleted) {
+				latest = entries[i];
+				break;
+			}
+		}
+		this.latestLiveEntry = latest;
+		boolean allRemoved = (entries.length > 0);
+		for (Entry entry : entries) {
+			if (!entry.removed) {
+				allRemoved = false;
+				break;
+			}
+		}
+		this.listed = !allRemoved;
+	}
+
+	public String getSubject() {
+		return subject;
+	}
+
+	/**
+	 * Directory where the subject is stored.
+	 */
+	public File getDir() {
+		return dir;
+	}
+
+	public Entry[] getEntries() {
+		return entries;
+	}
+
+	public boolean isEmpty() {
+		return entries.length == 0;
+	}
+
+	/**
+	 * Find the entry with a version whether or not it has been deleted or null if none.
+	 */
+	public Entry findEntry(long version) {
+		int index = findIndex(version);
+		if (index < 0) {
+			return null;
+		} else {
+			return entries[index];
+		}
+	}
+
+	/**
+	 * Find the lowest live version with a schema-id or null if none.
+	 */
+	public Entry findLiveId(long id) {
+		for (Entry entry : entries) {
+			if (entry.id == id && !entry.deleted) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return the live versions in order.
+	 */
+	public long[] getLiveVersions() {
+		int count = 0;
+		for (Entry entry : entries) {
+			if (!entry.deleted) {
+				count++;
+			}
+		}
+		long[] versions = new long[count];
+		int i = 0;
+		for (Entry entry : entries) {
+			if (!entry.deleted) {
+				versions[i++] = entry.version;
+			}
+		}
+		return versions;
+	}
+
+	/**
+	 * Return true if the subject should be listed. A subject is not listed if all of its versions have been removed by
+	 * deleting the subject.
+	 */
+	public boolean isListed() {
+		return listed;
+	}
+
+	/**
+	 * Return the live entry with the highest version or null if there are none.
+	 */
+	public Entry getLatestLiveEntry() {
+		return latestLiveEntry;
+	}
+
+	/**
+	 * Return the highest version that has been used including deleted versions or 0 if none.
+	 */
+	public long getMaxVersion() {
+		if (entries.length == 0) {
+			return 0;
+		} else {
+			return entries[entries.length - 1].version;
+		}
+	}
+
+	/**
+	 * Return a new manifest with the entry added or replacing the existing one with the same version.
+	 */
+	public SubjectManifest withEntry(Entry entry) {
+		int index = findIndex(entry.version);
+		Entry[] newEntries;
+		if (index >= 0) {
+			newEntries = entries.clone();
+			newEntries[index] = entry;
+		} else {
+			int insert = -(index + 1);
+			newEntries = new Entry[entries.length + 1];
+			System.arraycopy(entries, 0, newEntries, 0, insert);
+			newEntries[insert] = entry;
+			System.arraycopy(entries, insert, newEntries, insert + 1, entries.length - insert);
+		}
+		return new SubjectManifest(subject, dir, newEntries);
+	}
+
+	/**
+	 * Return a new manifest without the version.
+	 */
+	public SubjectManifest withoutVersion(long version) {
+		int index = findIndex(version);
+		if (index < 0) {
+			return this;
+		}
+		Entry[] newEntries = new Entry[entries.length - 1];
+		System.arraycopy(entries, 0, newEntries, 0, index);
+		System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+		return new SubjectManifest(subject, dir, newEntries);
+	}
+
+	/**
+	 * Return a new manifest with all of the live entries marked as removed. They are kept so their version numbers are
+	 * not reused.
+	 */
+	public SubjectManifest withLiveRemoved(long nowMillis) {
+		Entry[] newEntries = entries.clone();
+		for (int i = 0; i < newEntries.length; i++) {
+			if (!newEntries[i].deleted) {
+				newEntries[i] = newEntries[i].asRemoved(nowMillis);
+			}
+		}
+		return new SubjectManifest(subject, dir, newEntries);
+	}
+
+	/**
+	 * Return a new manifest without the versions that were deleted at least graceMillis ago. The highest version is
+	 * always kept so its number is not reused. Deleted versions without a deleted time, such as those from older
+	 * manifests, are given the current time so they will be removed later.
+	 * 
+	 * @return The new manifest or this one if nothing changed.
+	 */
+	public SubjectManifest withoutStaleDeleted(long nowMillis, long graceMillis) {
+		List<Entry> kept = new ArrayList<>(entries.length);
+		boolean changed = false;
+		for (int i = 0; i < entries.length; i++) {
+			Entry entry = entries[i];
+			if (entry.deleted && entry.deletedMillis == 0) {
+				entry = entry.asDeleted(nowMillis);
+				changed = true;
+			}
+			if (i < entries.length - 1 && entry.isStale(nowMillis, graceMillis)) {
+				changed = true;
+			} else {
+				kept.add(entry);
+			}
+		}
+		if (changed) {
+			return new SubjectManifest(subject, dir, kept.toArray(new Entry[kept.size()]));
+		} else {
+			return this;
+		}
+	}
+
+	/**
+	 * Return the manifest file contents.
+	 */
+	public byte[] toBytes() {
+		StringBuilder sb = new StringBuilder(entries.length * 16);
+		for (Entry entry : entries) {
+			sb.append(entry.version).append(' ').append(entry.id).append(' ');
+			if (entry.removed) {
+				sb.append(STATE_REMOVED);
+			} else if (entry.deleted) {
+				sb.append(STATE_DELETED);
+			} else {
+				sb.append(STATE_LIVE);
+			}
+			if (entry.deleted && entry.deletedMillis != 0) {
+				sb.append(' ').append(entry.deletedMillis);
+			}
+			sb.append('\n');
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parse the manifest file contents. The details of the entries are looked up with the resolver.
+	 */
+	public static SubjectManifest fromBytes(String subject, File dir, byte[] bytes, DetailsResolver resolver)
+			throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		try (BufferedReader reader =
+				new BufferedReader(new StringReader(new String(bytes, StandardCharsets.UTF_8)));) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				String[] fields = line.split(" ");
+				if (fields.length < 3) {
+					throw new IOException("invalid manifest line for subject '" + subject + "': " + line);
+				}
+				long version;
+				long id;
+				long deletedMillis = 0;
+				try {
+					version = Long.parseLong(fields[0]);
+					id = Long.parseLong(fields[1]);
+					if (fields.length > 3) {
+						deletedMillis = Long.parseLong(fields[3]);
+					}
+				} catch (NumberFormatException nfe) {
+					throw new IOException("invalid manifest line for subject '" + subject + "': " + line);
+				}
+				boolean removed = STATE_REMOVED.equals(fields[2]);
+				boolean deleted = (removed || STATE_DELETED.equals(fields[2]));
+				entries.add(new Entry(version, id, deleted, resolver.resolve(id, version), deletedMillis, removed));
+			}
+		}
+		return fromEntries(subject, dir, entries);
+	}
+
+	/**
+	 * Create a manifest from an unsorted list of entries.
+	 */
+	public static SubjectManifest fromEntries(String subject, File dir, List<Entry> entryList) {
+		Entry[] entries = entryList.toArray(new Entry[entryList.size()]);
+		Arrays.sort(entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry e1, Entry e2) {
+				return Long.compare(e1.version, e2.version);
+			}
+		});
+		return new SubjectManifest(subject, dir, entries);
+	}
+
+	private int findIndex(long version) {
+		int low = 0;
+		int high = entries.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midVersion = entries[mid].version;
+			if (midVersion < version) {
+				low = mid + 1;
+			} else if (midVersion > version) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Version of a subject.
+	 */
+	public static class Entry {
+
+		private final long version;
+		private final long id;
+		private final boolean deleted;
+		private final SchemaDetails details;
+		private final long deletedMillis;
+		private final boolean removed;
+
+		public Entry(long version, long id, boolean deleted, SchemaDetails details) {
+			this(version, id, deleted, details, 0, false);
+		}
+
+		public Entry(long version, long id, boolean deleted, SchemaDetails details, long deletedMillis,
+				boolean removed) {
+			this.version = version;
+			this.id = id;
+			this.deleted = deleted;
+			this.details = details;
+			this.deletedMillis = deletedMillis;
+			this.removed = removed;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		/**
+		 * Return true if the version was deleted, including if it was removed.
+		 */
+		public boolean isDeleted() {
+			return deleted;
+		}
+
+		/**
+		 * Return true if the version was removed by deleting its subject.
+		 */
+		public boolean isRemoved() {
+			return removed;
+		}
+
+		/**
+		 * Return the details of the schema with this version or null if the schema-id was not found.
+		 */
+		public SchemaDetails getDetails() {
+			return details;
+		}
+
+		/**
+		 * Time when the version was deleted or 0 if not deleted or not known.
+		 */
+		public long getDeletedMillis() {
+			return deletedMillis;
+		}
+
+		/**
+		 * Return true if the entry was deleted at least graceMillis ago.
+		 */
+		public boolean isStale(long nowMillis, long graceMillis) {
+			return deleted && deletedMillis != 0 && nowMillis - deletedMillis >= graceMillis;
+		}
+
+		/**
+		 * Return a copy of this entry which is marked as deleted at a time.
+		 */
+		public Entry asDeleted(long deletedMillis) {
+			return new Entry(version, id, true, details, deletedMillis, removed);
+		}
+
+		/**
+		 * Return a copy of this entry which is marked as removed at a time.
+		 */
+		public Entry asRemoved(long deletedMillis) {
+			return new Entry(version, id, true, details, deletedMillis, true);
+		}
+	}
+
+	/**
+	 * Looks up the details of a schema-id for a version of the subject.
+	 */
+	public interface DetailsResolver {
+		/**
+		 * Return the details of the schema-id with the version or null if not found.
+		 */
+		public SchemaDetails resolve(long id, long version);
+	}
+}
@@ -0,0 +1,30 @@
+package com.j256.simpleschemareg;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a subject version is saved with a schema-id but the subject already has the version with a different
+ * schema-id.
+ */
+public class SubjectVersionConflictException extends IOException {
+
+	private static final long serialVersionUID = 4418025273151316952L;
+
+	private final String subject;
+	private final long version;
+
+	public SubjectVersionConflictException(String subject, long version, long existingId, long id) {
+		super("version " + version + " of subject '" + subject + "' is already registered with schema-id "
+				+ existingId + " instead of " + id);
+		this.subject = subject;
+		this.version = version;
+	}
+
+	public String getSubject() {
+		return subject;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+}
@@ -0,0 +1,324 @@
+package com.j256.simpleschemareg.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.jetty.http.HttpStatus;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.j256.simpleschemareg.FileSchemaPersister;
+import com.j256.simpleschemareg.entities.EntityTypeAdapters;
+import com.j256.simpleschemareg.entities.ErrorResponse;
+import com.j256.simpleschemareg.entities.IdResponse;
+import com.j256.simpleschemareg.entities.SchemaBatchResponse;
+import com.j256.simpleschemareg.entities.SchemaInfo;
+import com.j256.simpleschemareg.entities.SubjectVersionResponse;
+
+/**
+ * Client for the registry which caches the schemas by schema-id and the schema-ids by subject and schema digest. A
+ * registered schema never changes so the caches are only bounded and never expire. Concurrent misses for the same key
+ * share a single request to the registry. The connections are kept alive and reused by the JDK's HTTP client.
+ */
+public class SchemaRegistryClient {
+
+	public static final int DEFAULT_MAX_CACHE_SIZE = 10000;
+	private static final int PREFETCH_BATCH_SIZE = 1000;
+	private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+	private static final int READ_TIMEOUT_MILLIS = 10000;
+	private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+
+	private final Gson gson = new Gson();
+
+	private final String registryUrl;
+	private final BoundedCache<Long, String> schemaCache;
+	private final BoundedCache<String, Long> idCache;
+	private final ConcurrentMap<Object, CompletableFuture<Object>> inFlightMap = new ConcurrentHashMap<>();
+
+	public SchemaRegistryClient(String registryUrl) {
+		this(registryUrl, DEFAULT_MAX_CACHE_SIZE);
+	}
+
+	/**
+	 * @param registryUrl
+	 *            Base URL of the registry such as http://localhost:8081.
+	 * @param maxCacheSize
+	 *            Maximum number of entries in each of the caches.
+	 */
+	public SchemaRegistryClient(String registryUrl, int maxCacheSize) {
+		if (registryUrl.endsWith("/")) {
+			registryUrl = registryUrl.substring(0, registryUrl.length() - 1);
+		}
+		this.registryUrl = registryUrl;
+		this.schemaCache = new BoundedCache<>(maxCacheSize);
+		this.idCache = new BoundedCache<>(maxCacheSize);
+	}
+
+	/**
+	 * Return the schema for the schema-id or null if it is not found.
+	 */
+	public String getSchema(final long id) throws IOException {
+		String schema = schemaCache.get(id);
+		if (schema != null) {
+			return schema;
+		}
+		return coalesce(id, new Fetcher<String>() {
+			@Override
+			public String fetch() throws IOException {
+				String schema = schemaCache.get(id);
+				if (schema != null) {
+					return schema;
+				}
+				SchemaInfo info = request("GET", "/schemas/ids/" + id, null, SchemaInfo.class);
+				if (info == null) {
+					return null;
+				}
+				schemaCache.put(id, info.getSchema());
+				return info.getSchema();
+			}
+		});
+	}
+
+	/**
+	 * Register the schema in the subject if it has not been registered already and return its schema-id.
+	 */
+	public long register(final String subject, final String schema) throws IOException {
+		final String key = idCacheKey(subject, schema);
+		Long id = idCache.get(key);
+		if (id != null) {
+			return id;
+		}
+		return coalesce("POST " + key, new Fetcher<Long>() {
+			@Override
+			public Long fetch() throws IOException {
+				Long id = idCache.get(key);
+				if (id != null) {
+					return id;
+				}
+				IdResponse response = request("POST", "/subjects/" + encodeSubject(subject) + "/versions",
+						new SchemaInfo(schema), IdResponse.class);
+				if (response == null) {
+					throw new IOException("registering schema in subject '" + subject + "' was not found");
+				}
+				cacheId(key, response.getId(), schema);
+				return response.getId();
+			}
+		});
+	}
+
+	/**
+	 * Look up the schema-id of the schema in the subject without registering it.
+	 * 
+	 * @return The schema-id or -1 if the schema is not registered in the subject.
+	 */
+	public long lookupSchemaId(final String subject, final String schema) throws IOException {
+		final String key = idCacheKey(subject, schema);
+		Long id = idCache.get(key);
+		if (id != null) {
+			return id;
+		}
+		return coalesce("GET " + key, new Fetcher<Long>() {
+			@Override
+			public Long fetch() throws IOException {
+				Long id = idCache.get(key);
+				if (id != null) {
+					return id;
+				}
+				String hex = key.substring(key.lastIndexOf('/') + 1);
+				SubjectVersionResponse response = request("GET",
+						"/subjects/" + encodeSubject(subject) + "/digest/" + hex, null, SubjectVersionResponse.class);
+				if (response == null) {
+					return -1L;
+				}
+				cacheId(key, response.getId(), schema);
+				return response.getId();
+			}
+		});
+	}
+
+	/**
+	 * Load the schemas of the schema-ids into the cache in batches, typically when a service starts with a set of
+	 * schema-ids that it knows it will need.
+	 * 
+	 * @return The number of schema-ids that were not found in the registry.
+	 */
+	public int prefetch(long... ids) throws IOException {
+		long[] batch = new long[Math.min(ids.length, PREFETCH_BATCH_SIZE)];
+		int batchCount = 0;
+		int missingCount = 0;
+		for (long id : ids) {
+			if (schemaCache.get(id) != null) {
+				continue;
+			}
+			batch[batchCount++] = id;
+			if (batchCount == batch.length) {
+				missingCount += prefetchBatch(batch);
+				batchCount = 0;
+			}
+		}
+		if (batchCount > 0) {
+			missingCount += prefetchBatch(Arrays.copyOf(batch, batchCount));
+		}
+		return missingCount;
+	}
+
+	/**
+	 * Return the number of schemas in the cache.
+	 */
+	public int getCachedSchemaCount() {
+		return schemaCache.size();
+	}
+
+	private int prefetchBatch(long[] ids) throws IOException {
+		SchemaBatchResponse response = request("POST", "/schemas/ids/batch", ids, SchemaBatchResponse.class);
+		if (response == null) {
+			throw new IOException("schema-id batch request was not found");
+		}
+		for (int i = 0; i < response.getIds().length; i++) {
+			schemaCache.put(response.getIds()[i], response.getSchemas()[i]);
+		}
+		return response.getMissingIds().length;
+	}
+
+	private void cacheId(String key, long id, String schema) {
+		idCache.put(key, id);
+		schemaCache.put(id, schema);
+	}
+
+	private String idCacheKey(String subject, String schema) {
+		// subjects cannot have a slash in them
+		return subject + '/' + EntityTypeAdapters.digestToHex(FileSchemaPersister.digestFromSchema(schema));
+	}
+
+	private String encodeSubject(String subject) throws IOException {
+		return URLEncoder.encode(subject, StandardCharsets.UTF_8.name()).replace("+", "%20");
+	}
+
+	/**
+	 * Run the fetcher unless another thread is already fetching the same key in which case wait for its result.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T coalesce(Object key, Fetcher<T> fetcher) throws IOException {
+		CompletableFuture<Object> future = new CompletableFuture<>();
+		CompletableFuture<Object> existing = inFlightMap.putIfAbsent(key, future);
+		if (existing != null) {
+			try {
+				return (T) existing.get();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("waiting for registry request was interrupted");
+			} catch (ExecutionException ee) {
+				if (ee.getCause() instanceof IOException) {
+					throw (IOException) ee.getCause();
+				} else {
+					throw new IOException("registry request failed", ee.getCause());
+				}
+			}
+		}
+		try {
+			T result = fetcher.fetch();
+			future.complete(result);
+			return result;
+		} catch (IOException | RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlightMap.remove(key, future);
+		}
+	}
+
+	/**
+	 * Make a request to the registry.
+	 * 
+	 * @return The response or null if the registry returned a 404.
+	 */
+	private <T> T request(String method, String path, Object body, Class<T> responseClass) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(registryUrl + path).openConnection();
+		conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+		conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+		conn.setRequestMethod(method);
+		if (body != null) {
+			conn.setDoOutput(true);
+			conn.setRequestProperty("Content-Type", JSON_CONTENT_TYPE);
+			try (Writer writer = new OutputStreamWriter(conn.getOutputStream(), StandardCharsets.UTF_8);) {
+				gson.toJson(body, writer);
+			}
+		}
+		// the streams are read and closed but the connection is not disconnected so it can be reused
+		int status = conn.getResponseCode();
+		if (status == HttpStatus.OK_200) {
+			try (Reader reader = new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8);) {
+				return gson.fromJson(reader, responseClass);
+			} catch (JsonParseException jpe) {
+				throw new IOException(method + " " + path + " returned an invalid response", jpe);
+			}
+		}
+
+		ErrorResponse error = null;
+		try (InputStream input = conn.getErrorStream();) {
+			if (input != null) {
+				error = gson.fromJson(new InputStreamReader(input, StandardCharsets.UTF_8), ErrorResponse.class);
+			}
+		} catch (JsonParseException jpe) {
+			// we'll just report the status
+		}
+		if (status == HttpStatus.NOT_FOUND_404) {
+			return null;
+		}
+		throw new IOException(
+				method + " " + path + " returned status " + status + (error == null ? "" : ": " + error.getMessage()));
+	}
+
+	/**
+	 * Cache of values that never change which drops an arbitrary entry when it is full. Reads do not lock.
+	 */
+	private static class BoundedCache<K, V> {
+
+		private final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<>();
+		private final int maxSize;
+
+		public BoundedCache(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		public V get(K key) {
+			return map.get(key);
+		}
+
+		public void put(K key, V value) {
+			if (map.size() >= maxSize && !map.containsKey(key)) {
+				Iterator<K> iterator = map.keySet().iterator();
+				if (iterator.hasNext()) {
+					map.remove(iterator.next());
+				}
+			}
+			map.put(key, value);
+		}
+
+		public int size() {
+			return map.size();
+		}
+	}
+
+	/**
+	 * Fetches a value from the registry.
+	 */
+	private interface Fetcher<T> {
+		T fetch() throws IOException;
+	}
+}
@@ -0,0 +1,603 @@
+package com.j256.simpleschemareg.entities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Hand-written streaming Gson type adapters for our entities which are wired in with the
+ * {@link com.google.gson.annotations.JsonAdapter} annotation. They avoid the reflection and boxing of Gson's default
+ * object handling on the request path and when reading in the id files. Unknown fields are skipped when reading.
+ */
+public class EntityTypeAdapters {
+
+	private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+	private EntityTypeAdapters() {
+		// only for static classes
+	}
+
+	/**
+	 * Adapter for {@link SchemaInfo}.
+	 */
+	public static class SchemaInfoAdapter extends TypeAdapter<SchemaInfo> {
+		@Override
+		public void write(JsonWriter writer, SchemaInfo info) throws IOException {
+			writer.beginObject();
+			writeString(writer, "schema", info.getSchema());
+			writer.endObject();
+		}
+
+		@Override
+		public SchemaInfo read(JsonReader reader) throws IOException {
+			String schema = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if ("schema".equals(reader.nextName())) {
+					schema = readString(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return new SchemaInfo(schema);
+		}
+	}
+
+	/**
+	 * Adapter for {@link SchemaDetails}. The version is not persisted. The digest is written as a hex string but the
+	 * array of numbers that older versions wrote is also supported when reading.
+	 */
+	public static class SchemaDetailsAdapter extends TypeAdapter<SchemaDetails> {
+		@Override
+		public void write(JsonWriter writer, SchemaDetails details) throws IOException {
+			writer.beginObject();
+			writeString(writer, "schema", details.getSchema());
+			if (details.getDigest() != null) {
+				writer.name("digest").value(digestToHex(details.getDigest()));
+			}
+			writer.name("id").value(details.getId());
+			writer.endObject();
+		}
+
+		@Override
+		public SchemaDetails read(JsonReader reader) throws IOException {
+			String schema = null;
+			byte[] digest = null;
+			long id = 0;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "schema":
+						schema = readString(reader);
+						break;
+					case "digest":
+						digest = readDigest(reader);
+						break;
+					case "id":
+						id = reader.nextLong();
+						break;
+					default:
+						reader.skipValue();
+						break;
+				}
+			}
+			reader.endObject();
+			return new SchemaDetails(schema, digest, id);
+		}
+	}
+
+	/**
+	 * Adapter for {@link IdResponse}.
+	 */
+	public static class IdResponseAdapter extends TypeAdapter<IdResponse> {
+		@Override
+		public void write(JsonWriter writer, IdResponse response) throws IOException {
+			writer.beginObject();
+			writer.name("id").value(response.getId());
+			writer.endObject();
+		}
+
+		@Override
+		public IdResponse read(JsonReader reader) throws IOException {
+			long id = 0;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if ("id".equals(reader.nextName())) {
+					id = reader.nextLong();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return new IdResponse(id);
+		}
+	}
+
+	/**
+	 * Adapter for {@link SubjectSchema}.
+	 */
+	public static class SubjectSchemaAdapter extends TypeAdapter<SubjectSchema> {
+		@Override
+		public void write(JsonWriter writer, SubjectSchema subjectSchema) throws IOException {
+			writer.beginObject();
+			writeString(writer, "subject", subjectSchema.getSubject());
+			writeString(writer, "schema", subjectSchema.getSchema());
+			writer.endObject();
+		}
+
+		@Override
+		public SubjectSchema read(JsonReader reader) throws IOException {
+			String subject = null;
+			String schema = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "subject":
+						subject = readString(reader);
+						break;
+					case "schema":
+						schema = readString(reader);
+						break;
+					default:
+						reader.skipValue();
+						break;
+				}
+			}
+			reader.endObject();
+			return new SubjectSchema(subject, schema);
+		}
+	}
+
+	/**
+	 * Adapter for {@link SchemaBatchResponse}.
+	 */
+	public static class SchemaBatchResponseAdapter extends TypeAdapter<SchemaBatchResponse> {
+		@Override
+		public void write(JsonWriter writer, SchemaBatchResponse response) throws IOException {
+			writer.beginObject();
+			writer.name("schemas").beginArray();
+			for (int i = 0; i < response.getIds().length; i++) {
+				writeIdSchema(writer, response.getIds()[i], response.getSchemas()[i]);
+			}
+			writer.endArray();
+			writer.name("missing").beginArray();
+			for (long id : response.getMissingIds()) {
+				writer.value(id);
+			}
+			writer.endArray();
+			writer.endObject();
+		}
+
+		@Override
+		public SchemaBatchResponse read(JsonReader reader) throws IOException {
+			List<Long> ids = new ArrayList<>();
+			List<String> schemas = new ArrayList<>();
+			List<Long> missingIds = new ArrayList<>();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "schemas":
+						reader.beginArray();
+						while (reader.hasNext()) {
+							long id = 0;
+							String schema = null;
+							reader.beginObject();
+							while (reader.hasNext()) {
+								switch (reader.nextName()) {
+									case "id":
+										id = reader.nextLong();
+										break;
+									case "schema":
+										schema = readString(reader);
+										break;
+									default:
+										reader.skipValue();
+										break;
+								}
+							}
+							reader.endObject();
+							ids.add(id);
+							schemas.add(schema);
+						}
+						reader.endArray();
+						break;
+					case "missing":
+						reader.beginArray();
+						while (reader.hasNext()) {
+							missingIds.add(reader.nextLong());
+						}
+						reader.endArray();
+						break;
+					default:
+						reader.skipValue();
+						break;
+				}
+			}
+			reader.endObject();
+			return new SchemaBatchResponse(toLongArray(ids), schemas.toArray(new String[schemas.size()]),
+					toLongArray(missingIds));
+		}
+	}
+
+	/**
+	 * Adapter for {@link SubjectVersion}.
+	 */
+	public static class SubjectVersionAdapter extends TypeAdapter<SubjectVersion> {
+		@Override
+		public void write(JsonWriter writer, SubjectVersion subjectVersion) throws IOException {
+			writer.beginObject();
+			writeString(writer, "subject", subjectVersion.getSubject());
+			writer.name("version").value(subjectVersion.getVersion());
+			writer.endObject();
+		}
+
+		@Override
+		public SubjectVersion read(JsonReader reader) throws IOException {
+			String subject = null;
+			long version = 0;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "subject":
+						subject = readString(reader);
+						break;
+					case "version":
+						version = reader.nextLong();
+						break;
+					default:
+						reader.skipValue();
+						break;
+				}
+			}
+			reader.endObject();
+			return new SubjectVersion(subject, version);
+		}
+	}
+
+	/**
+	 * Adapter for {@link SubjectVersionResponse}.
+	 */
+	public static class SubjectVersionResponseAdapter extends TypeAdapter<SubjectVersionResponse> {
+		@Override
+		public void write(JsonWriter writer, SubjectVersionResponse response) throws IOException {
+			writer.beginObject();
+			writeString(writer, "subject", response.getSubject());
+			writer.name("version").value(response.getVersion());
+			writer.name("id").value(response.getId());
+			writeString(writer, "schema", response.getSchema());
+			writer.endObject();
+		}
+
+		@Override
+		public SubjectVersionResponse read(JsonReader reader) throws IOException {
+			String subject = null;
+			long version = 0;
+			long id = 0;
+			String schema = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "subject":
+						subject = readString(reader);
+						break;
+					case "version":
+						version = reader.nextLong();
+						break;
+					case "id":
+						id = reader.nextLong();
+						break;
+					case "schema":
+						schema = readString(reader);
+						break;
+					default:
+						reader.skipValue();
+						break;
+				}
+			}
+			reader.endObject();
+			return new SubjectVersionResponse(subject, version, id, schema);
+		}
+	}
+
+	/**
+	 * Adapter for {@link ErrorResponse}.
+	 */
+	public static class ErrorResponseAdapter extends TypeAdapter<ErrorResponse> {
+		@Override
+		public void write(JsonWriter writer, ErrorResponse response) throws IOException {
+			writer.beginObject();
+			writer.name("error_code").value(response.getErrorCode());
+			writeString(writer, "message", response.getMessage());
+			writer.endObject();
+		}
+
+		@Override
+		public ErrorResponse read(JsonReader reader) throws IOException {
+			int errorCode = 0;
+			String message = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "error_code":
+						errorCode = reader.nextInt();
+						break;
+					case "message":
+						message = readString(reader);
+						break;
+					default:
+						reader.skipValue();
+						break;
+				}
+			}
+			reader.endObject();
+			return new ErrorResponse(errorCode, message);
+		}
+	}
+
+	/**
+	 * Adapter for {@link ReplicationEntry}. Empty fields are not written.
+	 */
+	public static class ReplicationEntryAdapter extends TypeAdapter<ReplicationEntry> {
+		@Override
+		public void write(JsonWriter writer, ReplicationEntry entry) throws IOException {
+			writer.beginObject();
+			writer.name("offset").value(entry.getOffset());
+			writer.name("op").value(entry.getOp().name());
+			writeString(writer, "subject", entry.getSubject());
+			if (entry.getVersion() != 0) {
+				writer.name("version").value(entry.getVersion());
+			}
+			if (entry.getId() != 0) {
+				writer.name("id").value(entry.getId());
+			}
+			writeString(writer, "schema", entry.getSchema());
+			if (entry.isPermanent()) {
+				writer.name("permanent").value(true);
+			}
+			writer.endObject();
+		}
+
+		@Override
+		public ReplicationEntry read(JsonReader reader) throws IOException {
+			long offset = 0;
+			ReplicationEntry.Op op = null;
+			String subject = null;
+			long version = 0;
+			long id = 0;
+			String schema = null;
+			boolean permanent = false;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "offset":
+						offset = reader.nextLong();
+						break;
+					case "op":
+						String opStr = reader.nextString();
+						try {
+							op = ReplicationEntry.Op.valueOf(opStr);
+						} catch (IllegalArgumentException iae) {
+							throw new JsonParseException("unknown replication op: " + opStr);
+						}
+						break;
+					case "subject":
+						subject = readString(reader);
+						break;
+					case "version":
+						version = reader.nextLong();
+						break;
+					case "id":
+						id = reader.nextLong();
+						break;
+					case "schema":
+						schema = readString(reader);
+						break;
+					case "permanent":
+						permanent = reader.nextBoolean();
+						break;
+					default:
+						reader.skipValue();
+						break;
+				}
+			}
+			reader.endObject();
+			if (op == null) {
+				throw new JsonParseException("replication entry is missing op");
+			}
+			return new ReplicationEntry(offset, op, subject, version, id, schema, permanent);
+		}
+	}
+
+	/**
+	 * Adapter for {@link ExportEntry}.
+	 */
+	public static class ExportEntryAdapter extends TypeAdapter<ExportEntry> {
+		@Override
+		public void write(JsonWriter writer, ExportEntry entry) throws IOException {
+			writer.beginObject();
+			writeString(writer, "subject", entry.getSubject());
+			if (entry.getSubject() != null) {
+				writer.name("version").value(entry.getVersion());
+			}
+			writer.name("id").value(entry.getId());
+			writeString(writer, "schema", entry.getSchema());
+			writer.endObject();
+		}
+
+		@Override
+		public ExportEntry read(JsonReader reader) throws IOException {
+			String subject = null;
+			long version = 0;
+			long id = 0;
+			String schema = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "subject":
+						subject = readString(reader);
+						break;
+					case "version":
+						version = reader.nextLong();
+						break;
+					case "id":
+						id = reader.nextLong();
+						break;
+					case "schema":
+						schema = readString(reader);
+						break;
+					default:
+						reader.skipValue();
+						break;
+				}
+			}
+			reader.endObject();
+			if (subject == null && schema == null) {
+				throw new JsonParseException("export entry needs a subject or a schema");
+			}
+			return new ExportEntry(subject, version, id, schema);
+		}
+	}
+
+	/**
+	 * Adapter for {@link ImportResponse}.
+	 */
+	public static class ImportResponseAdapter extends TypeAdapter<ImportResponse> {
+		@Override
+		public void write(JsonWriter writer, ImportResponse response) throws IOException {
+			writer.beginObject();
+			writer.name("schemas").value(response.getSchemaCount());
+			writer.name("versions").value(response.getVersionCount());
+			writer.endObject();
+		}
+
+		@Override
+		public ImportResponse read(JsonReader reader) throws IOException {
+			long schemaCount = 0;
+			long versionCount = 0;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "schemas":
+						schemaCount = reader.nextLong();
+						break;
+					case "versions":
+						versionCount = reader.nextLong();
+						break;
+					default:
+						reader.skipValue();
+						break;
+				}
+			}
+			reader.endObject();
+			return new ImportResponse(schemaCount, versionCount);
+		}
+	}
+
+	/**
+	 * Convert a digest into a lowercase hex string.
+	 */
+	public static String digestToHex(byte[] digest) {
+		char[] chars = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			chars[i * 2] = HEX_CHARS[(digest[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX_CHARS[digest[i] & 0xF];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Convert a hex string into a digest.
+	 * 
+	 * @return The digest bytes or null if the string is not valid hex.
+	 */
+	public static byte[] hexToDigest(String hex) {
+		if (hex.length() % 2 != 0) {
+			return null;
+		}
+		byte[] digest = new byte[hex.length() / 2];
+		for (int i = 0; i < digest.length; i++) {
+			int high = Character.digit(hex.charAt(i * 2), 16);
+			int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+			if (high < 0 || low < 0) {
+				return null;
+			}
+			digest[i] = (byte) ((high << 4) | low);
+		}
+		return digest;
+	}
+
+	/**
+	 * Write a schema and its id as an object. This is public so that a batch response can be streamed.
+	 */
+	public static void writeIdSchema(JsonWriter writer, long id, String schema) throws IOException {
+		writer.beginObject();
+		writer.name("id").value(id);
+		writeString(writer, "schema", schema);
+		writer.endObject();
+	}
+
+	private static long[] toLongArray(List<Long> list) {
+		long[] array = new long[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	private static void writeString(JsonWriter writer, String name, String value) throws IOException {
+		// mirror gson's default of not serializing null fields
+		if (value != null) {
+			writer.name(name).value(value);
+		}
+	}
+
+	private static String readString(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		} else {
+			return reader.nextString();
+		}
+	}
+
+	private static byte[] readDigest(JsonReader reader) throws IOException {
+		JsonToken token = reader.peek();
+		if (token == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		} else if (token == JsonToken.STRING) {
+			String hex = reader.nextString();
+			byte[] digest = hexToDigest(hex);
+			if (digest == null) {
+				throw new JsonParseException("invalid digest hex string: " + hex);
+			}
+			return digest;
+		}
+		// older id files have the digest as an array of signed byte numbers
+		byte[] digest = new byte[16];
+		int count = 0;
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (count == digest.length) {
+				byte[] newDigest = new byte[digest.length * 2];
+				System.arraycopy(digest, 0, newDigest, 0, count);
+				digest = newDigest;
+			}
+			digest[count++] = (byte) reader.nextInt();
+		}
+		reader.endArray();
+		if (count == digest.length) {
+			return digest;
+		}
+		byte[] result = new byte[count];
+		System.arraycopy(digest, 0, result, 0, count);
+		return result;
+	}
+}
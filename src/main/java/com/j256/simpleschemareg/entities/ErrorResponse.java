@@ -1,13 +1,13 @@
 package com.j256.simpleschemareg.entities;
 
-import com.google.gson.annotations.SerializedName;
+import com.google.gson.annotations.JsonAdapter;
 
 /**
  * Response sent with http error-code and message..
  */
+@JsonAdapter(EntityTypeAdapters.ErrorResponseAdapter.class)
 public class ErrorResponse {
 
-	@SerializedName("error_code")
 	private final int errorCode;
 	private final String message;
 
@@ -0,0 +1,68 @@
+package com.j256.simpleschemareg.entities;
+
+import com.google.gson.annotations.JsonAdapter;
+
+/**
+ * Line in a registry export. It is either a schema with its schema-id or a subject version that refers to a schema-id
+ * that was exported before it.
+ */
+@JsonAdapter(EntityTypeAdapters.ExportEntryAdapter.class)
+public class ExportEntry {
+
+	private final String subject;
+	private final long version;
+	private final long id;
+	private final String schema;
+
+	public ExportEntry(String subject, long version, long id, String schema) {
+		this.subject = subject;
+		this.version = version;
+		this.id = id;
+		this.schema = schema;
+	}
+
+	/**
+	 * Schema with its schema-id.
+	 */
+	public static ExportEntry schema(long id, String schema) {
+		return new ExportEntry(null, 0, id, schema);
+	}
+
+	/**
+	 * Version of a subject and the schema-id it refers to.
+	 */
+	public static ExportEntry version(String subject, long version, long id) {
+		return new ExportEntry(subject, version, id, null);
+	}
+
+	/**
+	 * Subject name or null if this entry is a schema.
+	 */
+	public String getSubject() {
+		return subject;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Schema or null if this entry is a subject version.
+	 */
+	public String getSchema() {
+		return schema;
+	}
+
+	@Override
+	public String toString() {
+		if (subject == null) {
+			return "ExportEntry [id=" + id + "]";
+		} else {
+			return "ExportEntry [subject=" + subject + ", version=" + version + ", id=" + id + "]";
+		}
+	}
+}
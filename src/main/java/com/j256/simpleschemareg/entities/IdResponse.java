@@ -1,8 +1,11 @@
 package com.j256.simpleschemareg.entities;
 
+import com.google.gson.annotations.JsonAdapter;
+
 /**
  * Response with just an id.
  */
+@JsonAdapter(EntityTypeAdapters.IdResponseAdapter.class)
 public class IdResponse {
 
 	private final long id;
@@ -0,0 +1,27 @@
+package com.j256.simpleschemareg.entities;
+
+import com.google.gson.annotations.JsonAdapter;
+
+/**
+ * Response from an import with the number of schemas and subject versions that were added. Entries that were already
+ * in the registry are not counted.
+ */
+@JsonAdapter(EntityTypeAdapters.ImportResponseAdapter.class)
+public class ImportResponse {
+
+	private final long schemaCount;
+	private final long versionCount;
+
+	public ImportResponse(long schemaCount, long versionCount) {
+		this.schemaCount = schemaCount;
+		this.versionCount = versionCount;
+	}
+
+	public long getSchemaCount() {
+		return schemaCount;
+	}
+
+	public long getVersionCount() {
+		return versionCount;
+	}
+}
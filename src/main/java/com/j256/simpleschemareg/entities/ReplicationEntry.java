@@ -0,0 +1,110 @@
+package com.j256.simpleschemareg.entities;
+
+import com.google.gson.annotations.JsonAdapter;
+
+/**
+ * Mutation that is shipped from a leader registry to its followers. A snapshot of the leader is also sent as a series
+ * of these entries.
+ */
+@JsonAdapter(EntityTypeAdapters.ReplicationEntryAdapter.class)
+public class ReplicationEntry {
+
+	private final long offset;
+	private final Op op;
+	private final String subject;
+	private final long version;
+	private final long id;
+	private final String schema;
+	private final boolean permanent;
+
+	public ReplicationEntry(long offset, Op op, String subject, long version, long id, String schema,
+			boolean permanent) {
+		this.offset = offset;
+		this.op = op;
+		this.subject = subject;
+		this.version = version;
+		this.id = id;
+		this.schema = schema;
+		this.permanent = permanent;
+	}
+
+	/**
+	 * Schema was saved with an id and optionally with a subject and version.
+	 */
+	public static ReplicationEntry save(String subject, long version, long id, String schema) {
+		return new ReplicationEntry(0, Op.SAVE, subject, version, id, schema, false);
+	}
+
+	/**
+	 * Schema-id was deleted.
+	 */
+	public static ReplicationEntry deleteId(long id) {
+		return new ReplicationEntry(0, Op.DELETE_ID, null, 0, id, null, false);
+	}
+
+	/**
+	 * All versions of a subject were deleted.
+	 */
+	public static ReplicationEntry deleteSubject(String subject) {
+		return new ReplicationEntry(0, Op.DELETE_SUBJECT, subject, 0, 0, null, false);
+	}
+
+	/**
+	 * Version of a subject was deleted.
+	 */
+	public static ReplicationEntry deleteVersion(String subject, long version, boolean permanent) {
+		return new ReplicationEntry(0, Op.DELETE_VERSION, subject, version, 0, null, permanent);
+	}
+
+	/**
+	 * Return a copy of this entry with the offset in the replication log.
+	 */
+	public ReplicationEntry withOffset(long offset) {
+		return new ReplicationEntry(offset, op, subject, version, id, schema, permanent);
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public Op getOp() {
+		return op;
+	}
+
+	public String getSubject() {
+		return subject;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getSchema() {
+		return schema;
+	}
+
+	public boolean isPermanent() {
+		return permanent;
+	}
+
+	@Override
+	public String toString() {
+		return op + "@" + offset + ": subject " + subject + ", version " + version + ", id " + id;
+	}
+
+	/**
+	 * Type of the mutation.
+	 */
+	public enum Op {
+		SAVE,
+		DELETE_ID,
+		DELETE_SUBJECT,
+		DELETE_VERSION,
+		// end
+		;
+	}
+}
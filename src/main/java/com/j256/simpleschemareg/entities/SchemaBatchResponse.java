@@ -0,0 +1,40 @@
+package com.j256.simpleschemareg.entities;
+
+import com.google.gson.annotations.JsonAdapter;
+
+/**
+ * Response from a batch lookup of schema-ids with the schemas that were found and the ids that were not.
+ */
+@JsonAdapter(EntityTypeAdapters.SchemaBatchResponseAdapter.class)
+public class SchemaBatchResponse {
+
+	private final long[] ids;
+	private final String[] schemas;
+	private final long[] missingIds;
+
+	/**
+	 * @param ids
+	 *            Schema-ids that were found.
+	 * @param schemas
+	 *            Schemas for each of the found ids in the same order.
+	 * @param missingIds
+	 *            Schema-ids that were not found.
+	 */
+	public SchemaBatchResponse(long[] ids, String[] schemas, long[] missingIds) {
+		this.ids = ids;
+		this.schemas = schemas;
+		this.missingIds = missingIds;
+	}
+
+	public long[] getIds() {
+		return ids;
+	}
+
+	public String[] getSchemas() {
+		return schemas;
+	}
+
+	public long[] getMissingIds() {
+		return missingIds;
+	}
+}
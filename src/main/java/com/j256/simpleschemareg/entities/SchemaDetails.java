@@ -1,8 +1,11 @@
 package com.j256.simpleschemareg.entities;
 
+import com.google.gson.annotations.JsonAdapter;
+
 /**
  * Details about a schema with an optional version.
  */
+@JsonAdapter(EntityTypeAdapters.SchemaDetailsAdapter.class)
 public class SchemaDetails {
 
 	private final String schema;
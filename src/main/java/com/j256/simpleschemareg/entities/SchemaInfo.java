@@ -1,8 +1,11 @@
 package com.j256.simpleschemareg.entities;
 
+import com.google.gson.annotations.JsonAdapter;
+
 /**
  * Payload and response with just the schema.
  */
+@JsonAdapter(EntityTypeAdapters.SchemaInfoAdapter.class)
 public class SchemaInfo {
 
 	private final String schema;
@@ -0,0 +1,26 @@
+package com.j256.simpleschemareg.entities;
+
+import com.google.gson.annotations.JsonAdapter;
+
+/**
+ * Schema to register in a subject as part of a batch.
+ */
+@JsonAdapter(EntityTypeAdapters.SubjectSchemaAdapter.class)
+public class SubjectSchema {
+
+	private final String subject;
+	private final String schema;
+
+	public SubjectSchema(String subject, String schema) {
+		this.subject = subject;
+		this.schema = schema;
+	}
+
+	public String getSubject() {
+		return subject;
+	}
+
+	public String getSchema() {
+		return schema;
+	}
+}
@@ -2,9 +2,12 @@ package com.j256.simpleschemareg.entities;
 
 import java.util.Objects;
 
+import com.google.gson.annotations.JsonAdapter;
+
 /**
  * Bunch of fields returned when looking up a subject/version.
  */
+@JsonAdapter(EntityTypeAdapters.SubjectVersionAdapter.class)
 public class SubjectVersion {
 
 	private final String subject;
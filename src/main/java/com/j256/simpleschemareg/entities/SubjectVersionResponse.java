@@ -1,8 +1,11 @@
 package com.j256.simpleschemareg.entities;
 
+import com.google.gson.annotations.JsonAdapter;
+
 /**
  * Bunch of fields returned when looking up a subject/version.
  */
+@JsonAdapter(EntityTypeAdapters.SubjectVersionResponseAdapter.class)
 public class SubjectVersionResponse {
 
 	private final String subject;
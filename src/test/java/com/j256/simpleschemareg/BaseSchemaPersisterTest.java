@@ -0,0 +1,467 @@
+package com.j256.simpleschemareg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.j256.simpleschemareg.entities.EntityTypeAdapters;
+import com.j256.simpleschemareg.entities.ExportEntry;
+import com.j256.simpleschemareg.entities.ImportResponse;
+import com.j256.simpleschemareg.entities.SchemaDetails;
+import com.j256.simpleschemareg.entities.SubjectSchema;
+import com.j256.simpleschemareg.entities.SubjectVersion;
+
+/**
+ * Tests that are run against each of the persister implementations.
+ */
+public abstract class BaseSchemaPersisterTest {
+
+	/**
+	 * Create and initialize a new persister which reads what was saved by the previous persisters of the test.
+	 */
+	protected abstract SchemaPersister createPersister() throws IOException;
+
+	@Test
+	public void testStuff() throws IOException {
+		SchemaPersister persister = createPersister();
+
+		assertArrayEquals(new String[] {}, persister.lookupSubjects());
+		assertNull(persister.lookupSchemaId(1));
+
+		String subject1 = "foo";
+		String schema1 = "weopjpjwepfowerf";
+		assertNull(persister.lookupSchema(schema1));
+
+		assertNull(persister.lookupSchema(subject1, schema1));
+		assertNull(persister.lookupSubjectVersions(subject1));
+
+		SchemaDetails details = persister.saveSchema(subject1, schema1);
+		assertNotNull(details);
+		assertEquals(schema1, details.getSchema());
+		assertEquals(1, details.getId());
+		assertEquals(1, details.getVersion());
+
+		assertArrayEquals(new long[] { 1 }, persister.lookupSubjectVersions(subject1));
+
+		details = persister.lookupSchemaId(details.getId());
+		assertEquals(1, details.getId());
+
+		details = persister.lookupSchema(schema1);
+		assertEquals(1, details.getId());
+		// no version info
+		assertEquals(0, details.getVersion());
+
+		details = persister.lookupSchema(subject1, schema1);
+		assertNotNull(details);
+		assertEquals(1, details.getId());
+		assertEquals(1, details.getVersion());
+
+		assertArrayEquals(new String[] { subject1 }, persister.lookupSubjects());
+
+		// save again
+		details = persister.saveSchema(subject1, schema1);
+		assertNotNull(details);
+
+		assertEquals(schema1, details.getSchema());
+		assertEquals(1, details.getId());
+
+		// save different schema to different subject
+		String subject2 = "bar";
+		String schema2 = "rgergergergerg";
+		details = persister.saveSchema(subject2, schema2);
+		assertNotNull(details);
+		assertEquals(schema2, details.getSchema());
+		assertEquals(2, details.getId());
+		assertEquals(1, details.getVersion());
+
+		assertArrayEquals(new String[] { subject2, subject1 }, persister.lookupSubjects());
+
+		// save different schema to different subject
+		SchemaDetails details2 = persister.saveSchema(subject2, schema1);
+		assertNotNull(details);
+		assertEquals(1, details2.getId());
+		assertEquals(2, details2.getVersion());
+
+		/*
+		 * Now start a new one reading in what was persisted.
+		 */
+
+		persister = createPersister();
+
+		SchemaDetails details3 = persister.saveSchema(subject2, schema1);
+		assertNotNull(details);
+		assertEquals(1, details3.getId());
+		assertEquals(2, details3.getVersion());
+
+		assertNotNull(persister.lookupSubjectVersion(subject2, 1));
+		SchemaDetails results = persister.deleteSubjectVersion(subject2, 1, false);
+		assertEquals(details.getId(), results.getId());
+		assertEquals(details.getVersion(), results.getVersion());
+
+		assertNull(persister.lookupSubjectVersion(subject2, 1));
+		assertNotNull(persister.lookupSubjectVersion(subject2, 2));
+
+		assertArrayEquals(new long[] { 2 }, persister.deleteSubject(subject2));
+		assertNull(persister.lookupSubjectVersion(subject2, 2));
+
+		assertArrayEquals(new String[] { subject2, subject1 }, persister.lookupSubjects());
+
+		/*
+		 * Now start a new one reading in what was persisted.
+		 */
+
+		persister = createPersister();
+
+		// now really blow it away
+		results = persister.deleteSubjectVersion(subject2, 1, true);
+		assertNotNull(results);
+		assertEquals(details.getId(), results.getId());
+		assertEquals(details.getVersion(), results.getVersion());
+
+		assertArrayEquals(new String[] { subject1 }, persister.lookupSubjects());
+	}
+
+	@Test
+	public void testDeleteSchemaId() throws IOException {
+		SchemaPersister persister = createPersister();
+
+		String subject = "foo";
+		String schema = "weopjpjwepfowerf";
+
+		SchemaDetails details = persister.saveSchema(subject, schema);
+		assertNotNull(details);
+		assertEquals(schema, details.getSchema());
+		assertEquals(1, details.getId());
+		assertEquals(1, details.getVersion());
+
+		assertArrayEquals(new long[] { 1 }, persister.lookupSubjectVersions(subject));
+
+		persister.deleteSchemaId(1);
+
+		// dangling
+		assertArrayEquals(new long[] { 1 }, persister.lookupSubjectVersions(subject));
+
+		assertNull(persister.lookupSubjectVersion(subject, 1));
+
+		assertArrayEquals(new long[] {}, persister.lookupSubjectVersions(subject));
+	}
+
+	@Test
+	public void testSubjectVersionPermanent() throws IOException {
+		SchemaPersister persister = createPersister();
+
+		String subject = "foo";
+		String schema = "weopjpjwepfowerf";
+
+		SchemaDetails details = persister.saveSchema(subject, schema);
+		assertNotNull(details);
+		assertEquals(schema, details.getSchema());
+		assertEquals(1, details.getId());
+		assertEquals(1, details.getVersion());
+
+		SchemaDetails details2 = persister.deleteSubjectVersion(subject, details.getVersion(), false);
+		assertEquals(details.getId(), details2.getId());
+
+		assertNull(persister.deleteSubjectVersion(subject, details.getVersion(), false));
+		assertNotNull(persister.lookupSchemaId(details.getId()));
+
+		details2 = persister.deleteSubjectVersion(subject, details.getVersion(), true);
+		assertNotNull(details2);
+		assertEquals(details.getId(), details2.getId());
+
+		assertNull(persister.lookupSchemaId(details.getId()));
+	}
+
+	@Test
+	public void testDeletedVersion() throws IOException {
+		SchemaPersister persister = createPersister();
+
+		String subject = "foo";
+		persister.saveSchema(subject, "weopjpjwepfowerf");
+		persister.saveSchema(subject, "ewfwefwefewfwef");
+		assertNotNull(persister.deleteSubjectVersion(subject, 2, false));
+
+		persister = createPersister();
+		assertArrayEquals(new long[] { 1 }, persister.lookupSubjectVersions(subject));
+		assertNull(persister.lookupSubjectVersion(subject, 2));
+
+		// the deleted version number is not reused
+		SchemaDetails details = persister.saveSchema(subject, "ergergergerg");
+		assertEquals(3, details.getVersion());
+		assertArrayEquals(new long[] { 1, 3 }, persister.lookupSubjectVersions(subject));
+
+		// the deleted version can still be permanently deleted after a reload
+		persister = createPersister();
+		details = persister.deleteSubjectVersion(subject, 2, true);
+		assertNotNull(details);
+		assertEquals(2, details.getId());
+		assertNull(persister.lookupSchemaId(2));
+	}
+
+	@Test
+	public void testDeletedMaxIdNotReused() throws IOException {
+		SchemaPersister persister = createPersister();
+		persister.saveSchema("foo", "weopjpjwepfowerf");
+		long id = persister.saveSchema("foo", "ewfwefwefewfwef").getId();
+		assertNotNull(persister.deleteSubjectVersion("foo", 2, false));
+		assertNotNull(persister.deleteSubjectVersion("foo", 2, true));
+		assertNull(persister.lookupSchemaId(id));
+
+		// the highest schema-id was deleted but it is not handed out again after a reload
+		persister = createPersister();
+		assertEquals(id + 1, persister.saveSchema("foo", "ergergergerg").getId());
+		persister.deleteSchemaId(id + 1);
+		persister = createPersister();
+		assertEquals(id + 2, persister.saveSchema("bar", "hrthrththrth").getId());
+	}
+
+	@Test
+	public void testImportSchemas() throws IOException {
+		SchemaPersister persister = createPersister();
+		persister.saveSchema("foo", "weopjpjwepfowerf");
+
+		ImportResponse response = persister.importSchemas(Arrays.asList(ExportEntry.schema(10, "ewfwefwefewfwef"),
+				ExportEntry.version("bar", 3, 10), ExportEntry.version("bar", 5, 10),
+				// already exists so this is ignored
+				ExportEntry.version("foo", 1, 1),
+				// unknown schema-id so this is ignored
+				ExportEntry.version("baz", 1, 20)));
+		persister.sync();
+		// the ignored entries are not counted
+		assertEquals(1, response.getSchemaCount());
+		assertEquals(2, response.getVersionCount());
+
+		persister = createPersister();
+		assertArrayEquals(new long[] { 3, 5 }, persister.lookupSubjectVersions("bar"));
+		assertEquals("ewfwefwefewfwef", persister.lookupSubjectVersion("bar", 5).getSchema());
+		assertEquals(1, persister.lookupSubjectVersion("foo", 1).getId());
+		assertNull(persister.lookupSubjectVersions("baz"));
+		assertEquals(11, persister.saveSchema("qux", "ergergergerg").getId());
+	}
+
+	@Test
+	public void testImportSubjectVersionConflict() throws IOException {
+		SchemaPersister persister = createPersister();
+		long id = persister.saveSchema("foo", "weopjpjwepfowerf").getId();
+		long otherId = persister.saveSchema("bar", "ewfwefwefewfwef").getId();
+		// the same schema-id is fine
+		assertEquals(id, persister.saveSchema("foo", 1, id, null).getId());
+		try {
+			persister.saveSchema("foo", 1, otherId, null);
+			fail("should have thrown");
+		} catch (SubjectVersionConflictException svce) {
+			assertEquals("foo", svce.getSubject());
+			assertEquals(1, svce.getVersion());
+		}
+		try {
+			persister.saveSchema("foo", 1, 10, "ergergergerg");
+			fail("should have thrown");
+		} catch (SubjectVersionConflictException svce) {
+			// expected
+		}
+		// the schema-id was not saved either
+		assertNull(persister.lookupSchemaId(10));
+
+		try {
+			persister.importSchemas(Arrays.asList(ExportEntry.schema(10, "ergergergerg"),
+					ExportEntry.version("baz", 1, 10), ExportEntry.version("foo", 1, otherId)));
+			fail("should have thrown");
+		} catch (SubjectVersionConflictException svce) {
+			assertEquals("foo", svce.getSubject());
+		}
+		// conflicts inside of the batch
+		try {
+			persister.importSchemas(Arrays.asList(ExportEntry.schema(10, "ergergergerg"),
+					ExportEntry.version("baz", 1, 10), ExportEntry.version("baz", 1, id)));
+			fail("should have thrown");
+		} catch (SubjectVersionConflictException svce) {
+			assertEquals("baz", svce.getSubject());
+		}
+		// none of the batches were saved
+		assertNull(persister.lookupSchemaId(10));
+		assertNull(persister.lookupSubjectVersions("baz"));
+		assertEquals(id, persister.lookupSubjectVersion("foo", 1).getId());
+	}
+
+	@Test
+	public void testImportSchemaIdConflict() throws IOException {
+		SchemaPersister persister = createPersister();
+		long id = persister.saveSchema("foo", "weopjpjwepfowerf").getId();
+		// the same schema is fine
+		assertEquals(id, persister.saveSchema(null, 0, id, "weopjpjwepfowerf").getId());
+		try {
+			persister.saveSchema("bar", 1, id, "ewfwefwefewfwef");
+			fail("should have thrown");
+		} catch (SchemaIdConflictException sice) {
+			assertEquals(id, sice.getId());
+		}
+		assertNull(persister.lookupSubjectVersions("bar"));
+
+		try {
+			persister.importSchemas(Arrays.asList(ExportEntry.schema(10, "ergergergerg"),
+					ExportEntry.version("bar", 1, 10), ExportEntry.schema(id, "ewfwefwefewfwef")));
+			fail("should have thrown");
+		} catch (SchemaIdConflictException sice) {
+			assertEquals(id, sice.getId());
+		}
+		// none of the batch was saved
+		assertNull(persister.lookupSchemaId(10));
+		assertNull(persister.lookupSubjectVersions("bar"));
+
+		// conflicts inside of the batch
+		try {
+			persister.importSchemas(
+					Arrays.asList(ExportEntry.schema(11, "ergergergerg"), ExportEntry.schema(11, "hrthrththrth")));
+			fail("should have thrown");
+		} catch (SchemaIdConflictException sice) {
+			assertEquals(11, sice.getId());
+		}
+		assertNull(persister.lookupSchemaId(11));
+		assertEquals("weopjpjwepfowerf", persister.lookupSchemaId(id).getSchema());
+	}
+
+	@Test
+	public void testSaveSchemas() throws IOException {
+		SchemaPersister persister = createPersister();
+		persister.saveSchema("foo", "weopjpjwepfowerf");
+
+		SchemaDetails[] results = persister.saveSchemas(new SubjectSchema[] {
+				new SubjectSchema("foo", "ewfwefwefewfwef"), new SubjectSchema("bar", "weopjpjwepfowerf"),
+				new SubjectSchema("foo", "ergergergerg"),
+				// already in the batch
+				new SubjectSchema("foo", "ewfwefwefewfwef"), });
+		assertEquals(4, results.length);
+		assertEquals(2, results[0].getVersion());
+		assertEquals(1, results[1].getId());
+		assertEquals(1, results[1].getVersion());
+		assertEquals(3, results[2].getVersion());
+		assertEquals(results[0].getId(), results[3].getId());
+		assertEquals(2, results[3].getVersion());
+
+		persister = createPersister();
+		assertArrayEquals(new long[] { 1, 2, 3 }, persister.lookupSubjectVersions("foo"));
+		assertEquals("ergergergerg", persister.lookupSubjectVersion("foo", 3).getSchema());
+		assertArrayEquals(new long[] { 1 }, persister.lookupSubjectVersions("bar"));
+	}
+
+	@Test
+	public void testLookupSchemaDigest() throws IOException {
+		SchemaPersister persister = createPersister();
+		String schema = "{\"type\":\"string\",\"doc\":\"caf\u00e9\"}";
+		SchemaDetails details = persister.saveSchema("foo", schema);
+		// md5 of the UTF-8 bytes
+		byte[] digest = EntityTypeAdapters.hexToDigest("46eace55dfa2fc75c31d0feefa768745");
+		assertArrayEquals(digest, FileSchemaPersister.digestFromSchema(schema));
+
+		persister = createPersister();
+		assertEquals(details.getId(), persister.lookupSchemaDigest(digest).getId());
+		SchemaDetails subjectDetails = persister.lookupSchemaDigest("foo", digest);
+		assertEquals(details.getId(), subjectDetails.getId());
+		assertEquals(1, subjectDetails.getVersion());
+		// found but not in the subject
+		assertEquals(0, persister.lookupSchemaDigest("bar", digest).getVersion());
+		assertNull(persister.lookupSchemaDigest(FileSchemaPersister.digestFromSchema("unknown")));
+		assertNull(persister.lookupSchemaDigest("foo", FileSchemaPersister.digestFromSchema("unknown")));
+	}
+
+	@Test
+	public void testLookupSchemaIdVersions() throws IOException {
+		SchemaPersister persister = createPersister();
+		SchemaDetails details = persister.saveSchema("foo", "weopjpjwepfowerf");
+		persister.saveSchema("foo", "ewfwefwefewfwef");
+		persister.saveSchema("bar", "weopjpjwepfowerf");
+		persister.saveSchema("foo", "weopjpjwepfowerf");
+		persister.saveSchema("baz", "weopjpjwepfowerf");
+		assertNotNull(persister.deleteSubjectVersion("baz", 1, false));
+
+		persister = createPersister();
+		assertArrayEquals(new SubjectVersion[] { new SubjectVersion("bar", 1), new SubjectVersion("foo", 1) },
+				persister.lookupSchemaIdVersions(details.getId()));
+		assertNull(persister.lookupSchemaIdVersions(100));
+
+		// the schema-id is still used by other versions so permanently deleting one of them keeps it
+		assertNotNull(persister.deleteSubjectVersion("baz", 1, true));
+		assertNotNull(persister.lookupSchemaId(details.getId()));
+		assertNotNull(persister.deleteSubjectVersion("bar", 1, false));
+		assertNotNull(persister.deleteSubjectVersion("bar", 1, true));
+		assertArrayEquals(new SubjectVersion[] { new SubjectVersion("foo", 1) },
+				persister.lookupSchemaIdVersions(details.getId()));
+		assertNotNull(persister.deleteSubjectVersion("foo", 1, false));
+		assertArrayEquals(new SubjectVersion[0], persister.lookupSchemaIdVersions(details.getId()));
+		assertNotNull(persister.deleteSubjectVersion("foo", 1, true));
+		assertNull(persister.lookupSchemaId(details.getId()));
+	}
+
+	@Test
+	public void testLatestSubjectVersion() throws IOException {
+		SchemaPersister persister = createPersister();
+		assertNull(persister.lookupLatestSubjectVersion("foo"));
+		persister.saveSchema("foo", "weopjpjwepfowerf");
+		SchemaDetails details2 = persister.saveSchema("foo", "ewfwefwefewfwef");
+		persister.saveSchema("foo", "ergergergerg");
+		assertEquals(3, persister.lookupLatestSubjectVersion("foo").getVersion());
+		assertNotNull(persister.deleteSubjectVersion("foo", 3, false));
+
+		persister = createPersister();
+		SchemaDetails latest = persister.lookupLatestSubjectVersion("foo");
+		assertEquals(2, latest.getVersion());
+		assertEquals(details2.getId(), latest.getId());
+		assertEquals("ewfwefwefewfwef", latest.getSchema());
+		// deleted versions are not reused
+		assertEquals(4, persister.saveSchema("foo", "fwefwefwefwef").getVersion());
+		assertEquals(4, persister.lookupLatestSubjectVersion("foo").getVersion());
+
+		persister.deleteSubject("foo");
+		assertNull(persister.lookupLatestSubjectVersion("foo"));
+	}
+
+	@Test
+	public void testLookupSubjectsPage() throws IOException {
+		SchemaPersister persister = createPersister();
+		for (String subject : new String[] { "foo-3", "bar", "foo-1", "foo-2", "zip", "foo-4" }) {
+			persister.saveSchema(subject, "wefwefwefwef");
+		}
+		assertArrayEquals(new String[] { "bar", "foo-1", "foo-2", "foo-3", "foo-4", "zip" },
+				persister.lookupSubjects(null, null, 0, 0));
+		assertArrayEquals(new String[] { "foo-1", "foo-2", "foo-3", "foo-4" },
+				persister.lookupSubjects("foo", null, 0, 0));
+		assertArrayEquals(new String[] { "foo-2", "foo-3" }, persister.lookupSubjects("foo", null, 1, 2));
+		assertArrayEquals(new String[] { "foo-3", "foo-4" }, persister.lookupSubjects("foo", "foo-2", 0, 0));
+		assertArrayEquals(new String[] { "foo-1", "foo-2" }, persister.lookupSubjects("foo", "a", 0, 2));
+		assertArrayEquals(new String[] { "zip" }, persister.lookupSubjects(null, "foo-4", 0, 5));
+		assertArrayEquals(new String[0], persister.lookupSubjects("foo", "foo-4", 0, 0));
+		assertArrayEquals(new String[0], persister.lookupSubjects("qux", null, 0, 0));
+
+		persister.deleteSubject("foo-2");
+		persister = createPersister();
+		assertArrayEquals(new String[] { "foo-1", "foo-3", "foo-4" }, persister.lookupSubjects("foo", null, 0, 0));
+	}
+
+	@Test
+	public void testDeleteSubjectKeepsVersionNumbers() throws IOException {
+		SchemaPersister persister = createPersister();
+		persister.saveSchema("foo", "wefwefwefwef");
+		persister.saveSchema("foo", "gregregergerg");
+		persister.saveSchema("foo", "hrthrththrth");
+		assertArrayEquals(new long[] { 1, 2, 3 }, persister.deleteSubject("foo"));
+		// the subject can't be found but its versions are not reused
+		assertNull(persister.lookupSubjectVersions("foo"));
+		assertNull(persister.lookupSubjectVersion("foo", 3));
+		assertNull(persister.deleteSubjectVersion("foo", 3, true));
+		assertNull(persister.deleteSubject("foo"));
+		assertArrayEquals(new String[0], persister.lookupSubjects());
+		assertArrayEquals(new String[0], persister.lookupSubjects("foo", null, 0, 0));
+		assertEquals(4, persister.saveSchema("foo", "jytjytjytjyt").getVersion());
+
+		persister.deleteSubject("foo");
+		persister = createPersister();
+		assertEquals(5, persister.saveSchema("foo", "kuykuykuykuy").getVersion());
+	}
+}
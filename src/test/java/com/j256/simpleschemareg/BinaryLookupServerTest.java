@@ -0,0 +1,183 @@
+package com.j256.simpleschemareg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simpleschemareg.entities.SchemaDetails;
+
+public class BinaryLookupServerTest {
+
+	private static final String ROOT_DIR = "target/" + BinaryLookupServerTest.class.getSimpleName();
+
+	private final File rootDir = new File(ROOT_DIR);
+	private FileSchemaPersister persister;
+	private BinaryLookupServer server;
+	private Socket socket;
+	private DataInputStream input;
+	private DataOutputStream output;
+
+	@Before
+	public void before() throws IOException {
+		if (rootDir.isDirectory()) {
+			deleteDir(rootDir);
+		}
+		persister = new FileSchemaPersister(rootDir);
+		persister.initialize();
+		server = new BinaryLookupServer(persister, "localhost", 0, false);
+		server.open();
+		Thread thread = new Thread(server, "binary-lookup-server");
+		thread.setDaemon(true);
+		thread.start();
+		socket = new Socket("localhost", server.getLocalPort());
+		input = new DataInputStream(socket.getInputStream());
+		output = new DataOutputStream(socket.getOutputStream());
+	}
+
+	@After
+	public void after() throws IOException {
+		socket.close();
+		server.stop();
+	}
+
+	@Test
+	public void testLookup() throws IOException {
+		long id1 = persister.saveSchema("foo", "schema1").getId();
+		long id2 = persister.saveSchema("foo", "schéma2").getId();
+		writeRequest(id1, 1000, id2, id1);
+		assertEquals("schema1", readSchema());
+		assertNull(readSchema());
+		assertEquals("schéma2", readSchema());
+		assertEquals("schema1", readSchema());
+
+		// an empty request has no response
+		writeRequest();
+		writeRequest(id2);
+		assertEquals("schéma2", readSchema());
+
+		persister.deleteSchemaId(id2);
+		writeRequest(id2);
+		assertNull(readSchema());
+	}
+
+	@Test
+	public void testPipelinedLargeSchemas() throws IOException {
+		// larger than the connection buffers
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < 200 * 1024; i++) {
+			sb.append("field").append(i).append(',');
+		}
+		String largeSchema = sb.toString();
+		long id = persister.saveSchema("foo", largeSchema).getId();
+		int requestCount = 20;
+		for (int i = 0; i < requestCount; i++) {
+			writeRequest(id, id);
+		}
+		for (int i = 0; i < requestCount * 2; i++) {
+			assertEquals(largeSchema, readSchema());
+		}
+	}
+
+	@Test
+	public void testSplitRequest() throws Exception {
+		long id = persister.saveSchema("foo", "schema1").getId();
+		output.writeShort(0);
+		output.flush();
+		Thread.sleep(50);
+		output.writeShort(1);
+		output.writeInt(0);
+		output.flush();
+		Thread.sleep(50);
+		output.writeInt((int) id);
+		output.flush();
+		assertEquals("schema1", readSchema());
+	}
+
+	@Test(expected = EOFException.class)
+	public void testInvalidCount() throws IOException {
+		output.writeInt(-10);
+		output.flush();
+		input.readInt();
+	}
+
+	@Test
+	public void testPersisterFailure() throws IOException {
+		long id = persister.saveSchema("foo", "schema1").getId();
+		SchemaPersister failing = new FileSchemaPersister(rootDir) {
+			@Override
+			public SchemaDetails lookupSchemaId(long lookupId) {
+				if (lookupId == 1000) {
+					throw new IllegalStateException("lookup failed");
+				}
+				return super.lookupSchemaId(lookupId);
+			}
+		};
+		failing.initialize();
+		BinaryLookupServer failingServer = new BinaryLookupServer(failing, "localhost", 0, false);
+		failingServer.open();
+		Thread thread = new Thread(failingServer, "failing-binary-lookup-server");
+		thread.setDaemon(true);
+		thread.start();
+		try {
+			try (Socket failSocket = new Socket("localhost", failingServer.getLocalPort());) {
+				DataOutputStream failOutput = new DataOutputStream(failSocket.getOutputStream());
+				failOutput.writeInt(1);
+				failOutput.writeLong(1000);
+				failOutput.flush();
+				// the connection is closed
+				assertEquals(-1, failSocket.getInputStream().read());
+			}
+			// but the server keeps serving other connections
+			try (Socket okSocket = new Socket("localhost", failingServer.getLocalPort());) {
+				DataOutputStream okOutput = new DataOutputStream(okSocket.getOutputStream());
+				okOutput.writeInt(1);
+				okOutput.writeLong(id);
+				okOutput.flush();
+				DataInputStream okInput = new DataInputStream(okSocket.getInputStream());
+				assertEquals("schema1".length(), okInput.readInt());
+			}
+		} finally {
+			failingServer.stop();
+		}
+	}
+
+	private void writeRequest(long... ids) throws IOException {
+		output.writeInt(ids.length);
+		for (long id : ids) {
+			output.writeLong(id);
+		}
+		output.flush();
+	}
+
+	private String readSchema() throws IOException {
+		int length = input.readInt();
+		if (length == BinaryLookupServer.NOT_FOUND_LENGTH) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void deleteDir(File dir) {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				deleteDir(file);
+			} else {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
@@ -0,0 +1,89 @@
+package com.j256.simpleschemareg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simpleschemareg.client.SchemaRegistryClient;
+import com.j256.simpleschemareg.entities.SchemaDetails;
+import com.j256.simpleschemareg.entities.SubjectVersion;
+
+public class EmbeddedSchemaRegistryTest {
+
+	private static final String ROOT_DIR = "target/" + EmbeddedSchemaRegistryTest.class.getSimpleName();
+
+	private final File rootDir = new File(ROOT_DIR);
+
+	@Before
+	public void before() {
+		if (rootDir.isDirectory()) {
+			deleteDir(rootDir);
+		}
+	}
+
+	@Test
+	public void testLookups() throws IOException {
+		try (EmbeddedSchemaRegistry registry = new EmbeddedSchemaRegistry(rootDir);) {
+			registry.start();
+			SchemaDetails details = registry.register("foo", "schema1");
+			assertEquals(1, details.getVersion());
+			assertEquals(details.getId(), registry.register("foo", "schema1").getId());
+			registry.register("foo", "schema2");
+
+			// the persister's objects are shared and not copied
+			SchemaDetails byId = registry.lookupSchemaId(details.getId());
+			assertSame(byId, registry.lookupSchemaId(details.getId()));
+			assertEquals("schema1", byId.getSchema());
+			assertSame(byId, registry.lookupSchemaDigest(byId.getDigest()));
+
+			assertArrayEquals(new String[] { "foo" }, registry.lookupSubjects());
+			assertArrayEquals(new long[] { 1, 2 }, registry.lookupSubjectVersions("foo"));
+			assertEquals("schema2", registry.lookupLatestSubjectVersion("foo").getSchema());
+			assertEquals(details.getId(), registry.lookupSubjectVersion("foo", 1).getId());
+			assertEquals(1, registry.lookupSchema("foo", "schema1").getVersion());
+			assertEquals(0, registry.lookupSchema("bar", "schema1").getVersion());
+			assertNull(registry.lookupSchema("foo", "schema3"));
+			assertArrayEquals(new SubjectVersion[] { new SubjectVersion("foo", 1) },
+					registry.lookupSchemaIdVersions(details.getId()));
+		}
+
+		// reload from disk
+		try (EmbeddedSchemaRegistry registry = new EmbeddedSchemaRegistry(rootDir);) {
+			registry.start();
+			assertEquals("schema2", registry.lookupLatestSubjectVersion("foo").getSchema());
+		}
+	}
+
+	@Test
+	public void testHttpAlongside() throws Exception {
+		try (EmbeddedSchemaRegistry registry = new EmbeddedSchemaRegistry(rootDir);) {
+			registry.start();
+			int port = registry.startHttp("localhost", 0);
+			SchemaRegistryClient client = new SchemaRegistryClient("http://localhost:" + port);
+
+			long id = registry.register("foo", "schema1").getId();
+			assertEquals("schema1", client.getSchema(id));
+			long otherId = client.register("bar", "schema2");
+			assertEquals("schema2", registry.lookupSchemaId(otherId).getSchema());
+			assertEquals(1, registry.lookupSubjectVersions("bar").length);
+		}
+	}
+
+	private void deleteDir(File dir) {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				deleteDir(file);
+			} else {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
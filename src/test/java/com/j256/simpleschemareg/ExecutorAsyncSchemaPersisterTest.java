@@ -0,0 +1,192 @@
+package com.j256.simpleschemareg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simpleschemareg.entities.SchemaDetails;
+
+public class ExecutorAsyncSchemaPersisterTest {
+
+	private static final String ROOT_DIR = "target/" + ExecutorAsyncSchemaPersisterTest.class.getSimpleName();
+
+	private final File rootDir = new File(ROOT_DIR);
+	private final CountDownLatch blockLatch = new CountDownLatch(1);
+	private final CountDownLatch blockedLatch = new CountDownLatch(1);
+	private FileSchemaPersister persister;
+	private ExecutorAsyncSchemaPersister asyncPersister;
+	private Server server;
+
+	@Before
+	public void before() throws IOException {
+		if (rootDir.isDirectory()) {
+			deleteDir(rootDir);
+		}
+		persister = new FileSchemaPersister(rootDir) {
+			@Override
+			public SchemaDetails lookupSchemaId(long id) {
+				if (id == 0) {
+					// hold up a persister thread
+					blockedLatch.countDown();
+					try {
+						blockLatch.await();
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+					}
+				} else if (id == 1000) {
+					// fails when the response is written
+					return new SchemaDetails("schema", null, id) {
+						@Override
+						public String getSchema() {
+							throw new IllegalStateException("schema is broken");
+						}
+					};
+				}
+				return super.lookupSchemaId(id);
+			}
+		};
+		persister.initialize();
+	}
+
+	@After
+	public void after() throws Exception {
+		blockLatch.countDown();
+		if (server != null) {
+			server.stop();
+		}
+		if (asyncPersister != null) {
+			asyncPersister.close();
+		}
+	}
+
+	@Test
+	public void testFutures() throws Exception {
+		asyncPersister = new ExecutorAsyncSchemaPersister(persister, 2);
+		SchemaDetails details = asyncPersister.saveSchema("foo", "schema1").get();
+		assertEquals(1, details.getVersion());
+		assertEquals("schema1", asyncPersister.lookupSchemaId(details.getId()).get().getSchema());
+		assertEquals(details.getId(), asyncPersister.lookupSubjectVersion("foo", 1).get().getId());
+		assertEquals(1, asyncPersister.lookupSubjectVersions("foo").get().length);
+		assertEquals(1, asyncPersister.deleteSubject("foo").get().length);
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		FileSchemaPersister readOnly = new FileSchemaPersister(rootDir, true);
+		asyncPersister = new ExecutorAsyncSchemaPersister(readOnly, 1);
+		try {
+			asyncPersister.saveSchema("foo", "schema1").get();
+			fail("should have thrown");
+		} catch (ExecutionException ee) {
+			assertTrue(ee.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testQueueFull() throws Exception {
+		asyncPersister = new ExecutorAsyncSchemaPersister(persister, 1, 1);
+		asyncPersister.lookupSchemaId(0);
+		assertTrue(blockedLatch.await(10, TimeUnit.SECONDS));
+		// fills the queue
+		asyncPersister.lookupSchemaId(1);
+		try {
+			asyncPersister.lookupSchemaId(2).get();
+			fail("should have thrown");
+		} catch (ExecutionException ee) {
+			assertTrue(ee.getCause() instanceof RejectedExecutionException);
+		}
+	}
+
+	@Test
+	public void testAsyncHandler() throws Exception {
+		asyncPersister = new ExecutorAsyncSchemaPersister(persister, 1, 1);
+		SchemaRegHandler handler = new SchemaRegHandler(persister, null, false, false);
+		handler.setAsyncPersister(asyncPersister);
+		server = new Server();
+		server.setHandler(handler);
+		ServerConnector connector = new ServerConnector(server);
+		connector.setHost("localhost");
+		server.addConnector(connector);
+		server.start();
+		String url = "http://localhost:" + connector.getLocalPort();
+
+		assertEquals("{\"id\":1}", request("POST", url + "/subjects/foo/versions", "{\"schema\":\"schema1\"}"));
+		assertEquals("{\"schema\":\"schema1\"}", request("GET", url + "/schemas/ids/1", null));
+		assertEquals("schema1", request("GET", url + "/subjects/foo/versions/1/schema", null));
+		assertEquals("[1]", request("GET", url + "/subjects/foo/versions", null));
+		assertEquals("{\"subject\":\"foo\",\"version\":1,\"id\":1,\"schema\":\"schema1\"}",
+				request("POST", url + "/subjects/foo", "{\"schema\":\"schema1\"}"));
+		assertTrue(request("GET", url + "/subjects/foo/versions/2", null).contains("not found"));
+
+		// larger than the output buffer
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < 200 * 1024; i++) {
+			sb.append("field").append(i).append(',');
+		}
+		String largeSchema = sb.toString();
+		long largeId = persister.saveSchema("bar", largeSchema).getId();
+		assertEquals(largeSchema, request("GET", url + "/schemas/ids/" + largeId + "/schema", null));
+
+		// a failure writing the response is a 500 and not an empty 200
+		assertTrue(request("GET", url + "/schemas/ids/1000/schema", null).contains("schema is broken"));
+
+		// block the persister thread and fill the queue so the next request is turned away
+		asyncPersister.lookupSchemaId(0);
+		assertTrue(blockedLatch.await(10, TimeUnit.SECONDS));
+		asyncPersister.lookupSchemaId(1);
+		assertTrue(request("GET", url + "/schemas/ids/1", null).contains("" + HttpStatus.SERVICE_UNAVAILABLE_503));
+	}
+
+	private String request(String method, String url, String body) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		conn.setRequestMethod(method);
+		if (body != null) {
+			conn.setDoOutput(true);
+			try (OutputStream output = conn.getOutputStream();) {
+				output.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		int status = conn.getResponseCode();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (InputStream input = (status < 400 ? conn.getInputStream() : conn.getErrorStream());) {
+			byte[] buffer = new byte[1024];
+			int len;
+			while ((len = input.read(buffer)) > 0) {
+				bytes.write(buffer, 0, len);
+			}
+		}
+		conn.disconnect();
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private void deleteDir(File dir) {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				deleteDir(file);
+			} else {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
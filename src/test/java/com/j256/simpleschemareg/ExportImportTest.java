@@ -0,0 +1,151 @@
+package com.j256.simpleschemareg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.j256.simpleschemareg.entities.ImportResponse;
+import com.j256.simpleschemareg.entities.SchemaDetails;
+
+public class ExportImportTest {
+
+	private static final String ROOT_DIR = "target/" + ExportImportTest.class.getSimpleName();
+
+	private final Gson gson = new Gson();
+	private final File rootDir = new File(ROOT_DIR);
+	private FileSchemaPersister source;
+	private FileSchemaPersister dest;
+
+	@Before
+	public void before() throws IOException {
+		if (rootDir.isDirectory()) {
+			deleteDir(rootDir);
+		}
+		source = new FileSchemaPersister(new File(rootDir, "source"));
+		source.initialize();
+		dest = new FileSchemaPersister(new File(rootDir, "dest"));
+		dest.initialize();
+	}
+
+	@Test
+	public void testExportImport() throws IOException {
+		SchemaDetails details1 = source.saveSchema("foo", "schema1");
+		SchemaDetails details2 = source.saveSchema("foo", "schema2");
+		source.saveSchema("bar", "schema1");
+		SchemaDetails details3 = source.saveSchema("bar", "schema3");
+		source.deleteSubjectVersion("bar", 1, false);
+		// unreferenced schemas are exported as well
+		source.saveSchema(null, 0, 100, "schema4");
+
+		StubResponse response = handle(new SchemaRegHandler(source, null, false, false), "GET", "/export", null);
+		assertEquals(HttpStatus.OK_200, response.getStatus());
+		assertEquals("application/x-ndjson", response.getContentType());
+		String export = response.getOutput();
+		assertEquals(4 + 3, export.split("\n").length);
+
+		SchemaRegHandler destHandler = new SchemaRegHandler(dest, null, false, false);
+		response = handle(destHandler, "POST", "/import", export);
+		assertEquals(HttpStatus.OK_200, response.getStatus());
+		ImportResponse importResponse = gson.fromJson(response.getOutput(), ImportResponse.class);
+		assertEquals(4, importResponse.getSchemaCount());
+		assertEquals(3, importResponse.getVersionCount());
+
+		assertArrayEquals(new String[] { "bar", "foo" }, dest.lookupSubjects());
+		assertArrayEquals(new long[] { 1, 2 }, dest.lookupSubjectVersions("foo"));
+		assertEquals(details2.getId(), dest.lookupSubjectVersion("foo", 2).getId());
+		assertEquals("schema1", dest.lookupSubjectVersion("foo", 1).getSchema());
+		assertArrayEquals(new long[] { 2 }, dest.lookupSubjectVersions("bar"));
+		assertEquals(details3.getId(), dest.lookupSubjectVersion("bar", 2).getId());
+		assertEquals("schema4", dest.lookupSchemaId(100).getSchema());
+		assertEquals(details1.getId(), dest.lookupSchema("schema1").getId());
+
+		// the files are written so a new persister sees the same registry
+		FileSchemaPersister reloaded = new FileSchemaPersister(new File(rootDir, "dest"));
+		reloaded.initialize();
+		assertArrayEquals(new long[] { 1, 2 }, reloaded.lookupSubjectVersions("foo"));
+		assertEquals("schema4", reloaded.lookupSchemaId(100).getSchema());
+		// new schemas don't reuse the imported ids
+		assertTrue(reloaded.saveSchema("baz", "schema5").getId() > 100);
+
+		// importing again changes nothing
+		response = handle(destHandler, "POST", "/import", export);
+		assertEquals(HttpStatus.OK_200, response.getStatus());
+		importResponse = gson.fromJson(response.getOutput(), ImportResponse.class);
+		assertEquals(0, importResponse.getSchemaCount());
+		assertEquals(0, importResponse.getVersionCount());
+		assertArrayEquals(new long[] { 1, 2 }, dest.lookupSubjectVersions("foo"));
+	}
+
+	@Test
+	public void testImportSchemaIdConflict() throws IOException {
+		long id = dest.saveSchema("foo", "schema1").getId();
+		String body = "{\"id\":" + id + ",\"schema\":\"schema2\"}\n{\"subject\":\"bar\",\"version\":1,\"id\":" + id
+				+ "}\n";
+		StubResponse response = handle(new SchemaRegHandler(dest, null, false, false), "POST", "/import", body);
+		assertEquals(HttpStatus.CONFLICT_409, response.getStatus());
+		assertTrue(response.getOutput(), response.getOutput().contains("schema-id " + id));
+		// the version is not bound to the other schema
+		assertNull(dest.lookupSubjectVersions("bar"));
+		assertEquals("schema1", dest.lookupSchemaId(id).getSchema());
+	}
+
+	@Test
+	public void testImportSubjectVersionConflict() throws IOException {
+		long id = dest.saveSchema("foo", "schema1").getId();
+		String body = "{\"id\":100,\"schema\":\"schema2\"}\n{\"subject\":\"foo\",\"version\":1,\"id\":100}\n";
+		StubResponse response = handle(new SchemaRegHandler(dest, null, false, false), "POST", "/import", body);
+		assertEquals(HttpStatus.CONFLICT_409, response.getStatus());
+		assertTrue(response.getOutput(), response.getOutput().contains("already registered with schema-id " + id));
+		assertEquals(id, dest.lookupSubjectVersion("foo", 1).getId());
+		assertNull(dest.lookupSchemaId(100));
+	}
+
+	@Test
+	public void testImportInvalidLine() throws IOException {
+		String body = "{\"id\":1,\"schema\":\"schema1\"}\n\n{\"subject\":\"foo\",\"version\":1,\"id\":1}\nnot-json\n"
+				+ "{\"subject\":\"foo\",\"version\":2,\"id\":1}\n";
+		StubResponse response = handle(new SchemaRegHandler(dest, null, false, false), "POST", "/import", body);
+		assertEquals(HttpStatus.BAD_REQUEST_400, response.getStatus());
+		assertTrue(response.getOutput(), response.getOutput().contains("line 4"));
+		// the lines before the bad one are saved
+		assertArrayEquals(new long[] { 1 }, dest.lookupSubjectVersions("foo"));
+	}
+
+	@Test
+	public void testImportReadOnly() throws IOException {
+		SchemaRegHandler handler = new SchemaRegHandler(dest, null, false, false);
+		handler.setReadOnly(true);
+		StubResponse response = handle(handler, "POST", "/import", "{\"id\":1,\"schema\":\"schema1\"}\n");
+		assertEquals(HttpStatus.METHOD_NOT_ALLOWED_405, response.getStatus());
+		assertNull(dest.lookupSchemaId(1));
+	}
+
+	private StubResponse handle(SchemaRegHandler handler, String method, String path, String body)
+			throws IOException {
+		StubRequest request = new StubRequest(method, path);
+		request.setBody(body);
+		StubResponse response = new StubResponse();
+		handler.handle(path, request, request, response);
+		return response;
+	}
+
+	private void deleteDir(File dir) {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				deleteDir(file);
+			} else {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
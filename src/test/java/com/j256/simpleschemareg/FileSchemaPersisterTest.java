@@ -2,18 +2,28 @@ package com.j256.simpleschemareg;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.j256.simpleschemareg.entities.EntityTypeAdapters;
 import com.j256.simpleschemareg.entities.SchemaDetails;
 
-public class FileSchemaPersisterTest {
+public class FileSchemaPersisterTest extends BaseSchemaPersisterTest {
 
 	private static final String SCHEMAS_ROOT_DIR = "target/" + FileSchemaPersisterTest.class.getSimpleName();
 	private File schemaRoot = new File(SCHEMAS_ROOT_DIR);
@@ -27,160 +37,220 @@ public class FileSchemaPersisterTest {
 		}
 	}
 
-	@Test
-	public void testStuff() throws IOException {
+	@Override
+	protected SchemaPersister createPersister() throws IOException {
 		FileSchemaPersister persister = new FileSchemaPersister(schemaRoot);
 		persister.initialize();
+		return persister;
+	}
 
-		assertArrayEquals(new String[] {}, persister.lookupSubjects());
-		assertNull(persister.lookupSchemaId(1));
-
-		String subject1 = "foo";
-		String schema1 = "weopjpjwepfowerf";
-		assertNull(persister.lookupSchema(schema1));
-
-		assertNull(persister.lookupSchema(subject1, schema1));
-		assertNull(persister.lookupSubjectVersions(subject1));
-
-		SchemaDetails details = persister.saveSchema(subject1, schema1);
-		assertNotNull(details);
-		assertEquals(schema1, details.getSchema());
-		assertEquals(1, details.getId());
-		assertEquals(1, details.getVersion());
-
-		assertArrayEquals(new long[] { 1 }, persister.lookupSubjectVersions(subject1));
-
-		details = persister.lookupSchemaId(details.getId());
-		assertEquals(1, details.getId());
-
-		details = persister.lookupSchema(schema1);
-		assertEquals(1, details.getId());
-		// no version info
-		assertEquals(0, details.getVersion());
-
-		details = persister.lookupSchema(subject1, schema1);
-		assertNotNull(details);
-		assertEquals(1, details.getId());
-		assertEquals(1, details.getVersion());
+	@Test
+	public void testLegacyIdFile() throws IOException {
+		String schema = "weopjpjwepfowerf";
+		byte[] digest = digestFromSchema(schema);
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"schema\":\"").append(schema).append("\",\"digest\":[");
+		for (int i = 0; i < digest.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			// older versions wrote the digest as an array of signed bytes
+			sb.append(digest[i]);
+		}
+		sb.append("],\"id\":5}");
+		File idsDir = new File(schemaRoot, "id");
+		idsDir.mkdirs();
+		try (Writer writer = new FileWriter(new File(idsDir, "5"));) {
+			writer.write(sb.toString());
+		}
 
-		assertArrayEquals(new String[] { subject1 }, persister.lookupSubjects());
+		FileSchemaPersister persister = new FileSchemaPersister(schemaRoot);
+		persister.initialize();
 
-		// save again
-		details = persister.saveSchema(subject1, schema1);
+		SchemaDetails details = persister.lookupSchemaId(5);
 		assertNotNull(details);
-
-		assertEquals(schema1, details.getSchema());
-		assertEquals(1, details.getId());
-
-		// save different schema to different subject
-		String subject2 = "bar";
-		String schema2 = "rgergergergerg";
-		details = persister.saveSchema(subject2, schema2);
+		assertEquals(schema, details.getSchema());
+		assertArrayEquals(digest, details.getDigest());
+		details = persister.lookupSchema(schema);
 		assertNotNull(details);
-		assertEquals(schema2, details.getSchema());
-		assertEquals(2, details.getId());
-		assertEquals(1, details.getVersion());
+		assertEquals(5, details.getId());
 
-		assertArrayEquals(new String[] { subject2, subject1 }, persister.lookupSubjects());
+		// new schemas get the next id
+		details = persister.saveSchema("foo", "ewfwefwefewfwef");
+		assertEquals(6, details.getId());
+		assertTrue(IdRecordFormat.isBinary(Files.readAllBytes(new File(schemaRoot, "ids/0/6").toPath())));
 
-		// save different schema to different subject
-		SchemaDetails details2 = persister.saveSchema(subject2, schema1);
-		assertNotNull(details);
-		assertEquals(1, details2.getId());
-		assertEquals(2, details2.getVersion());
-
-		/*
-		 * Now start a new one reading in the files from disk.
-		 */
+		// convert the legacy file which the second time around is a no-op
+		assertEquals(1, persister.migrateIdFiles());
+		assertEquals(0, persister.migrateIdFiles());
+		assertTrue(IdRecordFormat.isBinary(Files.readAllBytes(new File(idsDir, "5").toPath())));
 
 		persister = new FileSchemaPersister(schemaRoot);
 		persister.initialize();
-
-		SchemaDetails details3 = persister.saveSchema(subject2, schema1);
+		details = persister.lookupSchemaId(5);
 		assertNotNull(details);
-		assertEquals(1, details3.getId());
-		assertEquals(2, details3.getVersion());
-
-		assertNotNull(persister.lookupSubjectVersion(subject2, 1));
-		SchemaDetails results = persister.deleteSubjectVersion(subject2, 1, false);
-		assertEquals(details.getId(), results.getId());
-		assertEquals(details.getVersion(), results.getVersion());
-
-		assertNull(persister.lookupSubjectVersion(subject2, 1));
-		assertNotNull(persister.lookupSubjectVersion(subject2, 2));
-
-		assertArrayEquals(new long[] { 2 }, persister.deleteSubject(subject2));
-		assertNull(persister.lookupSubjectVersion(subject2, 2));
+		assertEquals(schema, details.getSchema());
+		assertArrayEquals(digest, details.getDigest());
+	}
 
-		assertArrayEquals(new String[] { subject2, subject1 }, persister.lookupSubjects());
+	@Test
+	public void testCorruptIdFile() throws IOException {
+		FileSchemaPersister persister = new FileSchemaPersister(schemaRoot);
+		persister.initialize();
+		SchemaDetails details = persister.saveSchema("foo", "weopjpjwepfowerf");
+		persister.saveSchema("foo", "ewfwefwefewfwef");
 
-		/*
-		 * Now start a new one reading in the files from disk.
-		 */
+		// flip a bit in the schema of the first record
+		Path idPath = new File(new File(schemaRoot, "ids/0"), Long.toString(details.getId())).toPath();
+		byte[] bytes = Files.readAllBytes(idPath);
+		bytes[bytes.length - 5] ^= 1;
+		Files.write(idPath, bytes);
 
 		persister = new FileSchemaPersister(schemaRoot);
 		persister.initialize();
-
-		// now really blow it away
-		results = persister.deleteSubjectVersion(subject2, 1, true);
-		assertNotNull(results);
-		assertEquals(details.getId(), results.getId());
-		assertEquals(details.getVersion(), results.getVersion());
-
-		assertArrayEquals(new String[] { subject1 }, persister.lookupSubjects());
+		assertNull(persister.lookupSchemaId(details.getId()));
+		assertNotNull(persister.lookupSchemaId(details.getId() + 1));
 	}
 
 	@Test
-	public void testDeleteSchemaId() throws IOException {
-		FileSchemaPersister persister = new FileSchemaPersister(schemaRoot);
-		persister.initialize();
+	public void testMigrationToolOnlyIdFiles() throws IOException {
+		String schema = "weopjpjwepfowerf";
+		File idsDir = new File(schemaRoot, "id");
+		idsDir.mkdirs();
+		File idFile = new File(idsDir, "5");
+		Files.write(idFile.toPath(), ("{\"schema\":\"" + schema + "\",\"digest\":\""
+				+ EntityTypeAdapters.digestToHex(digestFromSchema(schema)) + "\",\"id\":5}")
+						.getBytes(StandardCharsets.UTF_8));
+		File subjectDir = new File(new File(schemaRoot, "subject"), "foo");
+		subjectDir.mkdirs();
+		File linkFile = new File(subjectDir, "1");
+		Files.createSymbolicLink(linkFile.toPath(), new File("id_5").toPath());
+
+		IdFileMigration.main(new String[] { schemaRoot.getPath() });
+		assertTrue(IdRecordFormat.isBinary(Files.readAllBytes(idFile.toPath())));
+		// the symlink subject is left for the server to convert
+		assertTrue(Files.isSymbolicLink(linkFile.toPath()));
+		assertFalse(new File(subjectDir, "manifest").exists());
+	}
 
+	@Test
+	public void testFlatLayout() throws IOException {
 		String subject = "foo";
 		String schema = "weopjpjwepfowerf";
+		// older versions stored the id files and subjects in flat directories
+		File idsDir = new File(schemaRoot, "id");
+		idsDir.mkdirs();
+		Files.write(new File(idsDir, "5").toPath(),
+				IdRecordFormat.encode(new SchemaDetails(schema, digestFromSchema(schema), 5)));
+		File subjectDir = new File(new File(schemaRoot, "subject"), subject);
+		subjectDir.mkdirs();
+		Files.createSymbolicLink(new File(subjectDir, "1").toPath(), new File("id_5").toPath());
+
+		FileSchemaPersister persister = new FileSchemaPersister(schemaRoot);
+		persister.initialize();
 
-		SchemaDetails details = persister.saveSchema(subject, schema);
+		SchemaDetails details = persister.lookupSubjectVersion(subject, 1);
+		assertNotNull(details);
+		assertEquals(5, details.getId());
+		details = persister.lookupSchema(subject, schema);
 		assertNotNull(details);
-		assertEquals(schema, details.getSchema());
-		assertEquals(1, details.getId());
 		assertEquals(1, details.getVersion());
 
-		assertArrayEquals(new long[] { 1 }, persister.lookupSubjectVersions(subject));
-
-		persister.deleteSchemaId(1);
-
-		// dangling
-		assertArrayEquals(new long[] { 1 }, persister.lookupSubjectVersions(subject));
-
-		assertNull(persister.lookupSubjectVersion(subject, 1));
+		// new versions of the flat subject stay in its directory but new subjects are sharded
+		String schema2 = "ewfwefwefewfwef";
+		details = persister.saveSchema(subject, schema2);
+		assertEquals(6, details.getId());
+		assertEquals(2, details.getVersion());
+		// the version symlinks have been converted into a manifest
+		assertTrue(new File(subjectDir, "manifest").exists());
+		assertTrue(!Files.isSymbolicLink(new File(subjectDir, "1").toPath()));
+		details = persister.saveSchema("bar", schema2);
+		assertEquals(6, details.getId());
+		assertEquals(1, details.getVersion());
+		assertArrayEquals(new String[] { "bar", subject }, persister.lookupSubjects());
+		assertArrayEquals(new long[] { 1 }, persister.lookupSubjectVersions("bar"));
 
-		assertArrayEquals(new long[] {}, persister.lookupSubjectVersions(subject));
+		persister.deleteSchemaId(5);
+		assertNull(persister.lookupSchemaId(5));
+		assertTrue(!new File(idsDir, "5").exists());
 	}
 
 	@Test
-	public void testSubjectVersionPermanent() throws IOException {
+	public void testReclaim() throws IOException {
 		FileSchemaPersister persister = new FileSchemaPersister(schemaRoot);
 		persister.initialize();
 
-		String subject = "foo";
-		String schema = "weopjpjwepfowerf";
-
-		SchemaDetails details = persister.saveSchema(subject, schema);
-		assertNotNull(details);
-		assertEquals(schema, details.getSchema());
-		assertEquals(1, details.getId());
-		assertEquals(1, details.getVersion());
+		String schema1 = "weopjpjwepfowerf";
+		String schema2 = "ewfwefwefewfwef";
+		persister.saveSchema("foo", schema1);
+		persister.saveSchema("foo", schema2);
+		persister.saveSchema("bar", schema1);
+		assertNotNull(persister.deleteSubjectVersion("foo", 1, false));
+		assertArrayEquals(new long[] { 1 }, persister.deleteSubject("bar"));
+		File idFile = new File(schemaRoot, "ids/0/1");
+		assertTrue(idFile.exists());
+
+		// nothing is old enough yet
+		ReclaimStats stats = persister.reclaim(60 * 60 * 1000);
+		assertEquals(0, stats.getVersionCount());
+		assertEquals(0, stats.getIdCount());
+		assertTrue(idFile.exists());
+
+		stats = persister.reclaim(0);
+		assertEquals(1, stats.getVersionCount());
+		assertEquals(1, stats.getIdCount());
+		assertTrue(stats.getByteCount() > 0);
+		assertTrue(!idFile.exists());
+		assertNull(persister.lookupSchemaId(1));
+		assertNull(persister.lookupSchema(schema1));
+		assertNotNull(persister.lookupSchemaId(2));
 
-		SchemaDetails details2 = persister.deleteSubjectVersion(subject, details.getVersion(), false);
-		assertEquals(details.getId(), details2.getId());
+		// the deleted version is gone but its number is still not reused
+		persister = new FileSchemaPersister(schemaRoot);
+		persister.initialize();
+		assertNull(persister.lookupSubjectVersion("foo", 1));
+		assertNull(persister.deleteSubjectVersion("foo", 1, true));
+		assertArrayEquals(new long[] { 2 }, persister.lookupSubjectVersions("foo"));
+		assertEquals(3, persister.saveSchema("foo", schema1).getVersion());
+		assertEquals(0, persister.reclaim(0).getIdCount());
+	}
 
-		assertNull(persister.deleteSubjectVersion(subject, details.getVersion(), false));
-		assertNotNull(persister.lookupSchemaId(details.getId()));
+	@Test
+	public void testReclaimLegacyDeleted() throws IOException {
+		FileSchemaPersister persister = new FileSchemaPersister(schemaRoot);
+		persister.initialize();
+		persister.saveSchema("foo", "weopjpjwepfowerf");
+		persister.saveSchema("foo", "ewfwefwefewfwef");
+		persister.deleteSubjectVersion("foo", 1, false);
+
+		// older manifests did not have the deleted time
+		File manifestFile = null;
+		for (File shardDir : new File(schemaRoot, "subjects").listFiles()) {
+			if (new File(shardDir, "foo").exists()) {
+				manifestFile = new File(new File(shardDir, "foo"), "manifest");
+			}
+		}
+		assertNotNull(manifestFile);
+		Files.write(manifestFile.toPath(), "1 1 deleted\n2 2 live\n".getBytes());
+		persister = new FileSchemaPersister(schemaRoot);
+		persister.initialize();
 
-		details2 = persister.deleteSubjectVersion(subject, details.getVersion(), true);
-		assertNotNull(details2);
-		assertEquals(details.getId(), details2.getId());
+		// the first pass gives it a deleted time and the grace period starts then
+		ReclaimStats stats = persister.reclaim(60 * 60 * 1000);
+		assertEquals(0, stats.getVersionCount());
+		String firstLine = new String(Files.readAllBytes(manifestFile.toPath())).split("\n")[0];
+		assertEquals(4, firstLine.split(" ").length);
+		stats = persister.reclaim(0);
+		assertEquals(1, stats.getVersionCount());
+		assertEquals(1, stats.getIdCount());
+	}
 
-		assertNull(persister.lookupSchemaId(details.getId()));
+	private byte[] digestFromSchema(String schema) {
+		try {
+			return MessageDigest.getInstance("md5").digest(schema.getBytes());
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException(nsae);
+		}
 	}
 
 	private void deleteDir(File dir) {
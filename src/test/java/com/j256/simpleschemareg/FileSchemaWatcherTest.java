@@ -0,0 +1,145 @@
+package com.j256.simpleschemareg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simpleschemareg.entities.SchemaDetails;
+
+public class FileSchemaWatcherTest {
+
+	private static final String SCHEMAS_ROOT_DIR = "target/" + FileSchemaWatcherTest.class.getSimpleName();
+	private static final long WAIT_MILLIS = 10000;
+
+	private final File schemaRoot = new File(SCHEMAS_ROOT_DIR);
+	private FileSchemaWatcher watcher;
+
+	@Before
+	public void before() {
+		if (schemaRoot.isDirectory()) {
+			deleteDir(schemaRoot);
+		}
+	}
+
+	@After
+	public void after() {
+		if (watcher != null) {
+			watcher.stop();
+		}
+	}
+
+	@Test
+	public void testWatch() throws Exception {
+		FileSchemaPersister writer = new FileSchemaPersister(schemaRoot);
+		writer.initialize();
+		SchemaDetails details1 = writer.saveSchema("foo", "schema1");
+
+		FileSchemaPersister replica = new FileSchemaPersister(schemaRoot, true);
+		replica.initialize();
+		assertEquals(details1.getId(), replica.lookupSubjectVersion("foo", 1).getId());
+
+		// long rescan so the changes have to come from the watch events
+		watcher = new FileSchemaWatcher(replica, 600000);
+		Thread thread = new Thread(watcher);
+		thread.setDaemon(true);
+		thread.start();
+
+		final SchemaDetails details2 = writer.saveSchema("bar", "schema2");
+		waitFor(replica, new Condition() {
+			@Override
+			public boolean isTrue(FileSchemaPersister persister) throws IOException {
+				return persister.lookupSubjectVersion("bar", 1) != null;
+			}
+		});
+		assertEquals(details2.getId(), replica.lookupSubjectVersion("bar", 1).getId());
+		assertNotNull(replica.lookupSchema("schema2"));
+		assertArrayEquals(new String[] { "bar", "foo" }, replica.lookupSubjects());
+
+		writer.saveSchema("foo", "schema3");
+		writer.deleteSubjectVersion("foo", 1, false);
+		waitFor(replica, new Condition() {
+			@Override
+			public boolean isTrue(FileSchemaPersister persister) {
+				long[] versions = persister.lookupSubjectVersions("foo");
+				return versions != null && versions.length == 1 && versions[0] == 2;
+			}
+		});
+
+		writer.deleteSubjectVersion("foo", 1, true);
+		waitFor(replica, new Condition() {
+			@Override
+			public boolean isTrue(FileSchemaPersister persister) {
+				return persister.lookupSchemaId(1) == null;
+			}
+		});
+		assertNull(replica.lookupSchema("schema1"));
+	}
+
+	@Test
+	public void testRescan() throws Exception {
+		FileSchemaPersister writer = new FileSchemaPersister(schemaRoot);
+		writer.initialize();
+		writer.saveSchema("foo", "schema1");
+
+		FileSchemaPersister replica = new FileSchemaPersister(schemaRoot, true);
+		replica.initialize();
+
+		writer.saveSchema("bar", "schema2");
+		writer.deleteSubject("foo");
+		assertNull(replica.lookupSubjectVersions("bar"));
+		replica.rescan();
+		assertArrayEquals(new long[] { 1 }, replica.lookupSubjectVersions("bar"));
+		assertNull(replica.lookupSubjectVersions("foo"));
+		assertEquals("schema2", replica.lookupSubjectVersion("bar", 1).getSchema());
+	}
+
+	@Test
+	public void testReadOnly() throws Exception {
+		FileSchemaPersister replica = new FileSchemaPersister(schemaRoot, true);
+		replica.initialize();
+		assertTrue(replica.isReadOnly());
+		try {
+			replica.saveSchema("foo", "schema1");
+			fail("should have thrown");
+		} catch (IllegalStateException ise) {
+			// expected
+		}
+		assertNull(replica.lookupSchema("schema1"));
+		assertTrue(!schemaRoot.exists());
+	}
+
+	private void waitFor(FileSchemaPersister persister, Condition condition) throws Exception {
+		long endMillis = System.currentTimeMillis() + WAIT_MILLIS;
+		while (!condition.isTrue(persister)) {
+			if (System.currentTimeMillis() > endMillis) {
+				fail("replica did not see the change in " + WAIT_MILLIS + "ms");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private void deleteDir(File dir) {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				deleteDir(file);
+			} else {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private interface Condition {
+		boolean isTrue(FileSchemaPersister persister) throws IOException;
+	}
+}
@@ -0,0 +1,93 @@
+package com.j256.simpleschemareg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simpleschemareg.entities.SchemaDetails;
+
+public class JdbcSchemaPersisterTest extends BaseSchemaPersisterTest {
+
+	private static final String DB_DIR = "target/" + JdbcSchemaPersisterTest.class.getSimpleName();
+	private static final String JDBC_URL = "jdbc:h2:./" + DB_DIR + "/registry";
+
+	private final File dbDir = new File(DB_DIR);
+	private final List<JdbcSchemaPersister> persisters = new ArrayList<>();
+
+	@Before
+	public void before() {
+		if (dbDir.isDirectory()) {
+			deleteDir(dbDir);
+		}
+	}
+
+	@After
+	public void after() {
+		// the database is closed when its last connection is closed
+		for (JdbcSchemaPersister persister : persisters) {
+			persister.close();
+		}
+	}
+
+	@Override
+	protected SchemaPersister createPersister() throws IOException {
+		JdbcSchemaPersister persister = new JdbcSchemaPersister(JDBC_URL, 2);
+		persister.initialize();
+		persisters.add(persister);
+		return persister;
+	}
+
+	@Test
+	public void testCopyFrom() throws IOException {
+		File fileRoot = new File(dbDir, "files");
+		FileSchemaPersister filePersister = new FileSchemaPersister(fileRoot);
+		filePersister.initialize();
+		for (int i = 0; i < 2500; i++) {
+			filePersister.saveSchema("subject" + (i % 10), "schema" + i);
+		}
+		filePersister.deleteSubjectVersion("subject0", 1, false);
+
+		JdbcSchemaPersister persister = (JdbcSchemaPersister) createPersister();
+		assertEquals(2500, persister.copyFrom(filePersister));
+		assertEquals(10, persister.lookupSubjects().length);
+		assertEquals(249, persister.lookupSubjectVersions("subject0").length);
+		assertEquals(250, persister.lookupSubjectVersions("subject9").length);
+		SchemaDetails details = persister.lookupSubjectVersion("subject3", 7);
+		assertNotNull(details);
+		assertEquals(filePersister.lookupSubjectVersion("subject3", 7).getId(), details.getId());
+		assertArrayEquals(filePersister.lookupSchemaId(2000).getDigest(), persister.lookupSchemaId(2000).getDigest());
+
+		// new schemas carry on from the copied ids
+		details = persister.saveSchema("subject3", "new schema");
+		assertEquals(2501, details.getId());
+		assertEquals(251, details.getVersion());
+
+		try {
+			persister.copyFrom(filePersister);
+			fail("should have thrown");
+		} catch (IOException ioe) {
+			// expected
+		}
+	}
+
+	private void deleteDir(File dir) {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				deleteDir(file);
+			} else {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
@@ -0,0 +1,244 @@
+package com.j256.simpleschemareg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simpleschemareg.entities.SchemaDetails;
+import com.j256.simpleschemareg.entities.SubjectVersion;
+
+public class LeasedSchemaIdAllocatorTest {
+
+	private static final String SCHEMAS_ROOT_DIR = "target/" + LeasedSchemaIdAllocatorTest.class.getSimpleName();
+	private static final int BLOCK_SIZE = 10;
+
+	private final File schemaRoot = new File(SCHEMAS_ROOT_DIR);
+	private final File leaseFile = new File(schemaRoot, LeasedSchemaIdAllocator.DEFAULT_LEASE_FILE_NAME);
+
+	@Before
+	public void before() {
+		if (schemaRoot.isDirectory()) {
+			deleteDir(schemaRoot);
+		}
+		schemaRoot.mkdirs();
+	}
+
+	@Test
+	public void testBlocks() throws IOException {
+		LeasedSchemaIdAllocator allocator1 = new LeasedSchemaIdAllocator(leaseFile, BLOCK_SIZE);
+		LeasedSchemaIdAllocator allocator2 = new LeasedSchemaIdAllocator(leaseFile, BLOCK_SIZE);
+		assertEquals(1, allocator1.nextId());
+		assertEquals(11, allocator2.nextId());
+		assertEquals(2, allocator1.nextId());
+		for (int i = 3; i <= BLOCK_SIZE; i++) {
+			assertEquals(i, allocator1.nextId());
+		}
+		// block is used up
+		assertEquals(21, allocator1.nextId());
+
+		// ids written before the lease file existed are skipped
+		LeasedSchemaIdAllocator allocator3 = new LeasedSchemaIdAllocator(leaseFile, BLOCK_SIZE);
+		allocator3.observeId(100);
+		assertEquals(101, allocator3.nextId());
+		assertEquals(12, allocator2.nextId());
+	}
+
+	@Test
+	public void testPersister() throws IOException {
+		FileSchemaPersister persister1 =
+				new FileSchemaPersister(schemaRoot, new LeasedSchemaIdAllocator(leaseFile, BLOCK_SIZE));
+		persister1.initialize();
+		FileSchemaPersister persister2 =
+				new FileSchemaPersister(schemaRoot, new LeasedSchemaIdAllocator(leaseFile, BLOCK_SIZE));
+		persister2.initialize();
+		assertEquals(1, persister1.saveSchema("foo", "schema1").getId());
+		assertEquals(11, persister2.saveSchema("bar", "schema2").getId());
+
+		// a restarted writer skips the rest of its old block
+		persister1 = new FileSchemaPersister(schemaRoot, new LeasedSchemaIdAllocator(leaseFile, BLOCK_SIZE));
+		persister1.initialize();
+		SchemaDetails details = persister1.saveSchema("foo", "schema3");
+		assertEquals(21, details.getId());
+		assertEquals(2, details.getVersion());
+	}
+
+	@Test
+	public void testPersisterStaleCache() throws IOException {
+		FileSchemaPersister persister1 =
+				new FileSchemaPersister(schemaRoot, new LeasedSchemaIdAllocator(leaseFile, BLOCK_SIZE));
+		persister1.initialize();
+		FileSchemaPersister persister2 =
+				new FileSchemaPersister(schemaRoot, new LeasedSchemaIdAllocator(leaseFile, BLOCK_SIZE));
+		persister2.initialize();
+
+		SchemaDetails details1 = persister1.saveSchema("foo", "schema1");
+		// the other writer's version is not overwritten
+		assertEquals(2, persister2.saveSchema("foo", "schema2").getVersion());
+		assertEquals(3, persister1.saveSchema("foo", "schema3").getVersion());
+		// the other writer's schema-id is reused for the same schema
+		assertEquals(details1.getId(), persister2.saveSchema("bar", "schema1").getId());
+		assertEquals(details1.getId(), persister2.saveSchema("foo", "schema1").getId());
+		assertEquals(1, persister2.saveSchema("foo", "schema1").getVersion());
+		try {
+			persister2.saveSchema("baz", 1, persister1.lookupSchema("schema3").getId(), "schema4");
+			fail("should have thrown");
+		} catch (SchemaIdConflictException sice) {
+			// expected
+		}
+		assertArrayEquals(new long[] { 1, 2, 3 }, persister2.deleteSubject("foo"));
+		assertEquals(4, persister1.saveSchema("foo", "schema5").getVersion());
+
+		FileSchemaPersister persister = new FileSchemaPersister(schemaRoot);
+		persister.initialize();
+		assertArrayEquals(new long[] { 4 }, persister.lookupSubjectVersions("foo"));
+		assertArrayEquals(new long[] { 1 }, persister.lookupSubjectVersions("bar"));
+		assertArrayEquals(new SubjectVersion[] { new SubjectVersion("bar", 1) },
+				persister.lookupSchemaIdVersions(details1.getId()));
+	}
+
+	@Test
+	public void testPermanentDeleteSharedId() throws IOException {
+		FileSchemaPersister persister1 =
+				new FileSchemaPersister(schemaRoot, new LeasedSchemaIdAllocator(leaseFile, BLOCK_SIZE));
+		persister1.initialize();
+		FileSchemaPersister persister2 =
+				new FileSchemaPersister(schemaRoot, new LeasedSchemaIdAllocator(leaseFile, BLOCK_SIZE));
+		persister2.initialize();
+
+		long id = persister1.saveSchema("foo", "schema1").getId();
+		// found in the digest index
+		assertEquals(id, persister2.saveSchema("bar", "schema1").getId());
+		assertNotNull(persister1.deleteSubjectVersion("foo", 1, false));
+		assertNotNull(persister1.deleteSubjectVersion("foo", 1, true));
+		// the other writer's version still uses it
+		assertNotNull(persister1.lookupSchemaId(id));
+		assertEquals(id, persister2.lookupSubjectVersion("bar", 1).getId());
+
+		assertNotNull(persister2.deleteSubjectVersion("bar", 1, false));
+		assertNotNull(persister2.deleteSubjectVersion("bar", 1, true));
+		assertNull(persister2.lookupSchemaId(id));
+		// the other writer's cache is stale but the deleted schema-id is not reused
+		SchemaDetails details = persister1.saveSchema("baz", "schema1");
+		assertTrue(details.getId() != id);
+		assertEquals(details.getId(), persister2.saveSchema("qux", "schema1").getId());
+
+		FileSchemaPersister persister = new FileSchemaPersister(schemaRoot);
+		persister.initialize();
+		assertNull(persister.lookupSchemaId(id));
+		assertEquals(details.getId(), persister.lookupSchema("schema1").getId());
+	}
+
+	@Test(timeout = 120000)
+	public void testMultipleProcesses() throws Exception {
+		int numProcesses = 4;
+		int numSchemas = 200;
+		Set<Long> ids = runWriters(numProcesses, numSchemas, null);
+		assertEquals(numProcesses * numSchemas, ids.size());
+
+		FileSchemaPersister persister = new FileSchemaPersister(schemaRoot);
+		persister.initialize();
+		for (long id : ids) {
+			assertEquals(id, persister.lookupSchemaId(id).getId());
+		}
+		assertEquals(numProcesses, persister.lookupSubjects().length);
+	}
+
+	@Test(timeout = 120000)
+	public void testMultipleProcessesSameSubject() throws Exception {
+		int numProcesses = 4;
+		int numSchemas = 100;
+		Set<Long> ids = runWriters(numProcesses, numSchemas, "shared");
+		assertEquals(numProcesses * numSchemas, ids.size());
+
+		// none of the versions were overwritten by another writer
+		FileSchemaPersister persister = new FileSchemaPersister(schemaRoot);
+		persister.initialize();
+		long[] versions = persister.lookupSubjectVersions("shared");
+		assertEquals(numProcesses * numSchemas, versions.length);
+		Set<Long> versionIds = new HashSet<>();
+		for (long version : versions) {
+			versionIds.add(persister.lookupSubjectVersion("shared", version).getId());
+		}
+		assertEquals(ids, versionIds);
+	}
+
+	/**
+	 * Run the writer processes and return the ids of the schemas that they saved.
+	 */
+	private Set<Long> runWriters(int numProcesses, int numSchemas, String subject) throws Exception {
+		String javaPath = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<Process> processes = new ArrayList<>();
+		for (int i = 0; i < numProcesses; i++) {
+			List<String> command = new ArrayList<>(Arrays.asList(javaPath, "-cp",
+					System.getProperty("java.class.path"), LeasedSchemaIdAllocatorTest.class.getName(),
+					SCHEMAS_ROOT_DIR, "writer" + i, Integer.toString(numSchemas)));
+			if (subject != null) {
+				command.add(subject);
+			}
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectErrorStream(true);
+			processes.add(builder.start());
+		}
+
+		Set<Long> ids = new HashSet<>();
+		for (Process process : processes) {
+			try (BufferedReader reader =
+					new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					long id = Long.parseLong(line);
+					assertTrue("id " + id + " was handed out twice", ids.add(id));
+				}
+			}
+			assertEquals(0, process.waitFor());
+		}
+		return ids;
+	}
+
+	/**
+	 * Writer process for {@link #runWriters(int, int, String)} which prints the ids of the schemas that it saves. The
+	 * schemas are saved to the writer's own subject unless a shared subject is given.
+	 */
+	public static void main(String[] args) throws IOException {
+		File rootDir = new File(args[0]);
+		String name = args[1];
+		int numSchemas = Integer.parseInt(args[2]);
+		String subject = (args.length > 3 ? args[3] : name);
+		FileSchemaPersister persister = new FileSchemaPersister(rootDir,
+				new LeasedSchemaIdAllocator(new File(rootDir, LeasedSchemaIdAllocator.DEFAULT_LEASE_FILE_NAME),
+						BLOCK_SIZE));
+		persister.initialize();
+		for (int i = 0; i < numSchemas; i++) {
+			SchemaDetails details = persister.saveSchema(subject, "schema-" + name + "-" + i);
+			System.out.println(details.getId());
+		}
+	}
+
+	private void deleteDir(File dir) {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				deleteDir(file);
+			} else {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
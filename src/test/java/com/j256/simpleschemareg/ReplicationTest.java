@@ -0,0 +1,261 @@
+package com.j256.simpleschemareg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simpleschemareg.entities.ReplicationEntry;
+import com.j256.simpleschemareg.entities.SchemaDetails;
+
+public class ReplicationTest {
+
+	private static final String ROOT_DIR = "target/" + ReplicationTest.class.getSimpleName();
+	private static final long WAIT_MILLIS = 10000;
+
+	private final File rootDir = new File(ROOT_DIR);
+	private ReplicationLog log;
+	private SchemaPersister leaderPersister;
+	private FileSchemaPersister followerPersister;
+	private Server leaderServer;
+	private Server followerServer;
+	private String leaderUrl;
+	private String followerUrl;
+	private ReplicationFollower follower;
+
+	@Before
+	public void before() throws Exception {
+		if (rootDir.isDirectory()) {
+			deleteDir(rootDir);
+		}
+		FileSchemaPersister persister = new FileSchemaPersister(new File(rootDir, "leader"));
+		persister.initialize();
+		log = new ReplicationLog(10);
+		leaderPersister = new ReplicatingSchemaPersister(persister, log);
+		SchemaRegHandler leaderHandler = new SchemaRegHandler(leaderPersister, null, false, false);
+		leaderHandler.setReplicationLog(log);
+		leaderServer = new Server();
+		leaderServer.setHandler(leaderHandler);
+		leaderUrl = "http://localhost:" + startServer(leaderServer);
+
+		followerPersister = new FileSchemaPersister(new File(rootDir, "follower"));
+		followerPersister.initialize();
+		SchemaRegHandler followerHandler = new SchemaRegHandler(followerPersister, null, false, false);
+		followerHandler.setLeaderUrl(leaderUrl);
+		followerServer = new Server();
+		followerServer.setHandler(followerHandler);
+		followerUrl = "http://localhost:" + startServer(followerServer);
+	}
+
+	@After
+	public void after() throws Exception {
+		if (follower != null) {
+			follower.stop();
+		}
+		leaderServer.stop();
+		followerServer.stop();
+	}
+
+	@Test
+	public void testSnapshotThenLog() throws Exception {
+		SchemaDetails details1 = leaderPersister.saveSchema("foo", "schema1");
+		leaderPersister.saveSchema("foo", "schema2");
+		leaderPersister.saveSchema("bar", "schema1");
+		// duplicate does not get logged
+		leaderPersister.saveSchema("foo", "schema1");
+		assertEquals(3, log.getNextOffset());
+
+		startFollower();
+		assertTrue(follower.waitForOffset(3, WAIT_MILLIS));
+		assertArrayEquals(new String[] { "bar", "foo" }, followerPersister.lookupSubjects());
+		assertArrayEquals(new long[] { 1, 2 }, followerPersister.lookupSubjectVersions("foo"));
+		SchemaDetails details = followerPersister.lookupSubjectVersion("bar", 1);
+		assertNotNull(details);
+		assertEquals(details1.getId(), details.getId());
+		assertEquals("schema1", details.getSchema());
+
+		// now changes are streamed
+		SchemaDetails details3 = leaderPersister.saveSchema("foo", "schema3");
+		leaderPersister.deleteSubjectVersion("foo", 2, true);
+		leaderPersister.deleteSubject("bar");
+		assertTrue(follower.waitForOffset(log.getNextOffset(), WAIT_MILLIS));
+		assertArrayEquals(new long[] { 1, 3 }, followerPersister.lookupSubjectVersions("foo"));
+		assertEquals(details3.getId(), followerPersister.lookupSubjectVersion("foo", 3).getId());
+		assertNull(followerPersister.lookupSubjectVersion("foo", 2));
+		assertNull(leaderPersister.lookupSubjectVersions("bar"));
+		assertNull(followerPersister.lookupSubjectVersions("bar"));
+
+		// reads are served by the follower
+		assertEquals(HttpStatus.OK_200, request("GET", followerUrl + "/schemas/ids/" + details3.getId(), null));
+		assertEquals(HttpStatus.OK_200, request("POST", followerUrl + "/subjects/foo", "{\"schema\":\"schema3\"}"));
+		// but changes are not
+		assertEquals(HttpStatus.METHOD_NOT_ALLOWED_405,
+				request("POST", followerUrl + "/subjects/foo/versions", "{\"schema\":\"schema4\"}"));
+		assertEquals(HttpStatus.METHOD_NOT_ALLOWED_405, request("DELETE", followerUrl + "/subjects/foo", null));
+		assertNull(followerPersister.lookupSchema("schema4"));
+	}
+
+	@Test
+	public void testReclaim() throws Exception {
+		leaderPersister.saveSchema("foo", "schema1");
+		// not referenced by any version
+		leaderPersister.saveSchema(null, 0, 100, "schema2");
+		startFollower();
+		assertTrue(follower.waitForOffset(log.getNextOffset(), WAIT_MILLIS));
+		assertEquals("schema2", followerPersister.lookupSchemaId(100).getSchema());
+
+		SchemaReclaimer reclaimer =
+				new SchemaReclaimer((ReplicatingSchemaPersister) leaderPersister, 0, 60 * 60 * 1000, false);
+		assertEquals(1, reclaimer.reclaim().getIdCount());
+		assertNull(leaderPersister.lookupSchemaId(100));
+		// the follower sees the reclaimed schema-id
+		assertTrue(follower.waitForOffset(log.getNextOffset(), WAIT_MILLIS));
+		assertNull(followerPersister.lookupSchemaId(100));
+		assertEquals("schema1", followerPersister.lookupSubjectVersion("foo", 1).getSchema());
+	}
+
+	@Test
+	public void testFallenBehind() throws Exception {
+		leaderPersister.saveSchema("foo", "schema0");
+		startFollower();
+		assertTrue(follower.waitForOffset(1, WAIT_MILLIS));
+
+		// stop the follower and then make more changes than the log holds
+		follower.stop();
+		long offset = follower.getOffset();
+		follower = null;
+		for (int i = 1; i <= 20; i++) {
+			leaderPersister.saveSchema("foo", "schema" + i);
+		}
+		assertEquals(HttpStatus.GONE_410,
+				request("GET", leaderUrl + "/replication/log?epoch=" + log.getEpoch() + "&from=" + offset, null));
+		assertEquals(HttpStatus.GONE_410, request("GET", leaderUrl + "/replication/log?epoch=1&from=" + 20, null));
+
+		// a new follower catches up from another snapshot
+		startFollower();
+		assertTrue(follower.waitForOffset(log.getNextOffset(), WAIT_MILLIS));
+		assertEquals(21, followerPersister.lookupSubjectVersions("foo").length);
+		assertEquals("schema20", followerPersister.lookupSubjectVersion("foo", 21).getSchema());
+	}
+
+	@Test
+	public void testFallenBehindDeletes() throws Exception {
+		leaderPersister.saveSchema("foo", "schema1");
+		leaderPersister.saveSchema("foo", "schema2");
+		leaderPersister.saveSchema("bar", "schema3");
+		leaderPersister.saveSchema(null, 0, 100, "schema4");
+		startFollower();
+		assertTrue(follower.waitForOffset(log.getNextOffset(), WAIT_MILLIS));
+		assertEquals("schema4", followerPersister.lookupSchemaId(100).getSchema());
+
+		// the follower's poll waits until the deletes have fallen out of the log so it has to reload a snapshot
+		synchronized (log) {
+			leaderPersister.deleteSubject("bar");
+			leaderPersister.deleteSubjectVersion("foo", 2, false);
+			leaderPersister.deleteSchemaId(100);
+			for (int i = 0; i < 20; i++) {
+				leaderPersister.saveSchema("baz", "schema-baz" + i);
+			}
+		}
+		assertTrue(follower.waitForOffset(log.getNextOffset(), WAIT_MILLIS));
+		assertArrayEquals(new String[] { "baz", "foo" }, followerPersister.lookupSubjects());
+		assertNull(followerPersister.lookupSubjectVersions("bar"));
+		assertArrayEquals(new long[] { 1 }, followerPersister.lookupSubjectVersions("foo"));
+		assertNull(followerPersister.lookupSubjectVersion("foo", 2));
+		assertNull(followerPersister.lookupSchemaId(100));
+		assertEquals(20, followerPersister.lookupSubjectVersions("baz").length);
+	}
+
+	@Test
+	public void testApplyIdempotent() throws Exception {
+		ReplicationEntry save = ReplicationEntry.save("foo", 5, 7, "schema");
+		ReplicationFollower.apply(followerPersister, save);
+		ReplicationFollower.apply(followerPersister, save);
+		assertArrayEquals(new long[] { 5 }, followerPersister.lookupSubjectVersions("foo"));
+		assertEquals(7, followerPersister.lookupSubjectVersion("foo", 5).getId());
+
+		ReplicationEntry delete = ReplicationEntry.deleteVersion("foo", 5, true);
+		ReplicationFollower.apply(followerPersister, delete);
+		ReplicationFollower.apply(followerPersister, delete);
+		assertNull(followerPersister.lookupSubjectVersion("foo", 5));
+		assertNull(followerPersister.lookupSchemaId(7));
+	}
+
+	@Test
+	public void testLogRead() throws Exception {
+		ReplicationLog log = new ReplicationLog(3);
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i, log.append(ReplicationEntry.deleteId(i)));
+		}
+		assertNull(log.read(1, 10, 0));
+		List<ReplicationEntry> entries = log.read(3, 10, 0);
+		assertEquals(2, entries.size());
+		assertEquals(3, entries.get(0).getOffset());
+		assertEquals(4, entries.get(1).getId());
+		assertEquals(1, log.read(2, 1, 0).size());
+		assertTrue(log.read(5, 10, 10).isEmpty());
+		assertNull(log.read(6, 10, 0));
+	}
+
+	private void startFollower() {
+		follower = new ReplicationFollower(leaderUrl, followerPersister, false);
+		follower.setPollWaitMillis(100);
+		Thread thread = new Thread(follower);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private int startServer(Server server) throws Exception {
+		ServerConnector connector = new ServerConnector(server);
+		connector.setHost("localhost");
+		server.addConnector(connector);
+		server.start();
+		return connector.getLocalPort();
+	}
+
+	private int request(String method, String url, String body) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		conn.setRequestMethod(method);
+		if (body != null) {
+			conn.setDoOutput(true);
+			try (OutputStream output = conn.getOutputStream();) {
+				output.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		int status = conn.getResponseCode();
+		InputStream input = (status < 400 ? conn.getInputStream() : conn.getErrorStream());
+		if (input != null) {
+			input.close();
+		}
+		conn.disconnect();
+		return status;
+	}
+
+	private void deleteDir(File dir) {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				deleteDir(file);
+			} else {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
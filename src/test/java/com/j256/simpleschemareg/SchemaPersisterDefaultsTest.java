@@ -0,0 +1,219 @@
+package com.j256.simpleschemareg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simpleschemareg.entities.ExportEntry;
+import com.j256.simpleschemareg.entities.ImportResponse;
+import com.j256.simpleschemareg.entities.SchemaDetails;
+import com.j256.simpleschemareg.entities.SubjectVersion;
+
+/**
+ * Tests the default methods of the persister interface with a persister that only implements the abstract methods.
+ */
+public class SchemaPersisterDefaultsTest {
+
+	private static final String ROOT_DIR = "target/" + SchemaPersisterDefaultsTest.class.getSimpleName();
+
+	private final File rootDir = new File(ROOT_DIR);
+	private SchemaPersister persister;
+
+	@Before
+	public void before() throws IOException {
+		if (rootDir.isDirectory()) {
+			deleteDir(rootDir);
+		}
+		persister = new MinimalPersister(new FileSchemaPersister(rootDir));
+		persister.initialize();
+	}
+
+	@Test
+	public void testLookupSchemaDigest() throws IOException {
+		persister = new IteratingPersister(new FileSchemaPersister(rootDir));
+		persister.initialize();
+		SchemaDetails details = persister.saveSchema("foo", "schema1");
+		persister.saveSchema("foo", "schema2");
+		byte[] digest = FileSchemaPersister.digestFromSchema("schema1");
+		assertEquals(details.getId(), persister.lookupSchemaDigest(digest).getId());
+		assertNull(persister.lookupSchemaDigest(FileSchemaPersister.digestFromSchema("schema3")));
+
+		assertEquals(1, persister.lookupSchemaDigest("foo", digest).getVersion());
+		assertEquals(0, persister.lookupSchemaDigest("bar", digest).getVersion());
+		assertNull(persister.lookupSchemaDigest("foo", FileSchemaPersister.digestFromSchema("schema3")));
+	}
+
+	@Test
+	public void testLookupSchemaIdVersions() throws IOException {
+		long id = persister.saveSchema("foo", "schema1").getId();
+		persister.saveSchema("foo", "schema2");
+		persister.saveSchema("bar", "schema1");
+		assertArrayEquals(new SubjectVersion[] { new SubjectVersion("bar", 1), new SubjectVersion("foo", 1) },
+				persister.lookupSchemaIdVersions(id));
+		persister.deleteSubjectVersion("bar", 1, false);
+		assertArrayEquals(new SubjectVersion[] { new SubjectVersion("foo", 1) }, persister.lookupSchemaIdVersions(id));
+		assertNull(persister.lookupSchemaIdVersions(1000));
+	}
+
+	@Test
+	public void testLookupLatestSubjectVersion() throws IOException {
+		assertNull(persister.lookupLatestSubjectVersion("foo"));
+		persister.saveSchema("foo", "schema1");
+		persister.saveSchema("foo", "schema2");
+		assertEquals("schema2", persister.lookupLatestSubjectVersion("foo").getSchema());
+		persister.deleteSubjectVersion("foo", 2, false);
+		assertEquals(1, persister.lookupLatestSubjectVersion("foo").getVersion());
+		persister.deleteSubject("foo");
+		assertNull(persister.lookupLatestSubjectVersion("foo"));
+	}
+
+	@Test
+	public void testImportSchemas() throws IOException {
+		persister = new IteratingPersister(new FileSchemaPersister(rootDir));
+		persister.initialize();
+		long id = persister.saveSchema("foo", "schema1").getId();
+		ImportResponse response = persister.importSchemas(Arrays.asList(ExportEntry.schema(10, "schema2"),
+				ExportEntry.version("bar", 1, 10), ExportEntry.version("foo", 1, id),
+				ExportEntry.schema(id, "schema1")));
+		assertEquals(1, response.getSchemaCount());
+		assertEquals(1, response.getVersionCount());
+		assertEquals(id, persister.lookupSubjectVersion("foo", 1).getId());
+
+		try {
+			persister.importSchemas(
+					Arrays.asList(ExportEntry.version("baz", 1, 10), ExportEntry.schema(id, "schema3")));
+			fail("should have thrown");
+		} catch (SchemaIdConflictException sice) {
+			assertEquals(id, sice.getId());
+		}
+		assertNull(persister.lookupSubjectVersions("baz"));
+	}
+
+	@Test
+	public void testUnsupported() throws IOException {
+		try {
+			persister.saveSchema("foo", 1, 10, "schema1");
+			fail("should have thrown");
+		} catch (UnsupportedOperationException uoe) {
+			// expected
+		}
+		try {
+			persister.schemaIterator();
+			fail("should have thrown");
+		} catch (UnsupportedOperationException uoe) {
+			// expected
+		}
+		assertNull(persister.lookupSchemaId(10));
+	}
+
+	private void deleteDir(File dir) {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				deleteDir(file);
+			} else {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Persister that only implements the abstract methods of the interface.
+	 */
+	private static class MinimalPersister implements SchemaPersister {
+
+		private final SchemaPersister delegate;
+
+		public MinimalPersister(SchemaPersister delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void initialize() throws IOException {
+			delegate.initialize();
+		}
+
+		@Override
+		public String[] lookupSubjects() {
+			return delegate.lookupSubjects();
+		}
+
+		@Override
+		public SchemaDetails lookupSchema(String schema) {
+			return delegate.lookupSchema(schema);
+		}
+
+		@Override
+		public SchemaDetails lookupSchema(String subject, String schema) throws IOException {
+			return delegate.lookupSchema(subject, schema);
+		}
+
+		@Override
+		public SchemaDetails lookupSchemaId(long id) {
+			return delegate.lookupSchemaId(id);
+		}
+
+		@Override
+		public SchemaDetails lookupSubjectVersion(String subject, long version) throws IOException {
+			return delegate.lookupSubjectVersion(subject, version);
+		}
+
+		@Override
+		public long[] lookupSubjectVersions(String subject) {
+			return delegate.lookupSubjectVersions(subject);
+		}
+
+		@Override
+		public void deleteSchemaId(long id) {
+			delegate.deleteSchemaId(id);
+		}
+
+		@Override
+		public long[] deleteSubject(String subject) {
+			return delegate.deleteSubject(subject);
+		}
+
+		@Override
+		public SchemaDetails deleteSubjectVersion(String subject, long version, boolean permanent) throws IOException {
+			return delegate.deleteSubjectVersion(subject, version, permanent);
+		}
+
+		@Override
+		public SchemaDetails saveSchema(String subject, String schema) throws IOException {
+			return delegate.saveSchema(subject, schema);
+		}
+
+	}
+
+	/**
+	 * Persister that also implements the methods that the digest lookup and import defaults are built on.
+	 */
+	private static class IteratingPersister extends MinimalPersister {
+
+		private final SchemaPersister delegate;
+
+		public IteratingPersister(SchemaPersister delegate) {
+			super(delegate);
+			this.delegate = delegate;
+		}
+
+		@Override
+		public SchemaDetails saveSchema(String subject, long version, long id, String schema) throws IOException {
+			return delegate.saveSchema(subject, version, id, schema);
+		}
+
+		@Override
+		public Iterator<SchemaDetails> schemaIterator() {
+			return delegate.schemaIterator();
+		}
+	}
+}
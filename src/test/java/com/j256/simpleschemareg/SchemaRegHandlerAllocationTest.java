@@ -0,0 +1,165 @@
+package com.j256.simpleschemareg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.j256.simpleschemareg.entities.SchemaInfo;
+
+/**
+ * Verifies that each of the request paths of the {@link SchemaRegHandler} stays under its declared allocation budget so
+ * that optimizations of the hot paths don't silently regress. Bytes are measured with the per-thread allocation counter
+ * of the JVM. If you improve a path, lower its budget.
+ */
+public class SchemaRegHandlerAllocationTest {
+
+	private static final String SCHEMAS_ROOT_DIR = "target/" + SchemaRegHandlerAllocationTest.class.getSimpleName();
+	private static final int WARMUP_ITERATIONS = 5000;
+	private static final int MEASURE_ITERATIONS = 1000;
+	private static final int SCHEMA_COUNT = 20;
+
+	// budgets in bytes allocated per request
+	private static final long GET_SUBJECTS_BUDGET = 1024;
+	private static final long GET_SCHEMA_ID_BUDGET = 1536;
+	private static final long GET_SCHEMA_ID_SCHEMA_BUDGET = 1536;
+	private static final long GET_SUBJECT_VERSION_BUDGET = 2560;
+	private static final long GET_SUBJECT_VERSIONS_BUDGET = 8192;
+	private static final long GET_SUBJECT_VERSION_SCHEMA_BUDGET = 2560;
+	private static final long POST_CHECK_BUDGET = 49152;
+	private static final long POST_REGISTER_DUPLICATE_BUDGET = 49152;
+	private static final long UNKNOWN_PATH_BUDGET = 4096;
+
+	private final File schemaRoot = new File(SCHEMAS_ROOT_DIR);
+	private final StubResponse response = new StubResponse();
+	private com.sun.management.ThreadMXBean threadBean;
+	private SchemaRegHandler handler;
+	private String subject;
+	private String schemaJson;
+
+	@Before
+	public void before() throws IOException {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		threadBean = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+
+		deleteDir(schemaRoot);
+		FileSchemaPersister persister = new FileSchemaPersister(schemaRoot);
+		persister.initialize();
+		subject = "foo";
+		String schema = null;
+		for (int i = 0; i < SCHEMA_COUNT; i++) {
+			schema = "{\"type\":\"record\",\"name\":\"Record" + i + "\",\"fields\":[{\"name\":\"id\",\"type\":\"long\"}]}";
+			persister.saveSchema(subject, schema);
+		}
+		schemaJson = new Gson().toJson(new SchemaInfo(schema));
+		handler = new SchemaRegHandler(persister, null, false, false);
+	}
+
+	@After
+	public void after() {
+		deleteDir(schemaRoot);
+	}
+
+	@Test
+	public void testGetSubjects() throws IOException {
+		assertBudget(new StubRequest("GET", "/subjects"), GET_SUBJECTS_BUDGET);
+	}
+
+	@Test
+	public void testGetSchemaId() throws IOException {
+		assertBudget(new StubRequest("GET", "/schemas/ids/" + SCHEMA_COUNT), GET_SCHEMA_ID_BUDGET);
+	}
+
+	@Test
+	public void testGetSchemaIdSchema() throws IOException {
+		assertBudget(new StubRequest("GET", "/schemas/ids/" + SCHEMA_COUNT + "/schema"), GET_SCHEMA_ID_SCHEMA_BUDGET);
+	}
+
+	@Test
+	public void testGetSubjectVersion() throws IOException {
+		assertBudget(new StubRequest("GET", "/subjects/" + subject + "/versions/" + SCHEMA_COUNT),
+				GET_SUBJECT_VERSION_BUDGET);
+	}
+
+	@Test
+	public void testGetSubjectVersions() throws IOException {
+		assertBudget(new StubRequest("GET", "/subjects/" + subject + "/versions"), GET_SUBJECT_VERSIONS_BUDGET);
+	}
+
+	@Test
+	public void testGetSubjectVersionSchema() throws IOException {
+		assertBudget(new StubRequest("GET", "/subjects/" + subject + "/versions/" + SCHEMA_COUNT + "/schema"),
+				GET_SUBJECT_VERSION_SCHEMA_BUDGET);
+	}
+
+	@Test
+	public void testPostCheck() throws IOException {
+		StubRequest request = new StubRequest("POST", "/subjects/" + subject);
+		request.setBody(schemaJson);
+		assertBudget(request, POST_CHECK_BUDGET);
+	}
+
+	@Test
+	public void testPostRegisterDuplicate() throws IOException {
+		StubRequest request = new StubRequest("POST", "/subjects/" + subject + "/versions");
+		request.setBody(schemaJson);
+		assertBudget(request, POST_REGISTER_DUPLICATE_BUDGET);
+	}
+
+	@Test
+	public void testUnknownPath() throws IOException {
+		StubRequest request = new StubRequest("GET", "/unknown");
+		assertBudget(request, UNKNOWN_PATH_BUDGET, HttpStatus.BAD_REQUEST_400);
+	}
+
+	private void assertBudget(StubRequest request, long budget) throws IOException {
+		assertBudget(request, budget, HttpStatus.OK_200);
+	}
+
+	private void assertBudget(StubRequest request, long budget, int expectedStatus) throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			handle(request);
+		}
+		assertEquals(expectedStatus, response.getStatus());
+
+		long threadId = Thread.currentThread().getId();
+		long before = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+			handle(request);
+		}
+		long perRequest = (threadBean.getThreadAllocatedBytes(threadId) - before) / MEASURE_ITERATIONS;
+		assertTrue(request.getMethod() + " " + request.getPathInfo() + " allocated " + perRequest
+				+ " bytes per request which is over its budget of " + budget, perRequest <= budget);
+	}
+
+	private void handle(StubRequest request) throws IOException {
+		response.reset();
+		handler.handle("target", request, request, response);
+	}
+
+	private void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					deleteDir(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+}
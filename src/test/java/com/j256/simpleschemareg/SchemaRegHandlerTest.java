@@ -6,10 +6,13 @@ import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.io.StringWriter;
 
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.server.Request;
@@ -18,9 +21,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.google.gson.Gson;
+import com.j256.simpleschemareg.entities.EntityTypeAdapters;
 import com.j256.simpleschemareg.entities.ErrorResponse;
+import com.j256.simpleschemareg.entities.IdResponse;
+import com.j256.simpleschemareg.entities.SchemaBatchResponse;
 import com.j256.simpleschemareg.entities.SchemaDetails;
 import com.j256.simpleschemareg.entities.SchemaInfo;
+import com.j256.simpleschemareg.entities.SubjectSchema;
+import com.j256.simpleschemareg.entities.SubjectVersion;
 
 public class SchemaRegHandlerTest {
 
@@ -112,8 +120,9 @@ public class SchemaRegHandlerTest {
 
 		expect(baseRequest.getMethod()).andReturn("GET");
 		expect(request.getPathInfo()).andReturn("/subjects");
+		expectPageParameters(null, null, null, null);
 		String[] subjects = new String[] { "foo", "bar" };
-		expect(persister.lookupSubjects()).andReturn(subjects);
+		expect(persister.lookupSubjects(null, null, 0, 0)).andReturn(subjects);
 
 		replay(persister, baseRequest, request, response);
 		handler.handle("target", baseRequest, request, response);
@@ -267,6 +276,7 @@ public class SchemaRegHandlerTest {
 		expect(baseRequest.getMethod()).andReturn("GET");
 		String subject = "foo";
 		expect(request.getPathInfo()).andReturn("/subjects/" + subject + "/versions");
+		expectPageParameters(null, null, null, null);
 		long[] versions = new long[] { 1, 4, 5, 8 };
 		expect(persister.lookupSubjectVersions(subject)).andReturn(versions);
 
@@ -284,6 +294,7 @@ public class SchemaRegHandlerTest {
 		expect(baseRequest.getMethod()).andReturn("GET");
 		String subject = "foo";
 		expect(request.getPathInfo()).andReturn("/subjects/" + subject + "/versions");
+		expectPageParameters(null, null, null, null);
 		expect(persister.lookupSubjectVersions(subject)).andReturn(null);
 		response.setStatus(HttpStatus.NOT_FOUND_404);
 
@@ -328,4 +339,221 @@ public class SchemaRegHandlerTest {
 		ErrorResponse errorResponse = gson.fromJson(stringOutput.toString(), ErrorResponse.class);
 		assertEquals(HttpStatus.BAD_REQUEST_400, errorResponse.getErrorCode());
 	}
+
+	@Test
+	public void testDeleteUnknownSubject() throws IOException {
+		expect(baseRequest.getMethod()).andReturn("DELETE");
+		expect(request.getPathInfo()).andReturn("/subjects/foo");
+		expect(persister.deleteSubject("foo")).andReturn(null);
+		response.setStatus(HttpStatus.NOT_FOUND_404);
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		ErrorResponse errorResponse = gson.fromJson(stringOutput.toString(), ErrorResponse.class);
+		assertEquals(HttpStatus.NOT_FOUND_404, errorResponse.getErrorCode());
+	}
+
+	@Test
+	public void testBatchRegister() throws IOException {
+		expect(baseRequest.getMethod()).andReturn("POST");
+		expect(request.getPathInfo()).andReturn("/subjects/versions/batch");
+		expect(request.getReader()).andReturn(new BufferedReader(new StringReader(
+				"[{\"subject\":\"foo\",\"schema\":\"schema1\"},{\"subject\":\"bar\",\"schema\":\"schema2\"}]")));
+		Capture<SubjectSchema[]> capture = EasyMock.newCapture();
+		expect(persister.saveSchemas(EasyMock.capture(capture))).andReturn(new SchemaDetails[] {
+				new SchemaDetails(new SchemaDetails("schema1", new byte[0], 10), 1),
+				new SchemaDetails(new SchemaDetails("schema2", new byte[0], 11), 3) });
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		assertEquals(2, capture.getValue().length);
+		assertEquals("bar", capture.getValue()[1].getSubject());
+		assertEquals("schema2", capture.getValue()[1].getSchema());
+		IdResponse[] idResponses = gson.fromJson(stringOutput.toString(), IdResponse[].class);
+		assertEquals(2, idResponses.length);
+		assertEquals(10, idResponses[0].getId());
+		assertEquals(11, idResponses[1].getId());
+	}
+
+	@Test
+	public void testBatchRegisterMissingSchema() throws IOException {
+		expect(baseRequest.getMethod()).andReturn("POST");
+		expect(request.getPathInfo()).andReturn("/subjects/versions/batch");
+		expect(request.getReader()).andReturn(new BufferedReader(new StringReader(
+				"[{\"subject\":\"foo\",\"schema\":\"schema1\"},{\"subject\":\"bar\"}]")));
+		response.setStatus(HttpStatus.BAD_REQUEST_400);
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		ErrorResponse errorResponse = gson.fromJson(stringOutput.toString(), ErrorResponse.class);
+		assertEquals(HttpStatus.BAD_REQUEST_400, errorResponse.getErrorCode());
+	}
+
+	@Test
+	public void testSchemaIdsBatch() throws IOException {
+		expect(baseRequest.getMethod()).andReturn("POST");
+		expect(request.getPathInfo()).andReturn("/schemas/ids/batch");
+		expect(request.getReader()).andReturn(new BufferedReader(new StringReader("[3, 4, 5]")));
+		expect(persister.lookupSchemaId(3)).andReturn(new SchemaDetails("schema3", new byte[0], 3));
+		expect(persister.lookupSchemaId(4)).andReturn(null);
+		expect(persister.lookupSchemaId(5)).andReturn(new SchemaDetails("schema5", new byte[0], 5));
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		assertEquals("{\"schemas\":[{\"id\":3,\"schema\":\"schema3\"},{\"id\":5,\"schema\":\"schema5\"}],"
+				+ "\"missing\":[4]}", stringOutput.toString());
+		SchemaBatchResponse batchResponse = gson.fromJson(stringOutput.toString(), SchemaBatchResponse.class);
+		assertArrayEquals(new long[] { 3, 5 }, batchResponse.getIds());
+		assertArrayEquals(new String[] { "schema3", "schema5" }, batchResponse.getSchemas());
+		assertArrayEquals(new long[] { 4 }, batchResponse.getMissingIds());
+	}
+
+	@Test
+	public void testSubjectDigest() throws IOException {
+		byte[] digest = FileSchemaPersister.digestFromSchema("schema1");
+		expect(baseRequest.getMethod()).andReturn("GET");
+		expect(request.getPathInfo()).andReturn("/subjects/foo/digest/" + EntityTypeAdapters.digestToHex(digest));
+		expect(persister.lookupSchemaDigest(EasyMock.eq("foo"), EasyMock.aryEq(digest)))
+				.andReturn(new SchemaDetails(new SchemaDetails("schema1", digest, 10), 2));
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		assertEquals("{\"subject\":\"foo\",\"version\":2,\"id\":10}", stringOutput.toString());
+	}
+
+	@Test
+	public void testSchemaDigestNotFound() throws IOException {
+		byte[] digest = FileSchemaPersister.digestFromSchema("schema1");
+		expect(baseRequest.getMethod()).andReturn("GET");
+		expect(request.getPathInfo()).andReturn("/schemas/digest/" + EntityTypeAdapters.digestToHex(digest));
+		expect(persister.lookupSchemaDigest(EasyMock.aryEq(digest))).andReturn(null);
+		response.setStatus(HttpStatus.NOT_FOUND_404);
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		ErrorResponse errorResponse = gson.fromJson(stringOutput.toString(), ErrorResponse.class);
+		assertEquals(HttpStatus.NOT_FOUND_404, errorResponse.getErrorCode());
+	}
+
+	@Test
+	public void testSchemaDigestInvalid() throws IOException {
+		expect(baseRequest.getMethod()).andReturn("GET");
+		expect(request.getPathInfo()).andReturn("/schemas/digest/abc");
+		response.setStatus(HttpStatus.BAD_REQUEST_400);
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		ErrorResponse errorResponse = gson.fromJson(stringOutput.toString(), ErrorResponse.class);
+		assertEquals(HttpStatus.BAD_REQUEST_400, errorResponse.getErrorCode());
+	}
+
+	@Test
+	public void testSchemaIdVersions() throws IOException {
+		expect(baseRequest.getMethod()).andReturn("GET");
+		expect(request.getPathInfo()).andReturn("/schemas/ids/10/versions");
+		expect(persister.lookupSchemaIdVersions(10))
+				.andReturn(new SubjectVersion[] { new SubjectVersion("bar", 2), new SubjectVersion("foo", 1) });
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		assertEquals("[{\"subject\":\"bar\",\"version\":2},{\"subject\":\"foo\",\"version\":1}]",
+				stringOutput.toString());
+	}
+
+	@Test
+	public void testLatestVersion() throws IOException {
+		expect(baseRequest.getMethod()).andReturn("GET");
+		expect(request.getPathInfo()).andReturn("/subjects/foo/versions/latest");
+		expect(persister.lookupLatestSubjectVersion("foo"))
+				.andReturn(new SchemaDetails(new SchemaDetails("schema1", new byte[0], 10), 3));
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		assertEquals("{\"subject\":\"foo\",\"version\":3,\"id\":10,\"schema\":\"schema1\"}",
+				stringOutput.toString());
+	}
+
+	@Test
+	public void testLatestVersionSchemaNotFound() throws IOException {
+		expect(baseRequest.getMethod()).andReturn("GET");
+		expect(request.getPathInfo()).andReturn("/subjects/foo/versions/latest/schema");
+		expect(persister.lookupLatestSubjectVersion("foo")).andReturn(null);
+		response.setStatus(HttpStatus.NOT_FOUND_404);
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		ErrorResponse errorResponse = gson.fromJson(stringOutput.toString(), ErrorResponse.class);
+		assertEquals(HttpStatus.NOT_FOUND_404, errorResponse.getErrorCode());
+	}
+
+	@Test
+	public void testGetSubjectsPage() throws IOException {
+		expect(baseRequest.getMethod()).andReturn("GET");
+		expect(request.getPathInfo()).andReturn("/subjects");
+		expectPageParameters("foo", "foo-2", "1", "2");
+		String[] subjects = new String[] { "foo-4", "foo-5" };
+		expect(persister.lookupSubjects("foo", "foo-2", 1, 2)).andReturn(subjects);
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		assertEquals("[\"foo-4\",\"foo-5\"]", stringOutput.toString());
+	}
+
+	@Test
+	public void testGetSubjectsBadLimit() throws IOException {
+		expect(baseRequest.getMethod()).andReturn("GET");
+		expect(request.getPathInfo()).andReturn("/subjects");
+		expectPageParameters(null, null, null, "lots");
+		response.setStatus(HttpStatus.BAD_REQUEST_400);
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		ErrorResponse errorResponse = gson.fromJson(stringOutput.toString(), ErrorResponse.class);
+		assertEquals(HttpStatus.BAD_REQUEST_400, errorResponse.getErrorCode());
+	}
+
+	@Test
+	public void testGetSubjectVersionsPage() throws IOException {
+		expect(baseRequest.getMethod()).andReturn("GET");
+		expect(request.getPathInfo()).andReturn("/subjects/foo/versions");
+		expectPageParameters(null, "4", "1", "1");
+		expect(persister.lookupSubjectVersions("foo")).andReturn(new long[] { 1, 4, 5, 8, 9 });
+
+		replay(persister, baseRequest, request, response);
+		handler.handle("target", baseRequest, request, response);
+		verify(persister, baseRequest, request, response);
+
+		assertArrayEquals(new long[] { 8 }, gson.fromJson(stringOutput.toString(), long[].class));
+	}
+
+	private void expectPageParameters(String prefix, String after, String offset, String limit) {
+		expect(request.getParameter("prefix")).andReturn(prefix).anyTimes();
+		expect(request.getParameter("after")).andReturn(after);
+		expect(request.getParameter("offset")).andReturn(offset);
+		expect(request.getParameter("limit")).andReturn(limit);
+	}
 }
@@ -0,0 +1,68 @@
+package com.j256.simpleschemareg;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jetty.server.Request;
+
+/**
+ * Light-weight request that can be fed to the {@link SchemaRegHandler} without a running server or the overhead of a
+ * mock. Used by the allocation tests and the benchmarks.
+ */
+public class StubRequest extends Request {
+
+	private String method;
+	private String pathInfo;
+	private String body;
+	private final Map<String, String> parameters = new HashMap<>();
+
+	public StubRequest() {
+		super(null, null);
+	}
+
+	public StubRequest(String method, String pathInfo) {
+		this();
+		this.method = method;
+		this.pathInfo = pathInfo;
+	}
+
+	@Override
+	public String getMethod() {
+		return method;
+	}
+
+	@Override
+	public void setMethod(String method) {
+		this.method = method;
+	}
+
+	@Override
+	public String getPathInfo() {
+		return pathInfo;
+	}
+
+	@Override
+	public void setPathInfo(String pathInfo) {
+		this.pathInfo = pathInfo;
+	}
+
+	@Override
+	public BufferedReader getReader() {
+		return new BufferedReader(new StringReader(body == null ? "" : body));
+	}
+
+	public void setBody(String body) {
+		this.body = body;
+	}
+
+	@Override
+	public String getParameter(String name) {
+		return parameters.get(name);
+	}
+
+	public void setParameter(String name, String value) {
+		parameters.put(name, value);
+	}
+}
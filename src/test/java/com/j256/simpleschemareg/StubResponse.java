@@ -0,0 +1,61 @@
+package com.j256.simpleschemareg;
+
+import java.io.CharArrayWriter;
+import java.io.PrintWriter;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Response;
+
+/**
+ * Light-weight response that captures the status and output written by the {@link SchemaRegHandler}. Call
+ * {@link #reset()} to reuse it for another request.
+ */
+public class StubResponse extends Response {
+
+	private final CharArrayWriter output = new CharArrayWriter();
+	private int status = HttpStatus.OK_200;
+	private String contentType;
+
+	public StubResponse() {
+		super(null, null);
+	}
+
+	@Override
+	public PrintWriter getWriter() {
+		return new PrintWriter(output);
+	}
+
+	@Override
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	@Override
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public void reset() {
+		output.reset();
+		status = HttpStatus.OK_200;
+		contentType = null;
+	}
+
+	/**
+	 * Return the output written to the response.
+	 */
+	public String getOutput() {
+		return output.toString();
+	}
+}
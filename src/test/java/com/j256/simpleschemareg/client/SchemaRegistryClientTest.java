@@ -0,0 +1,185 @@
+package com.j256.simpleschemareg.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simpleschemareg.FileSchemaPersister;
+import com.j256.simpleschemareg.SchemaRegHandler;
+import com.j256.simpleschemareg.entities.SchemaDetails;
+
+public class SchemaRegistryClientTest {
+
+	private static final String ROOT_DIR = "target/" + SchemaRegistryClientTest.class.getSimpleName();
+
+	private final File rootDir = new File(ROOT_DIR);
+	private final AtomicInteger idLookupCount = new AtomicInteger();
+	private final AtomicInteger saveCount = new AtomicInteger();
+	private volatile CountDownLatch lookupLatch;
+	private FileSchemaPersister persister;
+	private Server server;
+	private String url;
+
+	@Before
+	public void before() throws Exception {
+		if (rootDir.isDirectory()) {
+			deleteDir(rootDir);
+		}
+		persister = new FileSchemaPersister(rootDir) {
+			@Override
+			public SchemaDetails lookupSchemaId(long id) {
+				idLookupCount.incrementAndGet();
+				CountDownLatch latch = lookupLatch;
+				if (latch != null) {
+					try {
+						latch.await();
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.lookupSchemaId(id);
+			}
+
+			@Override
+			public SchemaDetails saveSchema(String subject, String schema) throws IOException {
+				saveCount.incrementAndGet();
+				return super.saveSchema(subject, schema);
+			}
+		};
+		persister.initialize();
+		server = new Server();
+		server.setHandler(new SchemaRegHandler(persister, null, false, false));
+		ServerConnector connector = new ServerConnector(server);
+		connector.setHost("localhost");
+		server.addConnector(connector);
+		server.start();
+		url = "http://localhost:" + connector.getLocalPort() + "/";
+	}
+
+	@After
+	public void after() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void testRegister() throws IOException {
+		SchemaRegistryClient client = new SchemaRegistryClient(url);
+		String schema = "{\"type\":\"string\",\"doc\":\"café\"}";
+		assertEquals(-1, client.lookupSchemaId("foo bar", schema));
+		long id = client.register("foo bar", schema);
+		assertEquals(1, saveCount.get());
+		assertEquals(id, client.register("foo bar", schema));
+		assertEquals(id, client.lookupSchemaId("foo bar", schema));
+		assertEquals(1, saveCount.get());
+		assertEquals(schema, persister.lookupSchemaId(id).getSchema());
+
+		// registered schemas are cached by id too
+		idLookupCount.set(0);
+		assertEquals(schema, client.getSchema(id));
+		assertEquals(0, idLookupCount.get());
+
+		// a new client looks up the registered schema by its digest
+		client = new SchemaRegistryClient(url);
+		assertEquals(id, client.lookupSchemaId("foo bar", schema));
+		assertEquals(-1, client.lookupSchemaId("other", schema));
+	}
+
+	@Test
+	public void testGetSchema() throws IOException {
+		long id = persister.saveSchema("foo", "schema1").getId();
+		SchemaRegistryClient client = new SchemaRegistryClient(url);
+		assertEquals("schema1", client.getSchema(id));
+		assertEquals("schema1", client.getSchema(id));
+		assertEquals(1, idLookupCount.get());
+		assertNull(client.getSchema(1000));
+	}
+
+	@Test
+	public void testPrefetch() throws IOException {
+		long id1 = persister.saveSchema("foo", "schema1").getId();
+		long id2 = persister.saveSchema("bar", "schema2").getId();
+		SchemaRegistryClient client = new SchemaRegistryClient(url);
+		assertEquals(1, client.prefetch(id1, id2, 1000));
+		assertEquals(2, client.getCachedSchemaCount());
+		idLookupCount.set(0);
+		assertEquals("schema1", client.getSchema(id1));
+		assertEquals("schema2", client.getSchema(id2));
+		assertEquals(0, idLookupCount.get());
+		// already cached so no request
+		assertEquals(0, client.prefetch(id1, id2));
+		assertEquals(0, idLookupCount.get());
+	}
+
+	@Test
+	public void testBoundedCache() throws IOException {
+		long[] ids = new long[5];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = persister.saveSchema("foo", "schema" + i).getId();
+		}
+		SchemaRegistryClient client = new SchemaRegistryClient(url, 3);
+		assertEquals(0, client.prefetch(ids));
+		assertEquals(3, client.getCachedSchemaCount());
+		for (int i = 0; i < ids.length; i++) {
+			assertEquals("schema" + i, client.getSchema(ids[i]));
+		}
+		assertEquals(3, client.getCachedSchemaCount());
+	}
+
+	@Test
+	public void testCoalesceMisses() throws Exception {
+		final long id = persister.saveSchema("foo", "schema1").getId();
+		final SchemaRegistryClient client = new SchemaRegistryClient(url);
+		lookupLatch = new CountDownLatch(1);
+		int threadCount = 10;
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			List<Future<String>> futures = new ArrayList<>();
+			for (int i = 0; i < threadCount; i++) {
+				futures.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws IOException {
+						return client.getSchema(id);
+					}
+				}));
+			}
+			// give the other threads a chance to pile up behind the first request
+			Thread.sleep(200);
+			lookupLatch.countDown();
+			for (Future<String> future : futures) {
+				assertEquals("schema1", future.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, idLookupCount.get());
+		assertEquals(1, client.getCachedSchemaCount());
+	}
+
+	private void deleteDir(File dir) {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				deleteDir(file);
+			} else {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}